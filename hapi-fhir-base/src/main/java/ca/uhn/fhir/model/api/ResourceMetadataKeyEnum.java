@@ -38,6 +38,7 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
 import ca.uhn.fhir.model.valueset.BundleEntryTransactionMethodEnum;
+import ca.uhn.fhir.rest.server.StoredResourceBody;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 
 /**
@@ -331,6 +332,38 @@ public abstract class ResourceMetadataKeyEnum<T> implements Serializable {
 
 	};
 
+	/**
+	 * If present, contains the encoded form of the resource as it was stored by the server which loaded it.
+	 * A server may stream this directly to the client instead of encoding the resource again. See
+	 * {@link StoredResourceBody} for details.
+	 * <p>
+	 * Values for this key are of type <b>{@link StoredResourceBody}</b>
+	 * </p>
+	 */
+	public static final ResourceMetadataKeySupportingAnyResource<StoredResourceBody, StoredResourceBody> STORED_BODY = new ResourceMetadataKeySupportingAnyResource<StoredResourceBody, StoredResourceBody>("STORED_BODY") {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public StoredResourceBody get(IResource theResource) {
+			return (StoredResourceBody) theResource.getResourceMetadata().get(STORED_BODY);
+		}
+
+		@Override
+		public void put(IResource theResource, StoredResourceBody theObject) {
+			theResource.getResourceMetadata().put(STORED_BODY, theObject);
+		}
+
+		@Override
+		public StoredResourceBody get(IAnyResource theResource) {
+			return (StoredResourceBody) theResource.getUserData(STORED_BODY.name());
+		}
+
+		@Override
+		public void put(IAnyResource theResource, StoredResourceBody theObject) {
+			theResource.setUserData(STORED_BODY.name(), theObject);
+		}
+	};
+
 	/**
 	 * The value for this key is the list of tags associated with this resource
 	 * <p>
@@ -0,0 +1,103 @@
+package ca.uhn.fhir.parser;
+
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+abstract class BaseBundleEntryIterator implements IBundleEntryIterator {
+
+	private boolean myFinished;
+	private IBaseResource myNext;
+	private final Reader myReader;
+
+	BaseBundleEntryIterator(Reader theReader) {
+		myReader = theReader;
+	}
+
+	@Override
+	public void close() {
+		myFinished = true;
+		myNext = null;
+		IOUtils.closeQuietly(myReader);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (myNext == null && !myFinished) {
+			try {
+				myNext = readNextResource();
+			} catch (IOException e) {
+				close();
+				throw new DataFormatException("Failed to read Bundle: " + e.getMessage(), e);
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+			if (myNext == null) {
+				close();
+			}
+		}
+		return myNext != null;
+	}
+
+	@Override
+	public IBaseResource next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		IBaseResource retVal = myNext;
+		myNext = null;
+		return retVal;
+	}
+
+	/**
+	 * Reads and parses the next entry resource, or returns <code>null</code> if there are no more
+	 */
+	protected abstract IBaseResource readNextResource() throws IOException;
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * If Bundle.entry.fullUrl is populated, set the resource ID to that (this mirrors
+	 * what BaseParser#parseResource does when the whole Bundle is parsed)
+	 */
+	static void applyFullUrl(IBaseResource theResource, String theFullUrl) {
+		if (isNotBlank(theFullUrl)) {
+			String versionId = theResource.getIdElement().getVersionIdPart();
+			theResource.setId(theFullUrl);
+			if (isNotBlank(versionId) && theResource.getIdElement().hasVersionIdPart() == false) {
+				theResource.setId(theResource.getIdElement().withVersion(versionId));
+			}
+		}
+	}
+
+}
@@ -351,6 +351,8 @@ public abstract class BaseParser implements IParser {
 
 	protected abstract void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
+	protected abstract IBundleEntryIterator doParseBundleEntries(Reader theReader) throws DataFormatException;
+
 	protected abstract <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException;
 
 	@Override
@@ -626,6 +628,14 @@ public abstract class BaseParser implements IParser {
 		return parseBundle(reader);
 	}
 
+	@Override
+	public IBundleEntryIterator parseBundleEntries(Reader theReader) throws DataFormatException {
+		if (!myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
+			throw new UnsupportedOperationException("Parsing Bundle entries individually is not supported for " + myContext.getVersion().getVersion().name() + " Bundles");
+		}
+		return doParseBundleEntries(theReader);
+	}
+
 	@Override
 	public <T extends IBaseResource> T parseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException {
 
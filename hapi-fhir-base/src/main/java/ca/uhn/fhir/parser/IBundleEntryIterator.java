@@ -0,0 +1,53 @@
+package ca.uhn.fhir.parser;
+
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Iterator over the resources contained in the entries of a Bundle, which parses each
+ * entry only as the iterator is advanced. This allows very large Bundles to be processed
+ * without holding the whole Bundle in memory.
+ * <p>
+ * If an entry has a <code>fullUrl</code>, the ID of the returned resource is set to it, in
+ * the same way as when the whole Bundle is parsed. Entries which do not contain a resource
+ * are skipped.
+ * </p>
+ * <p>
+ * The iterator should be closed when it is no longer needed, which closes the underlying
+ * reader. It is closed automatically once the last entry has been read.
+ * </p>
+ * 
+ * @see IParser#parseBundleEntries(java.io.Reader)
+ */
+public interface IBundleEntryIterator extends Iterator<IBaseResource>, Closeable {
+
+	/**
+	 * Closes the underlying reader. Calling this method more than once has no effect.
+	 */
+	@Override
+	void close();
+
+}
@@ -157,6 +157,23 @@ public interface IParser {
 	 */
 	Bundle parseBundle(String theMessageString) throws ConfigurationException, DataFormatException;
 
+	/**
+	 * Parses a Bundle resource from the given reader, returning an iterator over the resources
+	 * contained in its entries. Entries are parsed one at a time as the iterator is advanced,
+	 * so the whole Bundle is never held in memory at once. This is useful for processing
+	 * very large Bundles, such as large search results or <code>$everything</code> responses.
+	 * <p>
+	 * Note that the Bundle itself (e.g. its links and total) is not returned. This method
+	 * is not supported for DSTU1 (Atom) bundles.
+	 * </p>
+	 * 
+	 * @param theReader
+	 *           The reader to parse from. It will be closed when the returned iterator is closed.
+	 * @return An iterator over the entry resources, which should be closed when it is no longer needed
+	 * @since 2.2
+	 */
+	IBundleEntryIterator parseBundleEntries(Reader theReader) throws DataFormatException;
+
 	/**
 	 * Parses a resource
 	 * 
@@ -0,0 +1,115 @@
+package ca.uhn.fhir.parser;
+
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ca.uhn.fhir.parser.json.GsonStructure;
+
+/**
+ * Reads Bundle entries using the Gson streaming API. Only a single entry is
+ * held in memory at a time, and properties of the Bundle other than
+ * Bundle.entry are skipped without being parsed.
+ */
+class JsonBundleEntryIterator extends BaseBundleEntryIterator {
+
+	private final Gson myGson = new GsonBuilder().disableHtmlEscaping().create();
+	private boolean myInEntryArray;
+	private final JsonParser myParser;
+	private final JsonReader myReader;
+	private boolean myStarted;
+
+	JsonBundleEntryIterator(JsonParser theParser, Reader theReader) {
+		super(theReader);
+		myParser = theParser;
+		myReader = new JsonReader(theReader);
+		myReader.setLenient(true);
+	}
+
+	@Override
+	protected IBaseResource readNextResource() throws IOException {
+		try {
+			if (!myStarted) {
+				myStarted = true;
+				if (myReader.peek() != JsonToken.BEGIN_OBJECT) {
+					throw new DataFormatException("Content does not appear to be FHIR JSON, expected an object but found: " + myReader.peek());
+				}
+				myReader.beginObject();
+			}
+
+			while (true) {
+				if (myInEntryArray) {
+					if (!myReader.hasNext()) {
+						myReader.endArray();
+						myInEntryArray = false;
+						continue;
+					}
+					JsonObject entry = myGson.fromJson(myReader, JsonObject.class);
+					JsonElement resource = entry != null ? entry.get("resource") : null;
+					if (resource == null || !resource.isJsonObject()) {
+						continue;
+					}
+					IBaseResource retVal = myParser.parseResource(new GsonStructure(resource.getAsJsonObject()));
+					JsonElement fullUrl = entry.get("fullUrl");
+					if (fullUrl != null && fullUrl.isJsonPrimitive()) {
+						applyFullUrl(retVal, fullUrl.getAsString());
+					}
+					return retVal;
+				}
+
+				if (!myReader.hasNext()) {
+					myReader.endObject();
+					return null;
+				}
+
+				String name = myReader.nextName();
+				if ("entry".equals(name)) {
+					myReader.beginArray();
+					myInEntryArray = true;
+				} else if ("resourceType".equals(name)) {
+					String resourceType = myReader.nextString();
+					if (!"Bundle".equals(resourceType)) {
+						throw new DataFormatException("Expected a Bundle but found: " + resourceType);
+					}
+				} else {
+					myReader.skipValue();
+				}
+			}
+		} catch (JsonParseException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+	}
+
+}
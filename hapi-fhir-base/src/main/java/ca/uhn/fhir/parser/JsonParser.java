@@ -202,6 +202,11 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		theEventWriter.flush();
 	}
 
+	@Override
+	protected IBundleEntryIterator doParseBundleEntries(Reader theReader) {
+		return new JsonBundleEntryIterator(this, theReader);
+	}
+
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
 		JsonLikeStructure jsonStructure = new GsonStructure();
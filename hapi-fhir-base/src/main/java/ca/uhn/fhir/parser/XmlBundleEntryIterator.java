@@ -0,0 +1,194 @@
+package ca.uhn.fhir.parser;
+
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Reads Bundle entries from a StAX event stream. Elements other than
+ * Bundle.entry.fullUrl and Bundle.entry.resource are skipped without being
+ * parsed, and each resource is parsed directly from the event stream.
+ */
+class XmlBundleEntryIterator extends BaseBundleEntryIterator {
+
+	private int myDepth;
+	private final XMLEventReader myEventReader;
+	private String myFullUrl;
+	private final XmlParser myParser;
+
+	XmlBundleEntryIterator(XmlParser theParser, XMLEventReader theEventReader, Reader theReader) {
+		super(theReader);
+		myParser = theParser;
+		myEventReader = theEventReader;
+	}
+
+	@Override
+	protected IBaseResource readNextResource() {
+		try {
+			while (myEventReader.hasNext()) {
+				XMLEvent next = myEventReader.peek();
+				if (next.isStartElement()) {
+					StartElement elem = next.asStartElement();
+					String name = elem.getName().getLocalPart();
+					switch (myDepth) {
+					case 0:
+						if (!"Bundle".equals(name)) {
+							throw new DataFormatException("Expected a Bundle but found: " + name);
+						}
+						myEventReader.nextEvent();
+						myDepth++;
+						break;
+					case 1:
+						if ("entry".equals(name)) {
+							myEventReader.nextEvent();
+							myDepth++;
+							myFullUrl = null;
+						} else {
+							skipElement();
+						}
+						break;
+					case 2:
+						if ("resource".equals(name)) {
+							myEventReader.nextEvent();
+							myDepth++;
+						} else {
+							if ("fullUrl".equals(name)) {
+								Attribute value = elem.getAttributeByName(new QName("value"));
+								myFullUrl = value != null ? value.getValue() : null;
+							}
+							skipElement();
+						}
+						break;
+					default:
+						IBaseResource retVal = myParser.parseResource(null, new SubtreeEventReader(myEventReader));
+						applyFullUrl(retVal, myFullUrl);
+						return retVal;
+					}
+				} else {
+					myEventReader.nextEvent();
+					if (next.isEndElement()) {
+						myDepth--;
+						if (myDepth == 0) {
+							return null;
+						}
+					}
+				}
+			}
+			return null;
+		} catch (XMLStreamException e) {
+			throw new DataFormatException(e);
+		}
+	}
+
+	private void skipElement() throws XMLStreamException {
+		int depth = 0;
+		do {
+			XMLEvent next = myEventReader.nextEvent();
+			if (next.isStartElement()) {
+				depth++;
+			} else if (next.isEndElement()) {
+				depth--;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Exposes a single element (and its children) from the wrapped reader as though it
+	 * were a complete document, ending with a synthetic end document event once the
+	 * element has been closed
+	 */
+	private static class SubtreeEventReader extends EventReaderDelegate {
+
+		private int myDepth;
+		private boolean myDone;
+		private XMLEvent myEndDocument;
+
+		SubtreeEventReader(XMLEventReader theReader) {
+			super(theReader);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (myDone) {
+				return false;
+			}
+			return myEndDocument != null || super.hasNext();
+		}
+
+		@Override
+		public Object next() {
+			try {
+				return nextEvent();
+			} catch (XMLStreamException e) {
+				throw new DataFormatException(e);
+			}
+		}
+
+		@Override
+		public XMLEvent nextEvent() throws XMLStreamException {
+			if (myDone) {
+				throw new NoSuchElementException();
+			}
+			if (myEndDocument != null) {
+				myDone = true;
+				return myEndDocument;
+			}
+			XMLEvent retVal = super.nextEvent();
+			if (retVal.isStartElement()) {
+				myDepth++;
+			} else if (retVal.isEndElement()) {
+				myDepth--;
+				if (myDepth == 0) {
+					XMLEventFactory factory = XMLEventFactory.newInstance();
+					factory.setLocation(retVal.getLocation());
+					myEndDocument = factory.createEndDocument();
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public XMLEvent peek() throws XMLStreamException {
+			if (myDone) {
+				return null;
+			}
+			if (myEndDocument != null) {
+				return myEndDocument;
+			}
+			return super.peek();
+		}
+
+	}
+
+}
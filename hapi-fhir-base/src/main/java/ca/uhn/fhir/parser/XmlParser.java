@@ -182,6 +182,11 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	@Override
+	protected IBundleEntryIterator doParseBundleEntries(Reader theReader) {
+		return new XmlBundleEntryIterator(this, createStreamReader(theReader), theReader);
+	}
+
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
 		XMLEventReader streamReader = createStreamReader(theReader);
@@ -1046,7 +1051,7 @@ public class XmlParser extends BaseParser implements IParser {
 		return doXmlLoop(theStreamReader, parserState);
 	}
 
-	private <T extends IBaseResource> T parseResource(Class<T> theResourceType, XMLEventReader theStreamReader) {
+	<T extends IBaseResource> T parseResource(Class<T> theResourceType, XMLEventReader theStreamReader) {
 		ParserState<T> parserState = ParserState.getPreResourceInstance(this, theResourceType, myContext, false, getErrorHandler());
 		return doXmlLoop(theStreamReader, parserState);
 	}
@@ -0,0 +1,243 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Stack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * A {@link JsonLikeWriter} which builds an in-memory Gson tree instead of writing
+ * JSON text. This can be used to hand an encoded resource to code which consumes
+ * a {@link JsonObject} without serializing it to a string and parsing it again.
+ */
+public class GsonTreeWriter extends JsonLikeWriter {
+	private static final Logger log = LoggerFactory.getLogger(GsonTreeWriter.class);
+
+	private JsonElement myRoot;
+	private final Stack<JsonElement> myStack = new Stack<JsonElement>();
+
+	public GsonTreeWriter() {
+		super();
+	}
+
+	private JsonLikeWriter add(String theName, JsonElement theElement) {
+		if (myStack.isEmpty()) {
+			myRoot = theElement;
+		} else {
+			JsonElement parent = myStack.peek();
+			if (parent.isJsonArray()) {
+				((JsonArray) parent).add(theElement);
+			} else {
+				((JsonObject) parent).add(theName, theElement);
+			}
+		}
+		return this;
+	}
+
+	private JsonLikeWriter begin(String theName, JsonElement theElement) {
+		add(theName, theElement);
+		myStack.push(theElement);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter beginArray() throws IOException {
+		return begin(null, new JsonArray());
+	}
+
+	@Override
+	public JsonLikeWriter beginArray(String name) throws IOException {
+		return begin(name, new JsonArray());
+	}
+
+	@Override
+	public JsonLikeWriter beginObject() throws IOException {
+		return begin(null, new JsonObject());
+	}
+
+	@Override
+	public JsonLikeWriter beginObject(String name) throws IOException {
+		return begin(name, new JsonObject());
+	}
+
+	@Override
+	public void close() throws IOException {
+		// nothing
+	}
+
+	private JsonLikeWriter end(boolean theArray) {
+		if (myStack.isEmpty()) {
+			log.error("GsonTreeWriter end called with no active JSON document");
+		} else {
+			JsonElement current = myStack.pop();
+			if (current.isJsonArray() != theArray) {
+				log.error("GsonTreeWriter end called for the wrong type of block");
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter endArray() throws IOException {
+		return end(true);
+	}
+
+	@Override
+	public JsonLikeWriter endBlock() throws IOException {
+		if (myStack.isEmpty()) {
+			log.error("GsonTreeWriter endBlock() called with no active JSON document");
+			return this;
+		}
+		return end(myStack.peek().isJsonArray());
+	}
+
+	@Override
+	public JsonLikeWriter endObject() throws IOException {
+		return end(false);
+	}
+
+	@Override
+	public JsonLikeWriter flush() throws IOException {
+		if (!myStack.isEmpty()) {
+			log.error("GsonTreeWriter flush() called but JSON document is not finished");
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the root of the tree which has been written, or <code>null</code> if nothing has been written
+	 */
+	public JsonElement getRoot() {
+		return myRoot;
+	}
+
+	@Override
+	public JsonLikeWriter init() throws IOException {
+		myRoot = null;
+		myStack.clear();
+		return this;
+	}
+
+	private static JsonElement toElement(Object theValue) {
+		if (theValue == null) {
+			return JsonNull.INSTANCE;
+		}
+		if (theValue instanceof Boolean) {
+			return new JsonPrimitive((Boolean) theValue);
+		}
+		if (theValue instanceof Number) {
+			return new JsonPrimitive((Number) theValue);
+		}
+		return new JsonPrimitive(theValue.toString());
+	}
+
+	@Override
+	public JsonLikeWriter write(BigDecimal value) throws IOException {
+		return add(null, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(BigInteger value) throws IOException {
+		return add(null, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(boolean value) throws IOException {
+		return add(null, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(Boolean value) throws IOException {
+		return add(null, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(double value) throws IOException {
+		return add(null, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(long value) throws IOException {
+		return add(null, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String value) throws IOException {
+		return add(null, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, BigDecimal value) throws IOException {
+		return add(name, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, BigInteger value) throws IOException {
+		return add(name, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, boolean value) throws IOException {
+		return add(name, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, Boolean value) throws IOException {
+		return add(name, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, double value) throws IOException {
+		return add(name, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, long value) throws IOException {
+		return add(name, new JsonPrimitive(value));
+	}
+
+	@Override
+	public JsonLikeWriter write(String name, String value) throws IOException {
+		return add(name, toElement(value));
+	}
+
+	@Override
+	public JsonLikeWriter writeNull() throws IOException {
+		return add(null, JsonNull.INSTANCE);
+	}
+
+	@Override
+	public JsonLikeWriter writeNull(String name) throws IOException {
+		return add(name, JsonNull.INSTANCE);
+	}
+
+}
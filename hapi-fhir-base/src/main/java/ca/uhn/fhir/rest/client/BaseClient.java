@@ -27,6 +27,10 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -37,13 +41,17 @@ import ca.uhn.fhir.context.*;
 import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.client.api.IAsyncHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpClient;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IHttpResponseCallback;
 import ca.uhn.fhir.rest.client.api.IRestfulClient;
+import ca.uhn.fhir.rest.client.api.TeeHttpResponse;
 import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
 import ca.uhn.fhir.rest.client.exceptions.InvalidResponseException;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
+import ca.uhn.fhir.rest.gclient.IClientExecutableCallback;
 import ca.uhn.fhir.rest.method.HttpGetClientInvocation;
 import ca.uhn.fhir.rest.method.IClientResponseHandler;
 import ca.uhn.fhir.rest.method.IClientResponseHandlerHandlesBinary;
@@ -63,8 +71,15 @@ public abstract class BaseClient implements IRestfulClient {
 	 */
 	static final String HAPI_CLIENT_KEEPRESPONSES = "hapi.client.keepresponses";
 
+	/**
+	 * Maximum number of characters of a response body which will be logged when
+	 * request and response logging is enabled
+	 */
+	private static final int LOG_RESPONSE_BODY_MAX_LENGTH = 100000;
+
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BaseClient.class);
 
+	private final ThreadLocal<AsyncInvocation> myAsyncInvocation = new ThreadLocal<AsyncInvocation>();
 	private final IHttpClient myClient;
 	private boolean myDontValidateConformance;
 	private EncodingEnum myEncoding = null; // default unspecified (will be XML)
@@ -133,6 +148,13 @@ public abstract class BaseClient implements IRestfulClient {
 		return myEncoding;
 	}
 
+	/**
+	 * Returns the executor used to run asynchronous requests for this client
+	 */
+	ExecutorService getAsyncExecutor() {
+		return myFactory.getAsyncExecutor();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -183,9 +205,16 @@ public abstract class BaseClient implements IRestfulClient {
 		return invokeClient(theContext, binding, clientInvocation, null, null, theLogRequestAndResponse, null, null);
 	}
 
-	<T> T invokeClient(FhirContext theContext, IClientResponseHandler<T> binding, BaseHttpClientInvocation clientInvocation, EncodingEnum theEncoding, Boolean thePrettyPrint, boolean theLogRequestAndResponse, SummaryEnum theSummaryMode, Set<String> theSubsetElements) {
+	<T> T invokeClient(FhirContext theContext, IClientResponseHandler<T> binding, BaseHttpClientInvocation clientInvocation, EncodingEnum theEncoding, Boolean thePrettyPrint, final boolean theLogRequestAndResponse, SummaryEnum theSummaryMode, Set<String> theSubsetElements) {
+
+		/*
+		 * Only the first request made by an asynchronous invocation is sent asynchronously,
+		 * any others are executed normally
+		 */
+		AsyncInvocation asyncInvocation = myAsyncInvocation.get();
+		myAsyncInvocation.remove();
 
-		if (!myDontValidateConformance) {
+		if (!myDontValidateConformance && (asyncInvocation == null || asyncInvocation.getRequest() == null)) {
 			myFactory.validateServerBaseIfConfiguredToDoSo(myUrlBase, myClient, this);
 		}
 
@@ -194,50 +223,28 @@ public abstract class BaseClient implements IRestfulClient {
 		IHttpRequest httpRequest = null;
 		IHttpResponse response = null;
 		try {
-			Map<String, List<String>> params = createExtraParams();
-
-			if (clientInvocation instanceof HttpGetClientInvocation) {
-				if (theEncoding == EncodingEnum.XML) {
-					params.put(Constants.PARAM_FORMAT, Collections.singletonList("xml"));
-				} else if (theEncoding == EncodingEnum.JSON) {
-					params.put(Constants.PARAM_FORMAT, Collections.singletonList("json"));
+			IHttpResponse httpResponse;
+			if (asyncInvocation != null && asyncInvocation.getRequest() != null) {
+				/*
+				 * The request was built by an earlier pass of an asynchronous invocation,
+				 * so only the response remains to be handled
+				 */
+				httpRequest = asyncInvocation.getRequest();
+				httpResponse = asyncInvocation.takeResponse();
+				if (httpResponse == null) {
+					httpResponse = httpRequest.execute();
 				}
-			}
-			
-			if (theSummaryMode != null) {
-				params.put(Constants.PARAM_SUMMARY, Collections.singletonList(theSummaryMode.getCode()));
-			} else if (mySummary != null) {
-				params.put(Constants.PARAM_SUMMARY, Collections.singletonList(mySummary.getCode()));
-			}
-
-			if (thePrettyPrint == Boolean.TRUE) {
-				params.put(Constants.PARAM_PRETTY, Collections.singletonList(Constants.PARAM_PRETTY_VALUE_TRUE));
-			}
-
-			if (theSubsetElements != null && theSubsetElements.isEmpty() == false) {
-				params.put(Constants.PARAM_ELEMENTS, Collections.singletonList(StringUtils.join(theSubsetElements, ',')));
-			}
-
-			EncodingEnum encoding = getEncoding();
-			if (theEncoding != null) {
-				encoding = theEncoding;
-			}
-
-			httpRequest = clientInvocation.asHttpRequest(myUrlBase, params, encoding, thePrettyPrint);
-
-			if (theLogRequestAndResponse) {
-				ourLog.info("Client invoking: {}", httpRequest);
-				String body = httpRequest.getRequestBodyFromStream();
-				if (body != null) {
-					ourLog.info("Client request body: {}", body);
+			} else {
+				httpRequest = createHttpRequest(clientInvocation, theEncoding, thePrettyPrint, theLogRequestAndResponse, theSummaryMode, theSubsetElements);
+				if (asyncInvocation != null) {
+					asyncInvocation.setRequest(httpRequest);
+					throw new AsyncRequestPreparedException();
 				}
+				httpResponse = httpRequest.execute();
 			}
 
-			for (IClientInterceptor nextInterceptor : myInterceptors) {
-				nextInterceptor.interceptRequest(httpRequest);
-			}
-
-			response = httpRequest.execute();
+			final TeeHttpResponse teeResponse = new TeeHttpResponse(httpResponse);
+			response = teeResponse;
 
 			for (IClientInterceptor nextInterceptor : myInterceptors) {
 				nextInterceptor.interceptResponse(response);
@@ -308,12 +315,33 @@ public abstract class BaseClient implements IRestfulClient {
 				}
 			}
 
-			Reader reader = response.createReader();
-
-			if (ourLog.isTraceEnabled() || myKeepResponses || theLogRequestAndResponse) {
-				String responseString = IOUtils.toString(reader);
+			Reader reader;
+			if (myKeepResponses) {
+				String responseString = IOUtils.toString(response.createReader());
 				keepResponseAndLogIt(theLogRequestAndResponse, response, responseString);
 				reader = new StringReader(responseString);
+			} else {
+				if (ourLog.isTraceEnabled() || theLogRequestAndResponse) {
+					/*
+					 * Log a bounded copy of the body once it has been parsed instead of
+					 * reading the whole thing into a String up front
+					 */
+					teeResponse.addTee(LOG_RESPONSE_BODY_MAX_LENGTH, new TeeHttpResponse.ITeeListener() {
+						@Override
+						public void bodyCaptured(String theBody, boolean theTruncated) {
+							keepResponseAndLogIt(theLogRequestAndResponse, teeResponse, theBody);
+						}
+					});
+				}
+				reader = response.createReader();
+			}
+
+			if (binding instanceof IClientResponseHandlerRetainsResponse) {
+				IClientResponseHandlerRetainsResponse<T> retainsResponse = (IClientResponseHandlerRetainsResponse<T>) binding;
+				T retVal = retainsResponse.invokeClient(mimeType, reader, response.getStatus(), headers, response);
+				// The returned object is now responsible for closing the response
+				response = null;
+				return retVal;
 			}
 
 			try {
@@ -341,6 +369,121 @@ public abstract class BaseClient implements IRestfulClient {
 		}
 	}
 
+	private IHttpRequest createHttpRequest(BaseHttpClientInvocation clientInvocation, EncodingEnum theEncoding, Boolean thePrettyPrint, boolean theLogRequestAndResponse, SummaryEnum theSummaryMode, Set<String> theSubsetElements) throws IOException {
+		Map<String, List<String>> params = createExtraParams();
+
+		if (clientInvocation instanceof HttpGetClientInvocation) {
+			if (theEncoding == EncodingEnum.XML) {
+				params.put(Constants.PARAM_FORMAT, Collections.singletonList("xml"));
+			} else if (theEncoding == EncodingEnum.JSON) {
+				params.put(Constants.PARAM_FORMAT, Collections.singletonList("json"));
+			}
+		}
+		
+		if (theSummaryMode != null) {
+			params.put(Constants.PARAM_SUMMARY, Collections.singletonList(theSummaryMode.getCode()));
+		} else if (mySummary != null) {
+			params.put(Constants.PARAM_SUMMARY, Collections.singletonList(mySummary.getCode()));
+		}
+
+		if (thePrettyPrint == Boolean.TRUE) {
+			params.put(Constants.PARAM_PRETTY, Collections.singletonList(Constants.PARAM_PRETTY_VALUE_TRUE));
+		}
+
+		if (theSubsetElements != null && theSubsetElements.isEmpty() == false) {
+			params.put(Constants.PARAM_ELEMENTS, Collections.singletonList(StringUtils.join(theSubsetElements, ',')));
+		}
+
+		EncodingEnum encoding = getEncoding();
+		if (theEncoding != null) {
+			encoding = theEncoding;
+		}
+
+		IHttpRequest httpRequest = clientInvocation.asHttpRequest(myUrlBase, params, encoding, thePrettyPrint);
+
+		if (theLogRequestAndResponse) {
+			ourLog.info("Client invoking: {}", httpRequest);
+			String body = httpRequest.getRequestBodyFromStream();
+			if (body != null) {
+				ourLog.info("Client request body: {}", body);
+			}
+		}
+
+		for (IClientInterceptor nextInterceptor : myInterceptors) {
+			nextInterceptor.interceptRequest(httpRequest);
+		}
+
+		return httpRequest;
+	}
+
+	/**
+	 * Runs the given execution without blocking the calling thread. The execution is first
+	 * run on the calling thread until its request has been built, and then run again once
+	 * the response is available in order to handle it. If the request is an
+	 * {@link IAsyncHttpRequest} this happens on the thread which received the response,
+	 * otherwise the request is executed using the factory's async executor.
+	 */
+	<T> Future<T> invokeAsync(final Callable<T> theExecution, IClientExecutableCallback<T> theCallback) {
+		final AsyncInvocation invocation = new AsyncInvocation();
+
+		Callable<T> completion;
+		myAsyncInvocation.set(invocation);
+		try {
+			final T result = theExecution.call();
+			completion = new Callable<T>() {
+				@Override
+				public T call() {
+					return result;
+				}
+			};
+		} catch (AsyncRequestPreparedException e) {
+			completion = new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					myAsyncInvocation.set(invocation);
+					try {
+						return theExecution.call();
+					} finally {
+						myAsyncInvocation.remove();
+					}
+				}
+			};
+		} catch (final Exception e) {
+			completion = new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					throw e;
+				}
+			};
+		} finally {
+			myAsyncInvocation.remove();
+		}
+
+		final FutureTask<T> retVal = new FutureTask<T>(new CallbackNotifyingCallable<T>(completion, theCallback));
+		IHttpRequest request = invocation.getRequest();
+		if (request == null) {
+			retVal.run();
+		} else if (request instanceof IAsyncHttpRequest) {
+			((IAsyncHttpRequest) request).executeAsync(new IHttpResponseCallback() {
+				@Override
+				public void onFailure(IOException theException) {
+					invocation.setFailure(theException);
+					retVal.run();
+				}
+
+				@Override
+				public void onResponse(IHttpResponse theResponse) {
+					invocation.setResponse(theResponse);
+					retVal.run();
+					invocation.closeUnhandledResponse();
+				}
+			});
+		} else {
+			myFactory.getAsyncExecutor().execute(retVal);
+		}
+		return retVal;
+	}
+
 	/**
 	 * For now, this is a part of the internal API of HAPI - Use with caution as this method may change!
 	 */
@@ -518,4 +661,101 @@ public abstract class BaseClient implements IRestfulClient {
 		}
 	}
 
+	/**
+	 * State shared between the passes of an asynchronous invocation
+	 */
+	private static class AsyncInvocation {
+
+		private IOException myFailure;
+		private IHttpRequest myRequest;
+		private IHttpResponse myResponse;
+
+		void closeUnhandledResponse() {
+			if (myResponse != null) {
+				myResponse.close();
+				myResponse = null;
+			}
+		}
+
+		IHttpRequest getRequest() {
+			return myRequest;
+		}
+
+		void setFailure(IOException theFailure) {
+			myFailure = theFailure;
+		}
+
+		void setRequest(IHttpRequest theRequest) {
+			myRequest = theRequest;
+		}
+
+		void setResponse(IHttpResponse theResponse) {
+			myResponse = theResponse;
+		}
+
+		/**
+		 * Returns the response received for the request (which the caller is then responsible
+		 * for closing), or <code>null</code> if the request has not been sent yet
+		 */
+		IHttpResponse takeResponse() throws IOException {
+			if (myFailure != null) {
+				throw myFailure;
+			}
+			IHttpResponse retVal = myResponse;
+			myResponse = null;
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Thrown to stop the first pass of an asynchronous invocation once its request has been built
+	 */
+	private static class AsyncRequestPreparedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+	}
+
+	private static class CallbackNotifyingCallable<T> implements Callable<T> {
+
+		private final IClientExecutableCallback<T> myCallback;
+		private final Callable<T> myCallable;
+
+		CallbackNotifyingCallable(Callable<T> theCallable, IClientExecutableCallback<T> theCallback) {
+			myCallable = theCallable;
+			myCallback = theCallback;
+		}
+
+		@Override
+		public T call() throws Exception {
+			T retVal;
+			try {
+				retVal = myCallable.call();
+			} catch (Exception e) {
+				notifyFailure(e);
+				throw e;
+			} catch (Error e) {
+				notifyFailure(e);
+				throw e;
+			}
+			if (myCallback != null) {
+				myCallback.onSuccess(retVal);
+			}
+			return retVal;
+		}
+
+		private void notifyFailure(Throwable theException) {
+			if (myCallback != null) {
+				myCallback.onFailure(theException);
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,634 @@
+package ca.uhn.fhir.rest.client;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.valueset.BundleTypeEnum;
+import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Uploads large numbers of resources to a server by packing them into batch (or transaction)
+ * Bundles which are sent concurrently by a pool of worker threads, instead of performing one
+ * create or update per HTTP request.
+ * <p>
+ * Resources are queued using {@link #add(IBaseResource)}. Resources with an ID are updated
+ * (<code>PUT</code>) and resources without an ID are created (<code>POST</code>). A bundle is sent
+ * once it reaches the {@link #setBatchSize(int) batch size} or {@link #setMaxBatchBytes(long) maximum
+ * size}. If all of the workers are busy, {@link #add(IBaseResource)} blocks until one is free.
+ * </p>
+ * <p>
+ * A bundle is only sent again if none of its resources can have been stored, or if storing them
+ * again is harmless. That is the case if the server rejected the whole bundle (HTTP 4xx), if a
+ * transaction failed (and so was rolled back), or if every resource in the bundle is an update. A
+ * bundle which failed because of a server error (HTTP 5xx) or a connection failure is then retried
+ * up to {@link #setMaxRetries(int) a number of times}. If it still fails, or is rejected by the server
+ * (e.g. because a transaction contains an invalid resource), it is split in half and each half is
+ * sent separately, until the resources which can not be stored have been isolated.
+ * </p>
+ * <p>
+ * Otherwise, for example if the connection fails while a batch of creates is being processed, the
+ * server may or may not have stored the resources, and sending them again could create duplicates.
+ * These resources are reported with an {@link Outcome#isUnknown() unknown outcome} instead.
+ * </p>
+ * <p>
+ * The result of storing each resource is reported to the {@link #setListener(IOutcomeListener) listener},
+ * if one is set. Note that the listener is invoked from the worker threads.
+ * </p>
+ * <p>
+ * A bulk loader must be {@link #close() closed} when it is no longer needed in order to send the
+ * final bundle and stop its workers. This class is not designed to be used by more than one producer
+ * thread at a time.
+ * </p>
+ * 
+ * @since 2.2
+ */
+public class BulkLoader implements Closeable {
+
+	/**
+	 * Default value for {@link #setBatchSize(int)}
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * Default value for {@link #setMaxRetries(int)}
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	/**
+	 * Default value for {@link #setRetryDelayMillis(long)}
+	 */
+	public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+
+	/**
+	 * Default value for {@link #setWorkerCount(int)}
+	 */
+	public static final int DEFAULT_WORKER_COUNT = 4;
+
+	private static final String BUNDLE_TYPE_BATCH = "batch";
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BulkLoader.class);
+
+	private int myBatchSize = DEFAULT_BATCH_SIZE;
+	private final IGenericClient myClient;
+	private boolean myClosed;
+	private final FhirContext myContext;
+	private ExecutorService myExecutor;
+	private final AtomicLong myFailureCount = new AtomicLong();
+	private Semaphore myInFlight;
+	private int myInFlightPermits;
+	private IOutcomeListener myListener;
+	private long myMaxBatchBytes;
+	private int myMaxRetries = DEFAULT_MAX_RETRIES;
+	private List<IBaseResource> myPending = new ArrayList<IBaseResource>();
+	private long myPendingBytes;
+	private long myRetryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+	private final AtomicLong mySuccessCount = new AtomicLong();
+	private boolean myTransaction;
+	private final AtomicLong myUnknownCount = new AtomicLong();
+	private int myWorkerCount = DEFAULT_WORKER_COUNT;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theClient
+	 *           The client to upload resources with
+	 */
+	public BulkLoader(IGenericClient theClient) {
+		Validate.notNull(theClient, "theClient must not be null");
+		myClient = theClient;
+		myContext = theClient.getFhirContext();
+		Validate.isTrue(myContext.getVersion().getVersion() != FhirVersionEnum.DSTU1, "BulkLoader does not support DSTU1");
+	}
+
+	/**
+	 * Queues a resource to be created (if it has no ID) or updated (if it has one). This
+	 * method blocks if a bundle needs to be sent but all of the workers are busy.
+	 */
+	public synchronized void add(IBaseResource theResource) {
+		Validate.notNull(theResource, "theResource must not be null");
+		Validate.isTrue(!myClosed, "This BulkLoader has been closed");
+
+		if (myMaxBatchBytes > 0) {
+			long size = myContext.newJsonParser().encodeResourceToString(theResource).length();
+			if (!myPending.isEmpty() && myPendingBytes + size > myMaxBatchBytes) {
+				submitPending();
+			}
+			myPendingBytes += size;
+		}
+
+		myPending.add(theResource);
+		if (myPending.size() >= myBatchSize) {
+			submitPending();
+		}
+	}
+
+	/**
+	 * Sends any queued resources and waits for all bundles to complete, then stops the workers.
+	 * Calling this method more than once has no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (myClosed) {
+			return;
+		}
+		flush();
+		myClosed = true;
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+		}
+	}
+
+	private IBaseBundle createBundle(List<IBaseResource> theResources) {
+		IVersionSpecificBundleFactory bundleFactory = myContext.newBundleFactory();
+		bundleFactory.initializeBundleFromResourceList("", theResources, "", "", theResources.size(), BundleTypeEnum.TRANSACTION);
+		IBaseBundle retVal = (IBaseBundle) bundleFactory.getResourceBundle();
+		if (!myTransaction) {
+			RuntimeResourceDefinition def = myContext.getResourceDefinition(retVal);
+			IPrimitiveType<?> type = (IPrimitiveType<?>) def.getChildByName("type").getAccessor().getValues(retVal).get(0);
+			type.setValueAsString(BUNDLE_TYPE_BATCH);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Sends any queued resources and blocks until all bundles which have been sent so far have completed
+	 */
+	public synchronized void flush() {
+		Validate.isTrue(!myClosed, "This BulkLoader has been closed");
+		submitPending();
+		if (myInFlight != null) {
+			acquireInFlight(myInFlightPermits);
+			myInFlight.release(myInFlightPermits);
+		}
+	}
+
+	private void acquireInFlight(int thePermits) {
+		try {
+			myInFlight.acquire(thePermits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Interrupted while waiting for bundles to be sent", e);
+		}
+	}
+
+	/**
+	 * Returns the maximum number of resources in each bundle
+	 */
+	public int getBatchSize() {
+		return myBatchSize;
+	}
+
+	/**
+	 * Returns the number of resources which could not be stored so far. This does not include
+	 * resources whose outcome is unknown (see {@link #getUnknownCount()}).
+	 */
+	public long getFailureCount() {
+		return myFailureCount.get();
+	}
+
+	/**
+	 * Returns the listener which is notified of the outcome for each resource, if any
+	 */
+	public IOutcomeListener getListener() {
+		return myListener;
+	}
+
+	public long getMaxBatchBytes() {
+		return myMaxBatchBytes;
+	}
+
+	public int getMaxRetries() {
+		return myMaxRetries;
+	}
+
+	public long getRetryDelayMillis() {
+		return myRetryDelayMillis;
+	}
+
+	/**
+	 * Returns the number of resources which have been successfully stored so far
+	 */
+	public long getSuccessCount() {
+		return mySuccessCount.get();
+	}
+
+	/**
+	 * Returns the number of resources so far which may or may not have been stored, because the
+	 * request containing them failed without a definite response from the server
+	 */
+	public long getUnknownCount() {
+		return myUnknownCount.get();
+	}
+
+	public int getWorkerCount() {
+		return myWorkerCount;
+	}
+
+	/**
+	 * Should bundles be sent as transactions (all or nothing) instead of batches? Default is <code>false</code>.
+	 */
+	public boolean isTransaction() {
+		return myTransaction;
+	}
+
+	/**
+	 * Returns <code>true</code> if a bundle which failed with the given exception may be sent again,
+	 * either because none of its resources can have been stored, or because storing them again
+	 * is harmless
+	 */
+	private boolean isSafeToResend(List<IBaseResource> theResources, BaseServerResponseException theException) {
+		int status = theException.getStatusCode();
+		if (status >= 400 && status < 500) {
+			// The whole bundle was rejected
+			return true;
+		}
+		if (myTransaction && status > 0) {
+			// The server reported that the transaction failed, so it was rolled back
+			return true;
+		}
+		for (IBaseResource next : theResources) {
+			if (next.getIdElement() == null || next.getIdElement().isEmpty()) {
+				// Creating this resource again could create a duplicate
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void notifyFailure(List<IBaseResource> theResources, boolean theUnknown, BaseServerResponseException theException) {
+		String status = theException.getStatusCode() > 0 ? Integer.toString(theException.getStatusCode()) : null;
+		for (IBaseResource next : theResources) {
+			notifyOutcome(new Outcome(next, false, theUnknown, status, null, theException.getOperationOutcome(), theException));
+		}
+	}
+
+	private void notifyOutcome(Outcome theOutcome) {
+		if (theOutcome.isSuccess()) {
+			mySuccessCount.incrementAndGet();
+		} else if (theOutcome.isUnknown()) {
+			myUnknownCount.incrementAndGet();
+		} else {
+			myFailureCount.incrementAndGet();
+		}
+		if (myListener != null) {
+			try {
+				myListener.handleOutcome(theOutcome);
+			} catch (RuntimeException e) {
+				ourLog.error("Failure in bulk loader outcome listener", e);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void processResponse(List<IBaseResource> theResources, IBaseBundle theResponse) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResponse);
+		BaseRuntimeChildDefinition entryChild = def.getChildByName("entry");
+		List<IBase> entries = entryChild.getAccessor().getValues(theResponse);
+
+		BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) entryChild.getChildByName("entry");
+		BaseRuntimeChildDefinition responseChild = entryDef.getChildByName("response");
+		BaseRuntimeElementCompositeDefinition<?> responseDef = (BaseRuntimeElementCompositeDefinition<?>) responseChild.getChildByName("response");
+		BaseRuntimeChildDefinition statusChild = responseDef.getChildByName("status");
+		BaseRuntimeChildDefinition locationChild = responseDef.getChildByName("location");
+		BaseRuntimeChildDefinition outcomeChild = responseDef.getChildByName("outcome");
+
+		for (int i = 0; i < theResources.size(); i++) {
+			String status = null;
+			String location = null;
+			IBaseOperationOutcome operationOutcome = null;
+			if (i < entries.size()) {
+				for (IBase nextResponse : responseChild.getAccessor().getValues(entries.get(i))) {
+					for (IBase next : statusChild.getAccessor().getValues(nextResponse)) {
+						status = ((IPrimitiveType<String>) next).getValue();
+					}
+					for (IBase next : locationChild.getAccessor().getValues(nextResponse)) {
+						location = ((IPrimitiveType<String>) next).getValue();
+					}
+					for (IBase next : outcomeChild.getAccessor().getValues(nextResponse)) {
+						operationOutcome = (IBaseOperationOutcome) next;
+					}
+				}
+			}
+
+			boolean success = isNotBlank(status) && status.trim().startsWith("2");
+			notifyOutcome(new Outcome(theResources.get(i), success, false, status, location, operationOutcome, null));
+		}
+	}
+
+	private void sendBatch(List<IBaseResource> theResources, int theAttempt) {
+		IBaseBundle response;
+		try {
+			response = myClient.transaction().withBundle(createBundle(theResources)).execute();
+		} catch (BaseServerResponseException e) {
+			if (!isSafeToResend(theResources, e)) {
+				ourLog.warn("Failed to send bundle of {} resources, some of which may have been stored, so it will not be sent again: {}", theResources.size(), e.toString());
+				notifyFailure(theResources, true, e);
+			} else if (e.getStatusCode() == 0 || e.getStatusCode() >= 500) {
+				if (theAttempt < myMaxRetries) {
+					ourLog.warn("Failed to send bundle of {} resources (attempt {}), will retry: {}", new Object[] { theResources.size(), theAttempt + 1, e.toString() });
+					if (sleepBeforeRetry(theAttempt)) {
+						sendBatch(theResources, theAttempt + 1);
+					} else {
+						notifyFailure(theResources, false, e);
+					}
+				} else {
+					split(theResources, e);
+				}
+			} else {
+				split(theResources, e);
+			}
+			return;
+		}
+
+		processResponse(theResources, response);
+	}
+
+	/**
+	 * Sets the maximum number of resources in each bundle. Default is {@value #DEFAULT_BATCH_SIZE}.
+	 */
+	public void setBatchSize(int theBatchSize) {
+		Validate.isTrue(theBatchSize > 0, "theBatchSize must be at least 1");
+		myBatchSize = theBatchSize;
+	}
+
+	/**
+	 * Sets a listener which will be notified of the outcome for each resource. The listener is invoked
+	 * from the worker threads.
+	 */
+	public void setListener(IOutcomeListener theListener) {
+		myListener = theListener;
+	}
+
+	/**
+	 * Sets the approximate maximum size of each bundle, in characters of encoded resource content. A
+	 * bundle is sent early if adding another resource would exceed this size. A value of 0 (the
+	 * default) means that bundles are only limited by the {@link #setBatchSize(int) batch size}.
+	 * <p>
+	 * Note that setting this value means that each resource is encoded an additional time in order to
+	 * measure it.
+	 * </p>
+	 */
+	public void setMaxBatchBytes(long theMaxBatchBytes) {
+		Validate.isTrue(theMaxBatchBytes >= 0, "theMaxBatchBytes must not be negative");
+		myMaxBatchBytes = theMaxBatchBytes;
+	}
+
+	/**
+	 * Sets the number of times a bundle which fails because of a connection failure or server error
+	 * is retried before it is split, if it is safe to send it again (see the class documentation).
+	 * Default is {@value #DEFAULT_MAX_RETRIES}.
+	 */
+	public void setMaxRetries(int theMaxRetries) {
+		Validate.isTrue(theMaxRetries >= 0, "theMaxRetries must not be negative");
+		myMaxRetries = theMaxRetries;
+	}
+
+	/**
+	 * Sets the delay before the first retry of a failed bundle. The delay increases with each
+	 * subsequent retry. Default is {@value #DEFAULT_RETRY_DELAY_MILLIS}.
+	 */
+	public void setRetryDelayMillis(long theRetryDelayMillis) {
+		Validate.isTrue(theRetryDelayMillis >= 0, "theRetryDelayMillis must not be negative");
+		myRetryDelayMillis = theRetryDelayMillis;
+	}
+
+	/**
+	 * Should bundles be sent as transactions (all or nothing) instead of batches? Default is <code>false</code>.
+	 * <p>
+	 * If a transaction is rejected, it is split until the failing resources have been isolated, so
+	 * resources may end up being stored in smaller transactions than the batch size.
+	 * </p>
+	 */
+	public void setTransaction(boolean theTransaction) {
+		myTransaction = theTransaction;
+	}
+
+	/**
+	 * Sets the number of bundles which may be sent concurrently. Default is {@value #DEFAULT_WORKER_COUNT}.
+	 * This must be set before the first resource is added.
+	 */
+	public synchronized void setWorkerCount(int theWorkerCount) {
+		Validate.isTrue(theWorkerCount > 0, "theWorkerCount must be at least 1");
+		Validate.isTrue(myExecutor == null, "The worker count can not be changed once loading has started");
+		myWorkerCount = theWorkerCount;
+	}
+
+	/**
+	 * Returns <code>false</code> if the thread was interrupted, in which case the bundle should not be retried
+	 */
+	private boolean sleepBeforeRetry(int theAttempt) {
+		if (myRetryDelayMillis > 0) {
+			try {
+				Thread.sleep(myRetryDelayMillis * (theAttempt + 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Sends each half of a bundle which was rejected separately, in order to isolate the resources
+	 * which can not be stored. If the thread has been interrupted, nothing more is sent.
+	 */
+	private void split(List<IBaseResource> theResources, BaseServerResponseException theException) {
+		if (theResources.size() == 1 || Thread.currentThread().isInterrupted()) {
+			notifyFailure(theResources, false, theException);
+			return;
+		}
+
+		int half = theResources.size() / 2;
+		ourLog.info("Failed to send bundle of {} resources, splitting into bundles of {} and {}: {}", new Object[] { theResources.size(), half, theResources.size() - half, theException.toString() });
+		sendBatch(theResources.subList(0, half), 0);
+		if (Thread.currentThread().isInterrupted()) {
+			notifyFailure(theResources.subList(half, theResources.size()), false, theException);
+			return;
+		}
+		sendBatch(theResources.subList(half, theResources.size()), 0);
+	}
+
+	private void submitPending() {
+		if (myPending.isEmpty()) {
+			return;
+		}
+
+		final List<IBaseResource> batch = myPending;
+		myPending = new ArrayList<IBaseResource>();
+		myPendingBytes = 0;
+
+		if (myExecutor == null) {
+			myExecutor = Executors.newFixedThreadPool(myWorkerCount, new WorkerThreadFactory());
+			// Allow one bundle per worker to wait in the queue so that workers never sit idle
+			myInFlightPermits = myWorkerCount * 2;
+			myInFlight = new Semaphore(myInFlightPermits);
+		}
+
+		acquireInFlight(1);
+		try {
+			myExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sendBatch(batch, 0);
+					} catch (RuntimeException e) {
+						ourLog.error("Failed to send bundle of " + batch.size() + " resources", e);
+						for (IBaseResource next : batch) {
+							notifyOutcome(new Outcome(next, false, true, null, null, null, e));
+						}
+					} finally {
+						myInFlight.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			myInFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Receives the outcome of storing each resource
+	 */
+	public interface IOutcomeListener {
+
+		/**
+		 * Invoked once for each resource added to the loader, from one of the worker threads
+		 */
+		void handleOutcome(Outcome theOutcome);
+
+	}
+
+	/**
+	 * The outcome of storing a single resource
+	 */
+	public static class Outcome {
+
+		private final Throwable myException;
+		private final String myLocation;
+		private final IBaseOperationOutcome myOperationOutcome;
+		private final IBaseResource myResource;
+		private final String myStatus;
+		private final boolean mySuccess;
+		private final boolean myUnknown;
+
+		Outcome(IBaseResource theResource, boolean theSuccess, boolean theUnknown, String theStatus, String theLocation, IBaseOperationOutcome theOperationOutcome, Throwable theException) {
+			myResource = theResource;
+			mySuccess = theSuccess;
+			myUnknown = theUnknown;
+			myStatus = theStatus;
+			myLocation = theLocation;
+			myOperationOutcome = theOperationOutcome;
+			myException = theException;
+		}
+
+		/**
+		 * Returns the exception which caused the bundle containing this resource to fail, if the
+		 * resource could not be stored because the whole request failed
+		 */
+		public Throwable getException() {
+			return myException;
+		}
+
+		/**
+		 * Returns the location (e.g. <code>Patient/123/_history/1</code>) the server reported for the
+		 * stored resource, if any
+		 */
+		public String getLocation() {
+			return myLocation;
+		}
+
+		/**
+		 * Returns the OperationOutcome the server reported for this resource, if any
+		 */
+		public IBaseOperationOutcome getOperationOutcome() {
+			return myOperationOutcome;
+		}
+
+		/**
+		 * Returns the resource which was added to the loader
+		 */
+		public IBaseResource getResource() {
+			return myResource;
+		}
+
+		/**
+		 * Returns the HTTP status (e.g. <code>201 Created</code>) the server reported for this resource, if any
+		 */
+		public String getStatus() {
+			return myStatus;
+		}
+
+		/**
+		 * Returns <code>true</code> if the resource was stored successfully
+		 */
+		public boolean isSuccess() {
+			return mySuccess;
+		}
+
+		/**
+		 * Returns <code>true</code> if the request containing this resource failed without a definite
+		 * response from the server, so the resource may or may not have been stored. In this case
+		 * {@link #isSuccess()} returns <code>false</code>.
+		 */
+		public boolean isUnknown() {
+			return myUnknown;
+		}
+
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger myThreadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable theRunnable) {
+			Thread retVal = new Thread(theRunnable, "hapi-fhir-bulk-loader-" + myThreadCount.incrementAndGet());
+			retVal.setDaemon(true);
+			return retVal;
+		}
+
+	}
+
+}
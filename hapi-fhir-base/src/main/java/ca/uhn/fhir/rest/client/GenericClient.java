@@ -24,8 +24,11 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -44,10 +47,13 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.primitive.UriDt;
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IBundleEntryIterator;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.*;
 import ca.uhn.fhir.rest.client.api.IHttpClient;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
 import ca.uhn.fhir.rest.gclient.*;
@@ -61,6 +67,7 @@ import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ICallable;
 import ca.uhn.fhir.util.ParametersUtil;
 import ca.uhn.fhir.util.UrlUtil;
@@ -555,7 +562,38 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		return b.toString();
 	}
 
-	private abstract class BaseClientExecutable<T extends IClientExecutable<?, ?>, Y> implements IClientExecutable<T, Y> {
+	/**
+	 * Returns the URL of the first link in the bundle with the given relation, or <code>null</code>
+	 */
+	private static String findLinkUrl(FhirContext theContext, String theWantRel, IBaseBundle theBundle) {
+		RuntimeResourceDefinition def = theContext.getResourceDefinition(theBundle);
+		List<IBase> links = def.getChildByName("link").getAccessor().getValues(theBundle);
+		if (links == null) {
+			return null;
+		}
+		for (IBase nextLink : links) {
+			BaseRuntimeElementCompositeDefinition<?> linkDef = (BaseRuntimeElementCompositeDefinition<?>) theContext.getElementDefinition(nextLink.getClass());
+			List<IBase> rel = linkDef.getChildByName("relation").getAccessor().getValues(nextLink);
+			if (rel == null || rel.isEmpty()) {
+				continue;
+			}
+			String relation = ((IPrimitiveType<?>) rel.get(0)).getValueAsString();
+			if (theWantRel.equals(relation) || (theWantRel == LoadPageInternal.PREVIOUS && LoadPageInternal.PREV.equals(relation))) {
+				List<IBase> urls = linkDef.getChildByName("url").getAccessor().getValues(nextLink);
+				if (urls == null || urls.isEmpty()) {
+					continue;
+				}
+				String url = ((IPrimitiveType<?>) urls.get(0)).getValueAsString();
+				if (isBlank(url)) {
+					continue;
+				}
+				return url;
+			}
+		}
+		return null;
+	}
+
+	private abstract class BaseClientExecutable<T extends IClientExecutable<?, ?>, Y> implements IAsyncClientExecutable<T, Y> {
 
 		protected EncodingEnum myParamEncoding;
 
@@ -601,6 +639,21 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return (T) this;
 		}
 
+		@Override
+		public Future<Y> executeAsync() {
+			return executeAsync(null);
+		}
+
+		@Override
+		public Future<Y> executeAsync(IClientExecutableCallback<Y> theCallback) {
+			return invokeAsync(new Callable<Y>() {
+				@Override
+				public Y call() {
+					return execute();
+				}
+			}, theCallback);
+		}
+
 		protected EncodingEnum getParamEncoding() {
 			return myParamEncoding;
 		}
@@ -680,6 +733,39 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 	}
 
+	private final class BundleEntryIteratorResponseHandler implements IClientResponseHandlerRetainsResponse<IBundleEntryIterator> {
+
+		private List<Class<? extends IBaseResource>> myPreferResponseTypes;
+
+		public BundleEntryIteratorResponseHandler(List<Class<? extends IBaseResource>> thePreferResponseTypes) {
+			myPreferResponseTypes = thePreferResponseTypes;
+		}
+
+		@Override
+		public IBundleEntryIterator invokeClient(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode, Map<String, List<String>> theHeaders) throws IOException, BaseServerResponseException {
+			// The reader is closed as soon as this method returns, so the body can't be read lazily
+			Reader reader = new StringReader(IOUtils.toString(theResponseReader));
+			return invokeClient(theResponseMimeType, reader, theResponseStatusCode, theHeaders, null);
+		}
+
+		@Override
+		public IBundleEntryIterator invokeClient(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode, Map<String, List<String>> theHeaders, IHttpResponse theResponse) throws BaseServerResponseException {
+			EncodingEnum respType = EncodingEnum.forContentType(theResponseMimeType);
+			if (respType == null) {
+				throw NonFhirResponseException.newInstance(theResponseStatusCode, theResponseMimeType, theResponseReader);
+			}
+			IParser parser = respType.newParser(myContext);
+			if (myPreferResponseTypes != null) {
+				parser.setPreferTypes(myPreferResponseTypes);
+			}
+			IBundleEntryIterator retVal = parser.parseBundleEntries(theResponseReader);
+			if (theResponse != null) {
+				retVal = new ResponseClosingBundleEntryIterator(retVal, theResponse);
+			}
+			return retVal;
+		}
+	}
+
 	private final class BundleResponseHandler implements IClientResponseHandler<Bundle> {
 
 		private Class<? extends IBaseResource> myType;
@@ -1169,32 +1255,24 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return nextOrPrevious("next", theBundle);
 		}
 
+		@Override
+		public <T extends IBaseBundle> IPageIterator iterate(T theFirstPage) {
+			return iterate(theFirstPage, 2);
+		}
+
+		@Override
+		public <T extends IBaseBundle> IPageIterator iterate(T theFirstPage, int thePrefetchPages) {
+			Validate.notNull(theFirstPage, "theFirstPage must not be null");
+			Validate.isTrue(thePrefetchPages > 0, "thePrefetchPages must be at least 1");
+			return new PageIteratorInternal(theFirstPage, thePrefetchPages);
+		}
+
 		private <T extends IBaseBundle> IGetPageTyped<T> nextOrPrevious(String theWantRel, T theBundle) {
-			RuntimeResourceDefinition def = myContext.getResourceDefinition(theBundle);
-			List<IBase> links = def.getChildByName("link").getAccessor().getValues(theBundle);
-			if (links == null || links.isEmpty()) {
+			String url = findLinkUrl(myContext, theWantRel, theBundle);
+			if (url == null) {
 				throw new IllegalArgumentException(myContext.getLocalizer().getMessage(GenericClient.class, "noPagingLinkFoundInBundle", theWantRel));
 			}
-			for (IBase nextLink : links) {
-				BaseRuntimeElementCompositeDefinition linkDef = (BaseRuntimeElementCompositeDefinition) myContext.getElementDefinition(nextLink.getClass());
-				List<IBase> rel = linkDef.getChildByName("relation").getAccessor().getValues(nextLink);
-				if (rel == null || rel.isEmpty()) {
-					continue;
-				}
-				String relation = ((IPrimitiveType<?>) rel.get(0)).getValueAsString();
-				if (theWantRel.equals(relation) || (theWantRel == PREVIOUS && PREV.equals(relation))) {
-					List<IBase> urls = linkDef.getChildByName("url").getAccessor().getValues(nextLink);
-					if (urls == null || urls.isEmpty()) {
-						continue;
-					}
-					String url = ((IPrimitiveType<?>) urls.get(0)).getValueAsString();
-					if (isBlank(url)) {
-						continue;
-					}
-					return (IGetPageTyped<T>) byUrl(url).andReturnBundle(theBundle.getClass());
-				}
-			}
-			throw new IllegalArgumentException(myContext.getLocalizer().getMessage(GenericClient.class, "noPagingLinkFoundInBundle", theWantRel));
+			return (IGetPageTyped<T>) byUrl(url).andReturnBundle(theBundle.getClass());
 		}
 
 		@Override
@@ -1623,6 +1701,180 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 	}
 
+	/**
+	 * Iterates over a set of paged results, fetching subsequent pages in the background. Because
+	 * the URL of each page is only known once the previous page has been parsed, at most one page
+	 * is being fetched at a time, but fetching and parsing overlap with the caller's processing
+	 * of earlier pages.
+	 */
+	private final class PageIteratorInternal implements IPageIterator {
+
+		private final Class<? extends IBaseBundle> myBundleType;
+		private boolean myClosed;
+		private Iterator<IBaseResource> myCurrentPage;
+		private Throwable myFailure;
+		private Future<?> myFetch;
+		private String myNextPageUrl;
+		private int myPageCount;
+		private final int myPrefetchPages;
+		private final LinkedList<List<IBaseResource>> myReadyPages = new LinkedList<List<IBaseResource>>();
+
+		PageIteratorInternal(IBaseBundle theFirstPage, int thePrefetchPages) {
+			myBundleType = theFirstPage.getClass();
+			myPrefetchPages = thePrefetchPages;
+			myCurrentPage = BundleUtil.toListOfResources(myContext, theFirstPage).iterator();
+			myNextPageUrl = findLinkUrl(myContext, "next", theFirstPage);
+			myPageCount = 1;
+			synchronized (this) {
+				fetchIfRequired();
+			}
+		}
+
+		@Override
+		public void close() {
+			Future<?> fetch;
+			synchronized (this) {
+				if (myClosed) {
+					return;
+				}
+				myClosed = true;
+				myReadyPages.clear();
+				fetch = myFetch;
+				myFetch = null;
+				notifyAll();
+			}
+			myCurrentPage = null;
+			if (fetch != null) {
+				fetch.cancel(true);
+			}
+		}
+
+		/**
+		 * Must be called while holding the lock
+		 */
+		private void fetchIfRequired() {
+			if (myClosed || myFetch != null || myFailure != null || myNextPageUrl == null) {
+				return;
+			}
+			if (myReadyPages.size() >= myPrefetchPages) {
+				return;
+			}
+
+			final String url = myNextPageUrl;
+			myFetch = getAsyncExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					fetchPage(url);
+				}
+			});
+		}
+
+		private void fetchPage(String theUrl) {
+			IBaseBundle page;
+			List<IBaseResource> resources;
+			String nextPageUrl;
+			try {
+				page = loadPage().byUrl(theUrl).andReturnBundle(myBundleType).execute();
+				resources = BundleUtil.toListOfResources(myContext, page);
+				nextPageUrl = findLinkUrl(myContext, "next", page);
+			} catch (Throwable e) {
+				synchronized (this) {
+					if (!myClosed) {
+						ourLog.debug("Failed to fetch page of results from " + theUrl, e);
+						myFailure = e;
+					}
+					myFetch = null;
+					notifyAll();
+				}
+				return;
+			}
+
+			synchronized (this) {
+				myFetch = null;
+				if (myClosed) {
+					return;
+				}
+				myReadyPages.add(resources);
+				myPageCount++;
+				if (nextPageUrl != null && nextPageUrl.equals(theUrl)) {
+					ourLog.warn("Page at {} links to itself as the next page, stopping", theUrl);
+					nextPageUrl = null;
+				}
+				myNextPageUrl = nextPageUrl;
+				fetchIfRequired();
+				notifyAll();
+			}
+		}
+
+		@Override
+		public synchronized String getNextPageUrl() {
+			return myNextPageUrl;
+		}
+
+		@Override
+		public synchronized int getPageCount() {
+			return myPageCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (true) {
+				if (myCurrentPage != null && myCurrentPage.hasNext()) {
+					return true;
+				}
+				List<IBaseResource> nextPage = takeNextPage();
+				if (nextPage == null) {
+					return false;
+				}
+				myCurrentPage = nextPage.iterator();
+			}
+		}
+
+		@Override
+		public IBaseResource next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return myCurrentPage.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Blocks until the next page is available, returning <code>null</code> if there are no more pages
+		 */
+		private synchronized List<IBaseResource> takeNextPage() {
+			while (myReadyPages.isEmpty()) {
+				if (myClosed) {
+					return null;
+				}
+				if (myFailure != null) {
+					Throwable failure = myFailure;
+					if (failure instanceof RuntimeException) {
+						throw (RuntimeException) failure;
+					}
+					throw new FhirClientConnectionException("Failed to fetch page of results from " + myNextPageUrl, failure);
+				}
+				if (myFetch == null && myNextPageUrl == null) {
+					return null;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FhirClientConnectionException("Interrupted while waiting for page of results from " + myNextPageUrl, e);
+				}
+			}
+			List<IBaseResource> retVal = myReadyPages.removeFirst();
+			fetchIfRequired();
+			return retVal;
+		}
+
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private class ReadInternal extends BaseClientExecutable implements IRead, IReadTyped, IReadExecutable {
 		private IIdType myId;
@@ -1780,6 +2032,59 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 	}
 
+	/**
+	 * Closes the HTTP response once the wrapped iterator is exhausted or closed
+	 */
+	private static final class ResponseClosingBundleEntryIterator implements IBundleEntryIterator {
+
+		private boolean myClosed;
+		private final IHttpResponse myResponse;
+		private final IBundleEntryIterator myWrap;
+
+		public ResponseClosingBundleEntryIterator(IBundleEntryIterator theWrap, IHttpResponse theResponse) {
+			myWrap = theWrap;
+			myResponse = theResponse;
+		}
+
+		@Override
+		public void close() {
+			if (!myClosed) {
+				myClosed = true;
+				myWrap.close();
+				myResponse.close();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean retVal;
+			try {
+				retVal = myWrap.hasNext();
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+			if (!retVal) {
+				close();
+			}
+			return retVal;
+		}
+
+		@Override
+		public IBaseResource next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return myWrap.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private class SearchInternal extends BaseClientExecutable<IQuery<Object>, Object> implements IQuery<Object>, IUntypedQuery {
 
@@ -1850,8 +2155,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return this;
 		}
 
-		@Override
-		public IBase execute() {
+		private Map<String, List<String>> createParams() {
 
 			Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
 			// Map<String, List<String>> initial = createExtraParams();
@@ -1925,6 +2229,25 @@ public class GenericClient extends BaseClient implements IGenericClient {
 				}
 			}
 
+			return params;
+		}
+
+		private BaseHttpClientInvocation createInvocation(Map<String, List<String>> theParams) {
+			IdDt resourceId = myResourceId != null ? new IdDt(myResourceId) : null;
+
+			BaseHttpClientInvocation invocation;
+			if (mySearchUrl != null) {
+				invocation = SearchMethodBinding.createSearchInvocation(myContext, mySearchUrl, theParams);
+			} else {
+				invocation = SearchMethodBinding.createSearchInvocation(myContext, myResourceName, theParams, resourceId, myCompartmentName, mySearchStyle);
+			}
+			return invocation;
+		}
+
+		@Override
+		public IBase execute() {
+			Map<String, List<String>> params = createParams();
+
 			if (myReturnBundleType == null && myContext.getVersion().getVersion().isRi()) {
 				throw new IllegalArgumentException("When using the client with HL7.org structures, you must specify "
 						+ "the bundle return type for the client by adding \".returnBundle(org.hl7.fhir.instance.model.Bundle.class)\" to your search method call before the \".execute()\" method");
@@ -1937,17 +2260,14 @@ public class GenericClient extends BaseClient implements IGenericClient {
 				binding = new BundleResponseHandler(myResourceType);
 			}
 
-			IdDt resourceId = myResourceId != null ? new IdDt(myResourceId) : null;
-
-			BaseHttpClientInvocation invocation;
-			if (mySearchUrl != null) {
-				invocation = SearchMethodBinding.createSearchInvocation(myContext, mySearchUrl, params);
-			} else {
-				invocation = SearchMethodBinding.createSearchInvocation(myContext, myResourceName, params, resourceId, myCompartmentName, mySearchStyle);
-			}
-
-			return invoke(params, binding, invocation);
+			return invoke(params, binding, createInvocation(params));
+		}
 
+		@Override
+		public IBundleEntryIterator iterateEntries() {
+			Map<String, List<String>> params = createParams();
+			BundleEntryIteratorResponseHandler binding = new BundleEntryIteratorResponseHandler(getPreferResponseTypes(myResourceType));
+			return invoke(params, binding, createInvocation(params));
 		}
 
 		@Override
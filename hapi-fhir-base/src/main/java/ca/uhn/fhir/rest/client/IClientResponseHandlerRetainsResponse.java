@@ -0,0 +1,49 @@
+package ca.uhn.fhir.rest.client;
+
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.method.IClientResponseHandler;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * Response handler which returns an object that continues to read from the response
+ * after the handler returns (e.g. an iterator which parses the response lazily). The
+ * client will not close the response after invoking a handler of this type, so the
+ * returned object becomes responsible for closing it.
+ */
+interface IClientResponseHandlerRetainsResponse<T> extends IClientResponseHandler<T> {
+
+	/**
+	 * This method is invoked instead of {@link #invokeClient(String, Reader, int, Map)}
+	 * 
+	 * @param theResponse
+	 *           The response, which must be closed by the returned object once it is done with it
+	 */
+	T invokeClient(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode, Map<String, List<String>> theHeaders, IHttpResponse theResponse) throws IOException, BaseServerResponseException;
+
+}
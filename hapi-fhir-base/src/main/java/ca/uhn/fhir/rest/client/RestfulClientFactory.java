@@ -28,6 +28,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -52,6 +56,8 @@ import ca.uhn.fhir.util.FhirTerser;
 public abstract class RestfulClientFactory implements IRestfulClientFactory {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(RestfulClientFactory.class);
+	private ExecutorService myAsyncExecutor;
+	private boolean myAsyncExecutorIsDefault;
 	private int myConnectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
 	private int myConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
 	private FhirContext myContext;
@@ -80,6 +86,30 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 		myContext = theFhirContext;
 	}
 
+	/**
+	 * Returns the executor used to run requests started using
+	 * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync() executeAsync()}
+	 * when the HTTP client can not send them without blocking, and to prefetch pages for
+	 * {@link ca.uhn.fhir.rest.gclient.IGetPage#iterate(org.hl7.fhir.instance.model.api.IBaseBundle) page iterators}.
+	 * <p>
+	 * Unless one has been supplied using {@link #setAsyncExecutor(ExecutorService)}, a fixed
+	 * pool of daemon threads is created the first time this method is called. The pool size
+	 * is the same as {@link #getPoolMaxTotal()}, so the number of requests run by the executor
+	 * at any one time is bounded by the size of the connection pool and any further
+	 * requests are queued until a thread becomes available.
+	 * </p>
+	 *
+	 * @since 2.2
+	 */
+	public synchronized ExecutorService getAsyncExecutor() {
+		if (myAsyncExecutor == null) {
+			ourLog.debug("Creating asynchronous client executor with {} threads", myPoolMaxTotal);
+			myAsyncExecutor = Executors.newFixedThreadPool(myPoolMaxTotal, new AsyncThreadFactory());
+			myAsyncExecutorIsDefault = true;
+		}
+		return myAsyncExecutor;
+	}
+
 	@Override
 	public int getConnectionRequestTimeout() {
 		return myConnectionRequestTimeout;
@@ -215,6 +245,18 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 		return serverBase;
 	}
 
+	/**
+	 * Sets the executor returned by {@link #getAsyncExecutor()}. The executor is not shut down
+	 * by the factory, so it is the responsibility of the caller to do so when it is no longer
+	 * needed. If set to <code>null</code>, a default executor will be created.
+	 *
+	 * @since 2.2
+	 */
+	public synchronized void setAsyncExecutor(ExecutorService theAsyncExecutor) {
+		shutdownDefaultAsyncExecutor();
+		myAsyncExecutor = theAsyncExecutor;
+	}
+
 	@Override
 	public synchronized void setConnectionRequestTimeout(int theConnectionRequestTimeout) {
 		myConnectionRequestTimeout = theConnectionRequestTimeout;
@@ -261,6 +303,7 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 	public synchronized void setPoolMaxTotal(int thePoolMaxTotal) {
 		myPoolMaxTotal = thePoolMaxTotal;
 		resetHttpClient();
+		shutdownDefaultAsyncExecutor();
 	}
 
 	@Override
@@ -269,6 +312,19 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 		resetHttpClient();
 	}
 
+	/**
+	 * Shuts down the executor created by {@link #getAsyncExecutor()}, if any. Requests
+	 * which have already been submitted are allowed to complete. Executors supplied
+	 * using {@link #setAsyncExecutor(ExecutorService)} are left alone.
+	 */
+	private void shutdownDefaultAsyncExecutor() {
+		if (myAsyncExecutorIsDefault) {
+			myAsyncExecutor.shutdown();
+			myAsyncExecutor = null;
+			myAsyncExecutorIsDefault = false;
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void validateServerBase(String theServerBase, IHttpClient theHttpClient, BaseClient theClient) {
@@ -360,4 +416,17 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 	 */
 	protected abstract void resetHttpClient();
 
+	private static class AsyncThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger myThreadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable theRunnable) {
+			Thread retVal = new Thread(theRunnable, "hapi-fhir-client-async-" + myThreadCount.incrementAndGet());
+			retVal.setDaemon(true);
+			return retVal;
+		}
+
+	}
+
 }
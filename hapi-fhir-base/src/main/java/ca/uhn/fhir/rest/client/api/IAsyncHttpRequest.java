@@ -0,0 +1,43 @@
+package ca.uhn.fhir.rest.client.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Optional interface for {@link IHttpRequest} implementations which are able to
+ * send a request without blocking the calling thread. When a request started using
+ * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync() executeAsync()}
+ * implements this interface, no thread is held while waiting for the server to respond.
+ * Otherwise the request is executed using the client factory's
+ * {@link ca.uhn.fhir.rest.client.RestfulClientFactory#getAsyncExecutor() async executor}.
+ * 
+ * @since 2.2
+ */
+public interface IAsyncHttpRequest extends IHttpRequest {
+
+	/**
+	 * Sends the request, returning immediately. Exactly one of the callback's methods
+	 * must be invoked once the response has been received or the request has failed.
+	 * 
+	 * @param theCallback The callback to notify
+	 */
+	void executeAsync(IHttpResponseCallback theCallback);
+
+}
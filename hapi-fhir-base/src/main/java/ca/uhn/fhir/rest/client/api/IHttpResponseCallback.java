@@ -0,0 +1,43 @@
+package ca.uhn.fhir.rest.client.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+
+/**
+ * Callback which is notified when a request sent using
+ * {@link IAsyncHttpRequest#executeAsync(IHttpResponseCallback)} completes
+ * 
+ * @since 2.2
+ */
+public interface IHttpResponseCallback {
+
+	/**
+	 * Invoked if the request could not be sent or no response was received
+	 */
+	void onFailure(IOException theException);
+
+	/**
+	 * Invoked when the response has been received. The response is closed by the callback.
+	 */
+	void onResponse(IHttpResponse theResponse);
+
+}
@@ -0,0 +1,276 @@
+package ca.uhn.fhir.rest.client.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Wraps an {@link IHttpResponse} so that a bounded copy of the response body can be
+ * captured while the client reads it, instead of buffering the whole body up front.
+ * This is used (e.g. by the logging interceptor) to inspect response bodies without
+ * holding a second copy of a potentially very large payload in memory.
+ * <p>
+ * Tees are registered using {@link #addTee(int, ITeeListener)}. Each tee captures at most
+ * the given number of characters from the body as it is consumed, and is notified when
+ * the response is closed. Note that only the portion of the body which was actually read
+ * by the client is captured.
+ * </p>
+ */
+public class TeeHttpResponse implements IHttpResponse {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private boolean myClosed;
+	private final IHttpResponse myResponse;
+	private final List<Tee> myTees = new ArrayList<Tee>(1);
+
+	/**
+	 * Constructor
+	 *
+	 * @param theResponse The response to wrap
+	 */
+	public TeeHttpResponse(IHttpResponse theResponse) {
+		Validate.notNull(theResponse, "theResponse must not be null");
+		myResponse = theResponse;
+	}
+
+	/**
+	 * Registers a tee which will capture up to <code>theMaxLength</code> characters of the
+	 * response body as it is read, and pass them to <code>theListener</code> when the response
+	 * is closed. Tees must be added before the body is read.
+	 */
+	public void addTee(int theMaxLength, ITeeListener theListener) {
+		Validate.isTrue(theMaxLength >= 0, "theMaxLength must not be negative");
+		Validate.notNull(theListener, "theListener must not be null");
+		myTees.add(new Tee(theMaxLength, theListener));
+	}
+
+	@Override
+	public void bufferEntitity() throws IOException {
+		myResponse.bufferEntitity();
+	}
+
+	@Override
+	public void close() {
+		if (!myClosed) {
+			myClosed = true;
+			for (Tee next : myTees) {
+				next.notifyListener();
+			}
+		}
+		myResponse.close();
+	}
+
+	@Override
+	public Reader createReader() throws IOException {
+		Reader retVal = myResponse.createReader();
+		if (myTees.isEmpty() || retVal == null) {
+			return retVal;
+		}
+		return new TeeReader(retVal);
+	}
+
+	@Override
+	public Map<String, List<String>> getAllHeaders() {
+		return myResponse.getAllHeaders();
+	}
+
+	@Override
+	public String getMimeType() {
+		return myResponse.getMimeType();
+	}
+
+	@Override
+	public Object getResponse() {
+		return myResponse.getResponse();
+	}
+
+	@Override
+	public int getStatus() {
+		return myResponse.getStatus();
+	}
+
+	@Override
+	public String getStatusInfo() {
+		return myResponse.getStatusInfo();
+	}
+
+	/**
+	 * Returns the response which is wrapped by this tee
+	 */
+	public IHttpResponse getWrappedResponse() {
+		return myResponse;
+	}
+
+	@Override
+	public InputStream readEntity() throws IOException {
+		InputStream retVal = myResponse.readEntity();
+		if (myTees.isEmpty() || retVal == null) {
+			return retVal;
+		}
+		return new TeeInputStream(retVal);
+	}
+
+	@Override
+	public String toString() {
+		return myResponse.toString();
+	}
+
+	/**
+	 * Listener which is notified of the captured body when a {@link TeeHttpResponse} is closed
+	 */
+	public interface ITeeListener {
+
+		/**
+		 * Invoked when the response is closed
+		 *
+		 * @param theBody
+		 *           The captured portion of the response body, or <code>null</code> if the body was never read
+		 * @param theTruncated
+		 *           Will be <code>true</code> if more of the body was read than could be captured
+		 */
+		void bodyCaptured(String theBody, boolean theTruncated);
+
+	}
+
+	private static class Tee {
+		private ByteArrayOutputStream myBytes;
+		private StringBuilder myChars;
+		private final ITeeListener myListener;
+		private final int myMaxLength;
+		private boolean myTruncated;
+
+		Tee(int theMaxLength, ITeeListener theListener) {
+			myMaxLength = theMaxLength;
+			myListener = theListener;
+		}
+
+		void bytes(byte[] theBuffer, int theOffset, int theLength) {
+			if (myBytes == null) {
+				myBytes = new ByteArrayOutputStream(Math.min(myMaxLength, 8192));
+			}
+			int length = Math.min(theLength, myMaxLength - myBytes.size());
+			if (length > 0) {
+				myBytes.write(theBuffer, theOffset, length);
+			}
+			if (length < theLength) {
+				myTruncated = true;
+			}
+		}
+
+		void chars(char[] theBuffer, int theOffset, int theLength) {
+			if (myChars == null) {
+				myChars = new StringBuilder(Math.min(myMaxLength, 8192));
+			}
+			int length = Math.min(theLength, myMaxLength - myChars.length());
+			if (length > 0) {
+				myChars.append(theBuffer, theOffset, length);
+			}
+			if (length < theLength) {
+				myTruncated = true;
+			}
+		}
+
+		void notifyListener() {
+			String body = null;
+			if (myChars != null) {
+				body = myChars.toString();
+			} else if (myBytes != null) {
+				body = new String(myBytes.toByteArray(), UTF8);
+			}
+			myListener.bodyCaptured(body, myTruncated);
+		}
+	}
+
+	private class TeeInputStream extends FilterInputStream {
+
+		TeeInputStream(InputStream theInputStream) {
+			super(theInputStream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int retVal = super.read();
+			if (retVal != -1) {
+				byte[] bytes = new byte[] { (byte) retVal };
+				for (Tee next : myTees) {
+					next.bytes(bytes, 0, 1);
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public int read(byte[] theBuffer, int theOffset, int theLength) throws IOException {
+			int retVal = super.read(theBuffer, theOffset, theLength);
+			if (retVal > 0) {
+				for (Tee next : myTees) {
+					next.bytes(theBuffer, theOffset, retVal);
+				}
+			}
+			return retVal;
+		}
+
+	}
+
+	private class TeeReader extends FilterReader {
+
+		TeeReader(Reader theReader) {
+			super(theReader);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int retVal = super.read();
+			if (retVal != -1) {
+				char[] chars = new char[] { (char) retVal };
+				for (Tee next : myTees) {
+					next.chars(chars, 0, 1);
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public int read(char[] theBuffer, int theOffset, int theLength) throws IOException {
+			int retVal = super.read(theBuffer, theOffset, theLength);
+			if (retVal > 0) {
+				for (Tee next : myTees) {
+					next.chars(theBuffer, theOffset, retVal);
+				}
+			}
+			return retVal;
+		}
+
+	}
+
+}
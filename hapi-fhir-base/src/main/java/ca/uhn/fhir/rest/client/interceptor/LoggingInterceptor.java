@@ -33,9 +33,15 @@ import org.slf4j.Logger;
 import ca.uhn.fhir.rest.client.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.TeeHttpResponse;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 
 public class LoggingInterceptor implements IClientInterceptor {
+	/**
+	 * Default value for {@link #setLogResponseBodyMaxLength(int)}
+	 */
+	public static final int DEFAULT_LOG_RESPONSE_BODY_MAX_LENGTH = 100000;
+
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(LoggingInterceptor.class);
 
 	private Logger myLog = ourLog;
@@ -43,6 +49,7 @@ public class LoggingInterceptor implements IClientInterceptor {
 	private boolean myLogRequestHeaders = false;
 	private boolean myLogRequestSummary = true;
 	private boolean myLogResponseBody = false;
+	private int myLogResponseBodyMaxLength = DEFAULT_LOG_RESPONSE_BODY_MAX_LENGTH;
 	private boolean myLogResponseHeaders = false;
 	private boolean myLogResponseSummary = true;
 
@@ -119,7 +126,25 @@ public class LoggingInterceptor implements IClientInterceptor {
 			}
 		}
 
-		if (myLogResponseBody) {
+		if (myLogResponseBody && theResponse instanceof TeeHttpResponse) {
+			/*
+			 * Rather than buffering the whole body up front, capture a bounded copy
+			 * of it as the client parses the response and log it once the response
+			 * has been closed
+			 */
+			((TeeHttpResponse) theResponse).addTee(myLogResponseBodyMaxLength, new TeeHttpResponse.ITeeListener() {
+				@Override
+				public void bodyCaptured(String theBody, boolean theTruncated) {
+					if (theBody == null) {
+						myLog.info("Client response body: (none)");
+					} else if (theTruncated) {
+						myLog.info("Client response body (truncated to {} chars):\n{}", myLogResponseBodyMaxLength, theBody);
+					} else {
+						myLog.info("Client response body:\n{}", theBody);
+					}
+				}
+			});
+		} else if (myLogResponseBody) {
 			theResponse.bufferEntitity();
 			InputStream respEntity = null;
 			try  {
@@ -200,6 +225,20 @@ public class LoggingInterceptor implements IClientInterceptor {
 		myLogResponseBody = theValue;
 	}
 
+	/**
+	 * Sets the maximum number of characters of each response body which will be logged if
+	 * {@link #setLogResponseBody(boolean) response body logging} is enabled. Response bodies are
+	 * captured as they are parsed by the client, so this also bounds the amount of memory used
+	 * to log each response.
+	 * <p>
+	 * The default value for this setting is defined by {@link #DEFAULT_LOG_RESPONSE_BODY_MAX_LENGTH}
+	 * </p>
+	 */
+	public void setLogResponseBodyMaxLength(int theLogResponseBodyMaxLength) {
+		Validate.isTrue(theLogResponseBodyMaxLength >= 0, "theLogResponseBodyMaxLength must not be negative");
+		myLogResponseBodyMaxLength = theLogResponseBodyMaxLength;
+	}
+
 	/**
 	 * Should headers for each request be logged, containing the URL and other information
 	 */
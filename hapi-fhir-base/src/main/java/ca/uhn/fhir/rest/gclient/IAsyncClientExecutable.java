@@ -0,0 +1,68 @@
+package ca.uhn.fhir.rest.gclient;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.Future;
+
+/**
+ * Optional interface for {@link IClientExecutable} implementations which are able to
+ * execute their request without blocking the calling thread. All of the executables
+ * returned by the fluent {@link ca.uhn.fhir.rest.client.IGenericClient generic client}
+ * implement this interface, for example:
+ * 
+ * <pre>
+ * IReadExecutable&lt;Patient&gt; read = client.read().resource(Patient.class).withId("123");
+ * Future&lt;Patient&gt; future = ((IAsyncClientExecutable&lt;?, Patient&gt;) read).executeAsync();
+ * </pre>
+ * 
+ * @since 2.2
+ */
+public interface IAsyncClientExecutable<T extends IClientExecutable<?, ?>, Y> extends IClientExecutable<T, Y> {
+
+	/**
+	 * Executes the request without blocking the calling thread. If the HTTP client is able to
+	 * (see {@link ca.uhn.fhir.rest.client.api.IAsyncHttpRequest}), the request is sent without
+	 * holding a thread while waiting for the response. Otherwise it is run using the
+	 * {@link ca.uhn.fhir.rest.client.RestfulClientFactory#getAsyncExecutor() async executor}
+	 * of the client factory, which also bounds the number of requests that may be in flight
+	 * at any one time.
+	 * <p>
+	 * The request is built and passed to the client interceptors on the calling thread,
+	 * and the response is parsed on the thread which received it. This object must not be
+	 * modified after this method has been called.
+	 * </p>
+	 * 
+	 * @return A future which will hold the result of the request (or the exception it threw)
+	 */
+	Future<Y> executeAsync();
+
+	/**
+	 * Executes the request without blocking the calling thread, notifying the given callback
+	 * when it completes. The callback is invoked on the thread which completed the request,
+	 * before the returned future completes.
+	 * 
+	 * @param theCallback The callback to notify (may be <code>null</code>)
+	 * @return A future which will hold the result of the request (or the exception it threw)
+	 * @see #executeAsync()
+	 */
+	Future<Y> executeAsync(IClientExecutableCallback<Y> theCallback);
+
+}
@@ -0,0 +1,42 @@
+package ca.uhn.fhir.rest.gclient;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Callback which is notified when a request started using
+ * {@link IAsyncClientExecutable#executeAsync(IClientExecutableCallback)} completes
+ * 
+ * @param <Y> The type returned by the request
+ */
+public interface IClientExecutableCallback<Y> {
+
+	/**
+	 * Invoked if the request fails. The exception will also be thrown (wrapped in an
+	 * {@link java.util.concurrent.ExecutionException}) by the future returned by <code>executeAsync</code>.
+	 */
+	void onFailure(Throwable theException);
+
+	/**
+	 * Invoked with the result of the request if it completes successfully
+	 */
+	void onSuccess(Y theResult);
+
+}
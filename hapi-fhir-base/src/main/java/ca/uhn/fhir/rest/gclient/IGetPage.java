@@ -40,6 +40,31 @@ public interface IGetPage {
 	 */
 	<T extends IBaseBundle> IGetPageTyped<T> next(T theBundle);
 	
+	/**
+	 * Returns an iterator over the resources in the given bundle followed by the resources in
+	 * every subsequent page, found by following the links with relation "next". Up to two pages
+	 * are fetched ahead of the caller in the background.
+	 * 
+	 * @see #iterate(IBaseBundle, int)
+	 * @since 2.2
+	 */
+	<T extends IBaseBundle> IPageIterator iterate(T theFirstPage);
+
+	/**
+	 * Returns an iterator over the resources in the given bundle followed by the resources in
+	 * every subsequent page, found by following the links with relation "next". Pages are
+	 * fetched and parsed in the background using the client factory's
+	 * {@link ca.uhn.fhir.rest.client.RestfulClientFactory#getAsyncExecutor() async executor}.
+	 * 
+	 * @param theFirstPage
+	 *           The first page of results, e.g. as returned by a search
+	 * @param thePrefetchPages
+	 *           The maximum number of pages which will be fetched ahead of the page currently being
+	 *           consumed. Must be at least 1.
+	 * @since 2.2
+	 */
+	<T extends IBaseBundle> IPageIterator iterate(T theFirstPage, int thePrefetchPages);
+
 	/**
 	 * Load the previous page of results using the link with relation "previous" in the bundle. This
 	 * method accepts a DSTU1 Atom Bundle
@@ -0,0 +1,69 @@
+package ca.uhn.fhir.rest.gclient;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Iterator over the resources in a paged set of search results, as returned by
+ * {@link IGetPage#iterate(org.hl7.fhir.instance.model.api.IBaseBundle, int)}. Subsequent
+ * pages are fetched and parsed on a background thread while the resources from the current
+ * page are being consumed.
+ * <p>
+ * No more than a fixed number of fetched pages are held in memory waiting to be consumed.
+ * Once that limit is reached, fetching pauses until the caller catches up.
+ * </p>
+ * <p>
+ * If a page can not be fetched, the resources from all pages which were successfully loaded
+ * before it are still returned. The failure is then thrown from {@link #hasNext()} or
+ * {@link #next()}, and {@link #getNextPageUrl()} returns the URL of the page which failed
+ * so that the caller can retry or resume from it.
+ * </p>
+ * <p>
+ * The iterator should be closed if it is abandoned before it has been exhausted, in order to
+ * cancel any outstanding fetches.
+ * </p>
+ */
+public interface IPageIterator extends Iterator<IBaseResource>, Closeable {
+
+	/**
+	 * Stops fetching pages, cancelling any fetch which is in progress and discarding pages
+	 * which have not yet been consumed. After this method is called {@link #hasNext()} returns
+	 * <code>false</code>. Calling this method more than once has no effect.
+	 */
+	@Override
+	void close();
+
+	/**
+	 * Returns the URL of the next page which has not yet been successfully fetched, or
+	 * <code>null</code> if the last page has been fetched
+	 */
+	String getNextPageUrl();
+
+	/**
+	 * Returns the number of pages (including the first page) which have been fetched so far
+	 */
+	int getPageCount();
+
+}
@@ -25,6 +25,7 @@ import java.util.Collection;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 
 import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.parser.IBundleEntryIterator;
 import ca.uhn.fhir.rest.method.SearchStyleEnum;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 
@@ -124,6 +125,22 @@ public interface IQuery<T> extends IClientExecutable<IQuery<T>, T>, IBaseQuery<I
 	 */
 	<B extends IBaseBundle> IClientExecutable<IQuery<B>, B> returnBundle(Class<B> theClass);
 
+	/**
+	 * Executes the search and returns an iterator over the resources in the returned
+	 * page of results. Each entry is parsed only as the iterator is advanced, so the
+	 * whole Bundle is never held in memory at once. This is useful for very large pages
+	 * of results.
+	 * <p>
+	 * The iterator holds the HTTP connection open until it has been exhausted, so it
+	 * should always be closed (e.g. in a <code>finally</code> block) once it is no
+	 * longer needed.
+	 * </p>
+	 * 
+	 * @see ca.uhn.fhir.parser.IParser#parseBundleEntries(java.io.Reader)
+	 * @since 2.2
+	 */
+	IBundleEntryIterator iterateEntries();
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -28,6 +28,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +49,7 @@ import ca.uhn.fhir.model.base.resource.BaseOperationOutcome;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.client.BaseHttpClientInvocation;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
@@ -159,6 +161,41 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 		return myContext;
 	}
 
+	/**
+	 * Returns the names of any operations (e.g. <code>_history</code>, <code>_search</code> or <code>$everything</code>)
+	 * which this method treats specially when matching incoming requests. This is used to build the server dispatch
+	 * index (see {@link ca.uhn.fhir.rest.server.ResourceBinding}), which assumes that {@link #isDispatchCandidate(RequestTypeEnum, String, boolean)}
+	 * gives the same answer for every operation name which is not returned here.
+	 */
+	public Set<String> getDispatchOperationNames() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns the names of any request parameters which must be present (either qualified or unqualified)
+	 * in order for this method to match an incoming request. The default implementation returns an empty set.
+	 */
+	public Set<String> getDispatchRequiredParameterNames() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns <code>false</code> if this method can never match an incoming request with the given
+	 * request type, operation name and level. Implementations must be conservative, since a <code>false</code>
+	 * value removes this method from the server dispatch index. If in doubt return <code>true</code> and leave
+	 * the final decision to {@link #incomingServerRequestMatchesMethod(RequestDetails)}.
+	 * 
+	 * @param theRequestType
+	 *           The request type
+	 * @param theOperation
+	 *           The operation name, or <code>null</code> if the request has no operation
+	 * @param theInstanceLevel
+	 *           Does the request have a resource ID
+	 */
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		return true;
+	}
+
 	public Set<String> getIncludes() {
 		Set<String> retVal = new TreeSet<String>();
 		for (IParameter next : myParameters) {
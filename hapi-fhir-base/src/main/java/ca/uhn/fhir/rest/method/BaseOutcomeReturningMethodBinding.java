@@ -130,6 +130,25 @@ abstract class BaseOutcomeReturningMethodBinding extends BaseMethodBinding<Metho
 		}
 	}
 
+	@Override
+	public Set<String> getDispatchOperationNames() {
+		if (getMatchingOperation() == null) {
+			return Collections.emptySet();
+		}
+		return Collections.singleton(getMatchingOperation());
+	}
+
+	@Override
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		if (!provideAllowableRequestTypes().contains(theRequestType)) {
+			return false;
+		}
+		if (getMatchingOperation() == null) {
+			return theOperation == null;
+		}
+		return getMatchingOperation().equals(theOperation);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		Set<RequestTypeEnum> allowableRequestTypes = provideAllowableRequestTypes();
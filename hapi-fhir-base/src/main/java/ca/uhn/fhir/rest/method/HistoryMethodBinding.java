@@ -24,8 +24,10 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -38,6 +40,7 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.rest.annotation.History;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.client.BaseHttpClientInvocation;
 import ca.uhn.fhir.rest.server.Constants;
@@ -102,6 +105,16 @@ public class HistoryMethodBinding extends BaseResourceReturningMethodBinding {
 		return ReturnTypeEnum.BUNDLE;
 	}
 
+	@Override
+	public Set<String> getDispatchOperationNames() {
+		return Collections.singleton(Constants.PARAM_HISTORY);
+	}
+
+	@Override
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		return Constants.PARAM_HISTORY.equals(theOperation);
+	}
+
 	// ObjectUtils.equals is replaced by a JDK7 method..
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
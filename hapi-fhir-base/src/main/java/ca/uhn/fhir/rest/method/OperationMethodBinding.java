@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseDatatype;
@@ -206,6 +207,22 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 		return myReturnType;
 	}
 
+	@Override
+	public Set<String> getDispatchOperationNames() {
+		return Collections.singleton(myName);
+	}
+
+	@Override
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		if (!myName.equals(theOperation)) {
+			return false;
+		}
+		if (theRequestType != RequestTypeEnum.GET && theRequestType != RequestTypeEnum.POST) {
+			return false;
+		}
+		return theInstanceLevel ? isCanOperateAtInstanceLevel() : myCanOperateAtTypeLevel;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (getResourceName() == null) {
@@ -21,6 +21,7 @@ package ca.uhn.fhir.rest.method;
  */
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.lang.reflect.Method;
 import java.util.HashSet;
@@ -39,6 +40,7 @@ import ca.uhn.fhir.rest.client.BaseHttpClientInvocation;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPagingCursorBundleProvider;
 import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.IRestfulServer;
 import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
@@ -97,6 +99,11 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 			throw new ResourceGoneException("Search ID[" + thePagingAction + "] does not exist and may have expired.");
 		}
 
+		String[] cursor = theRequest.getParameters().get(Constants.PARAM_PAGINGCURSOR);
+		if (cursor != null && cursor.length > 0 && isNotBlank(cursor[0]) && resultList instanceof IPagingCursorBundleProvider) {
+			((IPagingCursorBundleProvider) resultList).setPageCursor(cursor[0]);
+		}
+
 		Integer count = RestfulServerUtils.extractCountParameter(theRequest);
 		if (count == null) {
 			count = pagingProvider.getDefaultPageSize();
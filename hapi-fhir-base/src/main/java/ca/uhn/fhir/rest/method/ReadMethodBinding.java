@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -122,6 +123,19 @@ public class ReadMethodBinding extends BaseResourceReturningMethodBinding implem
 		return ReturnTypeEnum.RESOURCE;
 	}
 
+	@Override
+	public Set<String> getDispatchOperationNames() {
+		return Collections.singleton(Constants.PARAM_HISTORY);
+	}
+
+	@Override
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		if (theRequestType != RequestTypeEnum.GET || !theInstanceLevel) {
+			return false;
+		}
+		return theOperation == null || Constants.PARAM_HISTORY.equals(theOperation);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (!theRequest.getResourceName().equals(getResourceName())) {
@@ -2,6 +2,7 @@ package ca.uhn.fhir.rest.method;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -50,10 +51,12 @@ public abstract class RequestDetails {
 
 	private String myCompartmentName;
 	private String myCompleteUrl;
+	private long myEncodeTimeNanos;
 	private String myFhirServerBase;
 	private IIdType myId;
 	private String myOperation;
 	private Map<String, String[]> myParameters;
+	private long myParseTimeNanos;
 	private byte[] myRequestContents;
 	private IRequestOperationCallback myRequestOperationCallback = new RequestOperationCallback();
 	private String myRequestPath;
@@ -61,10 +64,33 @@ public abstract class RequestDetails {
 	private String myResourceName;
 	private boolean myRespondGzip;
 	private IRestfulResponse myResponse;
+	private long myResponseContentsLength;
 	private RestOperationTypeEnum myRestOperationType;
 	private String mySecondaryOperation;
 	private Map<String, List<String>> myUnqualifiedToQualifiedNames;
 	private Map<Object, Object> myUserData;
+
+	/**
+	 * Adds to the time spent encoding the response for this request (see {@link #getEncodeTimeNanos()})
+	 */
+	public void addEncodeTimeNanos(long theNanos) {
+		myEncodeTimeNanos += theNanos;
+	}
+
+	/**
+	 * Adds to the time spent parsing the request body for this request (see {@link #getParseTimeNanos()})
+	 */
+	public void addParseTimeNanos(long theNanos) {
+		myParseTimeNanos += theNanos;
+	}
+
+	/**
+	 * Adds to the number of characters written to the response body for this request
+	 */
+	public void addResponseContentsLength(long theLength) {
+		myResponseContentsLength += theLength;
+	}
+
 	protected abstract byte[] getByteStreamRequestContents();
 	
 	/**
@@ -122,6 +148,14 @@ public abstract class RequestDetails {
 		return myFhirServerBase;
 	}
 
+	/**
+	 * Returns the total time in nanoseconds spent encoding (and writing) the response body for this request, or
+	 * <code>0</code> if no response body has been encoded yet
+	 */
+	public long getEncodeTimeNanos() {
+		return myEncodeTimeNanos;
+	}
+
 	public abstract String getHeader(String name);
 
 	public abstract List<String> getHeaders(String name);
@@ -175,6 +209,14 @@ public abstract class RequestDetails {
 	 */
 	public abstract Reader getReader() throws IOException;
 
+	/**
+	 * Returns the total time in nanoseconds spent parsing (and reading) the request body for this request, or
+	 * <code>0</code> if no request body has been parsed
+	 */
+	public long getParseTimeNanos() {
+		return myParseTimeNanos;
+	}
+
 	/**
 	 * Returns an invoker that can be called from user code to advise the server interceptors
 	 * of any nested operations being invoked within operations. This invoker acts as a proxy for
@@ -206,6 +248,14 @@ public abstract class RequestDetails {
 		return myResponse;
 	}
 
+	/**
+	 * Returns the number of characters written to the response body for this request by the standard resource and
+	 * bundle encoding path
+	 */
+	public long getResponseContentsLength() {
+		return myResponseContentsLength;
+	}
+
 	public RestOperationTypeEnum getRestOperationType() {
 		return myRestOperationType;
 	}
@@ -255,6 +305,36 @@ public abstract class RequestDetails {
 		return myRequestContents;
 	}
 
+	/**
+	 * Returns a stream over the request body, for use by the method binding which parses it. The returned
+	 * stream may only be consumed once.
+	 * <p>
+	 * By default this is simply a stream over {@link #loadRequestContents()}, but implementations may
+	 * return a stream which reads directly from the underlying request if the contents have not already been
+	 * loaded (see {@link ca.uhn.fhir.rest.server.RestfulServer#setStreamRequestContents(boolean)}).
+	 * </p>
+	 */
+	public InputStream loadRequestContentsAsStream() {
+		return new ByteArrayInputStream(loadRequestContents());
+	}
+
+	/**
+	 * Returns a new stream over the request body, buffering the body first if needed. This method may be
+	 * called any number of times, and the body will still be available to the method binding which handles
+	 * the request afterwards. Interceptors which need to inspect the raw body should prefer this method
+	 * over {@link #loadRequestContents()}, since implementations may avoid holding large bodies in memory.
+	 */
+	public InputStream getBufferedRequestContents() {
+		return new ByteArrayInputStream(loadRequestContents());
+	}
+
+	/**
+	 * Returns <code>true</code> if {@link #loadRequestContents()} has already been called for this request
+	 */
+	protected boolean isRequestContentsLoaded() {
+		return myRequestContents != null;
+	}
+
 	public void setCompartmentName(String theCompartmentName) {
 		myCompartmentName = theCompartmentName;
 	}
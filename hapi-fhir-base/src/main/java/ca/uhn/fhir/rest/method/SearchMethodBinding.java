@@ -119,6 +119,22 @@ public class SearchMethodBinding extends BaseResourceReturningMethodBinding {
 		return myDescription;
 	}
 
+	@Override
+	public Set<String> getDispatchOperationNames() {
+		return Collections.singleton(Constants.PARAM_SEARCH);
+	}
+
+	@Override
+	public Set<String> getDispatchRequiredParameterNames() {
+		Set<String> retVal = new HashSet<String>();
+		for (IParameter next : getParameters()) {
+			if (next instanceof BaseQueryParameter && ((BaseQueryParameter) next).isRequired()) {
+				retVal.add(((BaseQueryParameter) next).getName());
+			}
+		}
+		return retVal;
+	}
+
 	@Override
 	public RestOperationTypeEnum getRestOperationType() {
 		return RestOperationTypeEnum.SEARCH_TYPE;
@@ -138,6 +154,20 @@ public class SearchMethodBinding extends BaseResourceReturningMethodBinding {
 //		}
 	}
 
+	@Override
+	public boolean isDispatchCandidate(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+		if (theInstanceLevel && myIdParamIndex == null) {
+			return false;
+		}
+		if (theRequestType == RequestTypeEnum.GET) {
+			return theOperation == null || Constants.PARAM_SEARCH.equals(theOperation);
+		}
+		if (theRequestType == RequestTypeEnum.POST) {
+			return Constants.PARAM_SEARCH.equals(theOperation);
+		}
+		return false;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getId() != null && myIdParamIndex == null) {
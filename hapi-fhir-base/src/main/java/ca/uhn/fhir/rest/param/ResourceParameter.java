@@ -21,10 +21,10 @@ package ca.uhn.fhir.rest.param;
  */
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
@@ -105,7 +105,7 @@ public class ResourceParameter implements IParameter {
 			try {
 				return IOUtils.toString(createRequestReader(theRequest));
 			} catch (IOException e) {
-				// Shouldn't happen since we're reading from a byte array
+				// Only happens if the request stream fails while it is being read
 				throw new InternalErrorException("Failed to load request", e);
 			}
 		case BODY_BYTE_ARRAY:
@@ -120,7 +120,7 @@ public class ResourceParameter implements IParameter {
 	}
 
 	public static Reader createRequestReader(RequestDetails theRequest, Charset charset) {
-		Reader requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+		Reader requestReader = new InputStreamReader(theRequest.loadRequestContentsAsStream(), charset);
 		return requestReader;
 	}
 
@@ -162,7 +162,7 @@ public class ResourceParameter implements IParameter {
 				try {
 					body = IOUtils.toString(requestReader);
 				} catch (IOException e) {
-					// This shouldn't happen since we're reading from a byte array..
+					// Only happens if the request stream fails while it is being read
 					throw new InternalErrorException(e);
 				}
 				encoding = MethodUtil.detectEncodingNoDefault(body);
@@ -170,7 +170,7 @@ public class ResourceParameter implements IParameter {
 					String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "noContentTypeInRequest", restOperationType);
 					throw new InvalidRequestException(msg);
 				} else {
-					requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+					requestReader = new StringReader(body);
 				}
 			} else {
 				String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "invalidContentTypeInRequest", ctValue, restOperationType);
@@ -181,6 +181,7 @@ public class ResourceParameter implements IParameter {
 		IParser parser = encoding.newParser(ctx);
 
 		T retVal;
+		long parseStart = System.nanoTime();
 		try {
 			if (theResourceType != null) {
 				retVal = parser.parseResource(theResourceType, requestReader);
@@ -190,6 +191,8 @@ public class ResourceParameter implements IParameter {
 		} catch (DataFormatException e) {
 			String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "failedToParseRequest", encoding.name(), e.getMessage());
 			throw new InvalidRequestException(msg);
+		} finally {
+			theRequest.addParseTimeNanos(System.nanoTime() - parseStart);
 		}
 		
 		if (theRequest.getServer().getFhirContext().getVersion().getVersion().equals(FhirVersionEnum.DSTU1)) {
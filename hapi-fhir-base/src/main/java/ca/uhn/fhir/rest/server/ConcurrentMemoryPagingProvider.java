@@ -0,0 +1,509 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.Validate;
+
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * In-memory paging provider which is designed to be used by servers handling a large number of concurrent searches.
+ * Unlike {@link FifoMemoryPagingProvider}, which serializes every store and retrieve through a single lock, this
+ * provider splits its storage into a number of independently locked segments.
+ * <p>
+ * Result lists are bounded by their estimated <b>weight</b> (approximate size in bytes, as computed by an
+ * {@link IBundleProviderWeigher}) rather than by their count, so the memory used stays bounded regardless of how large
+ * individual searches are. When a segment exceeds its share of the maximum weight, the least recently used result lists
+ * in that segment are evicted. A result list which is heavier than a segment's share of the maximum weight on its own
+ * is not stored at all (and is counted as evicted), since storing it would mean evicting everything else in the segment.
+ * Result lists may also be expired once they have not been accessed for a given amount of time (see
+ * {@link #setTimeToLive(long, TimeUnit)}).
+ * </p>
+ * <p>
+ * Per-client quotas may be enabled using {@link #setMaximumEntriesPerClient(int)}. Because the paging provider is not
+ * otherwise aware of the request which produced a result list, this provider must also be registered as an interceptor
+ * against the server (using {@link RestfulServer#registerInterceptor(ca.uhn.fhir.rest.server.interceptor.IServerInterceptor)})
+ * in order for quotas to be applied. By default, clients are identified by their remote address, but this can be
+ * changed by overriding {@link #determineClientKey(HttpServletRequest)}.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public class ConcurrentMemoryPagingProvider extends InterceptorAdapter implements IPagingProvider {
+
+	/**
+	 * The estimated weight of a single resource used by the default {@link IBundleProviderWeigher}
+	 */
+	public static final long DEFAULT_BYTES_PER_RESOURCE = 2048;
+
+	/**
+	 * Default number of segments (value is {@value #DEFAULT_CONCURRENCY_LEVEL})
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private static final IBundleProviderWeigher DEFAULT_WEIGHER = new IBundleProviderWeigher() {
+		@Override
+		public long weigh(IBundleProvider theBundleProvider) {
+			return Math.max(1, theBundleProvider.size()) * DEFAULT_BYTES_PER_RESOURCE;
+		}
+	};
+
+	private final ConcurrentMap<String, ConcurrentLinkedQueue<String>> myClientKeyToEntryIds = new ConcurrentHashMap<String, ConcurrentLinkedQueue<String>>();
+	private final ThreadLocal<String> myCurrentClientKey = new ThreadLocal<String>();
+	private volatile int myDefaultPageSize = 10;
+	private final AtomicLong myEvictionCount = new AtomicLong();
+	private final AtomicLong myExpiryCount = new AtomicLong();
+	private final AtomicLong myHitCount = new AtomicLong();
+	private volatile int myMaximumEntriesPerClient;
+	private volatile int myMaximumPageSize = 50;
+	private final long myMaximumWeight;
+	private final AtomicLong myMissCount = new AtomicLong();
+	private final AtomicLong myQuotaEvictionCount = new AtomicLong();
+	private final int mySegmentMask;
+	private final Segment[] mySegments;
+	private volatile long myTimeToLiveMillis;
+	private volatile IBundleProviderWeigher myWeigher = DEFAULT_WEIGHER;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theMaximumWeight
+	 *           The maximum total weight (approximate size in bytes) of all stored result lists
+	 */
+	public ConcurrentMemoryPagingProvider(long theMaximumWeight) {
+		this(theMaximumWeight, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theMaximumWeight
+	 *           The maximum total weight (approximate size in bytes) of all stored result lists
+	 * @param theConcurrencyLevel
+	 *           The estimated number of threads which will concurrently store and retrieve result lists. This is used
+	 *           to determine the number of independently locked segments.
+	 */
+	public ConcurrentMemoryPagingProvider(long theMaximumWeight, int theConcurrencyLevel) {
+		Validate.isTrue(theMaximumWeight > 0, "theMaximumWeight must be greater than 0");
+		Validate.isTrue(theConcurrencyLevel > 0, "theConcurrencyLevel must be greater than 0");
+
+		int segmentCount = 1;
+		while (segmentCount < theConcurrencyLevel) {
+			segmentCount <<= 1;
+		}
+
+		myMaximumWeight = theMaximumWeight;
+		mySegmentMask = segmentCount - 1;
+		mySegments = new Segment[segmentCount];
+		long segmentMaximumWeight = Math.max(1, theMaximumWeight / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			mySegments[i] = new Segment(segmentMaximumWeight);
+		}
+	}
+
+	/**
+	 * Determines the key which identifies the client making a given request, for the purposes of applying the per-client
+	 * quota. The default implementation uses the remote address of the request. Subclasses may override this method to
+	 * use a different strategy, e.g. an authenticated user name. Returning <code>null</code> exempts the request from
+	 * the quota.
+	 */
+	protected String determineClientKey(HttpServletRequest theRequest) {
+		return theRequest.getRemoteAddr();
+	}
+
+	@Override
+	public int getDefaultPageSize() {
+		return myDefaultPageSize;
+	}
+
+	/**
+	 * Returns the number of stored result lists which have been evicted because the maximum weight was exceeded
+	 */
+	public long getEvictionCount() {
+		return myEvictionCount.get();
+	}
+
+	/**
+	 * Returns the number of stored result lists which have been removed because they were not accessed within the
+	 * time-to-live
+	 */
+	public long getExpiryCount() {
+		return myExpiryCount.get();
+	}
+
+	/**
+	 * Returns the number of calls to {@link #retrieveResultList(String)} which returned a stored result list
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	/**
+	 * Returns the maximum number of result lists which may be stored on behalf of a single client, or <code>0</code>
+	 * if no quota is applied (which is the default)
+	 */
+	public int getMaximumEntriesPerClient() {
+		return myMaximumEntriesPerClient;
+	}
+
+	@Override
+	public int getMaximumPageSize() {
+		return myMaximumPageSize;
+	}
+
+	/**
+	 * Returns the maximum total weight of all stored result lists
+	 */
+	public long getMaximumWeight() {
+		return myMaximumWeight;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #retrieveResultList(String)} which did not find a stored result list
+	 */
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * Returns the number of stored result lists which have been evicted because a client exceeded its quota
+	 */
+	public long getQuotaEvictionCount() {
+		return myQuotaEvictionCount.get();
+	}
+
+	/**
+	 * Returns the number of result lists currently stored
+	 */
+	public int getSize() {
+		int retVal = 0;
+		for (Segment next : mySegments) {
+			synchronized (next) {
+				retVal += next.myEntries.size();
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the time-to-live for stored result lists in milliseconds, or <code>0</code> if result lists do not expire
+	 * (which is the default)
+	 */
+	public long getTimeToLiveMillis() {
+		return myTimeToLiveMillis;
+	}
+
+	/**
+	 * Returns the current total weight of all stored result lists
+	 */
+	public long getWeight() {
+		long retVal = 0;
+		for (Segment next : mySegments) {
+			synchronized (next) {
+				retVal += next.myWeight;
+			}
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean handleException(RequestDetails theRequestDetails, BaseServerResponseException theException, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		myCurrentClientKey.remove();
+		return true;
+	}
+
+	@Override
+	public boolean incomingRequestPreProcessed(HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		myCurrentClientKey.set(determineClientKey(theRequest));
+		return true;
+	}
+
+	private boolean isExpired(Entry theEntry, long theNow) {
+		long timeToLive = myTimeToLiveMillis;
+		return timeToLive > 0 && theNow - theEntry.myLastAccessed > timeToLive;
+	}
+
+	@Override
+	public void processingCompletedNormally(ServletRequestDetails theRequestDetails) {
+		myCurrentClientKey.remove();
+	}
+
+	private void removeFromClient(String theId, Entry theEntry) {
+		if (theEntry.myClientKey == null) {
+			return;
+		}
+		ConcurrentLinkedQueue<String> ids = myClientKeyToEntryIds.get(theEntry.myClientKey);
+		if (ids != null) {
+			ids.remove(theId);
+			if (ids.isEmpty()) {
+				myClientKeyToEntryIds.remove(theEntry.myClientKey, ids);
+			}
+		}
+	}
+
+	private void removeFromClient(Map<String, Entry> theRemoved) {
+		for (Map.Entry<String, Entry> next : theRemoved.entrySet()) {
+			removeFromClient(next.getKey(), next.getValue());
+		}
+	}
+
+	@Override
+	public IBundleProvider retrieveResultList(String theId) {
+		Segment segment = segmentFor(theId);
+		long now = System.currentTimeMillis();
+
+		Entry entry;
+		boolean expired = false;
+		synchronized (segment) {
+			entry = segment.myEntries.get(theId);
+			if (entry != null) {
+				if (isExpired(entry, now)) {
+					segment.remove(theId);
+					expired = true;
+				} else {
+					entry.myLastAccessed = now;
+				}
+			}
+		}
+
+		if (expired) {
+			myExpiryCount.incrementAndGet();
+			removeFromClient(theId, entry);
+			entry = null;
+		}
+
+		if (entry == null) {
+			myMissCount.incrementAndGet();
+			return null;
+		}
+
+		myHitCount.incrementAndGet();
+		return entry.myBundleProvider;
+	}
+
+	private Segment segmentFor(String theId) {
+		int hash = theId.hashCode();
+		hash ^= (hash >>> 16);
+		return mySegments[hash & mySegmentMask];
+	}
+
+	public ConcurrentMemoryPagingProvider setDefaultPageSize(int theDefaultPageSize) {
+		Validate.isTrue(theDefaultPageSize > 0, "size must be greater than 0");
+		myDefaultPageSize = theDefaultPageSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of result lists which may be stored on behalf of a single client. When a client exceeds
+	 * this number, its oldest stored result list is evicted. A value of <code>0</code> (which is the default) means that
+	 * no quota is applied.
+	 * <p>
+	 * Note that this provider must also be registered as an interceptor against the server in order for clients to be
+	 * identified.
+	 * </p>
+	 */
+	public ConcurrentMemoryPagingProvider setMaximumEntriesPerClient(int theMaximumEntriesPerClient) {
+		Validate.isTrue(theMaximumEntriesPerClient >= 0, "theMaximumEntriesPerClient must not be negative");
+		myMaximumEntriesPerClient = theMaximumEntriesPerClient;
+		return this;
+	}
+
+	public ConcurrentMemoryPagingProvider setMaximumPageSize(int theMaximumPageSize) {
+		Validate.isTrue(theMaximumPageSize > 0, "size must be greater than 0");
+		myMaximumPageSize = theMaximumPageSize;
+		return this;
+	}
+
+	/**
+	 * Sets the amount of time after which a stored result list which has not been accessed will be removed. A value of
+	 * <code>0</code> (which is the default) means that result lists are only removed in order to stay within the maximum
+	 * weight.
+	 */
+	public ConcurrentMemoryPagingProvider setTimeToLive(long theTimeToLive, TimeUnit theTimeUnit) {
+		Validate.isTrue(theTimeToLive >= 0, "theTimeToLive must not be negative");
+		Validate.notNull(theTimeUnit, "theTimeUnit must not be null");
+		myTimeToLiveMillis = theTimeUnit.toMillis(theTimeToLive);
+		return this;
+	}
+
+	/**
+	 * Sets the weigher used to estimate the size of stored result lists. By default, each result list is weighed at
+	 * {@link #DEFAULT_BYTES_PER_RESOURCE} bytes per resource it contains.
+	 */
+	public ConcurrentMemoryPagingProvider setWeigher(IBundleProviderWeigher theWeigher) {
+		Validate.notNull(theWeigher, "theWeigher must not be null");
+		myWeigher = theWeigher;
+		return this;
+	}
+
+	@Override
+	public String storeResultList(IBundleProvider theList) {
+		String id = UUID.randomUUID().toString();
+		String clientKey = myCurrentClientKey.get();
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(theList, Math.max(1, myWeigher.weigh(theList)), clientKey, now);
+
+		Segment segment = segmentFor(id);
+		if (entry.myWeight > segment.myMaximumWeight) {
+			/*
+			 * The entry could never fit alongside any other, so it is evicted straight away
+			 * rather than pushing out the rest of the segment
+			 */
+			myEvictionCount.incrementAndGet();
+			return id;
+		}
+
+		Map<String, Entry> expired = new LinkedHashMap<String, Entry>();
+		Map<String, Entry> evicted = new LinkedHashMap<String, Entry>();
+		synchronized (segment) {
+			segment.put(id, entry);
+
+			/*
+			 * Entries are kept in access order, so the least recently accessed ones are at the head
+			 */
+			Iterator<Map.Entry<String, Entry>> iter = segment.myEntries.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, Entry> next = iter.next();
+				if (next.getValue() == entry) {
+					break;
+				}
+				if (isExpired(next.getValue(), now)) {
+					expired.put(next.getKey(), next.getValue());
+				} else if (segment.myWeight > segment.myMaximumWeight) {
+					evicted.put(next.getKey(), next.getValue());
+				} else {
+					break;
+				}
+				iter.remove();
+				segment.myWeight -= next.getValue().myWeight;
+			}
+		}
+
+		myExpiryCount.addAndGet(expired.size());
+		myEvictionCount.addAndGet(evicted.size());
+		removeFromClient(expired);
+		removeFromClient(evicted);
+
+		int maximumEntriesPerClient = myMaximumEntriesPerClient;
+		if (clientKey != null && maximumEntriesPerClient > 0) {
+			ConcurrentLinkedQueue<String> ids = myClientKeyToEntryIds.get(clientKey);
+			if (ids == null) {
+				ConcurrentLinkedQueue<String> newIds = new ConcurrentLinkedQueue<String>();
+				ids = myClientKeyToEntryIds.putIfAbsent(clientKey, newIds);
+				if (ids == null) {
+					ids = newIds;
+				}
+			}
+			ids.add(id);
+
+			List<String> overQuota = new ArrayList<String>();
+			while (ids.size() > maximumEntriesPerClient) {
+				String next = ids.poll();
+				if (next == null) {
+					break;
+				}
+				overQuota.add(next);
+			}
+			for (String next : overQuota) {
+				Segment nextSegment = segmentFor(next);
+				synchronized (nextSegment) {
+					if (nextSegment.remove(next) != null) {
+						myQuotaEvictionCount.incrementAndGet();
+					}
+				}
+			}
+		}
+
+		return id;
+	}
+
+	/**
+	 * Estimates the weight (approximate size in bytes) of a result list
+	 */
+	public interface IBundleProviderWeigher {
+
+		/**
+		 * Returns the estimated weight of the given result list. Values less than 1 are treated as 1.
+		 */
+		long weigh(IBundleProvider theBundleProvider);
+
+	}
+
+	private static class Entry {
+		private final IBundleProvider myBundleProvider;
+		private final String myClientKey;
+		private long myLastAccessed;
+		private final long myWeight;
+
+		public Entry(IBundleProvider theBundleProvider, long theWeight, String theClientKey, long theNow) {
+			myBundleProvider = theBundleProvider;
+			myWeight = theWeight;
+			myClientKey = theClientKey;
+			myLastAccessed = theNow;
+		}
+	}
+
+	/**
+	 * All access to a segment must be synchronized on the segment itself
+	 */
+	private static class Segment {
+		private final LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		private final long myMaximumWeight;
+		private long myWeight;
+
+		public Segment(long theMaximumWeight) {
+			myMaximumWeight = theMaximumWeight;
+		}
+
+		public void put(String theId, Entry theEntry) {
+			myEntries.put(theId, theEntry);
+			myWeight += theEntry.myWeight;
+		}
+
+		public Entry remove(String theId) {
+			Entry retVal = myEntries.remove(theId);
+			if (retVal != null) {
+				myWeight -= retVal.myWeight;
+			}
+			return retVal;
+		}
+	}
+
+}
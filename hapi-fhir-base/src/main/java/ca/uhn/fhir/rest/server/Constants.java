@@ -125,6 +125,7 @@ public class Constants {
 	public static final String PARAM_LASTUPDATED = "_lastUpdated";
 	public static final String PARAM_NARRATIVE = "_narrative";
 	public static final String PARAM_PAGINGACTION = "_getpages";
+	public static final String PARAM_PAGINGCURSOR = "_getpagescursor";
 	public static final String PARAM_PAGINGOFFSET = "_getpagesoffset";
 	public static final String PARAM_PRETTY = "_pretty";
 	public static final String PARAM_PRETTY_VALUE_TRUE = "true";
@@ -141,6 +142,7 @@ public class Constants {
 	public static final String PARAM_TAG = "_tag";
 	public static final String PARAM_TAGS = "_tags";
 	public static final String PARAM_TEXT = "_text";
+	public static final String PARAM_TYPE = "_type";
 	public static final String PARAM_VALIDATE = "_validate";
 	public static final String PARAMQUALIFIER_MISSING = ":missing";
 	public static final String PARAMQUALIFIER_MISSING_FALSE = "false";
@@ -160,6 +162,7 @@ public class Constants {
 	public static final int STATUS_HTTP_409_CONFLICT = 409;
 	public static final int STATUS_HTTP_410_GONE = 410;
 	public static final int STATUS_HTTP_412_PRECONDITION_FAILED = 412;
+	public static final int STATUS_HTTP_413_PAYLOAD_TOO_LARGE = 413;
 	
 	public static final int STATUS_HTTP_422_UNPROCESSABLE_ENTITY = 422;
 	public static final int STATUS_HTTP_500_INTERNAL_ERROR = 500;
@@ -25,6 +25,11 @@ import java.util.UUID;
 
 import org.apache.commons.lang3.Validate;
 
+/**
+ * Simple in-memory paging provider which retains a fixed number of result lists, discarding the oldest
+ * ones first. Access to the stored lists is serialized, so servers handling a large number of concurrent
+ * searches should consider using {@link ConcurrentMemoryPagingProvider} instead.
+ */
 public class FifoMemoryPagingProvider implements IPagingProvider {
 
 	private LinkedHashMap<String, IBundleProvider> myBundleProviders;
@@ -0,0 +1,56 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A {@link IBundleProvider} which can load the page next to the last page it returned more
+ * efficiently if it is given a cursor describing the edge of that page, instead of only the
+ * offset of the new page. The server adds these cursors to the next and previous paging
+ * links, and hands the cursor from an incoming paging request back to the provider
+ * before loading the page.
+ * <p>
+ * Because the cursor is set on the provider returned by the
+ * {@link IPagingProvider#retrieveResultList(String) paging provider}, that provider must
+ * return a new instance for each request.
+ * </p>
+ */
+public interface IPagingCursorBundleProvider extends IBundleProvider {
+
+	/**
+	 * Returns a cursor describing the last resource of the page most recently returned by
+	 * {@link #getResources(int, int)}, or <code>null</code> if no cursor is available
+	 */
+	String getNextPageCursor();
+
+	/**
+	 * Returns a cursor describing the first resource of the page most recently returned by
+	 * {@link #getResources(int, int)}, or <code>null</code> if no cursor is available
+	 */
+	String getPreviousPageCursor();
+
+	/**
+	 * Supplies the cursor which was found in the paging link of the current request. The
+	 * provider must ignore a cursor which it does not recognize, or which does not lie
+	 * next to the requested page.
+	 */
+	void setPageCursor(String theCursor);
+
+}
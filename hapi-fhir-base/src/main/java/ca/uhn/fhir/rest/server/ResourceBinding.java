@@ -20,9 +20,19 @@ package ca.uhn.fhir.rest.server;
  * #L%
  */
 
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
 
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.method.BaseMethodBinding;
 import ca.uhn.fhir.rest.method.RequestDetails;
 
@@ -35,6 +45,7 @@ public class ResourceBinding {
 
 	private String resourceName;
 	private List<BaseMethodBinding<?>> methods = new ArrayList<BaseMethodBinding<?>>();
+	private volatile DispatchIndex myDispatchIndex;
 
 	public ResourceBinding() {
 	}
@@ -51,8 +62,9 @@ public class ResourceBinding {
 		}
 
 		ourLog.debug("Looking for a handler for {}", theRequest);
-		for (BaseMethodBinding<?> rm : methods) {
-			if (rm.incomingServerRequestMatchesMethod(theRequest)) {
+		for (DispatchEntry next : getDispatchIndex().getCandidates(theRequest)) {
+			BaseMethodBinding<?> rm = next.myMethod;
+			if (next.hasRequiredParameters(theRequest) && rm.incomingServerRequestMatchesMethod(theRequest)) {
 				ourLog.debug("Handler {} matches", rm);
 				return rm;
 			} else {
@@ -62,6 +74,26 @@ public class ResourceBinding {
 		return null;
 	}
 
+	private DispatchIndex getDispatchIndex() {
+		DispatchIndex retVal = myDispatchIndex;
+		if (retVal == null || retVal.myMethodCount != methods.size()) {
+			retVal = new DispatchIndex(methods);
+			myDispatchIndex = retVal;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Rebuilds the index used to select candidate methods for an incoming request. The index is
+	 * built automatically when it is first needed, but the server calls this method once all providers
+	 * have been registered so that the first request does not pay the cost of building it.
+	 */
+	public void rebuildDispatchIndex() {
+		if (methods != null) {
+			myDispatchIndex = new DispatchIndex(methods);
+		}
+	}
+
 	public String getResourceName() {
 		return resourceName;
 	}
@@ -76,10 +108,12 @@ public class ResourceBinding {
 
 	public void setMethods(List<BaseMethodBinding<?>> methods) {
 		this.methods = methods;
+		myDispatchIndex = null;
 	}
 
 	public void addMethod(BaseMethodBinding<?> method) {
 		this.methods.add(method);
+		myDispatchIndex = null;
 	}
 
 	@Override
@@ -94,4 +128,131 @@ public class ResourceBinding {
 		return 0;
 	}
 
+	/**
+	 * Index over the method bindings for a single resource type (or for the server level), keyed by
+	 * request type, operation name and instance/type level. Each key maps to the methods which could
+	 * possibly match a request with those characteristics, in the same order as they were registered,
+	 * so that the first method to match is the same one that a linear scan would have found.
+	 */
+	private static class DispatchIndex {
+
+		/**
+		 * Stands in for any operation name that no method declares in
+		 * {@link BaseMethodBinding#getDispatchOperationNames()}
+		 */
+		private static final String UNKNOWN_OPERATION = "$$unindexed$$";
+
+		private final List<DispatchEntry> myAllEntries;
+		private final Map<DispatchKey, List<DispatchEntry>> myKeyToEntries = new HashMap<DispatchKey, List<DispatchEntry>>();
+		private final int myMethodCount;
+		private final Set<String> myOperationNames = new HashSet<String>();
+
+		DispatchIndex(List<BaseMethodBinding<?>> theMethods) {
+			myMethodCount = theMethods.size();
+
+			myAllEntries = new ArrayList<DispatchEntry>(theMethods.size());
+			for (BaseMethodBinding<?> next : theMethods) {
+				myAllEntries.add(new DispatchEntry(next));
+				myOperationNames.addAll(next.getDispatchOperationNames());
+			}
+
+			List<String> operations = new ArrayList<String>(myOperationNames);
+			operations.add(null);
+			operations.add(UNKNOWN_OPERATION);
+			for (RequestTypeEnum nextRequestType : RequestTypeEnum.values()) {
+				for (String nextOperation : operations) {
+					for (boolean nextInstanceLevel : new boolean[] { false, true }) {
+						List<DispatchEntry> entries = new ArrayList<DispatchEntry>();
+						for (DispatchEntry nextEntry : myAllEntries) {
+							if (nextEntry.myMethod.isDispatchCandidate(nextRequestType, nextOperation, nextInstanceLevel)) {
+								entries.add(nextEntry);
+							}
+						}
+						if (entries.isEmpty()) {
+							entries = Collections.emptyList();
+						}
+						myKeyToEntries.put(new DispatchKey(nextRequestType, nextOperation, nextInstanceLevel), entries);
+					}
+				}
+			}
+		}
+
+		List<DispatchEntry> getCandidates(RequestDetails theRequest) {
+			RequestTypeEnum requestType = theRequest.getRequestType();
+			if (requestType == null) {
+				return myAllEntries;
+			}
+
+			String operation = defaultIfBlank(theRequest.getOperation(), null);
+			if (operation != null && !myOperationNames.contains(operation)) {
+				operation = UNKNOWN_OPERATION;
+			}
+
+			List<DispatchEntry> retVal = myKeyToEntries.get(new DispatchKey(requestType, operation, theRequest.getId() != null));
+			if (retVal == null) {
+				return myAllEntries;
+			}
+			return retVal;
+		}
+
+	}
+
+	private static class DispatchEntry {
+
+		private final BaseMethodBinding<?> myMethod;
+		private final String[] myRequiredParameterNames;
+
+		DispatchEntry(BaseMethodBinding<?> theMethod) {
+			myMethod = theMethod;
+			Set<String> requiredParameterNames = theMethod.getDispatchRequiredParameterNames();
+			myRequiredParameterNames = requiredParameterNames.toArray(new String[requiredParameterNames.size()]);
+		}
+
+		boolean hasRequiredParameters(RequestDetails theRequest) {
+			for (String next : myRequiredParameterNames) {
+				if (theRequest.getParameters().containsKey(next)) {
+					continue;
+				}
+				Map<String, List<String>> unqualifiedToQualifiedNames = theRequest.getUnqualifiedToQualifiedNames();
+				if (unqualifiedToQualifiedNames != null && unqualifiedToQualifiedNames.containsKey(next)) {
+					continue;
+				}
+				return false;
+			}
+			return true;
+		}
+
+	}
+
+	private static class DispatchKey {
+
+		private final boolean myInstanceLevel;
+		private final String myOperation;
+		private final RequestTypeEnum myRequestType;
+
+		DispatchKey(RequestTypeEnum theRequestType, String theOperation, boolean theInstanceLevel) {
+			myRequestType = theRequestType;
+			myOperation = theOperation;
+			myInstanceLevel = theInstanceLevel;
+		}
+
+		@Override
+		public boolean equals(Object theObj) {
+			if (!(theObj instanceof DispatchKey)) {
+				return false;
+			}
+			DispatchKey other = (DispatchKey) theObj;
+			return myRequestType == other.myRequestType && myInstanceLevel == other.myInstanceLevel && StringUtils.equals(myOperation, other.myOperation);
+		}
+
+		@Override
+		public int hashCode() {
+			int retVal = myRequestType.hashCode();
+			retVal = 31 * retVal + (myOperation != null ? myOperation.hashCode() : 0);
+			retVal = 31 * retVal + (myInstanceLevel ? 1 : 0);
+			return retVal;
+		}
+
+	}
+
 }
@@ -70,6 +70,7 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
 import ca.uhn.fhir.rest.server.interceptor.ExceptionHandlingInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.IServerProcessingCompletedInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.*;
@@ -87,6 +88,11 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	 */
 	public static final ETagSupportEnum DEFAULT_ETAG_SUPPORT = ETagSupportEnum.ENABLED;
 
+	/**
+	 * Default setting for {@link #setRequestContentsBufferThreshold(int) the request contents buffer threshold}: 1MB
+	 */
+	public static final int DEFAULT_REQUEST_CONTENTS_BUFFER_THRESHOLD = 1024 * 1024;
+
 	private static final ExceptionHandlingInterceptor DEFAULT_EXCEPTION_HANDLER = new ExceptionHandlingInterceptor();
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(RestfulServer.class);
@@ -105,9 +111,11 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	private boolean myIgnoreServerParsedRequestParameters = true;
 	private String myImplementationDescription;
 	private final List<IServerInterceptor> myInterceptors = new ArrayList<IServerInterceptor>();
+	private long myMaximumRequestContentsLength = 0;
 	private IPagingProvider myPagingProvider;
 	private final List<Object> myPlainProviders = new ArrayList<Object>();
 	private Lock myProviderRegistrationMutex = new ReentrantLock();
+	private int myRequestContentsBufferThreshold = DEFAULT_REQUEST_CONTENTS_BUFFER_THRESHOLD;
 	private Map<String, ResourceBinding> myResourceNameToBinding = new HashMap<String, ResourceBinding>();
 	private final List<IResourceProvider> myResourceProviders = new ArrayList<IResourceProvider>();
 	private IServerAddressStrategy myServerAddressStrategy = new IncomingRequestAddressStrategy();
@@ -118,6 +126,7 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	/** This is configurable but by default we just use HAPI version */
 	private String myServerVersion = VersionUtil.getVersion();
 	private boolean myStarted;
+	private boolean myStreamRequestContents;
 	private Map<String, IResourceProvider> myTypeToProvider = new HashMap<String, IResourceProvider>();
 	private boolean myUncompressIncomingContents = true;
 	private boolean myUseBrowserFriendlyContentTypes;
@@ -261,6 +270,13 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return resourceMethod;
 	}
 
+	private void rebuildDispatchIndexes() {
+		myServerBinding.rebuildDispatchIndex();
+		for (ResourceBinding next : myResourceNameToBinding.values()) {
+			next.rebuildDispatchIndex();
+		}
+	}
+
 	/**
 	 * Count length of URL string, but treating unescaped sequences (e.g. ' ') as their unescaped equivalent (%20)
 	 */
@@ -747,6 +763,14 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 			 */
 			DEFAULT_EXCEPTION_HANDLER.handleException(requestDetails, exception, theRequest, theResponse);
 
+		} finally {
+			for (int i = getInterceptors().size() - 1; i >= 0; i--) {
+				IServerInterceptor next = getInterceptors().get(i);
+				if (next instanceof IServerProcessingCompletedInterceptor) {
+					((IServerProcessingCompletedInterceptor) next).processingCompleted(requestDetails);
+				}
+			}
+			requestDetails.releaseRequestContentsBuffer();
 		}
 	}
 
@@ -810,6 +834,8 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 				 */
 				findResourceMethods(new PageProvider());
 
+				rebuildDispatchIndexes();
+
 			} catch (Exception ex) {
 				ourLog.error("An error occurred while loading request handlers!", ex);
 				throw new ServletException("Failed to initialize FHIR Restful server", ex);
@@ -914,6 +940,21 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myIgnoreServerParsedRequestParameters;
 	}
 
+	/**
+	 * Should the server parse request bodies directly from the servlet input stream (default is <code>false</code>)?
+	 * <p>
+	 * By default, request bodies are read fully into memory (and decompressed into a second copy if they are
+	 * GZip compressed) before being parsed. If this is set to <code>true</code>, methods which accept a resource
+	 * body (e.g. create, update, transaction and operations invoked using POST) instead parse directly from the
+	 * incoming stream, decompressing on the fly. Interceptors which need access to the raw body should use
+	 * {@link RequestDetails#getBufferedRequestContents()}, which buffers the body in memory up to
+	 * {@link #getRequestContentsBufferThreshold() a threshold} and spills larger bodies to a temporary file.
+	 * </p>
+	 */
+	public boolean isStreamRequestContents() {
+		return myStreamRequestContents;
+	}
+
 	/**
 	 * Should the server attempt to decompress incoming request contents (default is <code>true</code>). Typically this
 	 * should be set to <code>true</code> unless the server has other configuration to
@@ -923,6 +964,24 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myUncompressIncomingContents;
 	}
 
+	/**
+	 * Returns the maximum number of bytes (after any decompression) that the server will accept in a request body,
+	 * or <code>0</code> (which is the default) if there is no limit. Requests which exceed this limit
+	 * are rejected with an <b>HTTP 413 Payload Too Large</b> response.
+	 */
+	public long getMaximumRequestContentsLength() {
+		return myMaximumRequestContentsLength;
+	}
+
+	/**
+	 * Returns the number of bytes of a request body which will be held in memory when an interceptor asks for the body to be
+	 * buffered (see {@link #isStreamRequestContents()}) before the remainder is spilled to a temporary file. Default is
+	 * {@link #DEFAULT_REQUEST_CONTENTS_BUFFER_THRESHOLD}.
+	 */
+	public int getRequestContentsBufferThreshold() {
+		return myRequestContentsBufferThreshold;
+	}
+
 	/**
 	 * @deprecated This feature did not work well, and will be removed. Use {@link ResponseHighlighterInterceptor}
 	 *             instead as an interceptor on your server and it will provide more useful syntax
@@ -1095,6 +1154,8 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 				}
 			}
 			if (!inInit) {
+				rebuildDispatchIndexes();
+
 				ourLog.trace("Invoking provider initialize methods");
 				if (!newResourceProviders.isEmpty()) {
 					for (IResourceProvider provider : newResourceProviders) {
@@ -1477,6 +1538,35 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myUncompressIncomingContents = theUncompressIncomingContents;
 	}
 
+	/**
+	 * Sets the maximum number of bytes (after any decompression) that the server will accept in a request body,
+	 * or <code>0</code> (which is the default) if there is no limit. Requests which exceed this limit
+	 * are rejected with an <b>HTTP 413 Payload Too Large</b> response.
+	 */
+	public void setMaximumRequestContentsLength(long theMaximumRequestContentsLength) {
+		Validate.isTrue(theMaximumRequestContentsLength >= 0, "theMaximumRequestContentsLength must not be negative");
+		myMaximumRequestContentsLength = theMaximumRequestContentsLength;
+	}
+
+	/**
+	 * Sets the number of bytes of a request body which will be held in memory when an interceptor asks for the body to be
+	 * buffered (see {@link #isStreamRequestContents()}) before the remainder is spilled to a temporary file. Default is
+	 * {@link #DEFAULT_REQUEST_CONTENTS_BUFFER_THRESHOLD}.
+	 */
+	public void setRequestContentsBufferThreshold(int theRequestContentsBufferThreshold) {
+		Validate.isTrue(theRequestContentsBufferThreshold >= 0, "theRequestContentsBufferThreshold must not be negative");
+		myRequestContentsBufferThreshold = theRequestContentsBufferThreshold;
+	}
+
+	/**
+	 * Should the server parse request bodies directly from the servlet input stream (default is <code>false</code>)?
+	 * 
+	 * @see #isStreamRequestContents() for a description of this setting
+	 */
+	public void setStreamRequestContents(boolean theStreamRequestContents) {
+		myStreamRequestContents = theStreamRequestContents;
+	}
+
 	/**
 	 * @deprecated This feature did not work well, and will be removed. Use {@link ResponseHighlighterInterceptor}
 	 *             instead as an interceptor on your server and it will provide more useful syntax
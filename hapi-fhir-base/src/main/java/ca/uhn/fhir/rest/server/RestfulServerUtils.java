@@ -41,6 +41,7 @@ import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.commons.io.output.ProxyWriter;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
@@ -50,6 +51,7 @@ import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.model.api.Bundle;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.api.Include;
@@ -119,6 +121,16 @@ public class RestfulServerUtils {
 
 	public static String createPagingLink(Set<Include> theIncludes, String theServerBase, String theSearchId, int theOffset, int theCount, EncodingEnum theResponseEncoding, boolean thePrettyPrint,
 			BundleTypeEnum theBundleType) {
+		return createPagingLink(theIncludes, theServerBase, theSearchId, theOffset, theCount, null, theResponseEncoding, thePrettyPrint, theBundleType);
+	}
+
+	/**
+	 * Creates a paging link which also carries a cursor from a {@link IPagingCursorBundleProvider}
+	 * 
+	 * @param theCursor The cursor, or <code>null</code> for none
+	 */
+	public static String createPagingLink(Set<Include> theIncludes, String theServerBase, String theSearchId, int theOffset, int theCount, String theCursor, EncodingEnum theResponseEncoding,
+			boolean thePrettyPrint, BundleTypeEnum theBundleType) {
 		try {
 			StringBuilder b = new StringBuilder();
 			b.append(theServerBase);
@@ -131,6 +143,12 @@ public class RestfulServerUtils {
 			b.append(Constants.PARAM_PAGINGOFFSET);
 			b.append('=');
 			b.append(theOffset);
+			if (isNotBlank(theCursor)) {
+				b.append('&');
+				b.append(Constants.PARAM_PAGINGCURSOR);
+				b.append('=');
+				b.append(URLEncoder.encode(theCursor, "UTF-8"));
+			}
 			b.append('&');
 			b.append(Constants.PARAM_COUNT);
 			b.append('=');
@@ -556,6 +574,24 @@ public class RestfulServerUtils {
 		return prettyPrint;
 	}
 
+	/**
+	 * Wraps a response writer so that the number of characters written is recorded against the request. Note that
+	 * the original writer (not the wrapper) must still be passed to
+	 * {@link IRestfulResponse#sendWriterResponse(int, String, String, Writer)}, since some implementations
+	 * rely on its type.
+	 */
+	private static Writer newCountingWriter(Writer theWriter, final RequestDetails theRequestDetails) {
+		if (theWriter == null) {
+			return null;
+		}
+		return new ProxyWriter(theWriter) {
+			@Override
+			protected void afterWrite(int theCount) {
+				theRequestDetails.addResponseContentsLength(theCount);
+			}
+		};
+	}
+
 	public static Object streamResponseAsBundle(IRestfulServerDefaults theServer, Bundle bundle, Set<SummaryEnum> theSummaryMode, boolean respondGzip, RequestDetails theRequestDetails)
 			throws IOException {
 
@@ -568,15 +604,19 @@ public class RestfulServerUtils {
 
 		String charset = Constants.CHARSET_NAME_UTF8;
 		Writer writer = theRequestDetails.getResponse().getResponseWriter(status, null, contentType, charset, respondGzip);
+		Writer countingWriter = newCountingWriter(writer, theRequestDetails);
 
+		long encodeStart = System.nanoTime();
 		try {
 			IParser parser = RestfulServerUtils.getNewParser(theServer.getFhirContext(), theRequestDetails);
 			if (theSummaryMode.contains(SummaryEnum.TEXT)) {
 				parser.setEncodeElements(TEXT_ENCODE_ELEMENTS);
 			}
-			parser.encodeBundleToWriter(bundle, writer);
+			parser.encodeBundleToWriter(bundle, countingWriter);
 		} catch (Exception e) {
 			// always send a response, even if the parsing went wrong
+		} finally {
+			theRequestDetails.addEncodeTimeNanos(System.nanoTime() - encodeStart);
 		}
 		return theRequestDetails.getResponse().sendWriterResponse(status, contentType, charset, writer);
 	}
@@ -693,18 +733,79 @@ public class RestfulServerUtils {
 		String charset = Constants.CHARSET_NAME_UTF8;
 
 		Writer writer = restUtil.getResponseWriter(theStausCode, theStatusMessage, contentType, charset, respondGzip);
-		if (theResource == null) {
-			// No response is being returned
-		} else if (encodingDomainResourceAsText && theResource instanceof IResource) {
-			writer.append(((IResource) theResource).getText().getDiv().getValueAsString());
-		} else {
-			IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
-			parser.encodeResourceToWriter(theResource, writer);
+		Writer countingWriter = newCountingWriter(writer, theRequestDetails);
+		long encodeStart = System.nanoTime();
+		try {
+			if (theResource == null) {
+				// No response is being returned
+			} else if (encodingDomainResourceAsText && theResource instanceof IResource) {
+				countingWriter.append(((IResource) theResource).getText().getDiv().getValueAsString());
+			} else {
+				IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
+				if (!tryToStreamStoredBody(theServer, theResource, parser, theSummaryMode, theRequestDetails, countingWriter)) {
+					parser.encodeResourceToWriter(theResource, countingWriter);
+				}
+			}
+		} finally {
+			theRequestDetails.addEncodeTimeNanos(System.nanoTime() - encodeStart);
 		}
 
 		return restUtil.sendWriterResponse(theStausCode, contentType, charset, writer);
 	}
 
+	/**
+	 * If the resource carries its {@link StoredResourceBody stored body} and the response needs no
+	 * transformation other than those the stored body supports, writes the stored body instead of
+	 * encoding the resource
+	 * 
+	 * @return Returns <code>true</code> if the response was written
+	 */
+	private static boolean tryToStreamStoredBody(IRestfulServerDefaults theServer, IBaseResource theResource, IParser theParser, Set<SummaryEnum> theSummaryMode, RequestDetails theRequestDetails,
+			Writer theWriter) throws IOException {
+		StoredResourceBody storedBody = StoredResourceBody.getFromResource(theResource);
+		if (storedBody == null || storedBody.getEncoding() != EncodingEnum.JSON || theParser.getEncoding() != EncodingEnum.JSON || !storedBody.isStoredFormOf(theResource)) {
+			return false;
+		}
+		if (theParser.isSummaryMode() || Boolean.FALSE.equals(theParser.getStripVersionsFromReferences())) {
+			return false;
+		}
+		if (theParser.getDontStripVersionsFromReferencesAtPaths() != null && !theParser.getDontStripVersionsFromReferencesAtPaths().isEmpty()) {
+			return false;
+		}
+		if (theSummaryMode != null && (theSummaryMode.contains(SummaryEnum.TEXT) || theSummaryMode.contains(SummaryEnum.COUNT))) {
+			return false;
+		}
+
+		FhirContext ctx = theServer.getFhirContext();
+		if (!ctx.getParserOptions().isStripVersionsFromReferences() || !ctx.getParserOptions().getDontStripVersionsFromReferencesAtPaths().isEmpty()) {
+			return false;
+		}
+		RuntimeResourceDefinition resourceDef = ctx.getResourceDefinition(theResource);
+
+		/*
+		 * Only top level _elements (which is all the _elements parameter supports) can be
+		 * applied while streaming
+		 */
+		Set<String> elements = null;
+		if (theParser.getEncodeElements() != null) {
+			Set<String> appliesTo = theParser.getEncodeElementsAppliesToResourceTypes();
+			if (appliesTo == null || appliesTo.contains(resourceDef.getName())) {
+				elements = new HashSet<String>();
+				for (String next : theParser.getEncodeElements()) {
+					if (!next.startsWith("*.") || next.indexOf('.', 2) != -1 || next.contains("(")) {
+						return false;
+					}
+					elements.add(next.substring(2));
+				}
+			}
+		}
+
+		boolean suppressNarratives = theSummaryMode != null && theSummaryMode.contains(SummaryEnum.DATA);
+		boolean prettyPrint = prettyPrintResponse(theServer, theRequestDetails);
+		storedBody.encodeToWriter(resourceDef, theResource, theParser, elements, suppressNarratives, prettyPrint, theWriter);
+		return true;
+	}
+
 	public static Integer tryToExtractNamedParameter(RequestDetails theRequest, String theParamName) {
 		String[] retVal = theRequest.getParameters().get(theParamName);
 		if (retVal == null) {
@@ -0,0 +1,250 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.RuntimeChildNarrativeDefinition;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * The encoded form of a resource as it was stored by a server (e.g. the JPA server), attached to
+ * the resource which was parsed from it using {@link ResourceMetadataKeyEnum#STORED_BODY}.
+ * <p>
+ * When a resource with a stored body is returned to a client and the response does not need
+ * any transformation the stored body can not express, {@link RestfulServerUtils} streams the
+ * stored body to the response instead of encoding the resource again. The resource ID and
+ * <code>meta</code> are always taken from the resource itself, since servers normally store
+ * these separately. Top level <code>_elements</code> filtering and <code>_summary=data</code>
+ * are applied while streaming. Other summary modes fall back to normal encoding.
+ * </p>
+ * <p>
+ * The body is only used if the version in the resource ID matches the version it was stored
+ * as. A server which attaches a stored body must not return a resource whose content has
+ * been modified since it was parsed without also removing the stored body.
+ * </p>
+ */
+public class StoredResourceBody implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String myBody;
+	private final EncodingEnum myEncoding;
+	private final String myVersionId;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theEncoding
+	 *           The encoding of the body. Only {@link EncodingEnum#JSON} bodies are currently streamed.
+	 * @param theBody
+	 *           The body
+	 * @param theVersionId
+	 *           The version ID of the resource the body was stored as
+	 */
+	public StoredResourceBody(EncodingEnum theEncoding, String theBody, String theVersionId) {
+		Validate.notNull(theEncoding, "theEncoding must not be null");
+		Validate.notNull(theBody, "theBody must not be null");
+		myEncoding = theEncoding;
+		myBody = theBody;
+		myVersionId = theVersionId;
+	}
+
+	/**
+	 * Writes the resource to the given writer as JSON, taking the resource type, ID and
+	 * <code>meta</code> from the resource (encoded using the given parser) and all other
+	 * elements from the stored body
+	 */
+	void encodeToWriter(RuntimeResourceDefinition theResourceDef, IBaseResource theResource, IParser theParser, Set<String> theElements, boolean theSuppressNarratives, boolean thePrettyPrint,
+			Writer theWriter) throws IOException {
+		Set<String> dontEncode = new HashSet<String>();
+		for (BaseRuntimeChildDefinition next : theResourceDef.getChildren()) {
+			if (!"id".equals(next.getElementName()) && !"meta".equals(next.getElementName())) {
+				dontEncode.add(theResourceDef.getName() + "." + next.getElementName());
+			}
+		}
+		theParser.setDontEncodeElements(dontEncode);
+		String header = theParser.encodeResourceToString(theResource);
+
+		JsonWriter writer = new JsonWriter(theWriter);
+		writer.setSerializeNulls(true);
+		if (thePrettyPrint) {
+			writer.setIndent("  ");
+		}
+		writer.beginObject();
+
+		JsonReader headerReader = new JsonReader(new StringReader(header));
+		headerReader.beginObject();
+		while (headerReader.hasNext()) {
+			writer.name(headerReader.nextName());
+			copyValue(headerReader, writer);
+		}
+		headerReader.close();
+
+		JsonReader bodyReader = new JsonReader(new StringReader(myBody));
+		bodyReader.setLenient(true);
+		if (bodyReader.peek() != JsonToken.BEGIN_OBJECT) {
+			throw new DataFormatException("Stored body is not a JSON object, found: " + bodyReader.peek());
+		}
+		bodyReader.beginObject();
+		while (bodyReader.hasNext()) {
+			String name = bodyReader.nextName();
+			if (shouldCopy(theResourceDef, name, theElements, theSuppressNarratives)) {
+				writer.name(name);
+				copyValue(bodyReader, writer);
+			} else {
+				bodyReader.skipValue();
+			}
+		}
+		bodyReader.close();
+
+		writer.endObject();
+		writer.flush();
+	}
+
+	public String getBody() {
+		return myBody;
+	}
+
+	public EncodingEnum getEncoding() {
+		return myEncoding;
+	}
+
+	/**
+	 * Returns the version ID of the resource the body was stored as
+	 */
+	public String getVersionId() {
+		return myVersionId;
+	}
+
+	/**
+	 * Returns <code>true</code> if this is the stored form of the given resource, i.e.
+	 * the version of the resource ID matches the version this body was stored as
+	 */
+	public boolean isStoredFormOf(IBaseResource theResource) {
+		String versionId = theResource.getIdElement() != null ? theResource.getIdElement().getVersionIdPart() : null;
+		return StringUtils.equals(myVersionId, versionId);
+	}
+
+	private static void copyValue(JsonReader theReader, JsonWriter theWriter) throws IOException {
+		switch (theReader.peek()) {
+		case BEGIN_ARRAY:
+			theReader.beginArray();
+			theWriter.beginArray();
+			while (theReader.hasNext()) {
+				copyValue(theReader, theWriter);
+			}
+			theReader.endArray();
+			theWriter.endArray();
+			break;
+		case BEGIN_OBJECT:
+			theReader.beginObject();
+			theWriter.beginObject();
+			while (theReader.hasNext()) {
+				theWriter.name(theReader.nextName());
+				copyValue(theReader, theWriter);
+			}
+			theReader.endObject();
+			theWriter.endObject();
+			break;
+		case STRING:
+			theWriter.value(theReader.nextString());
+			break;
+		case NUMBER:
+			// Keep the number exactly as it was written (e.g. trailing zeros on decimals)
+			theWriter.jsonValue(theReader.nextString());
+			break;
+		case BOOLEAN:
+			theWriter.value(theReader.nextBoolean());
+			break;
+		case NULL:
+			theReader.nextNull();
+			theWriter.nullValue();
+			break;
+		default:
+			throw new DataFormatException("Unexpected token in stored body: " + theReader.peek());
+		}
+	}
+
+	/**
+	 * Returns the stored body attached to the given resource, or <code>null</code> if none
+	 */
+	public static StoredResourceBody getFromResource(IBaseResource theResource) {
+		if (theResource instanceof IResource) {
+			return ResourceMetadataKeyEnum.STORED_BODY.get((IResource) theResource);
+		} else if (theResource instanceof IAnyResource) {
+			return ResourceMetadataKeyEnum.STORED_BODY.get((IAnyResource) theResource);
+		}
+		return null;
+	}
+
+	/**
+	 * Attaches a stored body to the given resource. Pass <code>null</code> to remove an
+	 * existing stored body, e.g. after modifying the resource.
+	 */
+	public static void putInResource(IBaseResource theResource, StoredResourceBody theBody) {
+		if (theResource instanceof IResource) {
+			ResourceMetadataKeyEnum.STORED_BODY.put((IResource) theResource, theBody);
+		} else if (theResource instanceof IAnyResource) {
+			ResourceMetadataKeyEnum.STORED_BODY.put((IAnyResource) theResource, theBody);
+		}
+	}
+
+	private static boolean shouldCopy(RuntimeResourceDefinition theResourceDef, String theName, Set<String> theElements, boolean theSuppressNarratives) {
+		if ("resourceType".equals(theName) || "id".equals(theName) || "meta".equals(theName) || "_id".equals(theName)) {
+			return false;
+		}
+
+		// Primitive extensions ("_birthDate") follow the element they belong to
+		String name = theName.startsWith("_") ? theName.substring(1) : theName;
+		BaseRuntimeChildDefinition child = theResourceDef.getChildByName(name);
+		if (child == null) {
+			return theElements == null;
+		}
+		if (theSuppressNarratives && child instanceof RuntimeChildNarrativeDefinition) {
+			return false;
+		}
+		if (theElements != null && !theElements.contains(child.getElementName())) {
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -64,6 +64,7 @@ public abstract class BaseServerResponseException extends RuntimeException {
 		registerExceptionType(ResourceNotFoundException.STATUS_CODE, ResourceNotFoundException.class);
 		registerExceptionType(ResourceGoneException.STATUS_CODE, ResourceGoneException.class);
 		registerExceptionType(PreconditionFailedException.STATUS_CODE, PreconditionFailedException.class);
+		registerExceptionType(PayloadTooLargeException.STATUS_CODE, PayloadTooLargeException.class);
 		registerExceptionType(ResourceVersionConflictException.STATUS_CODE, ResourceVersionConflictException.class);
 		registerExceptionType(UnprocessableEntityException.STATUS_CODE, UnprocessableEntityException.class);
 		registerExceptionType(ForbiddenOperationException.STATUS_CODE, ForbiddenOperationException.class);
@@ -24,6 +24,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.text.StrLookup;
@@ -62,6 +63,7 @@ abstract class BaseValidatingInterceptor<T> extends InterceptorAdapter {
 
 	private Integer myAddResponseIssueHeaderOnSeverity = null;
 	private Integer myAddResponseOutcomeHeaderOnSeverity = null;
+	private ExecutorService myExecutorService;
 	private Integer myFailOnSeverity = ResultSeverityEnum.ERROR.ordinal();
 	private boolean myIgnoreValidatorExceptions;
 	private int myMaximumHeaderLength = 200;
@@ -112,6 +114,15 @@ abstract class BaseValidatingInterceptor<T> extends InterceptorAdapter {
 		return myAddResponseOutcomeHeaderOnSeverity != null ? ResultSeverityEnum.values()[myAddResponseOutcomeHeaderOnSeverity] : null;
 	}
 
+	/**
+	 * Returns the executor used to validate Bundle entries concurrently, or <code>null</code>
+	 * 
+	 * @see #setExecutorService(ExecutorService)
+	 */
+	public ExecutorService getExecutorService() {
+		return myExecutorService;
+	}
+
 	/**
 	 * The maximum length for an individual header. If an individual header would be written exceeding this length,
 	 * the header value will be truncated.
@@ -185,6 +196,16 @@ abstract class BaseValidatingInterceptor<T> extends InterceptorAdapter {
 		myIgnoreValidatorExceptions = theIgnoreValidatorExceptions;
 	}
 
+	/**
+	 * If set, Bundle resources are validated by validating each entry concurrently using the
+	 * given executor (see {@link FhirValidator#setExecutorService(ExecutorService)}). This
+	 * can substantially reduce the time taken to validate large transaction bundles. Default
+	 * is <code>null</code>, meaning that all validation happens on the request thread.
+	 */
+	public void setExecutorService(ExecutorService theExecutorService) {
+		myExecutorService = theExecutorService;
+	}
+
 	/**
 	 * The maximum length for an individual header. If an individual header would be written exceeding this length,
 	 * the header value will be truncated. Value must be greater than 100.
@@ -268,6 +289,7 @@ abstract class BaseValidatingInterceptor<T> extends InterceptorAdapter {
 
 	protected void validate(T theRequest, RequestDetails theRequestDetails) {
 		FhirValidator validator = theRequestDetails.getServer().getFhirContext().newValidator();
+		validator.setExecutorService(myExecutorService);
 		if (myValidatorModules != null) {
 			for (IValidatorModule next : myValidatorModules) {
 				validator.registerValidatorModule(next);
@@ -0,0 +1,43 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.method.RequestDetails;
+
+/**
+ * Server interceptors which also implement this interface are notified once the server has
+ * finished with each request, however processing ended: normally, with an exception, or because
+ * an interceptor stopped processing early. This can be used to release anything which was set up
+ * for the request, for example thread-local state.
+ */
+public interface IServerProcessingCompletedInterceptor {
+
+	/**
+	 * Invoked after all other processing for a request has finished. This method is always invoked,
+	 * so implementations should not throw exceptions from it.
+	 * 
+	 * @param theRequestDetails
+	 *           The request details. Note that if processing stopped early, not all of the details may
+	 *           have been populated.
+	 */
+	void processingCompleted(RequestDetails theRequestDetails);
+
+}
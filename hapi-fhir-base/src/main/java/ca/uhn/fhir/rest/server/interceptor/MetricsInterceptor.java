@@ -0,0 +1,423 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * Server interceptor which records latency and payload size metrics for each combination of resource type and
+ * operation type handled by the server, e.g. <code>Patient</code> / {@link RestOperationTypeEnum#SEARCH_TYPE}.
+ * <p>
+ * For each combination, the following are recorded:
+ * </p>
+ * <ul>
+ * <li>The number of requests, and the number of requests which failed with a client (4xx) or server (5xx) error</li>
+ * <li>A histogram of the total latency of each request, in microseconds</li>
+ * <li>Histograms of the time spent parsing the request body and encoding the response body, as well as of the
+ * remaining ("handler") time, which is mostly spent in the resource provider itself</li>
+ * <li>Histograms of the request body size (in bytes) and response body size (in characters)</li>
+ * </ul>
+ * <p>
+ * Histograms use log-linear buckets with a relative error of about 6%, in the style of an HDR histogram, and recording
+ * a value never takes a lock. Recorded metrics can be read using {@link #getOperationMetrics()}, or this interceptor can
+ * be registered with JMX since it implements {@link MetricsInterceptorMXBean}, e.g.:
+ * </p>
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(interceptor, new ObjectName("ca.uhn.fhir:type=MetricsInterceptor"));
+ * </pre>
+ */
+public class MetricsInterceptor extends InterceptorAdapter implements MetricsInterceptorMXBean {
+
+	private static final String START_NANOS_ATTRIBUTE = MetricsInterceptor.class.getName() + "_START_NANOS";
+
+	private final ConcurrentMap<String, OperationMetrics> myOperationMetrics = new ConcurrentHashMap<String, OperationMetrics>();
+
+	private OperationMetrics getOrCreateOperationMetrics(RequestDetails theRequestDetails) {
+		String resourceName = StringUtils.defaultString(theRequestDetails.getResourceName());
+		RestOperationTypeEnum operationType = theRequestDetails.getRestOperationType();
+		String key = resourceName + '|' + operationType;
+
+		OperationMetrics retVal = myOperationMetrics.get(key);
+		if (retVal == null) {
+			OperationMetrics newMetrics = new OperationMetrics(resourceName, operationType);
+			retVal = myOperationMetrics.putIfAbsent(key, newMetrics);
+			if (retVal == null) {
+				retVal = newMetrics;
+			}
+		}
+		return retVal;
+	}
+
+	@Override
+	public List<OperationMetricsSnapshot> getOperationMetrics() {
+		List<OperationMetricsSnapshot> retVal = new ArrayList<OperationMetricsSnapshot>();
+		for (OperationMetrics next : myOperationMetrics.values()) {
+			retVal.add(next.snapshot());
+		}
+		Collections.sort(retVal, new Comparator<OperationMetricsSnapshot>() {
+			@Override
+			public int compare(OperationMetricsSnapshot theO1, OperationMetricsSnapshot theO2) {
+				int retVal = theO1.getResourceName().compareTo(theO2.getResourceName());
+				if (retVal == 0) {
+					retVal = theO1.getOperationType().compareTo(theO2.getOperationType());
+				}
+				return retVal;
+			}
+		});
+		return retVal;
+	}
+
+	@Override
+	public boolean handleException(RequestDetails theRequestDetails, BaseServerResponseException theException, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		recordRequest(theRequestDetails, theServletRequest, theException.getStatusCode());
+		return true;
+	}
+
+	@Override
+	public boolean incomingRequestPreProcessed(HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		theRequest.setAttribute(START_NANOS_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void processingCompletedNormally(ServletRequestDetails theRequestDetails) {
+		recordRequest(theRequestDetails, theRequestDetails.getServletRequest(), 0);
+	}
+
+	private void recordRequest(RequestDetails theRequestDetails, HttpServletRequest theServletRequest, int theErrorStatusCode) {
+		Long startNanos = (Long) theServletRequest.getAttribute(START_NANOS_ATTRIBUTE);
+		if (startNanos == null) {
+			// Request was rejected before this interceptor saw it
+			return;
+		}
+
+		OperationMetrics metrics = getOrCreateOperationMetrics(theRequestDetails);
+		metrics.myRequestCount.incrementAndGet();
+		if (theErrorStatusCode >= 500) {
+			metrics.myServerErrorCount.incrementAndGet();
+		} else if (theErrorStatusCode >= 400) {
+			metrics.myClientErrorCount.incrementAndGet();
+		}
+
+		long totalNanos = System.nanoTime() - startNanos.longValue();
+		long parseNanos = theRequestDetails.getParseTimeNanos();
+		long encodeNanos = theRequestDetails.getEncodeTimeNanos();
+		metrics.myLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(totalNanos));
+		metrics.myHandlerMicros.record(TimeUnit.NANOSECONDS.toMicros(totalNanos - parseNanos - encodeNanos));
+		if (parseNanos > 0) {
+			metrics.myParseMicros.record(TimeUnit.NANOSECONDS.toMicros(parseNanos));
+		}
+		if (encodeNanos > 0) {
+			metrics.myEncodeMicros.record(TimeUnit.NANOSECONDS.toMicros(encodeNanos));
+		}
+
+		int requestSize = theServletRequest.getContentLength();
+		if (requestSize > 0) {
+			metrics.myRequestSizeBytes.record(requestSize);
+		}
+		long responseSize = theRequestDetails.getResponseContentsLength();
+		if (responseSize > 0) {
+			metrics.myResponseSizeChars.record(responseSize);
+		}
+	}
+
+	@Override
+	public void reset() {
+		myOperationMetrics.clear();
+	}
+
+	/**
+	 * A histogram of non-negative long values which may be recorded to concurrently without locking. Values are
+	 * counted exactly below 32, and above that in 16 sub-buckets per power of two.
+	 */
+	public static class Histogram {
+
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+		private static final int FIRST_EXPONENT = SUB_BUCKET_BITS + 1;
+		private static final int LINEAR_LIMIT = 1 << FIRST_EXPONENT;
+		private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - FIRST_EXPONENT) * SUB_BUCKET_COUNT;
+
+		private final AtomicLongArray myBuckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong myMax = new AtomicLong();
+		private final AtomicLong myTotal = new AtomicLong();
+
+		static int bucketIndex(long theValue) {
+			if (theValue < LINEAR_LIMIT) {
+				return (int) Math.max(0, theValue);
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(theValue);
+			int subBucket = (int) (theValue >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+			return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+		}
+
+		static long bucketUpperBound(int theIndex) {
+			if (theIndex < LINEAR_LIMIT) {
+				return theIndex;
+			}
+			int exponent = FIRST_EXPONENT + (theIndex - LINEAR_LIMIT) / SUB_BUCKET_COUNT;
+			int subBucket = (theIndex - LINEAR_LIMIT) % SUB_BUCKET_COUNT;
+			int shift = exponent - SUB_BUCKET_BITS;
+			long lowerBound = ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+			return lowerBound + (1L << shift) - 1;
+		}
+
+		public void record(long theValue) {
+			long value = Math.max(0, theValue);
+			myBuckets.incrementAndGet(bucketIndex(value));
+			myTotal.addAndGet(value);
+
+			long max = myMax.get();
+			while (value > max && !myMax.compareAndSet(max, value)) {
+				max = myMax.get();
+			}
+		}
+
+		public HistogramSnapshot snapshot() {
+			long[] counts = new long[BUCKET_COUNT];
+			long count = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				counts[i] = myBuckets.get(i);
+				count += counts[i];
+			}
+			long max = myMax.get();
+			long mean = count > 0 ? myTotal.get() / count : 0;
+			return new HistogramSnapshot(count, mean, max, valueAtPercentile(counts, count, max, 50), valueAtPercentile(counts, count, max, 90), valueAtPercentile(counts, count, max, 99));
+		}
+
+		private static long valueAtPercentile(long[] theCounts, long theCount, long theMax, double thePercentile) {
+			if (theCount == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(thePercentile / 100.0 * theCount));
+			long seen = 0;
+			for (int i = 0; i < theCounts.length; i++) {
+				seen += theCounts[i];
+				if (seen >= rank) {
+					return Math.min(bucketUpperBound(i), theMax);
+				}
+			}
+			return theMax;
+		}
+
+	}
+
+	/**
+	 * An immutable summary of a {@link Histogram}. Percentile values are approximate, and are never greater than the
+	 * maximum recorded value.
+	 */
+	public static class HistogramSnapshot {
+
+		private final long myCount;
+		private final long myMax;
+		private final long myMean;
+		private final long myP50;
+		private final long myP90;
+		private final long myP99;
+
+		public HistogramSnapshot(long theCount, long theMean, long theMax, long theP50, long theP90, long theP99) {
+			myCount = theCount;
+			myMean = theMean;
+			myMax = theMax;
+			myP50 = theP50;
+			myP90 = theP90;
+			myP99 = theP99;
+		}
+
+		public long getCount() {
+			return myCount;
+		}
+
+		public long getMax() {
+			return myMax;
+		}
+
+		public long getMean() {
+			return myMean;
+		}
+
+		public long getP50() {
+			return myP50;
+		}
+
+		public long getP90() {
+			return myP90;
+		}
+
+		public long getP99() {
+			return myP99;
+		}
+
+	}
+
+	private static class OperationMetrics {
+		private final AtomicLong myClientErrorCount = new AtomicLong();
+		private final Histogram myEncodeMicros = new Histogram();
+		private final Histogram myHandlerMicros = new Histogram();
+		private final Histogram myLatencyMicros = new Histogram();
+		private final RestOperationTypeEnum myOperationType;
+		private final Histogram myParseMicros = new Histogram();
+		private final AtomicLong myRequestCount = new AtomicLong();
+		private final Histogram myRequestSizeBytes = new Histogram();
+		private final String myResourceName;
+		private final Histogram myResponseSizeChars = new Histogram();
+		private final AtomicLong myServerErrorCount = new AtomicLong();
+
+		public OperationMetrics(String theResourceName, RestOperationTypeEnum theOperationType) {
+			myResourceName = theResourceName;
+			myOperationType = theOperationType;
+		}
+
+		public OperationMetricsSnapshot snapshot() {
+			String operationType = myOperationType != null ? myOperationType.getCode() : "";
+			return new OperationMetricsSnapshot(myResourceName, operationType, myRequestCount.get(), myClientErrorCount.get(), myServerErrorCount.get(), myLatencyMicros.snapshot(), myHandlerMicros.snapshot(),
+					myParseMicros.snapshot(), myEncodeMicros.snapshot(), myRequestSizeBytes.snapshot(), myResponseSizeChars.snapshot());
+		}
+	}
+
+	/**
+	 * An immutable summary of the metrics recorded for a single combination of resource type and operation type
+	 */
+	public static class OperationMetricsSnapshot {
+
+		private final long myClientErrorCount;
+		private final HistogramSnapshot myEncodeMicros;
+		private final HistogramSnapshot myHandlerMicros;
+		private final HistogramSnapshot myLatencyMicros;
+		private final String myOperationType;
+		private final HistogramSnapshot myParseMicros;
+		private final long myRequestCount;
+		private final HistogramSnapshot myRequestSizeBytes;
+		private final String myResourceName;
+		private final HistogramSnapshot myResponseSizeChars;
+		private final long myServerErrorCount;
+
+		public OperationMetricsSnapshot(String theResourceName, String theOperationType, long theRequestCount, long theClientErrorCount, long theServerErrorCount, HistogramSnapshot theLatencyMicros,
+				HistogramSnapshot theHandlerMicros, HistogramSnapshot theParseMicros, HistogramSnapshot theEncodeMicros, HistogramSnapshot theRequestSizeBytes, HistogramSnapshot theResponseSizeChars) {
+			myResourceName = theResourceName;
+			myOperationType = theOperationType;
+			myRequestCount = theRequestCount;
+			myClientErrorCount = theClientErrorCount;
+			myServerErrorCount = theServerErrorCount;
+			myLatencyMicros = theLatencyMicros;
+			myHandlerMicros = theHandlerMicros;
+			myParseMicros = theParseMicros;
+			myEncodeMicros = theEncodeMicros;
+			myRequestSizeBytes = theRequestSizeBytes;
+			myResponseSizeChars = theResponseSizeChars;
+		}
+
+		/**
+		 * Returns the number of requests which failed with an HTTP 4xx status
+		 */
+		public long getClientErrorCount() {
+			return myClientErrorCount;
+		}
+
+		/**
+		 * Returns the time spent encoding and writing response bodies, in microseconds
+		 */
+		public HistogramSnapshot getEncodeMicros() {
+			return myEncodeMicros;
+		}
+
+		/**
+		 * Returns the total latency of each request minus the parse and encode time, in microseconds
+		 */
+		public HistogramSnapshot getHandlerMicros() {
+			return myHandlerMicros;
+		}
+
+		/**
+		 * Returns the total latency of each request, in microseconds
+		 */
+		public HistogramSnapshot getLatencyMicros() {
+			return myLatencyMicros;
+		}
+
+		/**
+		 * Returns the operation type code (see {@link RestOperationTypeEnum#getCode()}), or an empty string if the
+		 * request failed before an operation could be determined
+		 */
+		public String getOperationType() {
+			return myOperationType;
+		}
+
+		/**
+		 * Returns the time spent reading and parsing request bodies, in microseconds
+		 */
+		public HistogramSnapshot getParseMicros() {
+			return myParseMicros;
+		}
+
+		public long getRequestCount() {
+			return myRequestCount;
+		}
+
+		/**
+		 * Returns the request body sizes, in bytes, as declared by the Content-Length header
+		 */
+		public HistogramSnapshot getRequestSizeBytes() {
+			return myRequestSizeBytes;
+		}
+
+		/**
+		 * Returns the resource type, or an empty string for server-level operations
+		 */
+		public String getResourceName() {
+			return myResourceName;
+		}
+
+		/**
+		 * Returns the response body sizes, in characters
+		 */
+		public HistogramSnapshot getResponseSizeChars() {
+			return myResponseSizeChars;
+		}
+
+		/**
+		 * Returns the number of requests which failed with an HTTP 5xx status
+		 */
+		public long getServerErrorCount() {
+			return myServerErrorCount;
+		}
+
+	}
+
+}
@@ -0,0 +1,43 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+import ca.uhn.fhir.rest.server.interceptor.MetricsInterceptor.OperationMetricsSnapshot;
+
+/**
+ * JMX management interface for {@link MetricsInterceptor}
+ */
+public interface MetricsInterceptorMXBean {
+
+	/**
+	 * Returns a snapshot of the metrics recorded for each combination of resource type and operation type which has
+	 * been seen by the server
+	 */
+	List<OperationMetricsSnapshot> getOperationMetrics();
+
+	/**
+	 * Discards all recorded metrics
+	 */
+	void reset();
+
+}
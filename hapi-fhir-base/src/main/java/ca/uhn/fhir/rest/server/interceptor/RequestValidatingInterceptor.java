@@ -22,16 +22,21 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
  * #L%
  */
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
+
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.param.ResourceParameter;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.ResultSeverityEnum;
@@ -60,7 +65,15 @@ public class RequestValidatingInterceptor extends BaseValidatingInterceptor<Stri
 		}
 
 		Charset charset = ResourceParameter.determineRequestCharset(theRequestDetails);
-		String requestText = new String(theRequestDetails.loadRequestContents(), charset);
+		String requestText;
+		InputStream requestContents = theRequestDetails.getBufferedRequestContents();
+		try {
+			requestText = IOUtils.toString(requestContents, charset);
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to load request", e);
+		} finally {
+			IOUtils.closeQuietly(requestContents);
+		}
 
 		if (isBlank(requestText)) {
 			ourLog.trace("Incoming request does not have a body");
@@ -24,7 +24,10 @@ import static org.apache.commons.lang3.StringUtils.defaultString;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -92,16 +95,19 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 
 	@Override
 	public Verdict applyRulesAndReturnDecision(RestOperationTypeEnum theOperation, RequestDetails theRequestDetails, IBaseResource theInputResource, IIdType theInputResourceId, IBaseResource theOutputResource) {
-		List<IAuthRule> rules = buildRuleList(theRequestDetails);
-		ourLog.trace("Applying {} rules to render an auth decision for operation {}", rules.size(), theOperation);
-
-		Verdict verdict = null;
-		for (IAuthRule nextRule : rules) {
-			verdict = nextRule.applyRule(theOperation, theRequestDetails, theInputResource, theInputResourceId, theOutputResource, this);
-			if (verdict != null) {
-				ourLog.trace("Rule {} returned decision {}", nextRule, verdict.getDecision());
-				break;
-			}
+		CompiledRuleSet ruleSet = getCompiledRuleSet(theRequestDetails);
+		Class<? extends IBaseResource> outputResourceType = theOutputResource != null ? theOutputResource.getClass() : null;
+		RuleChain chain = ruleSet.getChain(theOperation, outputResourceType);
+		return applyRuleChainAndReturnDecision(chain, theOperation, theRequestDetails, theInputResource, theInputResourceId, theOutputResource);
+	}
+
+	private Verdict applyRuleChainAndReturnDecision(RuleChain theChain, RestOperationTypeEnum theOperation, RequestDetails theRequestDetails, IBaseResource theInputResource, IIdType theInputResourceId,
+			IBaseResource theOutputResource) {
+		ourLog.trace("Applying {} candidate rules to render an auth decision for operation {}", theChain.size(), theOperation);
+
+		Verdict verdict = theChain.apply(theOperation, theRequestDetails, theInputResource, theInputResourceId, theOutputResource, this);
+		if (verdict != null) {
+			ourLog.trace("Rule {} returned decision {}", verdict.getDecidingRule(), verdict.getDecision());
 		}
 		
 		if (verdict == null) {
@@ -112,6 +118,27 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		return verdict;
 	}
 
+	/**
+	 * Applies the rules to each of a list of resources being returned by the server, and fails
+	 * on the first one which is denied. Consecutive resources of the same type share the same
+	 * set of candidate rules, so this is cheaper than checking each resource individually.
+	 */
+	private void applyRulesToOutputResourcesAndFailIfDeny(RestOperationTypeEnum theOperation, RequestDetails theRequestDetails, List<IBaseResource> theOutputResources) {
+		CompiledRuleSet ruleSet = getCompiledRuleSet(theRequestDetails);
+		Class<? extends IBaseResource> chainType = null;
+		RuleChain chain = null;
+		for (IBaseResource nextResponse : theOutputResources) {
+			if (chain == null || nextResponse.getClass() != chainType) {
+				chainType = nextResponse.getClass();
+				chain = ruleSet.getChain(theOperation, chainType);
+			}
+			Verdict decision = applyRuleChainAndReturnDecision(chain, theOperation, theRequestDetails, null, null, nextResponse);
+			if (decision.getDecision() != PolicyEnum.ALLOW) {
+				handleDeny(decision);
+			}
+		}
+	}
+
 	/**
 	 * Subclasses should override this method to supply the set of rules to be applied to
 	 * this individual request.
@@ -120,6 +147,11 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 	 * out who the current user is and then using a {@link RuleBuilder} to create
 	 * an appropriate rule chain. 
 	 * </p>
+	 * <p>
+	 * This method is called once per request, and the returned list is then compiled into
+	 * an index by operation and resource type which is used for the rest of the request. The
+	 * list should therefore not be modified after it has been returned.
+	 * </p>
 	 * 
 	 * @param theRequestDetails The individual request currently being applied
 	 */
@@ -128,6 +160,20 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 	}
 
 	
+	private CompiledRuleSet getCompiledRuleSet(RequestDetails theRequestDetails) {
+		/*
+		 * The interceptor itself is used as the key, since more than one authorization
+		 * interceptor may be registered against the same server
+		 */
+		CompiledRuleSet retVal = (CompiledRuleSet) theRequestDetails.getUserData().get(this);
+		if (retVal == null) {
+			List<IAuthRule> rules = buildRuleList(theRequestDetails);
+			retVal = new CompiledRuleSet(rules);
+			theRequestDetails.getUserData().put(this, retVal);
+		}
+		return retVal;
+	}
+
 	private OperationExamineDirection determineOperationDirection(RestOperationTypeEnum theOperation, IBaseResource theRequestResource) {
 		switch (theOperation) {
 		case ADD_TAGS:
@@ -296,9 +342,7 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		}
 		}
 		
-		for (IBaseResource nextResponse : resources) {
-			applyRulesAndFailIfDeny(theRequestDetails.getRestOperationType(), theRequestDetails, null, null, nextResponse);
-		}
+		applyRulesToOutputResourcesAndFailIfDeny(theRequestDetails.getRestOperationType(), theRequestDetails, resources);
 
 		return true;
 	}
@@ -369,6 +413,99 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		return new UnsupportedOperationException("Use of this interceptor on DSTU1 servers is not supportd");
 	}
 
+	/**
+	 * The rules returned by {@link AuthorizationInterceptor#buildRuleList(RequestDetails)} for a single
+	 * request, indexed by operation and output resource type. The chains are built lazily, and are
+	 * only used by the thread processing the request.
+	 */
+	private static class CompiledRuleSet {
+
+		private final Map<RestOperationTypeEnum, Map<Class<? extends IBaseResource>, RuleChain>> myChains = new EnumMap<RestOperationTypeEnum, Map<Class<? extends IBaseResource>, RuleChain>>(RestOperationTypeEnum.class);
+		private final List<IAuthRule> myRules;
+
+		public CompiledRuleSet(List<IAuthRule> theRules) {
+			myRules = theRules;
+		}
+
+		public RuleChain getChain(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+			if (theOperation == null) {
+				return new RuleChain(myRules, false);
+			}
+
+			Map<Class<? extends IBaseResource>, RuleChain> typeToChain = myChains.get(theOperation);
+			if (typeToChain == null) {
+				typeToChain = new HashMap<Class<? extends IBaseResource>, RuleChain>();
+				myChains.put(theOperation, typeToChain);
+			}
+
+			RuleChain retVal = typeToChain.get(theOutputResourceType);
+			if (retVal == null) {
+				List<IAuthRule> candidates = new ArrayList<IAuthRule>();
+				boolean lastIsInvariant = false;
+				for (IAuthRule next : myRules) {
+					if (next instanceof BaseRule) {
+						BaseRule nextBaseRule = (BaseRule) next;
+						if (!nextBaseRule.isCandidateFor(theOperation, theOutputResourceType)) {
+							continue;
+						}
+						if (nextBaseRule.isInvariantFor(theOperation, theOutputResourceType)) {
+							// Any following rules can never be reached
+							candidates.add(next);
+							lastIsInvariant = true;
+							break;
+						}
+					}
+					candidates.add(next);
+				}
+				retVal = new RuleChain(candidates, lastIsInvariant);
+				typeToChain.put(theOutputResourceType, retVal);
+			}
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * The candidate rules for a given operation and output resource type, in their original order
+	 */
+	private static class RuleChain {
+
+		private Verdict myInvariantVerdict;
+		private final boolean myLastIsInvariant;
+		private final List<IAuthRule> myRules;
+
+		public RuleChain(List<IAuthRule> theRules, boolean theLastIsInvariant) {
+			myRules = theRules;
+			myLastIsInvariant = theLastIsInvariant;
+		}
+
+		public Verdict apply(RestOperationTypeEnum theOperation, RequestDetails theRequestDetails, IBaseResource theInputResource, IIdType theInputResourceId, IBaseResource theOutputResource,
+				IRuleApplier theRuleApplier) {
+			int size = myRules.size();
+			for (int i = 0; i < size; i++) {
+				IAuthRule nextRule = myRules.get(i);
+				Verdict verdict;
+				if (myLastIsInvariant && i == size - 1) {
+					if (myInvariantVerdict == null) {
+						myInvariantVerdict = nextRule.applyRule(theOperation, theRequestDetails, theInputResource, theInputResourceId, theOutputResource, theRuleApplier);
+					}
+					verdict = myInvariantVerdict;
+				} else {
+					verdict = nextRule.applyRule(theOperation, theRequestDetails, theInputResource, theInputResourceId, theOutputResource, theRuleApplier);
+				}
+				if (verdict != null) {
+					return verdict;
+				}
+			}
+			return null;
+		}
+
+		public int size() {
+			return myRules.size();
+		}
+
+	}
+
 	private enum OperationExamineDirection {
 		IN,
 		NONE,
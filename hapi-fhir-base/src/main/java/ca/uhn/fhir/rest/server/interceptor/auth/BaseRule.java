@@ -20,6 +20,9 @@ package ca.uhn.fhir.rest.server.interceptor.auth;
  * #L%
  */
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor.Verdict;
 
 abstract class BaseRule implements IAuthRule {
@@ -39,6 +42,25 @@ abstract class BaseRule implements IAuthRule {
 		myMode = theRuleMode;
 	}
 
+	/**
+	 * Returns <code>false</code> if this rule can not return a verdict for the given operation and output resource type
+	 * (which is <code>null</code> if no output resource is being examined), no matter what the other details of the
+	 * request are. This is used by {@link AuthorizationInterceptor} to skip rules which can not apply, so
+	 * implementations must be conservative and return <code>true</code> if in doubt.
+	 */
+	boolean isCandidateFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if this rule always returns the same (non-null) verdict for the given operation and
+	 * output resource type, no matter what the other details of the request are. Rules following an invariant rule can
+	 * never be reached, and {@link AuthorizationInterceptor} may reuse the verdict without reapplying the rule.
+	 */
+	boolean isInvariantFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		return false;
+	}
+
 	Verdict newVerdict() {
 		return new Verdict(myMode, this);
 	}
@@ -115,6 +115,18 @@ class OperationRule extends BaseRule implements IAuthRule {
 		return newVerdict();
 	}
 
+	@Override
+	boolean isCandidateFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		switch (theOperation) {
+		case EXTENDED_OPERATION_SERVER:
+		case EXTENDED_OPERATION_TYPE:
+		case EXTENDED_OPERATION_INSTANCE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	public void appliesToServer() {
 		myAppliesToServer = true;
 	}
@@ -68,6 +68,11 @@ public class RuleImplConditional extends BaseRule implements IAuthRule {
 		return null;
 	}
 
+	@Override
+	boolean isCandidateFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		return theOperation == myOperationType;
+	}
+
 	void setAppliesTo(AppliesTypeEnum theAppliesTo) {
 		myAppliesTo = theAppliesTo;
 	}
@@ -21,15 +21,19 @@ package ca.uhn.fhir.rest.server.interceptor.auth;
  */
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseReference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
@@ -44,7 +48,7 @@ class RuleImplOp extends BaseRule implements IAuthRule {
 	private AppliesTypeEnum myAppliesTo;
 	private Set<?> myAppliesToTypes;
 	private String myClassifierCompartmentName;
-	private Collection<? extends IIdType> myClassifierCompartmentOwners;
+	private Set<String> myClassifierCompartmentOwnerIds = Collections.emptySet();
 	private ClassifierTypeEnum myClassifierType;
 	private RuleOpEnum myOp;
 	private TransactionAppliesToEnum myTransactionAppliesToOp;
@@ -215,23 +219,7 @@ class RuleImplOp extends BaseRule implements IAuthRule {
 		case ANY_ID:
 			break;
 		case IN_COMPARTMENT:
-			FhirTerser t = ctx.newTerser();
-			boolean foundMatch = false;
-			for (IIdType next : myClassifierCompartmentOwners) {
-				if (appliesToResource != null) {
-					if (t.isSourceInCompartmentForTarget(myClassifierCompartmentName, appliesToResource, next)) {
-						foundMatch = true;
-						break;
-					}
-				}
-				if (appliesToResourceId != null && appliesToResourceId.hasResourceType() && appliesToResourceId.hasIdPart()) {
-					if (appliesToResourceId.toUnqualifiedVersionless().getValue().equals(next.toUnqualifiedVersionless().getValue())) {
-						foundMatch = true;
-						break;
-					}
-				}
-			}
-			if (!foundMatch) {
+			if (!isInClassifierCompartment(ctx, appliesToResource, appliesToResourceId)) {
 				return null;
 			}
 			break;
@@ -242,6 +230,116 @@ class RuleImplOp extends BaseRule implements IAuthRule {
 		return newVerdict();
 	}
 
+	@Override
+	boolean isCandidateFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		switch (myOp) {
+		case READ:
+			if (theOutputResourceType != null) {
+				return isAppliesToType(theOutputResourceType);
+			}
+			switch (theOperation) {
+			case READ:
+			case VREAD:
+			case SEARCH_SYSTEM:
+			case SEARCH_TYPE:
+			case HISTORY_INSTANCE:
+			case HISTORY_SYSTEM:
+				return true;
+			default:
+				return false;
+			}
+		case WRITE:
+			switch (theOperation) {
+			case CREATE:
+			case UPDATE:
+			case ADD_TAGS:
+			case DELETE_TAGS:
+			case META_ADD:
+			case META_DELETE:
+			case PATCH:
+				return true;
+			default:
+				return false;
+			}
+		case DELETE:
+			return theOperation == RestOperationTypeEnum.DELETE;
+		case BATCH:
+		case TRANSACTION:
+			return theOperation == RestOperationTypeEnum.TRANSACTION;
+		case METADATA:
+			return theOperation == RestOperationTypeEnum.METADATA;
+		default:
+			return true;
+		}
+	}
+
+	@Override
+	boolean isInvariantFor(RestOperationTypeEnum theOperation, Class<? extends IBaseResource> theOutputResourceType) {
+		switch (myOp) {
+		case ALLOW_ALL:
+		case DENY_ALL:
+			return true;
+		case READ:
+			/*
+			 * When examining an output resource, the verdict only depends on the
+			 * resource type unless a compartment needs to be checked
+			 */
+			return theOutputResourceType != null && myClassifierType == ClassifierTypeEnum.ANY_ID && isAppliesToType(theOutputResourceType);
+		default:
+			return false;
+		}
+	}
+
+	private boolean isAppliesToType(Class<? extends IBaseResource> theResourceType) {
+		switch (myAppliesTo) {
+		case ALL_RESOURCES:
+			return true;
+		case TYPES:
+			return myAppliesToTypes.contains(theResourceType);
+		default:
+			return true;
+		}
+	}
+
+	private boolean isInClassifierCompartment(FhirContext theContext, IBaseResource theResource, IIdType theResourceId) {
+		if (theResourceId != null && theResourceId.hasResourceType() && theResourceId.hasIdPart()) {
+			if (myClassifierCompartmentOwnerIds.contains(theResourceId.toUnqualifiedVersionless().getValue())) {
+				return true;
+			}
+		}
+
+		if (theResource != null) {
+			RuntimeResourceDefinition sourceDef = theContext.getResourceDefinition(theResource);
+			if (theResource.getIdElement().hasIdPart()) {
+				if (myClassifierCompartmentOwnerIds.contains(sourceDef.getName() + '/' + theResource.getIdElement().getIdPart())) {
+					return true;
+				}
+			}
+
+			/*
+			 * Collect the references once and check them against all owners, rather
+			 * than walking the resource once for each owner
+			 */
+			List<RuntimeSearchParam> params = sourceDef.getSearchParamsForCompartmentName(myClassifierCompartmentName);
+			if (params.isEmpty()) {
+				return false;
+			}
+			FhirTerser terser = theContext.newTerser();
+			for (RuntimeSearchParam nextParam : params) {
+				for (String nextPath : nextParam.getPathsSplit()) {
+					for (IBaseReference nextValue : terser.getValues(theResource, nextPath, IBaseReference.class)) {
+						String nextRef = nextValue.getReferenceElement().toUnqualifiedVersionless().getValue();
+						if (nextRef != null && myClassifierCompartmentOwnerIds.contains(nextRef)) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
 	private boolean requestAppliesToTransaction(FhirContext theContext, RuleOpEnum theOp, IBaseResource theInputResource) {
 		if (!"Bundle".equals(theContext.getResourceDefinition(theInputResource).getName())) {
 			return false;
@@ -276,7 +374,12 @@ class RuleImplOp extends BaseRule implements IAuthRule {
 	}
 
 	public void setClassifierCompartmentOwners(Collection<? extends IIdType> theInCompartmentOwners) {
-		myClassifierCompartmentOwners = theInCompartmentOwners;
+		myClassifierCompartmentOwnerIds = new HashSet<String>();
+		if (theInCompartmentOwners != null) {
+			for (IIdType next : theInCompartmentOwners) {
+				myClassifierCompartmentOwnerIds.add(next.toUnqualifiedVersionless().getValue());
+			}
+		}
 	}
 
 	public void setClassifierType(ClassifierTypeEnum theClassifierType) {
@@ -22,10 +22,14 @@ package ca.uhn.fhir.rest.server.servlet;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -38,6 +42,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.http.entity.ContentType;
 
 import ca.uhn.fhir.context.ConfigurationException;
@@ -47,7 +53,9 @@ import ca.uhn.fhir.rest.method.BaseMethodBinding.IRequestReader;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.PayloadTooLargeException;
 
 public class ServletRequestDetails extends RequestDetails {
 
@@ -59,7 +67,9 @@ public class ServletRequestDetails extends RequestDetails {
 	private RestfulServer myServer;
 	private HttpServletRequest myServletRequest;
 	private HttpServletResponse myServletResponse;
-	private byte[] requestContents;
+	private List<InputStream> myOpenRequestContentsFiles;
+	private DeferredFileOutputStream myRequestContentsBuffer;
+	private boolean myRequestContentsStreamed;
 
 	public ServletRequestDetails() {
 		super();
@@ -68,6 +78,92 @@ public class ServletRequestDetails extends RequestDetails {
 
 	@Override
 	protected byte[] getByteStreamRequestContents() {
+		try {
+			if (myRequestContentsBuffer != null) {
+				return IOUtils.toByteArray(openRequestContentsBuffer());
+			}
+			markRequestContentsStreamed();
+			return IOUtils.toByteArray(openRequestContentsStream());
+		} catch (IOException e) {
+			ourLog.error("Could not load request resource", e);
+			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+	}
+
+	@Override
+	public InputStream getBufferedRequestContents() {
+		if (!myServer.isStreamRequestContents() || isRequestContentsLoaded()) {
+			return super.getBufferedRequestContents();
+		}
+
+		try {
+			if (myRequestContentsBuffer == null) {
+				markRequestContentsStreamed();
+				DeferredFileOutputStream buffer = new DeferredFileOutputStream(myServer.getRequestContentsBufferThreshold(), "hapi-fhir-request-", ".tmp", null);
+				try {
+					IOUtils.copy(openRequestContentsStream(), buffer);
+				} finally {
+					buffer.close();
+				}
+				myRequestContentsBuffer = buffer;
+				if (!buffer.isInMemory()) {
+					ourLog.debug("Request contents exceeded {} bytes, buffered to file {}", myServer.getRequestContentsBufferThreshold(), buffer.getFile());
+				}
+			}
+			return openRequestContentsBuffer();
+		} catch (IOException e) {
+			ourLog.error("Could not load request resource", e);
+			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+	}
+
+	@Override
+	public InputStream loadRequestContentsAsStream() {
+		if (!myServer.isStreamRequestContents() || isRequestContentsLoaded()) {
+			return super.loadRequestContentsAsStream();
+		}
+		if (myRequestContentsBuffer != null) {
+			return getBufferedRequestContents();
+		}
+
+		try {
+			markRequestContentsStreamed();
+			return openRequestContentsStream();
+		} catch (IOException e) {
+			ourLog.error("Could not load request resource", e);
+			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+	}
+
+	private void markRequestContentsStreamed() {
+		if (myRequestContentsStreamed) {
+			throw new InternalErrorException("Request contents have already been consumed from the request stream. Use getBufferedRequestContents() to read the request contents more than once.");
+		}
+		myRequestContentsStreamed = true;
+	}
+
+	private InputStream openRequestContentsBuffer() throws IOException {
+		if (myRequestContentsBuffer.isInMemory()) {
+			return new ByteArrayInputStream(myRequestContentsBuffer.getData());
+		}
+		FileInputStream retVal = new FileInputStream(myRequestContentsBuffer.getFile());
+		if (myOpenRequestContentsFiles == null) {
+			myOpenRequestContentsFiles = new ArrayList<InputStream>();
+		}
+		myOpenRequestContentsFiles.add(retVal);
+		return retVal;
+	}
+
+	/**
+	 * Opens the underlying request stream, decompressing on the fly if needed and enforcing the
+	 * server's maximum request contents length
+	 */
+	private InputStream openRequestContentsStream() throws IOException {
+		long maximumLength = myServer.getMaximumRequestContentsLength();
+		if (maximumLength > 0 && myServletRequest.getContentLength() > maximumLength) {
+			throw new PayloadTooLargeException(createPayloadTooLargeMessage(maximumLength));
+		}
+
 		/*
 		 * This is weird, but this class is used both in clients and in servers, and we want to avoid needing to depend on
 		 * servlet-api in clients since there is no point. So we dynamically load a class that does the servlet processing
@@ -95,25 +191,50 @@ public class ServletRequestDetails extends RequestDetails {
 			ourRequestReader = reader;
 		}
 
-		try {
-			InputStream inputStream = reader.getInputStream(this);
-			requestContents = IOUtils.toByteArray(inputStream);
-			
-			if (myServer.isUncompressIncomingContents()) {
-				String contentEncoding = myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING);
-				if ("gzip".equals(contentEncoding)) {
-					ourLog.debug("Uncompressing (GZip) incoming content");
-					if (requestContents.length > 0) {
-						GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(requestContents));
-						requestContents = IOUtils.toByteArray(gis);
-					}
+		InputStream retVal = reader.getInputStream(this);
+
+		if (myServer.isUncompressIncomingContents()) {
+			String contentEncoding = myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING);
+			if ("gzip".equals(contentEncoding)) {
+				PushbackInputStream pushbackStream = new PushbackInputStream(retVal);
+				int firstByte = pushbackStream.read();
+				if (firstByte == -1) {
+					return pushbackStream;
 				}
+				pushbackStream.unread(firstByte);
+				ourLog.debug("Uncompressing (GZip) incoming content");
+				retVal = new GZIPInputStream(pushbackStream);
 			}
-			
-			return requestContents;
-		} catch (IOException e) {
-			ourLog.error("Could not load request resource", e);
-			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+
+		if (maximumLength > 0) {
+			retVal = new LengthLimitingInputStream(retVal, maximumLength);
+		}
+
+		return retVal;
+	}
+
+	private static String createPayloadTooLargeMessage(long theMaximumLength) {
+		return "Request contents exceed the maximum allowed length of " + theMaximumLength + " bytes";
+	}
+
+	/**
+	 * Releases any temporary storage used to buffer the request contents. This is called by
+	 * the server once the request has been completely handled.
+	 */
+	public void releaseRequestContentsBuffer() {
+		if (myOpenRequestContentsFiles != null) {
+			for (InputStream next : myOpenRequestContentsFiles) {
+				IOUtils.closeQuietly(next);
+			}
+			myOpenRequestContentsFiles = null;
+		}
+		if (myRequestContentsBuffer != null) {
+			File file = myRequestContentsBuffer.getFile();
+			if (file != null && file.exists() && !file.delete()) {
+				ourLog.warn("Failed to delete temporary request contents file {}", file);
+			}
+			myRequestContentsBuffer = null;
 		}
 	}
 
@@ -192,4 +313,26 @@ public class ServletRequestDetails extends RequestDetails {
 		return charset;
 	}
 
+	private static class LengthLimitingInputStream extends ProxyInputStream {
+
+		private long myCount;
+		private final long myMaximumLength;
+
+		LengthLimitingInputStream(InputStream theWrap, long theMaximumLength) {
+			super(theWrap);
+			myMaximumLength = theMaximumLength;
+		}
+
+		@Override
+		protected void afterRead(int theCount) throws IOException {
+			if (theCount > 0) {
+				myCount += theCount;
+				if (myCount > myMaximumLength) {
+					throw new PayloadTooLargeException(createPayloadTooLargeMessage(myMaximumLength));
+				}
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,248 @@
+package ca.uhn.fhir.util;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.*;
+
+/**
+ * A set of simple dotted element paths (e.g. <code>Patient.name.family</code>) compiled into a trie, so that
+ * the values for all of the paths can be collected from a resource in a single traversal. Paths which share a
+ * prefix (e.g. <code>Observation.code</code> and <code>Observation.code.coding</code>) only walk that prefix once.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * </p>
+ */
+public class ElementPathTrie {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ElementPathTrie.class);
+
+	private final INavigator myNavigator;
+	private final Set<String> myPaths;
+	private final Map<String, Node> myRoots;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thePaths
+	 *           The paths to compile. Each path must have a root (normally the resource type) followed by at least one
+	 *           child name. Blank or malformed paths are ignored, and {@link #contains(String)} will return
+	 *           <code>false</code> for them.
+	 * @param theNavigator
+	 *           The navigator used to move from an element to its children
+	 */
+	public ElementPathTrie(Collection<String> thePaths, INavigator theNavigator) {
+		Validate.notNull(theNavigator, "theNavigator must not be null");
+		myNavigator = theNavigator;
+
+		Set<String> paths = new LinkedHashSet<String>();
+		Map<String, Node> roots = new LinkedHashMap<String, Node>();
+		for (String nextPath : thePaths) {
+			if (StringUtils.isBlank(nextPath) || paths.contains(nextPath)) {
+				continue;
+			}
+			String[] parts = nextPath.split("\\.");
+			if (parts.length < 2 || hasBlankPart(parts)) {
+				ourLog.debug("Ignoring malformed path: {}", nextPath);
+				continue;
+			}
+
+			Node node = roots.get(parts[0]);
+			if (node == null) {
+				node = new Node(parts[0]);
+				roots.put(parts[0], node);
+			}
+			node.myPathsBelow.add(nextPath);
+			for (int i = 1; i < parts.length; i++) {
+				Node child = node.myChildren.get(parts[i]);
+				if (child == null) {
+					child = new Node(parts[i]);
+					node.myChildren.put(parts[i], child);
+				}
+				child.myPathsBelow.add(nextPath);
+				node = child;
+			}
+			node.myTerminalPaths.add(nextPath);
+			paths.add(nextPath);
+		}
+
+		myPaths = Collections.unmodifiableSet(paths);
+		myRoots = roots;
+	}
+
+	private void collect(Object theElement, Node theNode, Map<String, List<Object>> theValues, Set<String> theFailedPaths) {
+		for (Node nextChild : theNode.myChildren.values()) {
+			List<?> children;
+			try {
+				children = myNavigator.getChildren(theElement, nextChild.myName);
+			} catch (Exception e) {
+				ourLog.debug("Failed to navigate to child[{}]: {}", nextChild.myName, e.toString());
+				theFailedPaths.addAll(nextChild.myPathsBelow);
+				continue;
+			}
+			if (children == null || children.isEmpty()) {
+				continue;
+			}
+
+			for (String nextPath : nextChild.myTerminalPaths) {
+				theValues.get(nextPath).addAll(children);
+			}
+			if (nextChild.myChildren.isEmpty() == false) {
+				for (Object next : children) {
+					collect(next, nextChild, theValues, theFailedPaths);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the given path was compiled into this trie, meaning that
+	 * {@link #getValues(IBaseResource)} will attempt to collect its values
+	 */
+	public boolean contains(String thePath) {
+		return myPaths.contains(thePath);
+	}
+
+	/**
+	 * Returns the paths which were compiled into this trie
+	 */
+	public Set<String> getPaths() {
+		return myPaths;
+	}
+
+	/**
+	 * Walks the given resource once and returns the values found at each of the paths in this trie. Every
+	 * path is present in the returned map (with an empty list if nothing was found) except for paths which could
+	 * not be evaluated, e.g. because they name a child which does not exist. Callers wanting the error for
+	 * those should evaluate them individually.
+	 */
+	public Map<String, List<Object>> getValues(IBaseResource theResource) {
+		Map<String, List<Object>> retVal = new HashMap<String, List<Object>>();
+		for (String nextPath : myPaths) {
+			retVal.put(nextPath, new ArrayList<Object>());
+		}
+
+		Set<String> failedPaths = new HashSet<String>();
+		for (Node nextRoot : myRoots.values()) {
+			if (myNavigator.isRoot(theResource, nextRoot.myName)) {
+				collect(theResource, nextRoot, retVal, failedPaths);
+			}
+		}
+
+		for (String nextFailed : failedPaths) {
+			retVal.remove(nextFailed);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Creates a trie which navigates elements using the same rules as {@link FhirTerser#getValues(IBaseResource, String)}:
+	 * the root of each path is ignored, and choice elements may be named either with an <code>[x]</code> suffix or
+	 * with the datatype appended (e.g. <code>Observation.valueQuantity</code>)
+	 */
+	public static ElementPathTrie forTerser(FhirContext theContext, Collection<String> thePaths) {
+		Validate.notNull(theContext, "theContext must not be null");
+		return new ElementPathTrie(thePaths, new TerserNavigator(theContext));
+	}
+
+	private static boolean hasBlankPart(String[] theParts) {
+		for (String next : theParts) {
+			if (StringUtils.isBlank(next)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves from an element to its children. Implementations must be thread safe.
+	 */
+	public interface INavigator {
+
+		/**
+		 * Returns the (non-null) children of the given element with the given name. May throw an exception if the
+		 * name is not valid for the element, in which case every path below the child is left out of the results.
+		 */
+		List<?> getChildren(Object theElement, String theChildName) throws Exception;
+
+		/**
+		 * Returns <code>true</code> if paths starting with the given root name apply to the given resource
+		 */
+		boolean isRoot(IBaseResource theResource, String theRootName);
+
+	}
+
+	private static class Node {
+		private final Map<String, Node> myChildren = new LinkedHashMap<String, Node>();
+		private final String myName;
+		private final List<String> myPathsBelow = new ArrayList<String>();
+		private final List<String> myTerminalPaths = new ArrayList<String>();
+
+		Node(String theName) {
+			myName = theName;
+		}
+	}
+
+	private static class TerserNavigator implements INavigator {
+		private final FhirContext myContext;
+
+		TerserNavigator(FhirContext theContext) {
+			myContext = theContext;
+		}
+
+		@Override
+		public List<?> getChildren(Object theElement, String theChildName) {
+			BaseRuntimeElementCompositeDefinition<?> def;
+			if (theElement instanceof IBaseResource) {
+				def = myContext.getResourceDefinition((IBaseResource) theElement);
+			} else {
+				def = (BaseRuntimeElementCompositeDefinition<?>) myContext.getElementDefinition(((IBase) theElement).getClass());
+			}
+
+			BaseRuntimeChildDefinition childDef = def.getChildByNameOrThrowDataFormatException(theChildName);
+			List<? extends IBase> values = childDef.getAccessor().getValues(theElement);
+			List<IBase> retVal = new ArrayList<IBase>(values.size());
+			boolean choice = childDef instanceof RuntimeChildChoiceDefinition && theChildName.endsWith("[x]") == false;
+			for (IBase next : values) {
+				if (next == null) {
+					continue;
+				}
+				if (choice && theChildName.equals(childDef.getChildNameByDatatype(next.getClass())) == false) {
+					continue;
+				}
+				retVal.add(next);
+			}
+			return retVal;
+		}
+
+		@Override
+		public boolean isRoot(IBaseResource theResource, String theRootName) {
+			return true;
+		}
+	}
+
+}
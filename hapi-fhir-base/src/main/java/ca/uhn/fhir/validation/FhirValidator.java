@@ -20,17 +20,41 @@ package ca.uhn.fhir.validation;
  * #L%
  */
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.hl7.fhir.instance.model.api.IBaseReference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.model.api.Bundle;
 import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.OperationOutcomeUtil;
 import ca.uhn.fhir.validation.schematron.SchematronProvider;
 
@@ -45,6 +69,14 @@ import ca.uhn.fhir.validation.schematron.SchematronProvider;
  * <b>Thread safety note:</b> This class is thread safe, so you may register or unregister validator modules at any time. Individual modules are not guaranteed to be thread safe however. Reconfigure
  * them with caution.
  * </p>
+ * 
+ * <p>
+ * <b>Concurrent validation:</b> If an {@link ExecutorService} is supplied using {@link #setExecutorService(ExecutorService)},
+ * Bundle resources are validated by splitting them into independent tasks (one for the Bundle itself and one for each entry
+ * resource which is not linked to other entries) which run concurrently, and {@link #validateWithResults(List)} validates
+ * the resources it is given concurrently.
+ * All tasks share the registered validator modules, so these modules must be thread safe when an executor is used.
+ * </p>
  */
 public class FhirValidator {
 
@@ -52,6 +84,8 @@ public class FhirValidator {
 
 	private static volatile Boolean ourPhlocPresentOnClasspath;
 	private final FhirContext myContext;
+	private volatile ExecutorService myExecutorService;
+	private volatile boolean myFailFast;
 	private List<IValidatorModule> myValidators = new ArrayList<IValidatorModule>();
 
 	/**
@@ -91,6 +125,25 @@ public class FhirValidator {
 		return found;
 	}
 
+	/**
+	 * Returns the executor used to validate resources concurrently, or <code>null</code> if
+	 * all validation happens on the calling thread (which is the default)
+	 * 
+	 * @see #setExecutorService(ExecutorService)
+	 */
+	public ExecutorService getExecutorService() {
+		return myExecutorService;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), validation of a batch of resources (or of the
+	 * entries in a Bundle) stops as soon as one resource fails validation. Resources which had not yet been
+	 * validated at that point are skipped, so the result only contains the issues found up until the failure.
+	 */
+	public boolean isFailFast() {
+		return myFailFast;
+	}
+
 	/**
 	 * Should the validator validate the resource against the base schema (the schema provided with the FHIR distribution itself)
 	 */
@@ -125,6 +178,37 @@ public class FhirValidator {
 		myValidators = newValidators;
 	}
 
+	/**
+	 * Sets the executor used to validate resources concurrently. If set, Bundle resources passed to
+	 * {@link #validateWithResult(IBaseResource)} are validated as a number of independent tasks (the Bundle itself
+	 * and each entry resource which neither references nor is referenced by another entry) and the issues are
+	 * merged into a single result, with locations that point to the entry they came from. Resources passed to
+	 * {@link #validateWithResults(List)} are also validated concurrently. Raw text passed to
+	 * {@link #validateWithResult(String)} is always validated as supplied, in a single task.
+	 * <p>
+	 * The executor is not shut down by this validator. If set to <code>null</code> (which is the default),
+	 * all validation happens on the calling thread.
+	 * </p>
+	 * 
+	 * @return Returns a referens to <code>this<code> for method chaining
+	 */
+	public FhirValidator setExecutorService(ExecutorService theExecutorService) {
+		myExecutorService = theExecutorService;
+		return this;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), validation of a batch of resources (or of the
+	 * entries in a Bundle) stops as soon as one resource fails validation. Resources which had not yet been
+	 * validated at that point are skipped, so the result only contains the issues found up until the failure.
+	 * 
+	 * @return Returns a referens to <code>this<code> for method chaining
+	 */
+	public FhirValidator setFailFast(boolean theFailFast) {
+		myFailFast = theFailFast;
+		return this;
+	}
+
 	/**
 	 * Should the validator validate the resource against the base schema (the schema provided with the FHIR distribution itself)
 	 * 
@@ -259,13 +343,12 @@ public class FhirValidator {
 		
 		applyDefaultValidators();
 		
-		IValidationContext<IBaseResource> ctx = ValidationContext.forResource(myContext, theResource);
-
-		for (IValidatorModule next : myValidators) {
-			next.validateResource(ctx);
+		if (myExecutorService != null && theResource instanceof IBaseBundle) {
+			return validateBundleConcurrently((IBaseBundle) theResource);
 		}
 
-		return ctx.toResult();
+		IValidationContext<IBaseResource> ctx = ValidationContext.forResource(myContext, theResource);
+		return validate(myValidators, ctx);
 	}
 
 	/**
@@ -282,12 +365,315 @@ public class FhirValidator {
 		applyDefaultValidators();
 		
 		IValidationContext<IBaseResource> ctx = ValidationContext.forText(myContext, theResource);
+		return validate(myValidators, ctx);
+	}
 
-		for (IValidatorModule next : myValidators) {
-			next.validateResource(ctx);
+	/**
+	 * Validates a collection of independent resources, returning one {@link ValidationResult} for each resource
+	 * (in the same order as the resources were supplied). If an executor has been supplied using
+	 * {@link #setExecutorService(ExecutorService)} the resources are validated concurrently.
+	 * <p>
+	 * If {@link #setFailFast(boolean) fail fast} is enabled, the result for any resource which was skipped
+	 * because a previous resource failed validation will be <code>null</code>.
+	 * </p>
+	 *
+	 * @param theResources
+	 *           the resources to validate
+	 * @return the results of validation
+	 * @since 2.2
+	 */
+	public List<ValidationResult> validateWithResults(List<? extends IBaseResource> theResources) {
+		Validate.notNull(theResources, "theResources must not be null");
+		Validate.noNullElements(theResources, "theResources must not contain null elements");
+
+		applyDefaultValidators();
+
+		List<IValidationContext<IBaseResource>> contexts = new ArrayList<IValidationContext<IBaseResource>>(theResources.size());
+		for (IBaseResource next : theResources) {
+			contexts.add(ValidationContext.forResource(myContext, next));
+		}
+		return validateAll(contexts);
+	}
+
+	private static ValidationResult validate(List<IValidatorModule> theValidators, IValidationContext<IBaseResource> theContext) {
+		for (IValidatorModule next : theValidators) {
+			next.validateResource(theContext);
+		}
+		return theContext.toResult();
+	}
+
+	private List<ValidationResult> validateAll(List<IValidationContext<IBaseResource>> theContexts) {
+		List<IValidatorModule> validators = myValidators;
+		ExecutorService executor = myExecutorService;
+		boolean failFast = myFailFast;
+		ValidationResult[] retVal = new ValidationResult[theContexts.size()];
+
+		if (executor == null || theContexts.size() < 2) {
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = validate(validators, theContexts.get(i));
+				if (failFast && !retVal[i].isSuccessful()) {
+					break;
+				}
+			}
+			return Arrays.asList(retVal);
+		}
+
+		AtomicBoolean failed = new AtomicBoolean();
+		List<Future<ValidationResult>> futures = new ArrayList<Future<ValidationResult>>(retVal.length);
+		try {
+			for (IValidationContext<IBaseResource> next : theContexts) {
+				futures.add(executor.submit(new ValidationTask(validators, next, failFast ? failed : null)));
+			}
+			for (int i = 0; i < retVal.length; i++) {
+				try {
+					retVal[i] = futures.get(i).get();
+				} catch (CancellationException e) {
+					continue;
+				}
+				if (failed.get()) {
+					cancel(futures);
+				}
+			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Interrupted while waiting for validation to complete", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new InternalErrorException(e.getCause());
+		}
+
+		return Arrays.asList(retVal);
+	}
+
+	private ValidationResult validateBundleConcurrently(IBaseBundle theBundle) {
+		/*
+		 * Entry resources which neither reference nor are referenced by another entry are
+		 * validated as separate tasks. In the Bundle itself they are replaced by an empty stub
+		 * of the same type and ID, so that the rules about the Bundle's own structure still see
+		 * a resource in each entry. Entries which are linked to other entries stay in the Bundle,
+		 * since references between them can only be resolved in the context of the Bundle.
+		 */
+		RuntimeResourceDefinition bundleDef = myContext.getResourceDefinition(theBundle);
+		BaseRuntimeChildDefinition entryChild = bundleDef.getChildByName("entry");
+		BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) entryChild.getChildByName("entry");
+		BaseRuntimeChildDefinition resourceChild = entryDef.getChildByName("resource");
+		BaseRuntimeChildDefinition fullUrlChild = entryDef.getChildByName("fullUrl");
+
+		List<IBase> entries = entryChild.getAccessor().getValues(theBundle);
+		List<IBaseResource> resources = new ArrayList<IBaseResource>(entries.size());
+		List<String> fullUrls = new ArrayList<String>(entries.size());
+		for (IBase nextEntry : entries) {
+			IBaseResource resource = null;
+			for (IBase nextValue : resourceChild.getAccessor().getValues(nextEntry)) {
+				resource = (IBaseResource) nextValue;
+			}
+			resources.add(resource);
+			String fullUrl = null;
+			if (fullUrlChild != null) {
+				for (IBase nextValue : fullUrlChild.getAccessor().getValues(nextEntry)) {
+					fullUrl = ((IPrimitiveType<?>) nextValue).getValueAsString();
+				}
+			}
+			fullUrls.add(fullUrl);
+		}
+
+		boolean[] linked = findLinkedEntries(resources, fullUrls);
+
+		IParser parser = myContext.newJsonParser();
+		parser.setDontEncodeElements(Collections.singleton("Bundle.entry.resource"));
+		IBaseResource envelope = parser.parseResource(parser.encodeResourceToString(theBundle));
+		List<IBase> envelopeEntries = entryChild.getAccessor().getValues(envelope);
+
+		List<IValidationContext<IBaseResource>> contexts = new ArrayList<IValidationContext<IBaseResource>>();
+		List<Integer> entryIndexes = new ArrayList<Integer>();
+		contexts.add(ValidationContext.forResource(myContext, envelope));
+		entryIndexes.add(null);
+
+		for (int i = 0; i < resources.size(); i++) {
+			IBaseResource next = resources.get(i);
+			if (next == null) {
+				continue;
+			}
+			if (linked[i]) {
+				resourceChild.getMutator().setValue(envelopeEntries.get(i), next);
+			} else {
+				IBaseResource stub = myContext.getResourceDefinition(next).newInstance();
+				stub.setId(next.getIdElement().getValue());
+				resourceChild.getMutator().setValue(envelopeEntries.get(i), stub);
+				contexts.add(ValidationContext.forResource(myContext, next));
+				entryIndexes.add(i);
+			}
+		}
+
+		List<ValidationResult> results = validateAll(contexts);
+
+		List<SingleValidationMessage> messages = new ArrayList<SingleValidationMessage>();
+		for (int i = 0; i < results.size(); i++) {
+			ValidationResult nextResult = results.get(i);
+			if (nextResult == null) {
+				continue;
+			}
+			Integer entryIndex = entryIndexes.get(i);
+			for (SingleValidationMessage nextMessage : nextResult.getMessages()) {
+				if (entryIndex == null) {
+					if (!isInStubbedEntry(nextMessage.getLocationString(), resources, linked)) {
+						messages.add(nextMessage);
+					}
+				} else {
+					String resourceName = myContext.getResourceDefinition(contexts.get(i).getResource()).getName();
+					messages.add(toEntryMessage(nextMessage, entryIndex, resourceName));
+				}
+			}
+		}
+
+		return new ValidationResult(myContext, messages);
+	}
+
+	/**
+	 * Returns a flag for each entry which is <code>true</code> if the entry resource references another
+	 * entry, is referenced by another entry, or contains a <code>urn:</code> reference (which can only be
+	 * resolved within the Bundle)
+	 */
+	private boolean[] findLinkedEntries(List<IBaseResource> theResources, List<String> theFullUrls) {
+		Map<String, Integer> targets = new HashMap<String, Integer>();
+		for (int i = 0; i < theResources.size(); i++) {
+			if (isNotBlank(theFullUrls.get(i))) {
+				targets.put(theFullUrls.get(i), i);
+			}
+			IBaseResource next = theResources.get(i);
+			if (next != null && next.getIdElement().hasIdPart()) {
+				String resourceName = myContext.getResourceDefinition(next).getName();
+				targets.put(resourceName + "/" + next.getIdElement().getIdPart(), i);
+			}
+		}
+
+		FhirTerser terser = myContext.newTerser();
+		boolean[] retVal = new boolean[theResources.size()];
+		for (int i = 0; i < theResources.size(); i++) {
+			IBaseResource next = theResources.get(i);
+			if (next == null) {
+				continue;
+			}
+			for (IBaseReference nextRef : terser.getAllPopulatedChildElementsOfType(next, IBaseReference.class)) {
+				IIdType refId = nextRef.getReferenceElement();
+				String ref = refId.getValue();
+				if (isBlank(ref) || ref.startsWith("#")) {
+					continue;
+				}
+				Integer target = targets.get(ref);
+				if (target == null) {
+					target = targets.get(refId.toVersionless().getValue());
+				}
+				if (target == null && refId.hasResourceType() && refId.hasIdPart()) {
+					target = targets.get(refId.getResourceType() + "/" + refId.getIdPart());
+				}
+				if (target != null) {
+					retVal[i] = true;
+					retVal[target] = true;
+				} else if (ref.startsWith("urn:")) {
+					retVal[i] = true;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Messages about the stub which replaced an entry resource in the Bundle are not relevant, since
+	 * the entry resource itself is validated separately
+	 */
+	static boolean isInStubbedEntry(String theLocation, List<IBaseResource> theResources, boolean[] theLinked) {
+		if (isBlank(theLocation)) {
+			return false;
+		}
+		for (int i = 0; i < theResources.size(); i++) {
+			if (theResources.get(i) == null || theLinked[i]) {
+				continue;
+			}
+			if (startsWithPath(theLocation, "Bundle.entry[" + i + "].resource") || startsWithPath(theLocation, "/f:Bundle/f:entry[" + (i + 1) + "]/f:resource")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean startsWithPath(String theLocation, String thePath) {
+		if (!theLocation.startsWith(thePath)) {
+			return false;
+		}
+		if (theLocation.length() == thePath.length()) {
+			return true;
+		}
+		char next = theLocation.charAt(thePath.length());
+		return next == '.' || next == '/' || next == '[' || next == ' ';
+	}
+
+	private static void cancel(List<Future<ValidationResult>> theFutures) {
+		for (Future<ValidationResult> next : theFutures) {
+			next.cancel(false);
+		}
+	}
+
+	/**
+	 * Creates a copy of a message produced while validating a Bundle entry resource on its own,
+	 * with the location adjusted so that it points to the entry within the Bundle
+	 */
+	static SingleValidationMessage toEntryMessage(SingleValidationMessage theMessage, int theEntryIndex, String theResourceName) {
+		String location = theMessage.getLocationString();
+		String entryPath = "Bundle.entry[" + theEntryIndex + "].resource";
+		if (isBlank(location)) {
+			location = entryPath;
+		} else if (location.startsWith("/")) {
+			// XPath style location, e.g. /f:Patient/f:name
+			location = "/f:Bundle/f:entry[" + (theEntryIndex + 1) + "]/f:resource" + location;
+		} else if (location.equals(theResourceName)) {
+			location = entryPath;
+		} else if (location.startsWith(theResourceName + ".")) {
+			location = entryPath + location.substring(theResourceName.length());
+		} else {
+			location = entryPath + " " + location;
+		}
+
+		SingleValidationMessage retVal = new SingleValidationMessage();
+		retVal.setLocationCol(theMessage.getLocationCol());
+		retVal.setLocationLine(theMessage.getLocationLine());
+		retVal.setLocationString(location);
+		retVal.setMessage(theMessage.getMessage());
+		retVal.setSeverity(theMessage.getSeverity());
+		return retVal;
+	}
+
+	private static class ValidationTask implements Callable<ValidationResult> {
+
+		private final IValidationContext<IBaseResource> myContext;
+		private final AtomicBoolean myFailed;
+		private final List<IValidatorModule> myValidators;
+
+		ValidationTask(List<IValidatorModule> theValidators, IValidationContext<IBaseResource> theContext, AtomicBoolean theFailed) {
+			myValidators = theValidators;
+			myContext = theContext;
+			myFailed = theFailed;
+		}
+
+		@Override
+		public ValidationResult call() throws Exception {
+			if (myFailed != null && myFailed.get()) {
+				return null;
+			}
+			ValidationResult retVal = validate(myValidators, myContext);
+			if (myFailed != null && !retVal.isSuccessful()) {
+				myFailed.set(true);
+			}
+			return retVal;
 		}
 
-		return ctx.toResult();
 	}
 
 }
@@ -0,0 +1,107 @@
+package ca.uhn.fhir.rest.client.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TeeHttpResponseTest {
+
+	private static final String BODY = "<Patient xmlns=\"http://hl7.org/fhir\"/>";
+
+	@Test
+	public void testCaptureFromReader() throws Exception {
+		IHttpResponse wrapped = mock(IHttpResponse.class);
+		when(wrapped.createReader()).thenReturn(new StringReader(BODY));
+
+		TeeHttpResponse response = new TeeHttpResponse(wrapped);
+		CapturingListener full = new CapturingListener();
+		CapturingListener truncated = new CapturingListener();
+		response.addTee(1000, full);
+		response.addTee(8, truncated);
+
+		Reader reader = response.createReader();
+		assertEquals(BODY, IOUtils.toString(reader));
+		assertTrue(full.myBodies.isEmpty());
+
+		response.close();
+		response.close();
+
+		verify(wrapped, times(2)).close();
+		assertEquals(1, full.myBodies.size());
+		assertEquals(BODY, full.myBodies.get(0));
+		assertFalse(full.myTruncated);
+		assertEquals(BODY.substring(0, 8), truncated.myBodies.get(0));
+		assertTrue(truncated.myTruncated);
+	}
+
+	@Test
+	public void testCaptureFromStream() throws Exception {
+		IHttpResponse wrapped = mock(IHttpResponse.class);
+		when(wrapped.readEntity()).thenReturn(new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8)));
+
+		TeeHttpResponse response = new TeeHttpResponse(wrapped);
+		CapturingListener listener = new CapturingListener();
+		response.addTee(10, listener);
+
+		InputStream stream = response.readEntity();
+		assertEquals(BODY, IOUtils.toString(stream, StandardCharsets.UTF_8));
+		response.close();
+
+		assertEquals(BODY.substring(0, 10), listener.myBodies.get(0));
+		assertTrue(listener.myTruncated);
+	}
+
+	@Test
+	public void testNoTees() throws Exception {
+		IHttpResponse wrapped = mock(IHttpResponse.class);
+		StringReader reader = new StringReader(BODY);
+		when(wrapped.createReader()).thenReturn(reader);
+		when(wrapped.getStatus()).thenReturn(200);
+
+		TeeHttpResponse response = new TeeHttpResponse(wrapped);
+		assertSame(reader, response.createReader());
+		assertEquals(200, response.getStatus());
+		assertSame(wrapped, response.getWrappedResponse());
+	}
+
+	@Test
+	public void testBodyNeverRead() throws Exception {
+		IHttpResponse wrapped = mock(IHttpResponse.class);
+		TeeHttpResponse response = new TeeHttpResponse(wrapped);
+		CapturingListener listener = new CapturingListener();
+		response.addTee(10, listener);
+		response.close();
+
+		assertEquals(1, listener.myBodies.size());
+		assertNull(listener.myBodies.get(0));
+	}
+
+	private static class CapturingListener implements TeeHttpResponse.ITeeListener {
+		private List<String> myBodies = new ArrayList<String>();
+		private boolean myTruncated;
+
+		@Override
+		public void bodyCaptured(String theBody, boolean theTruncated) {
+			myBodies.add(theBody);
+			myTruncated = theTruncated;
+		}
+	}
+
+}
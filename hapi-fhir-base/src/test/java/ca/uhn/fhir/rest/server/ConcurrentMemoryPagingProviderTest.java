@@ -0,0 +1,176 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class ConcurrentMemoryPagingProviderTest {
+
+	private void enterRequest(ConcurrentMemoryPagingProvider theProvider, String theRemoteAddr) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getRemoteAddr()).thenReturn(theRemoteAddr);
+		theProvider.incomingRequestPreProcessed(request, null);
+	}
+
+	@Test
+	public void testConcurrentStoreAndRetrieve() throws Exception {
+		final ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(Long.MAX_VALUE);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int found = 0;
+						for (int j = 0; j < 500; j++) {
+							SimpleBundleProvider list = new SimpleBundleProvider();
+							String id = provider.storeResultList(list);
+							if (provider.retrieveResultList(id) == list) {
+								found++;
+							}
+						}
+						return found;
+					}
+				}));
+			}
+			for (Future<Integer> next : futures) {
+				assertEquals(500, next.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(4000, provider.getSize());
+		assertEquals(4000, provider.getHitCount());
+		assertEquals(0, provider.getMissCount());
+	}
+
+	@Test
+	public void testEvictByWeight() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(300, 1);
+		provider.setWeigher(new ConcurrentMemoryPagingProvider.IBundleProviderWeigher() {
+			@Override
+			public long weigh(IBundleProvider theBundleProvider) {
+				return 100;
+			}
+		});
+
+		String id0 = provider.storeResultList(new SimpleBundleProvider());
+		String id1 = provider.storeResultList(new SimpleBundleProvider());
+		String id2 = provider.storeResultList(new SimpleBundleProvider());
+
+		// Touch the first entry so that the second is the least recently used
+		assertNotNull(provider.retrieveResultList(id0));
+
+		String id3 = provider.storeResultList(new SimpleBundleProvider());
+
+		assertEquals(3, provider.getSize());
+		assertEquals(300, provider.getWeight());
+		assertEquals(1, provider.getEvictionCount());
+		assertNotNull(provider.retrieveResultList(id0));
+		assertNull(provider.retrieveResultList(id1));
+		assertNotNull(provider.retrieveResultList(id2));
+		assertNotNull(provider.retrieveResultList(id3));
+		assertEquals(1, provider.getMissCount());
+	}
+
+	@Test
+	public void testEntryHeavierThanSegmentIsNotStored() {
+		final SimpleBundleProvider large = new SimpleBundleProvider();
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(300, 1);
+		provider.setWeigher(new ConcurrentMemoryPagingProvider.IBundleProviderWeigher() {
+			@Override
+			public long weigh(IBundleProvider theBundleProvider) {
+				return theBundleProvider == large ? 1000 : 100;
+			}
+		});
+
+		String id0 = provider.storeResultList(new SimpleBundleProvider());
+		String id1 = provider.storeResultList(new SimpleBundleProvider());
+		String id2 = provider.storeResultList(large);
+
+		assertNotNull(id2);
+		assertEquals(2, provider.getSize());
+		assertEquals(200, provider.getWeight());
+		assertEquals(1, provider.getEvictionCount());
+		assertNotNull(provider.retrieveResultList(id0));
+		assertNotNull(provider.retrieveResultList(id1));
+		assertNull(provider.retrieveResultList(id2));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(Long.MAX_VALUE, 1);
+		provider.setTimeToLive(50, TimeUnit.MILLISECONDS);
+
+		String id = provider.storeResultList(new SimpleBundleProvider());
+		assertNotNull(provider.retrieveResultList(id));
+
+		Thread.sleep(100);
+
+		assertNull(provider.retrieveResultList(id));
+		assertEquals(1, provider.getExpiryCount());
+		assertEquals(0, provider.getSize());
+	}
+
+	@Test
+	public void testPerClientQuota() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(Long.MAX_VALUE);
+		provider.setMaximumEntriesPerClient(2);
+
+		enterRequest(provider, "1.1.1.1");
+		String a0 = provider.storeResultList(new SimpleBundleProvider());
+		String a1 = provider.storeResultList(new SimpleBundleProvider());
+		provider.processingCompletedNormally(null);
+
+		enterRequest(provider, "2.2.2.2");
+		String b0 = provider.storeResultList(new SimpleBundleProvider());
+		provider.processingCompletedNormally(null);
+
+		enterRequest(provider, "1.1.1.1");
+		String a2 = provider.storeResultList(new SimpleBundleProvider());
+		provider.processingCompletedNormally(null);
+
+		// No client key outside of a request, so no quota applies
+		provider.storeResultList(new SimpleBundleProvider());
+
+		assertEquals(1, provider.getQuotaEvictionCount());
+		assertNull(provider.retrieveResultList(a0));
+		assertNotNull(provider.retrieveResultList(a1));
+		assertNotNull(provider.retrieveResultList(a2));
+		assertNotNull(provider.retrieveResultList(b0));
+		assertEquals(4, provider.getSize());
+	}
+
+	@Test
+	public void testStoreAndRetrieve() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(Long.MAX_VALUE);
+		SimpleBundleProvider list = new SimpleBundleProvider();
+
+		String id = provider.storeResultList(list);
+		assertSame(list, provider.retrieveResultList(id));
+		assertNull(provider.retrieveResultList("foo"));
+
+		assertEquals(1, provider.getHitCount());
+		assertEquals(1, provider.getMissCount());
+		assertEquals(ConcurrentMemoryPagingProvider.DEFAULT_BYTES_PER_RESOURCE, provider.getWeight());
+	}
+
+}
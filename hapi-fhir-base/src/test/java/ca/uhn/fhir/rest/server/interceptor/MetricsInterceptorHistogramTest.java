@@ -0,0 +1,49 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ca.uhn.fhir.rest.server.interceptor.MetricsInterceptor.Histogram;
+import ca.uhn.fhir.rest.server.interceptor.MetricsInterceptor.HistogramSnapshot;
+
+public class MetricsInterceptorHistogramTest {
+
+	@Test
+	public void testBucketBoundaries() {
+		for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, Long.MAX_VALUE }) {
+			int index = Histogram.bucketIndex(value);
+			assertTrue("Value " + value, Histogram.bucketUpperBound(index) >= value);
+			if (index > 0) {
+				assertTrue("Value " + value, Histogram.bucketUpperBound(index - 1) < value);
+			}
+		}
+		assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(Histogram.bucketIndex(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500, snapshot.getMean());
+		assertEquals(1000, snapshot.getMax());
+		assertEquals(500, snapshot.getP50(), 500 * 0.07);
+		assertEquals(900, snapshot.getP90(), 900 * 0.07);
+		assertEquals(990, snapshot.getP99(), 990 * 0.07);
+	}
+
+	@Test
+	public void testEmpty() {
+		HistogramSnapshot snapshot = new Histogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getP99());
+		assertEquals(0, snapshot.getMax());
+	}
+
+}
@@ -37,7 +37,9 @@ import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
 import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
+import ca.uhn.fhir.jpa.dao.ResourceHistoryDeltaSvc;
 import ca.uhn.fhir.jpa.search.DatabaseBackedPagingProvider;
+import ca.uhn.fhir.jpa.search.SearchParamHashBackfillSvc;
 import ca.uhn.fhir.jpa.search.StaleSearchDeletingSvc;
 
 @Configuration
@@ -63,6 +65,16 @@ public class BaseConfig implements SchedulingConfigurer {
 		return retVal;
 	}
 
+	@Bean(autowire=Autowire.BY_TYPE)
+	public ResourceHistoryDeltaSvc resourceHistoryDeltaSvc() {
+		return new ResourceHistoryDeltaSvc();
+	}
+
+	@Bean(autowire=Autowire.BY_TYPE)
+	public SearchParamHashBackfillSvc searchParamHashBackfillSvc() {
+		return new SearchParamHashBackfillSvc();
+	}
+
 	@Bean(autowire=Autowire.BY_TYPE)
 	public StaleSearchDeletingSvc staleSearchDeletingSvc() {
 		return new StaleSearchDeletingSvc();
@@ -0,0 +1,347 @@
+package ca.uhn.fhir.jpa.config;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import ca.uhn.fhir.jpa.entity.ReplicaHeartbeat;
+
+/**
+ * A {@link DataSource} which sends read-only requests to a pool of read replicas of the
+ * primary database, and everything else to the primary database.
+ * <p>
+ * Requests are only sent to a replica if the current thread has been marked as allowing it
+ * (see {@link #setReplicaAllowedForCurrentThread(boolean)}), which is normally done by a
+ * {@link ca.uhn.fhir.jpa.interceptor.ReadReplicaRoutingInterceptor} registered with the
+ * server, and if the replica is no further behind the primary than the
+ * {@link #setMaxReplicaLagMillis(long) maximum lag}. Otherwise the primary database is used.
+ * </p>
+ * <p>
+ * This data source should be used in place of the primary data source when creating
+ * the entity manager factory. Declare the bean with this type so that the
+ * {@link ca.uhn.fhir.jpa.search.DatabaseBackedPagingProvider paging provider} can find it,
+ * for example:
+ * </p>
+ *
+ * <pre>
+ * &#64;Bean
+ * public ReadReplicaRoutingDataSource dataSource() {
+ *    List&lt;DataSource&gt; replicas = new ArrayList&lt;DataSource&gt;();
+ *    replicas.add(createReplicaDataSource("jdbc:postgresql://replica1/fhir"));
+ *    replicas.add(createReplicaDataSource("jdbc:postgresql://replica2/fhir"));
+ *    return new ReadReplicaRoutingDataSource(createPrimaryDataSource(), replicas);
+ * }
+ * </pre>
+ *
+ * The replica lag is checked every few seconds. Each check writes the current time to a
+ * single heartbeat row on the primary database (the <code>HFJ_REPLICA_HEARTBEAT</code> table,
+ * see {@link ReplicaHeartbeat}) and reads it back from each replica (see
+ * {@link #setLagQuery(String)}). Replicas are not used until their lag has first been
+ * checked, and a replica which can not be checked is not used.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	/**
+	 * The default query used to determine replica lag, which returns the time of the last
+	 * heartbeat which has reached the replica
+	 */
+	public static final String DEFAULT_LAG_QUERY = "SELECT HB_TIME FROM HFJ_REPLICA_HEARTBEAT WHERE HB_ID = " + ReplicaHeartbeat.HEARTBEAT_ID;
+
+	/**
+	 * How often the replica lag is checked
+	 */
+	static final long LAG_CHECK_INTERVAL_MILLIS = 5 * DateUtils.MILLIS_PER_SECOND;
+
+	static final String PRIMARY_KEY = "primary";
+	static final String REPLICA_KEY_PREFIX = "replica";
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ReadReplicaRoutingDataSource.class);
+	private static final ThreadLocal<Boolean> ourReplicaAllowed = new ThreadLocal<Boolean>();
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private String myLagQuery = DEFAULT_LAG_QUERY;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private long myMaxReplicaLagMillis = 5 * DateUtils.MILLIS_PER_SECOND;
+
+	private final AtomicInteger myNextReplica = new AtomicInteger();
+	private final DataSource myPrimary;
+	private final AtomicLongArray myReplicaLagMillis;
+	private final List<DataSource> myReplicas;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thePrimary
+	 *           The primary database, which is used for all writes
+	 * @param theReplicas
+	 *           The read replicas (may be empty, in which case all requests use the primary database)
+	 */
+	public ReadReplicaRoutingDataSource(DataSource thePrimary, List<DataSource> theReplicas) {
+		Validate.notNull(thePrimary, "thePrimary must not be null");
+		Validate.notNull(theReplicas, "theReplicas must not be null");
+		Validate.noNullElements(theReplicas, "theReplicas must not contain null elements");
+
+		myPrimary = thePrimary;
+		myReplicas = new ArrayList<DataSource>(theReplicas);
+		myReplicaLagMillis = new AtomicLongArray(myReplicas.size());
+
+		Map<Object, Object> targets = new HashMap<Object, Object>();
+		targets.put(PRIMARY_KEY, thePrimary);
+		for (int i = 0; i < myReplicas.size(); i++) {
+			myReplicaLagMillis.set(i, Long.MAX_VALUE);
+			targets.put(REPLICA_KEY_PREFIX + i, myReplicas.get(i));
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(thePrimary);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		super.afterPropertiesSet();
+		checkReplicaLag();
+	}
+
+	/**
+	 * Measures how far behind the primary database each replica is. This is called periodically
+	 * by the scheduler, and does not normally need to be called directly.
+	 */
+	@Scheduled(fixedDelay = LAG_CHECK_INTERVAL_MILLIS)
+	public void checkReplicaLag() {
+		if (myReplicas.isEmpty()) {
+			return;
+		}
+
+		Timestamp primaryLastUpdated;
+		try {
+			primaryLastUpdated = writeHeartbeat(myPrimary);
+		} catch (SQLException e) {
+			ourLog.warn("Failed to write heartbeat to primary database for replica lag check, not using replicas", e);
+			for (int i = 0; i < myReplicas.size(); i++) {
+				myReplicaLagMillis.set(i, Long.MAX_VALUE);
+			}
+			return;
+		}
+
+		for (int i = 0; i < myReplicas.size(); i++) {
+			long lag;
+			try {
+				Timestamp replicaLastUpdated = queryLastUpdated(myReplicas.get(i));
+				if (primaryLastUpdated == null) {
+					lag = 0;
+				} else if (replicaLastUpdated == null) {
+					lag = Long.MAX_VALUE;
+				} else {
+					lag = Math.max(0, primaryLastUpdated.getTime() - replicaLastUpdated.getTime());
+				}
+			} catch (SQLException e) {
+				ourLog.warn("Failed to query replica " + i + " for replica lag check, not using it", e);
+				lag = Long.MAX_VALUE;
+			}
+
+			if (lag > myMaxReplicaLagMillis && myReplicaLagMillis.get(i) <= myMaxReplicaLagMillis) {
+				ourLog.info("Replica {} is {}ms behind the primary database, sending its requests to the primary until it catches up", i, lag);
+			}
+			myReplicaLagMillis.set(i, lag);
+		}
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!isReplicaAllowedForCurrentThread() || myReplicas.isEmpty()) {
+			return PRIMARY_KEY;
+		}
+
+		int count = myReplicas.size();
+		int start = (myNextReplica.getAndIncrement() & Integer.MAX_VALUE) % count;
+		for (int i = 0; i < count; i++) {
+			int index = (start + i) % count;
+			if (myReplicaLagMillis.get(index) <= myMaxReplicaLagMillis) {
+				return REPLICA_KEY_PREFIX + index;
+			}
+		}
+
+		ourLog.debug("No replica is within {}ms of the primary database, using the primary", myMaxReplicaLagMillis);
+		return PRIMARY_KEY;
+	}
+
+	/**
+	 * See {@link #setLagQuery(String)}
+	 */
+	public String getLagQuery() {
+		return myLagQuery;
+	}
+
+	/**
+	 * See {@link #setMaxReplicaLagMillis(long)}
+	 */
+	public long getMaxReplicaLagMillis() {
+		return myMaxReplicaLagMillis;
+	}
+
+	/**
+	 * Returns the most recently measured lag of the given replica, or {@link Long#MAX_VALUE} if it
+	 * has not been measured or could not be measured
+	 */
+	public long getReplicaLagMillis(int theReplicaIndex) {
+		return myReplicaLagMillis.get(theReplicaIndex);
+	}
+
+	/**
+	 * Returns <code>true</code> if data which was committed to the primary database at the given time
+	 * is visible on every replica which may currently be used, i.e. if it is older than the
+	 * {@link #setMaxReplicaLagMillis(long) maximum lag} plus the interval between lag checks
+	 */
+	public boolean isVisibleOnReplicas(Date theCommitted) {
+		return theCommitted.getTime() < System.currentTimeMillis() - myMaxReplicaLagMillis - LAG_CHECK_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Queries the given replica for the time of the last heartbeat it has received
+	 */
+	protected Timestamp queryLastUpdated(DataSource theDataSource) throws SQLException {
+		Connection connection = theDataSource.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet resultSet = statement.executeQuery(myLagQuery);
+				try {
+					return resultSet.next() ? resultSet.getTimestamp(1) : null;
+				} finally {
+					resultSet.close();
+				}
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Sets the query used to measure replica lag. The query is run on each replica and must return
+	 * a single timestamp, which is compared to the time of the last heartbeat written to the primary
+	 * database. The default query (see {@link #DEFAULT_LAG_QUERY}) reads the heartbeat row back from
+	 * the replica, which is a primary key lookup. Databases which report when they last replayed a
+	 * transaction may use that instead, e.g. <code>SELECT pg_last_xact_replay_timestamp()</code>
+	 * on PostgreSQL, since the heartbeat means that there is always a recent transaction.
+	 */
+	public void setLagQuery(String theLagQuery) {
+		Validate.notBlank(theLagQuery, "theLagQuery must not be blank");
+		myLagQuery = theLagQuery;
+	}
+
+	/**
+	 * Sets the maximum number of milliseconds which a replica may be behind the primary database
+	 * and still be used. This is the staleness which read-only requests may see. If all replicas
+	 * are further behind than this, the primary database is used.
+	 * <p>
+	 * Defaults to 5000 (5 seconds)
+	 * </p>
+	 */
+	public void setMaxReplicaLagMillis(long theMaxReplicaLagMillis) {
+		Validate.isTrue(theMaxReplicaLagMillis >= 0, "theMaxReplicaLagMillis must not be negative");
+		myMaxReplicaLagMillis = theMaxReplicaLagMillis;
+	}
+
+	/**
+	 * Writes the current time to the heartbeat row on the primary database, and returns it
+	 */
+	protected Timestamp writeHeartbeat(DataSource thePrimary) throws SQLException {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		Connection connection = thePrimary.getConnection();
+		try {
+			int updated;
+			PreparedStatement update = connection.prepareStatement("UPDATE HFJ_REPLICA_HEARTBEAT SET HB_TIME = ? WHERE HB_ID = ?");
+			try {
+				update.setTimestamp(1, now);
+				update.setInt(2, ReplicaHeartbeat.HEARTBEAT_ID);
+				updated = update.executeUpdate();
+			} finally {
+				update.close();
+			}
+
+			if (updated == 0) {
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO HFJ_REPLICA_HEARTBEAT (HB_ID, HB_TIME) VALUES (?, ?)");
+				try {
+					insert.setInt(1, ReplicaHeartbeat.HEARTBEAT_ID);
+					insert.setTimestamp(2, now);
+					insert.executeUpdate();
+				} finally {
+					insert.close();
+				}
+			}
+
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+		} finally {
+			connection.close();
+		}
+		return now;
+	}
+
+	/**
+	 * Returns <code>true</code> if database connections opened by the current thread may
+	 * use a read replica
+	 */
+	public static boolean isReplicaAllowedForCurrentThread() {
+		return Boolean.TRUE.equals(ourReplicaAllowed.get());
+	}
+
+	/**
+	 * Sets whether database connections opened by the current thread may use a read replica. This
+	 * should only be set to <code>true</code> while processing requests which do not write to the
+	 * database, and must be cleared afterward. It takes effect for the next transaction, since
+	 * a connection is kept for the whole transaction.
+	 */
+	public static void setReplicaAllowedForCurrentThread(boolean theReplicaAllowed) {
+		if (theReplicaAllowed) {
+			ourReplicaAllowed.set(Boolean.TRUE);
+		} else {
+			ourReplicaAllowed.remove();
+		}
+	}
+
+}
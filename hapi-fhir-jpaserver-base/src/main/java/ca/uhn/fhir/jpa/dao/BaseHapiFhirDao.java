@@ -34,6 +34,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 
@@ -91,9 +92,11 @@ import ca.uhn.fhir.jpa.entity.BaseHasResource;
 import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
 import ca.uhn.fhir.jpa.entity.BaseTag;
 import ca.uhn.fhir.jpa.entity.ForcedId;
+import ca.uhn.fhir.jpa.entity.PatientCompartmentMember;
 import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
 import ca.uhn.fhir.jpa.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.entity.ResourceHistoryTag;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedComboString;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamCoords;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamNumber;
@@ -132,7 +135,9 @@ import ca.uhn.fhir.rest.method.QualifiedParamList;
 import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.param.*;
 import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.StoredResourceBody;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
@@ -200,6 +205,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	@Autowired
 	private List<IFhirResourceDao<?>> myResourceDaos;
 
+	@Autowired
+	private ResourceHistoryDeltaSvc myResourceHistoryDeltaSvc;
+
 	@Autowired
 	private IResourceHistoryTableDao myResourceHistoryTableDao;
 
@@ -586,7 +594,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 			CriteriaQuery<TagDefinition> cq = builder.createQuery(TagDefinition.class);
 			Root<TagDefinition> from = cq.from(TagDefinition.class);
-			cq.where(from.get("myId").in(tagIds));
+			cq.where(from.get("myId").in(SearchBuilder.padInClauseValues(tagIds)));
 			cq.orderBy(builder.asc(from.get("mySystem")), builder.asc(from.get("myCode")));
 			TypedQuery<TagDefinition> q = myEntityManager.createQuery(cq);
 			q.setMaxResults(getConfig().getHardTagListLimit());
@@ -1033,6 +1041,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		case JSONC:
 			resourceText = GZipUtil.decompress(theEntity.getResource());
 			break;
+		case DELTA:
+			resourceText = myResourceHistoryDeltaSvc.decode((ResourceHistoryTable) theEntity);
+			break;
 		}
 
 		/*
@@ -1083,6 +1094,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			IAnyResource res = (IAnyResource) retVal;
 			retVal = populateResourceMetadataRi(resourceType, theEntity, theForHistoryOperation, res);
 		}
+
+		// Reconstructed deltas don't keep the element order, so they can't be streamed
+		if (myConfig.isStreamStoredResourceBodies() && theEntity.getEncoding() != ResourceEncodingEnum.DELTA) {
+			StoredResourceBody.putInResource(retVal, new StoredResourceBody(EncodingEnum.JSON, resourceText, Long.toString(theEntity.getVersion())));
+		}
 		return retVal;
 	}
 
@@ -1203,76 +1219,81 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 			if (thePerformIndexing) {
 
-				stringParams = extractSearchParamStrings(theEntity, theResource);
-				numberParams = extractSearchParamNumber(theEntity, theResource);
-				quantityParams = extractSearchParamQuantity(theEntity, theResource);
-				dateParams = extractSearchParamDates(theEntity, theResource);
-				uriParams = extractSearchParamUri(theEntity, theResource);
-				coordsParams = extractSearchParamCoords(theEntity, theResource);
-
-				// ourLog.info("Indexing resource: {}", entity.getId());
-				ourLog.trace("Storing date indexes: {}", dateParams);
-
-				tokenParams = new HashSet<ResourceIndexedSearchParamToken>();
-				for (BaseResourceIndexedSearchParam next : extractSearchParamTokens(theEntity, theResource)) {
-					if (next instanceof ResourceIndexedSearchParamToken) {
-						tokenParams.add((ResourceIndexedSearchParamToken) next);
-					} else {
-						stringParams.add((ResourceIndexedSearchParamString) next);
+				mySearchParamExtractor.startResourceExtraction(theResource);
+				try {
+					stringParams = extractSearchParamStrings(theEntity, theResource);
+					numberParams = extractSearchParamNumber(theEntity, theResource);
+					quantityParams = extractSearchParamQuantity(theEntity, theResource);
+					dateParams = extractSearchParamDates(theEntity, theResource);
+					uriParams = extractSearchParamUri(theEntity, theResource);
+					coordsParams = extractSearchParamCoords(theEntity, theResource);
+
+					// ourLog.info("Indexing resource: {}", entity.getId());
+					ourLog.trace("Storing date indexes: {}", dateParams);
+
+					tokenParams = new HashSet<ResourceIndexedSearchParamToken>();
+					for (BaseResourceIndexedSearchParam next : extractSearchParamTokens(theEntity, theResource)) {
+						if (next instanceof ResourceIndexedSearchParamToken) {
+							tokenParams.add((ResourceIndexedSearchParamToken) next);
+						} else {
+							stringParams.add((ResourceIndexedSearchParamString) next);
+						}
 					}
-				}
 
-				/*
-				 * Handle references within the resource that are match URLs, for example references like "Patient?identifier=foo". These match URLs are resolved and replaced with the ID of the matching
-				 * resource.
-				 */
-				if (myConfig.isAllowInlineMatchUrlReferences()) {
-					FhirTerser terser = getContext().newTerser();
-					List<IBaseReference> allRefs = terser.getAllPopulatedChildElementsOfType(theResource, IBaseReference.class);
-					for (IBaseReference nextRef : allRefs) {
-						IIdType nextId = nextRef.getReferenceElement();
-						String nextIdText = nextId.getValue();
-						if (nextIdText == null) {
-							continue;
-						}
-						int qmIndex = nextIdText.indexOf('?');
-						if (qmIndex != -1) {
-							for (int i = qmIndex - 1; i >= 0; i--) {
-								if (nextIdText.charAt(i) == '/') {
-									if (i < nextIdText.length() - 1 && nextIdText.charAt(i + 1) == '?') {
-										// Just in case the URL is in the form Patient/?foo=bar
-										continue;
+					/*
+					 * Handle references within the resource that are match URLs, for example references like "Patient?identifier=foo". These match URLs are resolved and replaced with the ID of the matching
+					 * resource.
+					 */
+					if (myConfig.isAllowInlineMatchUrlReferences()) {
+						FhirTerser terser = getContext().newTerser();
+						List<IBaseReference> allRefs = terser.getAllPopulatedChildElementsOfType(theResource, IBaseReference.class);
+						for (IBaseReference nextRef : allRefs) {
+							IIdType nextId = nextRef.getReferenceElement();
+							String nextIdText = nextId.getValue();
+							if (nextIdText == null) {
+								continue;
+							}
+							int qmIndex = nextIdText.indexOf('?');
+							if (qmIndex != -1) {
+								for (int i = qmIndex - 1; i >= 0; i--) {
+									if (nextIdText.charAt(i) == '/') {
+										if (i < nextIdText.length() - 1 && nextIdText.charAt(i + 1) == '?') {
+											// Just in case the URL is in the form Patient/?foo=bar
+											continue;
+										}
+										nextIdText = nextIdText.substring(i + 1);
+										break;
 									}
-									nextIdText = nextIdText.substring(i + 1);
-									break;
 								}
+								String resourceTypeString = nextIdText.substring(0, nextIdText.indexOf('?')).replace("/", "");
+								RuntimeResourceDefinition matchResourceDef = getContext().getResourceDefinition(resourceTypeString);
+								if (matchResourceDef == null) {
+									String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlInvalidResourceType", nextId.getValue(), resourceTypeString);
+									throw new InvalidRequestException(msg);
+								}
+								Class<? extends IBaseResource> matchResourceType = matchResourceDef.getImplementingClass();
+								Set<Long> matches = processMatchUrl(nextIdText, matchResourceType);
+								if (matches.isEmpty()) {
+									String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlNoMatches", nextId.getValue());
+									throw new ResourceNotFoundException(msg);
+								}
+								if (matches.size() > 1) {
+									String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlMultipleMatches", nextId.getValue());
+									throw new PreconditionFailedException(msg);
+								}
+								Long next = matches.iterator().next();
+								String newId = translatePidIdToForcedId(resourceTypeString, next);
+								ourLog.info("Replacing inline match URL[{}] with ID[{}}", nextId.getValue(), newId);
+								nextRef.setReference(newId);
 							}
-							String resourceTypeString = nextIdText.substring(0, nextIdText.indexOf('?')).replace("/", "");
-							RuntimeResourceDefinition matchResourceDef = getContext().getResourceDefinition(resourceTypeString);
-							if (matchResourceDef == null) {
-								String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlInvalidResourceType", nextId.getValue(), resourceTypeString);
-								throw new InvalidRequestException(msg);
-							}
-							Class<? extends IBaseResource> matchResourceType = matchResourceDef.getImplementingClass();
-							Set<Long> matches = processMatchUrl(nextIdText, matchResourceType);
-							if (matches.isEmpty()) {
-								String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlNoMatches", nextId.getValue());
-								throw new ResourceNotFoundException(msg);
-							}
-							if (matches.size() > 1) {
-								String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "invalidMatchUrlMultipleMatches", nextId.getValue());
-								throw new PreconditionFailedException(msg);
-							}
-							Long next = matches.iterator().next();
-							String newId = translatePidIdToForcedId(resourceTypeString, next);
-							ourLog.info("Replacing inline match URL[{}] with ID[{}}", nextId.getValue(), newId);
-							nextRef.setReference(newId);
 						}
 					}
-				}
 
-				links = new HashSet<ResourceLink>();
-				extractResourceLinks(theEntity, theResource, links);
+					links = new HashSet<ResourceLink>();
+					extractResourceLinks(theEntity, theResource, links);
+				} finally {
+					mySearchParamExtractor.endResourceExtraction();
+				}
 
 				/*
 				 * If the existing resource already has links and those match links we still want, use them instead of removing them and re adding them
@@ -1346,6 +1367,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		 */
 		if (theUpdateVersion) {
 			final ResourceHistoryTable historyEntry = theEntity.toHistory(null);
+			myResourceHistoryDeltaSvc.encode(historyEntry);
 
 			ourLog.info("Saving history entry {}", historyEntry.getIdDt());
 			myResourceHistoryTableDao.save(historyEntry);
@@ -1416,6 +1438,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				myEntityManager.persist(next);
 			}
 
+			updatePatientCompartment(theEntity, links);
+			updateComboSearchParams(theEntity, stringParams, tokenParams, dateParams, links);
+
 			theEntity.toString();
 			
 		} // if thePerformIndexing
@@ -1433,6 +1458,154 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return updateEntity(theResource, entity, theDeletedTimestampOrNull, true, true, theUpdateTime);
 	}
 
+	/**
+	 * Updates the values of the combo search parameters (see {@link DaoConfig#setComboSearchParams(List)})
+	 * for the given resource, which are calculated from its other indexes
+	 *
+	 * @throws PreconditionFailedException If a value of a unique combo search parameter belongs to another resource
+	 */
+	private void updateComboSearchParams(ResourceTable theEntity, Collection<ResourceIndexedSearchParamString> theStringParams, Collection<ResourceIndexedSearchParamToken> theTokenParams,
+			Collection<ResourceIndexedSearchParamDate> theDateParams, Collection<ResourceLink> theLinks) {
+		Map<Long, String> indexStrings = new HashMap<Long, String>();
+		Set<Long> uniqueHashes = new HashSet<Long>();
+
+		if (theEntity.getDeleted() == null) {
+			RuntimeResourceDefinition def = getContext().getResourceDefinition(theEntity.getResourceType());
+			for (ComboSearchParamDefinition nextCombo : getConfig().getComboSearchParams()) {
+				if (!nextCombo.getResourceType().equals(theEntity.getResourceType())) {
+					continue;
+				}
+
+				Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+				for (String nextParamName : nextCombo.getParamNames()) {
+					RuntimeSearchParam nextParam = def.getSearchParam(nextParamName);
+					if (nextParam == null) {
+						throw new ConfigurationException("Combo search param for " + nextCombo.getResourceType() + " refers to unknown search param: " + nextParamName);
+					}
+					Set<String> nextValues = new HashSet<String>();
+					values.put(nextParamName, nextValues);
+
+					switch (nextParam.getParamType()) {
+					case STRING:
+						for (ResourceIndexedSearchParamString next : theStringParams) {
+							if (nextParamName.equals(next.getParamName()) && isNotBlank(next.getValueExact())) {
+								nextValues.add(next.getValueExact());
+							}
+						}
+						break;
+					case TOKEN:
+						for (ResourceIndexedSearchParamToken next : theTokenParams) {
+							if (nextParamName.equals(next.getParamName()) && isNotBlank(next.getSystem()) && isNotBlank(next.getValue())) {
+								nextValues.add(next.getSystem() + '|' + next.getValue());
+							}
+						}
+						break;
+					case DATE:
+						for (ResourceIndexedSearchParamDate next : theDateParams) {
+							if (nextParamName.equals(next.getParamName()) && next.getValueLow() != null && next.getValueHigh() != null) {
+								// Only values within a single day can match a search for a day
+								String low = ComboSearchParamDefinition.formatDay(next.getValueLow());
+								if (low.equals(ComboSearchParamDefinition.formatDay(next.getValueHigh()))) {
+									nextValues.add(low);
+								}
+							}
+						}
+						break;
+					case REFERENCE:
+						Set<String> paths = new HashSet<String>();
+						for (String nextPath : BaseSearchParamExtractor.SPLIT.split(nextParam.getPath())) {
+							paths.add(nextPath.trim());
+						}
+						for (ResourceLink next : theLinks) {
+							if (next.getTargetResourcePid() != null && paths.contains(next.getSourcePath())) {
+								nextValues.add(next.getTargetResourceType() + '/' + next.getTargetResourcePid());
+							}
+						}
+						break;
+					default:
+						throw new ConfigurationException("Combo search param for " + nextCombo.getResourceType() + " refers to search param " + nextParamName + " of unsupported type: " + nextParam.getParamType());
+					}
+				}
+
+				for (String nextIndexString : nextCombo.createIndexStrings(values)) {
+					long hash = ResourceIndexedComboString.calculateHash(nextIndexString);
+					indexStrings.put(hash, nextIndexString);
+					if (nextCombo.isUnique()) {
+						uniqueHashes.add(hash);
+					}
+				}
+			}
+		}
+
+		TypedQuery<ResourceIndexedComboString> q = myEntityManager.createQuery("SELECT c FROM ResourceIndexedComboString c WHERE c.myResourcePid = :pid", ResourceIndexedComboString.class);
+		q.setParameter("pid", theEntity.getId());
+		for (ResourceIndexedComboString next : q.getResultList()) {
+			if (indexStrings.remove(next.getHash()) == null) {
+				myEntityManager.remove(next);
+			}
+		}
+
+		for (Entry<Long, String> next : indexStrings.entrySet()) {
+			if (uniqueHashes.contains(next.getKey())) {
+				TypedQuery<Long> existing = myEntityManager.createQuery("SELECT c.myResourcePid FROM ResourceIndexedComboString c WHERE c.myHash = :hash AND c.myResourcePid <> :pid", Long.class);
+				existing.setParameter("hash", next.getKey());
+				existing.setParameter("pid", theEntity.getId());
+				existing.setMaxResults(1);
+				List<Long> existingPids = existing.getResultList();
+				if (!existingPids.isEmpty()) {
+					String msg = getContext().getLocalizer().getMessage(BaseHapiFhirDao.class, "uniqueComboSearchParamConflict", next.getValue(), existingPids.get(0));
+					throw new PreconditionFailedException(msg);
+				}
+			}
+			myEntityManager.persist(new ResourceIndexedComboString(theEntity, next.getValue()));
+		}
+	}
+
+	/**
+	 * Updates the list of patient compartments the given resource is a member of. A resource is
+	 * a member of the compartment of every patient it references through one of the search parameters
+	 * which the compartment definitions list for the Patient compartment, and a patient is a member
+	 * of its own compartment.
+	 */
+	private void updatePatientCompartment(ResourceTable theEntity, Collection<ResourceLink> theLinks) {
+		Map<Long, ResourceTable> patients = new HashMap<Long, ResourceTable>();
+		if (theEntity.getDeleted() == null) {
+			if ("Patient".equals(theEntity.getResourceType())) {
+				patients.put(theEntity.getId(), theEntity);
+			}
+
+			Set<String> compartmentPaths = new HashSet<String>();
+			RuntimeResourceDefinition def = getContext().getResourceDefinition(theEntity.getResourceType());
+			for (RuntimeSearchParam nextParam : def.getSearchParamsForCompartmentName("Patient")) {
+				if (isNotBlank(nextParam.getPath())) {
+					for (String nextPath : BaseSearchParamExtractor.SPLIT.split(nextParam.getPath())) {
+						compartmentPaths.add(nextPath.trim());
+					}
+				}
+			}
+
+			for (ResourceLink next : theLinks) {
+				ResourceTable target = next.getTargetResource();
+				if (target != null && "Patient".equals(target.getResourceType()) && compartmentPaths.contains(next.getSourcePath())) {
+					patients.put(target.getId(), target);
+				}
+			}
+		}
+
+		TypedQuery<PatientCompartmentMember> q = myEntityManager.createQuery("SELECT m FROM PatientCompartmentMember m WHERE m.myResourcePid = :pid", PatientCompartmentMember.class);
+		q.setParameter("pid", theEntity.getId());
+		for (PatientCompartmentMember next : q.getResultList()) {
+			if (patients.remove(next.getPatientPid()) != null) {
+				next.setUpdated(theEntity.getUpdatedDate());
+			} else {
+				myEntityManager.remove(next);
+			}
+		}
+		for (ResourceTable next : patients.values()) {
+			myEntityManager.persist(new PatientCompartmentMember(next, theEntity));
+		}
+	}
+
 	private void validateChildReferences(IBase theElement, String thePath) {
 		if (theElement == null) {
 			return;
@@ -55,9 +55,11 @@ import ca.uhn.fhir.model.api.*;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.api.PatchTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.exceptions.*;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetails;
@@ -868,6 +870,13 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		ActionRequestDetails requestDetails = new ActionRequestDetails(theParams.getRequestDetails(), getContext(), getResourceName(), null);
 		notifyInterceptors(RestOperationTypeEnum.SEARCH_TYPE, requestDetails);
 
+		if (theParams.getRequestDetails() != null && theParams.getRequestDetails().getParameters() != null) {
+			Set<SummaryEnum> summaryMode = RestfulServerUtils.determineSummaryMode(theParams.getRequestDetails());
+			if (summaryMode != null && summaryMode.contains(SummaryEnum.COUNT)) {
+				theParams.setCountOnly(true);
+			}
+		}
+
 		SearchBuilder builder = new SearchBuilder(getContext(), myEntityManager, myPlatformTransactionManager, mySearchDao, mySearchResultDao, this, myResourceIndexedSearchParamUriDao, myForcedIdDao,
 				myTerminologySvc);
 		builder.setType(getResourceType(), getResourceName());
@@ -20,8 +20,15 @@ package ca.uhn.fhir.jpa.dao;
  * #L%
  */
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -32,6 +39,7 @@ import com.google.common.annotations.VisibleForTesting;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.util.ElementPathTrie;
 import ca.uhn.fhir.util.FhirTerser;
 
 public abstract class BaseSearchParamExtractor implements ISearchParamExtractor {
@@ -41,6 +49,19 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Autowired
 	private FhirContext myContext;
+
+	/**
+	 * Values extracted by {@link #startResourceExtraction(IBaseResource)} for the resources currently being
+	 * indexed on this thread. This is a stack, since indexing one resource may cause another one to be
+	 * indexed (e.g. when an inline match URL is resolved) before the first one's extraction has ended.
+	 */
+	private final ThreadLocal<Deque<ExtractedValues>> myExtractedValues = new ThreadLocal<Deque<ExtractedValues>>();
+
+	/**
+	 * The search parameter paths for each resource type, compiled into a trie. There is one entry per
+	 * resource type so this cache is not bounded.
+	 */
+	private final ConcurrentHashMap<String, ElementPathTrie> myResourceTypeToPathTrie = new ConcurrentHashMap<String, ElementPathTrie>();
 	
 	public BaseSearchParamExtractor() {
 		super();
@@ -50,12 +71,89 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		myContext = theCtx;
 	}
 
+	/**
+	 * Compiles the given search parameter paths (all belonging to the same resource type) into a trie
+	 * which can collect their values in a single pass. Subclasses which do not evaluate paths using
+	 * {@link FhirTerser} semantics should override this, and may leave out any paths the trie can not
+	 * evaluate.
+	 */
+	protected ElementPathTrie createPathTrie(Collection<String> thePaths) {
+		return ElementPathTrie.forTerser(myContext, thePaths);
+	}
+
+	@Override
+	public void endResourceExtraction() {
+		Deque<ExtractedValues> extractions = myExtractedValues.get();
+		if (extractions != null) {
+			extractions.pollFirst();
+			if (extractions.isEmpty()) {
+				myExtractedValues.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the values at the given (single) path which were collected by
+	 * {@link #startResourceExtraction(IBaseResource)}, or <code>null</code> if there
+	 * is no extraction in progress for this resource or the path was not collected
+	 */
+	protected List<Object> getExtractedValues(String thePath, IBaseResource theResource) {
+		Deque<ExtractedValues> extractions = myExtractedValues.get();
+		if (extractions == null) {
+			return null;
+		}
+		for (ExtractedValues next : extractions) {
+			if (next.myResource == theResource) {
+				return next.myValues.get(thePath);
+			}
+		}
+		return null;
+	}
+
+	private ElementPathTrie getPathTrie(RuntimeResourceDefinition theResourceDef) {
+		ElementPathTrie retVal = myResourceTypeToPathTrie.get(theResourceDef.getName());
+		if (retVal == null) {
+			Set<String> paths = new LinkedHashSet<String>();
+			for (RuntimeSearchParam nextSpDef : theResourceDef.getSearchParams()) {
+				if (nextSpDef.getPath() == null) {
+					continue;
+				}
+				for (String nextPath : SPLIT.split(nextSpDef.getPath())) {
+					nextPath = nextPath.trim();
+					if (nextPath.length() > 0) {
+						paths.add(nextPath);
+					}
+				}
+			}
+			retVal = createPathTrie(paths);
+			myResourceTypeToPathTrie.put(theResourceDef.getName(), retVal);
+		}
+		return retVal;
+	}
+
+	@Override
+	public void startResourceExtraction(IBaseResource theResource) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
+		ElementPathTrie trie = getPathTrie(def);
+		Deque<ExtractedValues> extractions = myExtractedValues.get();
+		if (extractions == null) {
+			extractions = new ArrayDeque<ExtractedValues>();
+			myExtractedValues.set(extractions);
+		}
+		extractions.addFirst(new ExtractedValues(theResource, trie.getValues(theResource)));
+	}
+
 	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
 		List<Object> values = new ArrayList<Object>();
 		String[] nextPathsSplit = SPLIT.split(thePaths);
 		FhirTerser t = myContext.newTerser();
 		for (String nextPath : nextPathsSplit) {
 			String nextPathTrimmed = nextPath.trim();
+			List<Object> extracted = getExtractedValues(nextPathTrimmed, theResource);
+			if (extracted != null) {
+				values.addAll(extracted);
+				continue;
+			}
 			try {
 				values.addAll(t.getValues(theResource, nextPathTrimmed));
 			} catch (Exception e) {
@@ -73,6 +171,7 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 	@VisibleForTesting
 	void setContextForUnitTest(FhirContext theContext) {
 		myContext = theContext;
+		myResourceTypeToPathTrie.clear();
 	}
 
 	@Override
@@ -91,5 +190,14 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return refs;
 	}
 
+	private static class ExtractedValues {
+		private final IBaseResource myResource;
+		private final Map<String, List<Object>> myValues;
+
+		ExtractedValues(IBaseResource theResource, Map<String, List<Object>> theValues) {
+			myResource = theResource;
+			myValues = theValues;
+		}
+	}
 
 }
@@ -0,0 +1,138 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.Validate;
+
+import ca.uhn.fhir.util.UrlUtil;
+
+/**
+ * Defines a combo search parameter: a combination of search parameters of one resource type
+ * which is indexed as a single value, so that searches using all of them can be answered with one
+ * index lookup instead of searching for each parameter separately and intersecting the results.
+ * <p>
+ * Each parameter in a combo must be of one of the following types, and a search can only use the
+ * combo index if each of its values is of the given form:
+ * </p>
+ * <ul>
+ * <li><b>string</b>: The <code>:exact</code> modifier, e.g. <code>family:exact=Smith</code></li>
+ * <li><b>token</b>: A system and code, with no modifier, e.g. <code>code=http://loinc.org|1234-5</code></li>
+ * <li><b>date</b>: A day with no prefix (or <code>eq</code>), e.g. <code>birthdate=1990-01-02</code></li>
+ * <li><b>reference</b>: A resource type and ID, e.g. <code>subject=Patient/123</code></li>
+ * </ul>
+ * <p>
+ * A search may contain a single value or a list of <code>OR</code> values for each parameter, but not
+ * more than one <code>AND</code> value. Other searches which include the parameters are processed
+ * as normal.
+ * </p>
+ *
+ * @see DaoConfig#setComboSearchParams(List)
+ */
+public class ComboSearchParamDefinition {
+
+	private final Set<String> myParamNames;
+	private final String myResourceType;
+	private final boolean myUnique;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theResourceType
+	 *           The resource type, e.g. <code>Patient</code>
+	 * @param theUnique
+	 *           If <code>true</code>, no two resources may have the same combination of values. An attempt
+	 *           to store a resource which would duplicate the combination of another resource is rejected.
+	 * @param theParamNames
+	 *           The names of the search parameters (at least two)
+	 */
+	public ComboSearchParamDefinition(String theResourceType, boolean theUnique, String... theParamNames) {
+		Validate.notBlank(theResourceType, "theResourceType must not be blank");
+		Validate.isTrue(theParamNames != null && theParamNames.length >= 2, "A combo search param must have at least two parameters");
+		myResourceType = theResourceType;
+		myUnique = theUnique;
+		myParamNames = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList(theParamNames)));
+	}
+
+	/**
+	 * Creates the index strings for every combination of the given values
+	 *
+	 * @param theValues
+	 *           The values for each parameter, which must already be in the forms
+	 *           described above (see {@link #formatDay(Date)} for dates)
+	 */
+	public Set<String> createIndexStrings(Map<String, ? extends Set<String>> theValues) {
+		List<String> retVal = new ArrayList<String>();
+		retVal.add(myResourceType + '?');
+		for (String nextParamName : myParamNames) {
+			Set<String> nextValues = theValues.get(nextParamName);
+			if (nextValues == null || nextValues.isEmpty()) {
+				return Collections.emptySet();
+			}
+			List<String> nextRetVal = new ArrayList<String>();
+			for (String nextPrefix : retVal) {
+				for (String nextValue : nextValues) {
+					StringBuilder b = new StringBuilder(nextPrefix);
+					if (b.charAt(b.length() - 1) != '?') {
+						b.append('&');
+					}
+					b.append(nextParamName).append('=').append(UrlUtil.escape(nextValue));
+					nextRetVal.add(b.toString());
+				}
+			}
+			retVal = nextRetVal;
+		}
+		return new TreeSet<String>(retVal);
+	}
+
+	/**
+	 * Returns the names of the search parameters, in alphabetical order
+	 */
+	public Set<String> getParamNames() {
+		return myParamNames;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public boolean isUnique() {
+		return myUnique;
+	}
+
+	/**
+	 * Formats a date value as the day it falls on, in the server's time zone (which is also used
+	 * to determine the range of a day when searching)
+	 */
+	public static String formatDay(Date theDate) {
+		return new SimpleDateFormat("yyyy-MM-dd").format(theDate);
+	}
+
+}
@@ -33,6 +33,7 @@ import org.apache.commons.lang3.time.DateUtils;
 
 import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
 import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.StoredResourceBody;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 
 public class DaoConfig {
@@ -48,6 +49,7 @@ public class DaoConfig {
 	private boolean myAllowInlineMatchUrlReferences = false; 
 
 	private boolean myAllowMultipleDelete;
+	private List<ComboSearchParamDefinition> myComboSearchParams;
 	// ***
 	// update setter javadoc if default changes
 	// ***
@@ -59,6 +61,15 @@ public class DaoConfig {
 	private int myHardSearchLimit = 1000;
 	
 	private int myHardTagListLimit = 1000;
+
+	private boolean myHashIndexSearchEnabled;
+
+	private boolean myHistoryDeltaEncodingEnabled;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myHistorySnapshotInterval = 20;
 	
 	private int myIncludeLimit = 2000;
 	
@@ -73,9 +84,12 @@ public class DaoConfig {
 	// update setter javadoc if default changes
 	// ***
 	private int myMaximumExpansionSize = 5000;
+
+	private boolean myPatientCompartmentIndexEnabled;
 	
 	private ResourceEncodingEnum myResourceEncoding = ResourceEncodingEnum.JSONC;
 	private boolean mySchedulingDisabled;
+	private boolean myStreamStoredResourceBodies;
 
 	private boolean mySubscriptionEnabled;
 
@@ -85,6 +99,16 @@ public class DaoConfig {
 	
 	private Set<String> myTreatBaseUrlsAsLocal = new HashSet<String>();
 
+	/**
+	 * See {@link #setComboSearchParams(List)}
+	 */
+	public List<ComboSearchParamDefinition> getComboSearchParams() {
+		if (myComboSearchParams == null) {
+			return Collections.emptyList();
+		}
+		return myComboSearchParams;
+	}
+
 	/**
 	 * When a code system is added that contains more than this number of codes,
 	 * the code system will be indexed later in an incremental process in order to
@@ -119,6 +143,13 @@ public class DaoConfig {
 		return myHardTagListLimit;
 	}
 	
+	/**
+	 * See {@link #setHistorySnapshotInterval(int)}
+	 */
+	public int getHistorySnapshotInterval() {
+		return myHistorySnapshotInterval;
+	}
+
 	public int getIncludeLimit() {
 		return myIncludeLimit;
 	}
@@ -202,6 +233,20 @@ public class DaoConfig {
 		return myAllowMultipleDelete;
 	}
 
+	/**
+	 * See {@link #setHashIndexSearchEnabled(boolean)}
+	 */
+	public boolean isHashIndexSearchEnabled() {
+		return myHashIndexSearchEnabled;
+	}
+
+	/**
+	 * See {@link #setHistoryDeltaEncodingEnabled(boolean)}
+	 */
+	public boolean isHistoryDeltaEncodingEnabled() {
+		return myHistoryDeltaEncodingEnabled;
+	}
+
 	/**
 	 * Should contained IDs be indexed the same way that non-contained IDs are (default is
 	 * <code>true</code>) 
@@ -210,10 +255,24 @@ public class DaoConfig {
 		return myIndexContainedResources;
 	}
 
+	/**
+	 * See {@link #setPatientCompartmentIndexEnabled(boolean)}
+	 */
+	public boolean isPatientCompartmentIndexEnabled() {
+		return myPatientCompartmentIndexEnabled;
+	}
+
 	public boolean isSchedulingDisabled() {
 		return mySchedulingDisabled;
 	}
 
+	/**
+	 * See {@link #setStreamStoredResourceBodies(boolean)}
+	 */
+	public boolean isStreamStoredResourceBodies() {
+		return myStreamStoredResourceBodies;
+	}
+
 	/**
 	 * See {@link #setSubscriptionEnabled(boolean)}
 	 */
@@ -268,6 +327,23 @@ public class DaoConfig {
 		myAllowMultipleDelete = theAllowMultipleDelete;
 	}
 
+	/**
+	 * Sets the combo search parameters, which index the combination of values of several
+	 * search parameters together so that searches which specify all of them (e.g.
+	 * <code>Patient?family:exact=Smith&amp;given:exact=John&amp;birthdate=1970-01-01</code>)
+	 * are answered with a single index lookup. A combo may also be marked as unique,
+	 * in which case resources which would duplicate the values of another resource are rejected.
+	 * <p>
+	 * Resources are only indexed for a combo when they are stored, so existing resources must be
+	 * reindexed after a combo is added. Default is none.
+	 * </p>
+	 *
+	 * @see ComboSearchParamDefinition
+	 */
+	public void setComboSearchParams(List<ComboSearchParamDefinition> theComboSearchParams) {
+		myComboSearchParams = theComboSearchParams;
+	}
+
 	/**
 	 * When a code system is added that contains more than this number of codes,
 	 * the code system will be indexed later in an incremental process in order to
@@ -307,6 +383,52 @@ public class DaoConfig {
 		myHardTagListLimit = theHardTagListLimit;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) token, string and URI searches
+	 * match on the hash columns of the search parameter index tables (e.g. <code>HASH_SYS_AND_VALUE</code>
+	 * on <code>HFJ_SPIDX_TOKEN</code>) instead of on the wide text columns, so that the database can use
+	 * the much smaller hash indexes.
+	 * <p>
+	 * Rows saved before the hash columns were introduced have no hashes, and would not be found by searches
+	 * using them. Only enable this on a new database, or once
+	 * {@link ca.uhn.fhir.jpa.search.SearchParamHashBackfillSvc} has populated the hashes for all existing rows.
+	 * </p>
+	 */
+	public void setHashIndexSearchEnabled(boolean theHashIndexSearchEnabled) {
+		myHashIndexSearchEnabled = theHashIndexSearchEnabled;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) most history entries are stored as
+	 * a JSON Patch against an earlier, complete history entry of the same resource instead of as a
+	 * complete copy of the resource. This greatly reduces the size of <code>HFJ_RES_VER</code> for
+	 * resources which are updated often, at the cost of some work when reading old versions. The
+	 * current version of each resource is always stored in full.
+	 * <p>
+	 * Entries which were stored before this setting was enabled are not changed, and disabling it
+	 * again does not affect the ability to read entries which were stored as a delta.
+	 * </p>
+	 *
+	 * @see #setHistorySnapshotInterval(int)
+	 */
+	public void setHistoryDeltaEncodingEnabled(boolean theHistoryDeltaEncodingEnabled) {
+		myHistoryDeltaEncodingEnabled = theHistoryDeltaEncodingEnabled;
+	}
+
+	/**
+	 * When {@link #setHistoryDeltaEncodingEnabled(boolean) delta encoding} of history entries
+	 * is enabled, every this many versions of a resource a complete copy is stored in the history,
+	 * and the versions in between are stored as a delta against it. Larger values save more space,
+	 * but the deltas of versions far from the complete copy tend to get bigger.
+	 * <p>
+	 * Defaults to 20
+	 * </p>
+	 */
+	public void setHistorySnapshotInterval(int theHistorySnapshotInterval) {
+		Validate.isTrue(theHistorySnapshotInterval > 0, "theHistorySnapshotInterval must be greater than 0");
+		myHistorySnapshotInterval = theHistorySnapshotInterval;
+	}
+
 	/**
 	 * This is the maximum number of resources that will be added to a single page of returned resources. Because of
 	 * includes with wildcards and other possibilities it is possible for a client to make requests that include very
@@ -362,7 +484,25 @@ public class DaoConfig {
 		myMaximumExpansionSize = theMaximumExpansionSize;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) the <code>$everything</code> operation
+	 * on patients finds the resources in the compartment of the patient(s) using the patient compartment
+	 * table (<code>HFJ_PAT_COMPARTMENT</code>), which is much faster for patients with many resources than
+	 * following all of the links to the patient. Resources are then included if they are in the
+	 * Patient compartment according to the compartment definitions, instead of if they have any reference
+	 * to the patient.
+	 * <p>
+	 * The compartment table is always kept up to date when resources are saved, but resources saved
+	 * before it was introduced are not in it. Only enable this on a new database, or once all existing
+	 * resources have been reindexed.
+	 * </p>
+	 */
+	public void setPatientCompartmentIndexEnabled(boolean thePatientCompartmentIndexEnabled) {
+		myPatientCompartmentIndexEnabled = thePatientCompartmentIndexEnabled;
+	}
+
 	public void setResourceEncoding(ResourceEncodingEnum theResourceEncoding) {
+		Validate.isTrue(theResourceEncoding != ResourceEncodingEnum.DELTA, "DELTA can not be used as the resource encoding, see setHistoryDeltaEncodingEnabled(boolean)");
 		myResourceEncoding = theResourceEncoding;
 	}
 
@@ -370,6 +510,23 @@ public class DaoConfig {
 		mySchedulingDisabled = theSchedulingDisabled;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) resources loaded from the
+	 * database carry their stored JSON, and the REST server writes that JSON straight to the
+	 * response for JSON reads which need no transformation (or only <code>_elements</code> or
+	 * <code>_summary=data</code>), instead of encoding the parsed resource again. 
+	 * <p>
+	 * Do not enable this if any interceptor or custom provider changes the content of resources
+	 * returned by the DAOs without changing their version, since those changes would not appear
+	 * in the response. The ID and <code>meta</code> are always taken from the resource itself.
+	 * </p>
+	 * 
+	 * @see StoredResourceBody
+	 */
+	public void setStreamStoredResourceBodies(boolean theStreamStoredResourceBodies) {
+		myStreamStoredResourceBodies = theStreamStoredResourceBodies;
+	}
+
 	/**
 	 * If set to true, the server will enable support for subscriptions. Subscriptions
 	 * will by default be handled via a polling task. Note that if this is enabled, you must also include Spring task scanning to your XML
@@ -53,6 +53,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.jpa.search.FulltextIndexingProperties;
+import ca.uhn.fhir.jpa.search.ResourceTypeShardIdentifierProvider;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.dstu.resource.BaseResource;
 import ca.uhn.fhir.rest.param.StringParam;
@@ -66,6 +68,8 @@ public class FulltextSearchSvcImpl extends BaseHapiFhirDao<IBaseResource> implem
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	private EntityManager myEntityManager;
 
+	private boolean myShardByResourceType;
+
 	private void addTextSearch(QueryBuilder theQueryBuilder, BooleanJunction<?> theBoolean, List<List<? extends IQueryParameterType>> theTerms, String theFieldName, String theFieldNameEdgeNGram, String theFieldNameNGram) {
 		if (theTerms == null) {
 			return;
@@ -181,6 +185,10 @@ public class FulltextSearchSvcImpl extends BaseHapiFhirDao<IBaseResource> implem
 		// wrap Lucene query in a javax.persistence.Query
 		FullTextQuery jpaQuery = em.createFullTextQuery(luceneQuery, ResourceTable.class);
 		jpaQuery.setProjection("myId");
+		if (myShardByResourceType && isNotBlank(theResourceName)) {
+			// Without the filter, every shard is read
+			jpaQuery.enableFullTextFilter(ResourceTypeShardIdentifierProvider.FILTER_NAME).setParameter(ResourceTypeShardIdentifierProvider.FILTER_PARAM_RESOURCE_TYPES, Collections.singleton(theResourceName));
+		}
 
 		// execute search
 		List<?> result = jpaQuery.getResultList();
@@ -222,6 +230,22 @@ public class FulltextSearchSvcImpl extends BaseHapiFhirDao<IBaseResource> implem
 		return doSearch(theResourceName, theParams, null);
 	}
 
+	/**
+	 * See {@link #setShardByResourceType(boolean)}
+	 */
+	public boolean isShardByResourceType() {
+		return myShardByResourceType;
+	}
+
+	/**
+	 * This must be set to <code>true</code> (default is <code>false</code>) when the resource index is
+	 * {@link FulltextIndexingProperties#setShardByResourceType(boolean) sharded by resource type}, so that
+	 * searches for a single resource type only read the shard for that type.
+	 */
+	public void setShardByResourceType(boolean theShardByResourceType) {
+		myShardByResourceType = theShardByResourceType;
+	}
+
 	@Override
 	public List<Suggestion> suggestKeywords(String theContext, String theSearchParam, String theText) {
 		Validate.notBlank(theContext, "theContext must be provided");
@@ -1,5 +1,8 @@
 package ca.uhn.fhir.jpa.dao;
 
+import java.util.Date;
+import java.util.Set;
+
 import javax.servlet.http.HttpServletRequest;
 
 /*
@@ -36,6 +39,22 @@ public interface IFhirResourceDaoPatient<T extends IBaseResource> extends IFhirR
 
 	IBundleProvider patientInstanceEverything(HttpServletRequest theServletRequest, IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdate, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, RequestDetails theRequestDetails);
 
+	/**
+	 * @param theSince
+	 *           If not <code>null</code>, only resources updated since this time are returned (the <code>_since</code> parameter)
+	 * @param theTypes
+	 *           If not <code>null</code>, only resources of these types are returned (the <code>_type</code> parameter)
+	 */
+	IBundleProvider patientInstanceEverything(HttpServletRequest theServletRequest, IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdate, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, IPrimitiveType<Date> theSince, Set<String> theTypes, RequestDetails theRequestDetails);
+
 	IBundleProvider patientTypeEverything(HttpServletRequest theServletRequest, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSortSpec, StringAndListParam theContent, StringAndListParam theNarrative, RequestDetails theRequestDetails);
 
+	/**
+	 * @param theSince
+	 *           If not <code>null</code>, only resources updated since this time are returned (the <code>_since</code> parameter)
+	 * @param theTypes
+	 *           If not <code>null</code>, only resources of these types are returned (the <code>_type</code> parameter)
+	 */
+	IBundleProvider patientTypeEverything(HttpServletRequest theServletRequest, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSortSpec, StringAndListParam theContent, StringAndListParam theNarrative, IPrimitiveType<Date> theSince, Set<String> theTypes, RequestDetails theRequestDetails);
+
 }
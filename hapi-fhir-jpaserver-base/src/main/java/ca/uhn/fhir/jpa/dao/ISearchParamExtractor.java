@@ -38,6 +38,12 @@ import ca.uhn.fhir.jpa.entity.ResourceTable;
 
 public interface ISearchParamExtractor {
 
+	/**
+	 * Ends the most recent extraction started on this thread by {@link #startResourceExtraction(IBaseResource)}.
+	 * Should be called in a <code>finally</code> block.
+	 */
+	public abstract void endResourceExtraction();
+
 	public abstract Set<ResourceIndexedSearchParamCoords> extractSearchParamCoords(ResourceTable theEntity, IBaseResource theResource);
 
 	public abstract Set<ResourceIndexedSearchParamDate> extractSearchParamDates(ResourceTable theEntity, IBaseResource theResource);
@@ -54,4 +60,14 @@ public interface ISearchParamExtractor {
 
 	public abstract List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef);
 
+	/**
+	 * Walks the given resource once, collecting the values for the paths of every search parameter
+	 * of its type. Until {@link #endResourceExtraction()} is called, the <code>extractXXX</code> methods
+	 * called on the same thread with the same resource instance use these values instead of walking
+	 * the resource again for each search parameter. Extractions may be nested, e.g. if indexing one
+	 * resource causes another one to be indexed, and each must be ended in reverse order. The resource
+	 * must not be structurally modified while an extraction is in progress.
+	 */
+	public abstract void startResourceExtraction(IBaseResource theResource);
+
 }
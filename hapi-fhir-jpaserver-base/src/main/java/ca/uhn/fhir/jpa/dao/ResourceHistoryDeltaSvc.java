@@ -0,0 +1,150 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.UnsupportedEncodingException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import ca.uhn.fhir.jpa.dao.data.IResourceHistoryTableDao;
+import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.util.jsonpatch.JsonPatchDiffUtils;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Stores history entries as a delta (a JSON Patch) against an earlier, complete history entry
+ * of the same resource, and reconstructs them when they are read.
+ * <p>
+ * Every delta is taken against the most recent complete entry rather than against the previous
+ * version, so reading any version needs at most one other entry. A new complete entry is stored
+ * every {@link DaoConfig#getHistorySnapshotInterval() snapshot interval} versions, which keeps the
+ * deltas small. Decoded entries are cached by PID, since history entries never change once they
+ * have been stored.
+ * </p>
+ *
+ * @see DaoConfig#setHistoryDeltaEncodingEnabled(boolean)
+ */
+public class ResourceHistoryDeltaSvc {
+	private static final int CACHE_SIZE = 1000;
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ResourceHistoryDeltaSvc.class);
+
+	private final Cache<Long, String> myDecodedCache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+	private final Gson myGson = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	@Autowired
+	private IResourceHistoryTableDao myResourceHistoryTableDao;
+
+	/**
+	 * Returns the encoded resource stored in the given history entry, reconstructing
+	 * it first if the entry is a delta
+	 */
+	public String decode(ResourceHistoryTable theEntry) {
+		String retVal = theEntry.getId() != null ? myDecodedCache.getIfPresent(theEntry.getId()) : null;
+		if (retVal != null) {
+			return retVal;
+		}
+
+		if (theEntry.getEncoding() == ResourceEncodingEnum.DELTA) {
+			ResourceHistoryTable base = theEntry.getDeltaBasePid() != null ? myResourceHistoryTableDao.findOne(theEntry.getDeltaBasePid()) : null;
+			if (base == null || base.getEncoding() == ResourceEncodingEnum.DELTA) {
+				throw new InternalErrorException("History entry " + theEntry.getIdDt().getValue() + " (pid " + theEntry.getId() + ") is a delta against a missing or invalid history entry " + theEntry.getDeltaBasePid());
+			}
+			JsonElement document = myGson.fromJson(decode(base), JsonElement.class);
+			JsonArray patch = myGson.fromJson(GZipUtil.decompress(theEntry.getResource()), JsonArray.class);
+			retVal = myGson.toJson(JsonPatchDiffUtils.apply(document, patch));
+		} else {
+			retVal = decodeComplete(theEntry);
+		}
+
+		if (theEntry.getId() != null) {
+			myDecodedCache.put(theEntry.getId(), retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * If delta encoding is enabled, replaces the complete resource in a new history entry with
+	 * a delta against the most recent complete entry for the same resource, unless it is time
+	 * to store a new complete entry. Must be called before the entry is saved.
+	 */
+	public void encode(ResourceHistoryTable theEntry) {
+		if (!myDaoConfig.isHistoryDeltaEncodingEnabled() || theEntry.getVersion() <= 1 || theEntry.getEncoding() == ResourceEncodingEnum.DELTA) {
+			return;
+		}
+
+		ResourceHistoryTable previous = myResourceHistoryTableDao.findForIdAndVersion(theEntry.getResourceId(), theEntry.getVersion() - 1);
+		if (previous == null) {
+			return;
+		}
+
+		ResourceHistoryTable base = previous;
+		if (previous.getEncoding() == ResourceEncodingEnum.DELTA) {
+			base = myResourceHistoryTableDao.findOne(previous.getDeltaBasePid());
+			if (base == null) {
+				return;
+			}
+		}
+		if (theEntry.getVersion() - base.getVersion() >= myDaoConfig.getHistorySnapshotInterval()) {
+			return;
+		}
+
+		JsonElement from = myGson.fromJson(decode(base), JsonElement.class);
+		JsonElement to = myGson.fromJson(decodeComplete(theEntry), JsonElement.class);
+		byte[] delta = GZipUtil.compress(myGson.toJson(JsonPatchDiffUtils.diff(from, to)));
+		if (delta.length >= theEntry.getResource().length) {
+			return;
+		}
+
+		ourLog.debug("Storing history entry {} as a delta of {} bytes against version {}", new Object[] { theEntry.getIdDt().getValue(), delta.length, base.getVersion() });
+		theEntry.setEncoding(ResourceEncodingEnum.DELTA);
+		theEntry.setResource(delta);
+		theEntry.setDeltaBasePid(base.getId());
+	}
+
+	private static String decodeComplete(ResourceHistoryTable theEntry) {
+		switch (theEntry.getEncoding()) {
+		case JSON:
+			try {
+				return new String(theEntry.getResource(), "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new Error("Should not happen", e);
+			}
+		case JSONC:
+			return GZipUtil.decompress(theEntry.getResource());
+		default:
+			throw new InternalErrorException("Unexpected encoding for history entry " + theEntry.getId() + ": " + theEntry.getEncoding());
+		}
+	}
+
+}
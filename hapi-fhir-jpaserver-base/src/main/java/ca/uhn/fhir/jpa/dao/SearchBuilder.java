@@ -31,6 +31,7 @@ import java.util.*;
 import java.util.Map.Entry;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
@@ -42,18 +43,22 @@ import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import ca.uhn.fhir.context.*;
+import ca.uhn.fhir.jpa.config.ReadReplicaRoutingDataSource;
 import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
 import ca.uhn.fhir.jpa.dao.data.IResourceIndexedSearchParamUriDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.*;
+import ca.uhn.fhir.jpa.search.IPersistedBundleProvider;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.jpa.term.IHapiTerminologySvc;
 import ca.uhn.fhir.jpa.term.VersionIndependentConcept;
@@ -80,21 +85,26 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.UrlUtil;
 
 public class SearchBuilder {
+	static final int MAX_PADDED_IN_CLAUSE_SIZE = 512;
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchBuilder.class);
 
 	private BaseHapiFhirDao<?> myCallingDao;
 	private FhirContext myContext;
+	private Long myCount;
+	private List<? extends IQueryParameterType> myCountOnlyAndList;
 	private EntityManager myEntityManager;
 	private IForcedIdDao myForcedIdDao;
 	private SearchParameterMap myParams;
 	private Collection<Long> myPids;
 	private PlatformTransactionManager myPlatformTransactionManager;
+	private final Map<ParameterExpression<?>, Object> myQueryParameterValues = new HashMap<ParameterExpression<?>, Object>();
 	private IResourceIndexedSearchParamUriDao myResourceIndexedSearchParamUriDao;
 	private String myResourceName;
 	private Class<? extends IBaseResource> myResourceType;
 	private IFulltextSearchSvc mySearchDao;
 	private Search mySearchEntity;
 	private ISearchResultDao mySearchResultDao;
+	private boolean myStoreResultsOnPrimary;
 	private IHapiTerminologySvc myTerminologySvc;
 
 	public SearchBuilder(FhirContext theFhirContext, EntityManager theEntityManager, PlatformTransactionManager thePlatformTransactionManager, IFulltextSearchSvc theSearchDao, ISearchResultDao theSearchResultDao, BaseHapiFhirDao<?> theDao,
@@ -110,6 +120,75 @@ public class SearchBuilder {
 		myTerminologySvc = theTerminologySvc;
 	}
 
+	/**
+	 * If the search specifies a value for every parameter of a combo search parameter (see
+	 * {@link DaoConfig#setComboSearchParams(List)}), finds the matching resources using the combo index
+	 *
+	 * @return The names of the parameters which were handled, which must not be searched for again
+	 */
+	private Set<String> addPredicateCombo(SearchParameterMap theParams, RuntimeResourceDefinition theResourceDef) {
+		for (ComboSearchParamDefinition nextCombo : myCallingDao.getConfig().getComboSearchParams()) {
+			if (!nextCombo.getResourceType().equals(myResourceName)) {
+				continue;
+			}
+
+			Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+			for (String nextParamName : nextCombo.getParamNames()) {
+				List<List<? extends IQueryParameterType>> nextAndList = theParams.get(nextParamName);
+				RuntimeSearchParam nextParamDef = theResourceDef.getSearchParam(nextParamName);
+				if (nextAndList == null || nextAndList.size() != 1 || nextAndList.get(0).isEmpty() || nextParamDef == null) {
+					break;
+				}
+
+				Set<String> nextValues = new HashSet<String>();
+				for (IQueryParameterType nextOr : nextAndList.get(0)) {
+					String nextValue = toComboComponent(nextParamDef, nextOr);
+					if (nextValue == null) {
+						nextValues = null;
+						break;
+					}
+					nextValues.add(nextValue);
+				}
+				if (nextValues == null) {
+					break;
+				}
+				values.put(nextParamName, nextValues);
+			}
+			if (values.size() != nextCombo.getParamNames().size()) {
+				continue;
+			}
+
+			Set<String> indexStrings = nextCombo.createIndexStrings(values);
+			if (indexStrings.size() > MAX_PADDED_IN_CLAUSE_SIZE) {
+				continue;
+			}
+			Set<Long> hashes = new HashSet<Long>();
+			for (String next : indexStrings) {
+				hashes.add(ResourceIndexedComboString.calculateHash(next));
+			}
+
+			CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
+			CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+			Root<ResourceIndexedComboString> from = cq.from(ResourceIndexedComboString.class);
+			cq.select(from.get("myResourcePid").as(Long.class));
+			cq.distinct(true);
+
+			List<Predicate> predicates = new ArrayList<Predicate>();
+			predicates.add(from.get("myHash").in(bindInClauseParameter(builder, hashes)));
+			predicates.add(builder.equal(from.get("myResourceType"), myResourceName));
+			createPredicateResourceId(builder, cq, predicates, from.get("myResourcePid").as(Long.class));
+			cq.where(toArray(predicates));
+
+			TypedQuery<Long> q = createQuery(cq);
+			doSetPids(q.getResultList());
+
+			ourLog.debug("Searched for {} using combo search param {}", myResourceName, nextCombo.getParamNames());
+			return nextCombo.getParamNames();
+		}
+
+		return Collections.emptySet();
+	}
+
 	private void addPredicateComposite(RuntimeSearchParam theParamDef, List<? extends IQueryParameterType> theNextAnd) {
 		// TODO: fail if missing is set for a composite query
 
@@ -138,7 +217,11 @@ public class SearchBuilder {
 		createPredicateResourceId(builder, cq, predicates, from.get("myId").as(Long.class));
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theNextAnd, builder, cq, from.get("myId"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(q.getResultList());
 
 	}
@@ -177,7 +260,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(q.getResultList());
 	}
 
@@ -223,11 +310,6 @@ public class SearchBuilder {
 			}
 
 			Class<? extends IBaseResource> resourceType = targetResourceDefinition.getImplementingClass();
-			Set<Long> match = myCallingDao.processMatchUrl(matchUrl, resourceType);
-			if (match.isEmpty()) {
-				doSetPids(new ArrayList<Long>());
-				return;
-			}
 
 			CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 			CriteriaQuery<Long> cq = builder.createQuery(Long.class);
@@ -236,7 +318,18 @@ public class SearchBuilder {
 
 			List<Predicate> predicates = new ArrayList<Predicate>();
 			predicates.add(builder.equal(from.get("mySourceResourceType"), targetResourceType));
-			predicates.add(from.get("mySourceResourcePid").in(match));
+
+			Subquery<Long> subquery = createHasSubquery(cq, builder, targetResourceDefinition, parameterName, nextOrList);
+			if (subquery != null) {
+				predicates.add(from.get("mySourceResourcePid").in(subquery));
+			} else {
+				Set<Long> match = myCallingDao.processMatchUrl(matchUrl, resourceType);
+				if (match.isEmpty()) {
+					doSetPids(new ArrayList<Long>());
+					return;
+				}
+				predicates.add(from.get("mySourceResourcePid").in(bindInClauseParameter(builder, match)));
+			}
 			predicates.add(createResourceLinkPathPredicate(myContext, owningParameter, from, resourceType));
 			predicates.add(builder.equal(from.get("myTargetResourceType"), myResourceName));
 			createPredicateResourceId(builder, cq, predicates, from.get("myId").as(Long.class));
@@ -244,7 +337,11 @@ public class SearchBuilder {
 
 			cq.where(toArray(predicates));
 
-			TypedQuery<Long> q = myEntityManager.createQuery(cq);
+			if (doCountIfFinalStep(nextOrList, builder, cq, from.get("myTargetResourcePid"))) {
+				return;
+			}
+
+			TypedQuery<Long> q = createQuery(cq);
 			doSetPids(q.getResultList());
 			if (doHaveNoResults()) {
 				return;
@@ -266,13 +363,13 @@ public class SearchBuilder {
 
 		List<Predicate> predicates = new ArrayList<Predicate>();
 		predicates.add(builder.equal(from.get("myResourceType"), myResourceName));
-		predicates.add(from.get("myId").in(thePids));
+		predicates.add(from.get("myId").in(bindInClauseParameter(builder, thePids)));
 		createPredicateResourceId(builder, cq, predicates, from.get("myId").as(Long.class));
 		createPredicateLastUpdatedForResourceTable(builder, from, predicates);
 
 		cq.where(toArray(predicates));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(q.getResultList());
 	}
 
@@ -303,7 +400,7 @@ public class SearchBuilder {
 
 			List<Predicate> predicates = new ArrayList<Predicate>();
 			predicates.add(builder.equal(from.get("myResourceType"), myResourceName));
-			predicates.add(from.get("myLanguage").as(String.class).in(values));
+			predicates.add(from.get("myLanguage").as(String.class).in(padInClauseValues(values)));
 			createPredicateResourceId(builder, cq, predicates, from.get("myId").as(Long.class));
 			createPredicateLastUpdatedForResourceTable(builder, from, predicates);
 
@@ -311,7 +408,7 @@ public class SearchBuilder {
 
 			cq.where(toArray(predicates));
 
-			TypedQuery<Long> q = myEntityManager.createQuery(cq);
+			TypedQuery<Long> q = createQuery(cq);
 			doSetPids(q.getResultList());
 			if (doHaveNoResults()) {
 				return;
@@ -400,7 +497,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(q.getResultList());
 	}
 
@@ -427,7 +528,7 @@ public class SearchBuilder {
 
 		ourLog.info("Adding :missing qualifier for parameter '{}'", theParamName);
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(q.getResultList());
 	}
 
@@ -452,11 +553,62 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		TypedQuery<Long> q = createQuery(cq);
 		List<Long> resultList = q.getResultList();
 		doSetPids(new HashSet<Long>(resultList));
 	}
 
+	/**
+	 * Restricts the results to resources in the compartment of the given patient. This uses the
+	 * patient compartment index if it is enabled, or otherwise the references through the search
+	 * parameters which the compartment definitions list for the Patient compartment.
+	 */
+	private void addPredicatePatientCompartment(IIdType thePatientId) {
+		Long patientPid;
+		try {
+			patientPid = BaseHapiFhirDao.translateForcedIdToPid("Patient", thePatientId.getIdPart(), myForcedIdDao);
+		} catch (ResourceNotFoundException e) {
+			doSetPids(new ArrayList<Long>());
+			return;
+		}
+
+		CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
+		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+		List<Predicate> predicates = new ArrayList<Predicate>();
+
+		if (myCallingDao.getConfig().isPatientCompartmentIndexEnabled()) {
+			Root<PatientCompartmentMember> from = cq.from(PatientCompartmentMember.class);
+			cq.select(from.get("myResourcePid").as(Long.class));
+			predicates.add(builder.equal(from.get("myPatientPid"), patientPid));
+			predicates.add(builder.equal(from.get("myResourceType"), myResourceName));
+			createPredicateResourceId(builder, cq, predicates, from.get("myResourcePid").as(Long.class));
+		} else {
+			Set<String> paths = new HashSet<String>();
+			for (RuntimeSearchParam nextParam : myContext.getResourceDefinition(myResourceType).getSearchParamsForCompartmentName("Patient")) {
+				if (isNotBlank(nextParam.getPath())) {
+					for (String nextPath : BaseSearchParamExtractor.SPLIT.split(nextParam.getPath())) {
+						paths.add(nextPath.trim());
+					}
+				}
+			}
+			if (paths.isEmpty()) {
+				doSetPids(new ArrayList<Long>());
+				return;
+			}
+
+			Root<ResourceLink> from = cq.from(ResourceLink.class);
+			cq.select(from.get("mySourceResourcePid").as(Long.class));
+			predicates.add(builder.equal(from.get("myTargetResourcePid"), patientPid));
+			predicates.add(builder.equal(from.get("mySourceResourceType"), myResourceName));
+			predicates.add(from.get("mySourcePath").in(padInClauseValues(paths)));
+			createPredicateResourceId(builder, cq, predicates, from.get("mySourceResourcePid").as(Long.class));
+		}
+
+		cq.distinct(true);
+		cq.where(toArray(predicates));
+		doSetPids(createQuery(cq).getResultList());
+	}
+
 	private void addPredicateQuantity(String theParamName, List<? extends IQueryParameterType> theList) {
 		if (Boolean.TRUE.equals(theList.get(0).getMissing())) {
 			addPredicateParamMissing("myParamsQuantity", theParamName, ResourceIndexedSearchParamQuantity.class);
@@ -487,7 +639,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(new HashSet<Long>(q.getResultList()));
 	}
 
@@ -543,105 +699,7 @@ public class SearchBuilder {
 						codePredicates.add(eq);
 					}
 				} else {
-					
-					List<Class<? extends IBaseResource>> resourceTypes;
-					String resourceId;
-					if (!ref.getValue().matches("[a-zA-Z]+\\/.*")) {
-						
-						String paramPath = myContext.getResourceDefinition(myResourceType).getSearchParam(theParamName).getPath();
-						if (paramPath.endsWith(".as(Reference)")) {
-							paramPath = paramPath.substring(0, paramPath.length() - ".as(Reference)".length()) + "Reference";
-						}
-						
-						BaseRuntimeChildDefinition def = myContext.newTerser().getDefinition(myResourceType, paramPath);
-						if (def instanceof RuntimeChildChoiceDefinition) {
-							RuntimeChildChoiceDefinition choiceDef = (RuntimeChildChoiceDefinition)def;
-							resourceTypes = choiceDef.getResourceTypes();
-						} else if (def instanceof RuntimeChildResourceDefinition) {
-							RuntimeChildResourceDefinition resDef = (RuntimeChildResourceDefinition) def;
-							resourceTypes = resDef.getResourceTypes();
-						} else {
-							throw new ConfigurationException("Property " + paramPath + " of type " + myResourceName + " is not a resource: " + def.getClass());
-						}
-						
-						resourceId = ref.getValue();
-						
-					} else {
-						RuntimeResourceDefinition resDef = myContext.getResourceDefinition(ref.getResourceType());
-						resourceTypes = new ArrayList<Class<? extends IBaseResource>>(1);
-						resourceTypes.add(resDef.getImplementingClass());
-						resourceId = ref.getIdPart();
-					}
-
-					boolean foundChainMatch = false;
-
-					String chain = ref.getChain();
-					String remainingChain = null;
-					int chainDotIndex = chain.indexOf('.');
-					if (chainDotIndex != -1) {
-						remainingChain = chain.substring(chainDotIndex + 1);
-						chain = chain.substring(0, chainDotIndex);
-					}
-
-					for (Class<? extends IBaseResource> nextType : resourceTypes) {
-						RuntimeResourceDefinition typeDef = myContext.getResourceDefinition(nextType);
-
-						IFhirResourceDao<?> dao = myCallingDao.getDao(nextType);
-						if (dao == null) {
-							ourLog.debug("Don't have a DAO for type {}", nextType.getSimpleName());
-							continue;
-						}
-
-						int qualifierIndex = chain.indexOf(':');
-						String qualifier = null;
-						if (qualifierIndex != -1) {
-							qualifier = chain.substring(qualifierIndex);
-							chain = chain.substring(0, qualifierIndex);
-						}
-
-						boolean isMeta = BaseHapiFhirDao.RESOURCE_META_PARAMS.containsKey(chain);
-						RuntimeSearchParam param = null;
-						if (!isMeta) {
-							param = typeDef.getSearchParam(chain);
-							if (param == null) {
-								ourLog.debug("Type {} doesn't have search param {}", nextType.getSimpleName(), param);
-								continue;
-							}
-						}
-
-						IQueryParameterType chainValue;
-						if (remainingChain != null) {
-							if (param == null || param.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
-								ourLog.debug("Type {} parameter {} is not a reference, can not chain {}", new Object[] { nextType.getSimpleName(), chain, remainingChain });
-								continue;
-							}
-
-							chainValue = new ReferenceParam();
-							chainValue.setValueAsQueryToken(myContext, theParamName, qualifier, resourceId);
-							((ReferenceParam) chainValue).setChain(remainingChain);
-						} else if (isMeta) {
-							IQueryParameterType type = BaseHapiFhirDao.newInstanceType(chain);
-							type.setValueAsQueryToken(myContext, theParamName, qualifier, resourceId);
-							chainValue = type;
-						} else {
-							chainValue = toParameterType(param, qualifier, resourceId);
-						}
-
-						foundChainMatch = true;
-
-						Set<Long> pids = dao.searchForIds(chain, chainValue);
-						if (pids.isEmpty()) {
-							continue;
-						}
-
-						Predicate eq = from.get("myTargetResourcePid").in(pids);
-						codePredicates.add(eq);
-
-					}
-
-					if (!foundChainMatch) {
-						throw new InvalidRequestException(myContext.getLocalizer().getMessage(BaseHapiFhirResourceDao.class, "invalidParameterChain", theParamName + '.' + ref.getChain()));
-					}
+					codePredicates.addAll(createPredicateReferenceChain(cq, builder, from, myResourceType, theParamName, ref));
 				}
 
 			} else {
@@ -658,7 +716,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("mySourceResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(new HashSet<Long>(q.getResultList()));
 	}
 
@@ -680,7 +742,7 @@ public class SearchBuilder {
 				continue;
 			}
 
-			Predicate singleCode = createPredicateString(theParameter, theParamName, builder, from);
+			Predicate singleCode = createPredicateString(theParameter, myResourceName, theParamName, builder, from);
 			codePredicates.add(singleCode);
 		}
 
@@ -694,7 +756,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(new HashSet<Long>(q.getResultList()));
 	}
 
@@ -843,7 +909,7 @@ public class SearchBuilder {
 
 				cq.where(toArray(andPredicates));
 
-				TypedQuery<Long> q = myEntityManager.createQuery(cq);
+				TypedQuery<Long> q = createQuery(cq);
 				Set<Long> pids = new HashSet<Long>(q.getResultList());
 				doSetPids(pids);
 				continue;
@@ -873,7 +939,7 @@ public class SearchBuilder {
 			cq.select(from.get("myResourceId").as(Long.class));
 			cq.where(masterCodePredicate);
 
-			TypedQuery<Long> q = myEntityManager.createQuery(cq);
+			TypedQuery<Long> q = createQuery(cq);
 			Set<Long> pids = new HashSet<Long>(q.getResultList());
 			doSetPids(pids);
 		}
@@ -906,7 +972,7 @@ public class SearchBuilder {
 				}
 			}
 
-			Predicate singleCode = createPredicateToken(nextOr, theParamName, builder, from);
+			Predicate singleCode = createPredicateToken(nextOr, myResourceName, theParamName, builder, from);
 			if (singleCode == null) {
 				doSetPids(new ArrayList<Long>());
 				return;
@@ -926,7 +992,11 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(new HashSet<Long>(q.getResultList()));
 	}
 
@@ -987,10 +1057,21 @@ public class SearchBuilder {
 						continue;
 					}
 
-					predicate = fromObj.as(String.class).in(toFind);
+					if (isHashIndexSearchEnabled()) {
+						List<Long> hashes = new ArrayList<Long>();
+						for (String next : toFind) {
+							hashes.add(ResourceIndexedSearchParamUri.calculateHashUri(myResourceName, theParamName, next));
+						}
+						predicate = from.get("myHashUri").in(bindInClauseParameter(builder, hashes));
+					} else {
+						predicate = fromObj.as(String.class).in(padInClauseValues(toFind));
+					}
 
 				} else if (param.getQualifier() == UriParamQualifierEnum.BELOW) {
 					predicate = builder.like(fromObj.as(String.class), createLeftMatchLikeExpression(value));
+				} else if (isHashIndexSearchEnabled()) {
+					long hash = ResourceIndexedSearchParamUri.calculateHashUri(myResourceName, theParamName, value);
+					predicate = builder.equal(from.get("myHashUri"), bindParameter(builder, Long.class, hash));
 				} else {
 					predicate = builder.equal(fromObj.as(String.class), value);
 				}
@@ -1014,21 +1095,162 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
+		if (doCountIfFinalStep(theList, builder, cq, from.get("myResourcePid"))) {
+			return;
+		}
+
+		TypedQuery<Long> q = createQuery(cq);
 		doSetPids(new HashSet<Long>(q.getResultList()));
 	}
 
+	/**
+	 * Creates a subquery selecting the PIDs of the resources of the given type which match any of the given values for
+	 * the given parameter, so that a chained or <code>_has</code> parameter can be resolved by the database as part of
+	 * the enclosing statement. Returns <code>null</code> if the parameter or one of the values can not be expressed this
+	 * way, in which case the caller should fall back to searching for the matching PIDs first.
+	 */
+	private Subquery<Long> createChainedSearchSubquery(AbstractQuery<?> theQuery, CriteriaBuilder theBuilder, Class<? extends IBaseResource> theType, RuntimeSearchParam theParam,
+			List<? extends IQueryParameterType> theOrValues) {
+		RestSearchParameterTypeEnum paramType = theParam.getParamType();
+		if (paramType != RestSearchParameterTypeEnum.STRING && paramType != RestSearchParameterTypeEnum.TOKEN && paramType != RestSearchParameterTypeEnum.DATE
+				&& paramType != RestSearchParameterTypeEnum.QUANTITY && paramType != RestSearchParameterTypeEnum.REFERENCE) {
+			return null;
+		}
+		for (IQueryParameterType next : theOrValues) {
+			if (next.getMissing() != null) {
+				return null;
+			}
+			if (paramType == RestSearchParameterTypeEnum.REFERENCE) {
+				// Plain references on the chained type are left to the normal reference search
+				if (!(next instanceof ReferenceParam) || isBlank(((ReferenceParam) next).getChain())) {
+					return null;
+				}
+			} else if (paramType == RestSearchParameterTypeEnum.TOKEN && next instanceof TokenParam) {
+				// :text searches the string index, and a missing system for :above/:below is resolved against this search's type
+				TokenParam token = (TokenParam) next;
+				if (token.isText()) {
+					return null;
+				}
+				if ((token.getModifier() == TokenParamModifier.ABOVE || token.getModifier() == TokenParamModifier.BELOW) && isBlank(token.getSystem())) {
+					return null;
+				}
+			}
+		}
+
+		String resourceName = myContext.getResourceDefinition(theType).getName();
+		String paramName = theParam.getName();
+		Subquery<Long> retVal = theQuery.subquery(Long.class);
+		List<Predicate> orPredicates = new ArrayList<Predicate>();
+
+		From<?, ?> from;
+		switch (paramType) {
+		case STRING: {
+			Root<ResourceIndexedSearchParamString> stringFrom = retVal.from(ResourceIndexedSearchParamString.class);
+			for (IQueryParameterType next : theOrValues) {
+				orPredicates.add(createPredicateString(next, resourceName, paramName, theBuilder, stringFrom));
+			}
+			from = stringFrom;
+			break;
+		}
+		case TOKEN: {
+			Root<ResourceIndexedSearchParamToken> tokenFrom = retVal.from(ResourceIndexedSearchParamToken.class);
+			for (IQueryParameterType next : theOrValues) {
+				Predicate singleCode = createPredicateToken(next, resourceName, paramName, theBuilder, tokenFrom);
+				if (singleCode != null) {
+					orPredicates.add(singleCode);
+				}
+			}
+			from = tokenFrom;
+			break;
+		}
+		case DATE: {
+			Root<ResourceIndexedSearchParamDate> dateFrom = retVal.from(ResourceIndexedSearchParamDate.class);
+			for (IQueryParameterType next : theOrValues) {
+				Predicate p = createPredicateDate(theBuilder, dateFrom, next);
+				if (p != null) {
+					orPredicates.add(p);
+				}
+			}
+			from = dateFrom;
+			break;
+		}
+		case QUANTITY: {
+			Root<ResourceIndexedSearchParamQuantity> quantityFrom = retVal.from(ResourceIndexedSearchParamQuantity.class);
+			for (IQueryParameterType next : theOrValues) {
+				orPredicates.add(createPredicateQuantity(theBuilder, quantityFrom, next));
+			}
+			from = quantityFrom;
+			break;
+		}
+		case REFERENCE:
+		default: {
+			Root<ResourceLink> linkFrom = retVal.from(ResourceLink.class);
+			for (IQueryParameterType next : theOrValues) {
+				orPredicates.addAll(createPredicateReferenceChain(retVal, theBuilder, linkFrom, theType, paramName, (ReferenceParam) next));
+			}
+			retVal.select(linkFrom.get("mySourceResourcePid").as(Long.class));
+			retVal.where(createResourceLinkPathPredicate(myContext, paramName, linkFrom, theType), theBuilder.or(toArray(orPredicates)));
+			return retVal;
+		}
+		}
+
+		retVal.select(from.get("myResourcePid").as(Long.class));
+		retVal.where(theBuilder.equal(from.get("myResourceType"), resourceName), theBuilder.equal(from.get("myParamName"), paramName), theBuilder.or(toArray(orPredicates)));
+		return retVal;
+	}
+
+	/**
+	 * Creates a subquery selecting the PIDs of the resources of the target type of a <code>_has</code> parameter which
+	 * match its values, or returns <code>null</code> if the parameter can not be expressed as a subquery
+	 */
+	private Subquery<Long> createHasSubquery(AbstractQuery<?> theQuery, CriteriaBuilder theBuilder, RuntimeResourceDefinition theTargetResourceDefinition, String theParameterName,
+			List<? extends IQueryParameterType> theHasParams) {
+		String paramName = theParameterName;
+		String chain = null;
+		int dotIndex = paramName.indexOf('.');
+		if (dotIndex != -1) {
+			chain = paramName.substring(dotIndex + 1);
+			paramName = paramName.substring(0, dotIndex);
+		}
+		String qualifier = null;
+		int qualifierIndex = paramName.indexOf(':');
+		if (qualifierIndex != -1) {
+			qualifier = paramName.substring(qualifierIndex);
+			paramName = paramName.substring(0, qualifierIndex);
+		}
+
+		RuntimeSearchParam paramDef = theTargetResourceDefinition.getSearchParam(paramName);
+		if (paramDef == null || (chain != null && paramDef.getParamType() != RestSearchParameterTypeEnum.REFERENCE)) {
+			return null;
+		}
+
+		List<IQueryParameterType> orValues = new ArrayList<IQueryParameterType>();
+		for (IQueryParameterType nextParam : theHasParams) {
+			String value = ((HasParam) nextParam).getParameterValue();
+			if (chain != null) {
+				ReferenceParam ref = new ReferenceParam();
+				ref.setValueAsQueryToken(myContext, paramName, qualifier, value);
+				ref.setChain(chain);
+				orValues.add(ref);
+			} else {
+				orValues.add(toParameterType(paramDef, qualifier, value));
+			}
+		}
+
+		return createChainedSearchSubquery(theQuery, theBuilder, theTargetResourceDefinition.getImplementingClass(), paramDef, orValues);
+	}
+
 	private Predicate createCompositeParamPart(CriteriaBuilder builder, Root<ResourceTable> from, RuntimeSearchParam left, IQueryParameterType leftValue) {
 		Predicate retVal = null;
 		switch (left.getParamType()) {
 		case STRING: {
 			From<ResourceIndexedSearchParamString, ResourceIndexedSearchParamString> stringJoin = from.join("myParamsString", JoinType.INNER);
-			retVal = createPredicateString(leftValue, left.getName(), builder, stringJoin);
+			retVal = createPredicateString(leftValue, myResourceName, left.getName(), builder, stringJoin);
 			break;
 		}
 		case TOKEN: {
 			From<ResourceIndexedSearchParamToken, ResourceIndexedSearchParamToken> tokenJoin = from.join("myParamsToken", JoinType.INNER);
-			retVal = createPredicateToken(leftValue, left.getName(), builder, tokenJoin);
+			retVal = createPredicateToken(leftValue, myResourceName, left.getName(), builder, tokenJoin);
 			break;
 		}
 		case DATE: {
@@ -1224,6 +1446,128 @@ public class SearchBuilder {
 		return singleCode;
 	}
 
+	/**
+	 * Creates the predicates on the target of a resource link for a chained reference parameter (e.g.
+	 * <code>subject.name=smith</code>), one for each resource type the reference can point to. Wherever possible the
+	 * chain is expressed as a subquery over the link and index tables so that the database resolves the whole chain as
+	 * part of the enclosing statement. Chains which can not be expressed this way fall back to searching the target
+	 * type for the matching IDs first.
+	 */
+	private List<Predicate> createPredicateReferenceChain(AbstractQuery<?> theQuery, CriteriaBuilder theBuilder, Root<ResourceLink> theLinkFrom, Class<? extends IBaseResource> theSourceType,
+			String theParamName, ReferenceParam theReference) {
+		List<Predicate> retVal = new ArrayList<Predicate>();
+		ReferenceParam ref = theReference;
+
+		List<Class<? extends IBaseResource>> resourceTypes;
+		String resourceId;
+		if (!ref.getValue().matches("[a-zA-Z]+\\/.*")) {
+			
+			String paramPath = myContext.getResourceDefinition(theSourceType).getSearchParam(theParamName).getPath();
+			if (paramPath.endsWith(".as(Reference)")) {
+				paramPath = paramPath.substring(0, paramPath.length() - ".as(Reference)".length()) + "Reference";
+			}
+			
+			BaseRuntimeChildDefinition def = myContext.newTerser().getDefinition(theSourceType, paramPath);
+			if (def instanceof RuntimeChildChoiceDefinition) {
+				RuntimeChildChoiceDefinition choiceDef = (RuntimeChildChoiceDefinition)def;
+				resourceTypes = choiceDef.getResourceTypes();
+			} else if (def instanceof RuntimeChildResourceDefinition) {
+				RuntimeChildResourceDefinition resDef = (RuntimeChildResourceDefinition) def;
+				resourceTypes = resDef.getResourceTypes();
+			} else {
+				throw new ConfigurationException("Property " + paramPath + " of type " + myContext.getResourceDefinition(theSourceType).getName() + " is not a resource: " + def.getClass());
+			}
+			
+			resourceId = ref.getValue();
+			
+		} else {
+			RuntimeResourceDefinition resDef = myContext.getResourceDefinition(ref.getResourceType());
+			resourceTypes = new ArrayList<Class<? extends IBaseResource>>(1);
+			resourceTypes.add(resDef.getImplementingClass());
+			resourceId = ref.getIdPart();
+		}
+
+		boolean foundChainMatch = false;
+
+		String chain = ref.getChain();
+		String remainingChain = null;
+		int chainDotIndex = chain.indexOf('.');
+		if (chainDotIndex != -1) {
+			remainingChain = chain.substring(chainDotIndex + 1);
+			chain = chain.substring(0, chainDotIndex);
+		}
+
+		for (Class<? extends IBaseResource> nextType : resourceTypes) {
+			RuntimeResourceDefinition typeDef = myContext.getResourceDefinition(nextType);
+
+			IFhirResourceDao<?> dao = myCallingDao.getDao(nextType);
+			if (dao == null) {
+				ourLog.debug("Don't have a DAO for type {}", nextType.getSimpleName());
+				continue;
+			}
+
+			int qualifierIndex = chain.indexOf(':');
+			String qualifier = null;
+			if (qualifierIndex != -1) {
+				qualifier = chain.substring(qualifierIndex);
+				chain = chain.substring(0, qualifierIndex);
+			}
+
+			boolean isMeta = BaseHapiFhirDao.RESOURCE_META_PARAMS.containsKey(chain);
+			RuntimeSearchParam param = null;
+			if (!isMeta) {
+				param = typeDef.getSearchParam(chain);
+				if (param == null) {
+					ourLog.debug("Type {} doesn't have search param {}", nextType.getSimpleName(), param);
+					continue;
+				}
+			}
+
+			IQueryParameterType chainValue;
+			if (remainingChain != null) {
+				if (param == null || param.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
+					ourLog.debug("Type {} parameter {} is not a reference, can not chain {}", new Object[] { nextType.getSimpleName(), chain, remainingChain });
+					continue;
+				}
+
+				chainValue = new ReferenceParam();
+				chainValue.setValueAsQueryToken(myContext, theParamName, qualifier, resourceId);
+				((ReferenceParam) chainValue).setChain(remainingChain);
+			} else if (isMeta) {
+				IQueryParameterType type = BaseHapiFhirDao.newInstanceType(chain);
+				type.setValueAsQueryToken(myContext, theParamName, qualifier, resourceId);
+				chainValue = type;
+			} else {
+				chainValue = toParameterType(param, qualifier, resourceId);
+			}
+
+			foundChainMatch = true;
+
+			if (param != null) {
+				Subquery<Long> subquery = createChainedSearchSubquery(theQuery, theBuilder, nextType, param, Collections.singletonList(chainValue));
+				if (subquery != null) {
+					retVal.add(theLinkFrom.get("myTargetResourcePid").in(subquery));
+					continue;
+				}
+			}
+
+			Set<Long> pids = dao.searchForIds(chain, chainValue);
+			if (pids.isEmpty()) {
+				continue;
+			}
+
+			Predicate eq = theLinkFrom.get("myTargetResourcePid").in(bindInClauseParameter(theBuilder, pids));
+			retVal.add(eq);
+
+		}
+
+		if (!foundChainMatch) {
+			throw new InvalidRequestException(myContext.getLocalizer().getMessage(BaseHapiFhirResourceDao.class, "invalidParameterChain", theParamName + '.' + ref.getChain()));
+		}
+
+		return retVal;
+	}
+
 	private void createPredicateResourceId(CriteriaBuilder builder, CriteriaQuery<?> cq, List<Predicate> thePredicates, Expression<Long> theExpression) {
 		if (myParams.isPersistResults()) {
 			if (mySearchEntity.getTotalCount() > -1) {
@@ -1237,13 +1581,13 @@ public class SearchBuilder {
 			}
 		} else {
 			if (myPids != null) {
-				thePredicates.add(theExpression.in(myPids));
+				thePredicates.add(theExpression.in(bindInClauseParameter(builder, myPids)));
 			}
 		}
 
 	}
 
-	private Predicate createPredicateString(IQueryParameterType theParameter, String theParamName, CriteriaBuilder theBuilder, From<ResourceIndexedSearchParamString, ResourceIndexedSearchParamString> theFrom) {
+	private Predicate createPredicateString(IQueryParameterType theParameter, String theResourceName, String theParamName, CriteriaBuilder theBuilder, From<ResourceIndexedSearchParamString, ResourceIndexedSearchParamString> theFrom) {
 		String rawSearchTerm;
 		if (theParameter instanceof TokenParam) {
 			TokenParam id = (TokenParam) theParameter;
@@ -1265,11 +1609,24 @@ public class SearchBuilder {
 			throw new InvalidRequestException("Parameter[" + theParamName + "] has length (" + rawSearchTerm.length() + ") that is longer than maximum allowed (" + ResourceIndexedSearchParamString.MAX_LENGTH + "): " + rawSearchTerm);
 		}
 
-		String likeExpression = BaseHapiFhirDao.normalizeString(rawSearchTerm);
-		likeExpression = createLeftMatchLikeExpression(likeExpression);
+		String normalizedSearchTerm = BaseHapiFhirDao.normalizeString(rawSearchTerm);
+		String likeExpression = createLeftMatchLikeExpression(normalizedSearchTerm);
+		boolean exact = theParameter instanceof StringParam && ((StringParam) theParameter).isExact();
+
+		if (isHashIndexSearchEnabled()) {
+			if (exact) {
+				long hash = ResourceIndexedSearchParamString.calculateHashExact(theResourceName, theParamName, rawSearchTerm);
+				return theBuilder.equal(theFrom.get("myHashExact"), bindParameter(theBuilder, Long.class, hash));
+			}
+			if (normalizedSearchTerm.length() >= ResourceIndexedSearchParamString.HASH_PREFIX_LENGTH) {
+				long hash = ResourceIndexedSearchParamString.calculateHashNormalized(theResourceName, theParamName, normalizedSearchTerm);
+				Predicate hashPredicate = theBuilder.equal(theFrom.get("myHashNormalizedPrefix"), bindParameter(theBuilder, Long.class, hash));
+				return theBuilder.and(hashPredicate, theBuilder.like(theFrom.get("myValueNormalized").as(String.class), likeExpression));
+			}
+		}
 
 		Predicate singleCode = theBuilder.like(theFrom.get("myValueNormalized").as(String.class), likeExpression);
-		if (theParameter instanceof StringParam && ((StringParam) theParameter).isExact()) {
+		if (exact) {
 			Predicate exactCode = theBuilder.equal(theFrom.get("myValueExact"), rawSearchTerm);
 			singleCode = theBuilder.and(singleCode, exactCode);
 		}
@@ -1292,7 +1649,7 @@ public class SearchBuilder {
 		return orPredicates;
 	}
 
-	private Predicate createPredicateToken(IQueryParameterType theParameter, String theParamName, CriteriaBuilder theBuilder, From<ResourceIndexedSearchParamToken, ResourceIndexedSearchParamToken> theFrom) {
+	private Predicate createPredicateToken(IQueryParameterType theParameter, String theResourceName, String theParamName, CriteriaBuilder theBuilder, From<ResourceIndexedSearchParamToken, ResourceIndexedSearchParamToken> theFrom) {
 		String code;
 		String system;
 		TokenParamModifier modifier = null;
@@ -1340,6 +1697,13 @@ public class SearchBuilder {
 			if (codes.isEmpty()) {
 				return null;
 			}
+			if (isHashIndexSearchEnabled()) {
+				List<Long> hashes = new ArrayList<Long>();
+				for (VersionIndependentConcept nextCode : codes) {
+					hashes.add(ResourceIndexedSearchParamToken.calculateHashSystemAndValue(theResourceName, theParamName, nextCode.getSystem(), nextCode.getCode()));
+				}
+				return theFrom.get("myHashSystemAndValue").in(bindInClauseParameter(theBuilder, hashes));
+			}
 			List<Predicate> orPredicates = new ArrayList<Predicate>();
 			for (VersionIndependentConcept nextCode : codes) {
 				Predicate systemPredicate = theBuilder.equal(theFrom.get("mySystem"), nextCode.getSystem());
@@ -1354,6 +1718,13 @@ public class SearchBuilder {
 		 * Ok, this is a normal query
 		 */
 
+		if (isHashIndexSearchEnabled()) {
+			Predicate hashPredicate = createPredicateTokenHash(theResourceName, theParamName, theBuilder, theFrom, system, code);
+			if (hashPredicate != null) {
+				return hashPredicate;
+			}
+		}
+
 		ArrayList<Predicate> singleCodePredicates = (new ArrayList<Predicate>());
 		if (StringUtils.isNotBlank(system)) {
 			singleCodePredicates.add(theBuilder.equal(theFrom.get("mySystem"), system));
@@ -1380,6 +1751,32 @@ public class SearchBuilder {
 		return singleCode;
 	}
 
+	/**
+	 * Returns a predicate on one of the token hash columns which matches the same rows as the
+	 * system/code predicates built by {@link #createPredicateToken(IQueryParameterType, String, String, CriteriaBuilder, From)},
+	 * or <code>null</code> if neither a system nor a code was given
+	 */
+	private Predicate createPredicateTokenHash(String theResourceName, String theParamName, CriteriaBuilder theBuilder, From<ResourceIndexedSearchParamToken, ResourceIndexedSearchParamToken> theFrom, String theSystem,
+			String theCode) {
+		boolean hasCode = StringUtils.isNotBlank(theCode);
+		if (theSystem == null) {
+			if (!hasCode) {
+				return null;
+			}
+			long hash = ResourceIndexedSearchParamToken.calculateHashValue(theResourceName, theParamName, theCode);
+			return theBuilder.equal(theFrom.get("myHashValue"), bindParameter(theBuilder, Long.class, hash));
+		}
+
+		// A blank system only matches tokens with no system, which are stored (and hashed) as null
+		String system = StringUtils.defaultIfBlank(theSystem, null);
+		if (hasCode) {
+			long hash = ResourceIndexedSearchParamToken.calculateHashSystemAndValue(theResourceName, theParamName, system, theCode);
+			return theBuilder.equal(theFrom.get("myHashSystemAndValue"), bindParameter(theBuilder, Long.class, hash));
+		}
+		long hash = ResourceIndexedSearchParamToken.calculateHashSystem(theResourceName, theParamName, system);
+		return theBuilder.equal(theFrom.get("myHashSystem"), bindParameter(theBuilder, Long.class, hash));
+	}
+
 	private String determineSystemIfMissing(String theParamName, String code, String system) {
 		if (system == null) {
 			RuntimeSearchParam param = getSearchParam(theParamName);
@@ -1423,7 +1820,11 @@ public class SearchBuilder {
 		CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
 		Root<ResourceTable> from = cq.from(ResourceTable.class);
-		cq.select(from.get("myId").as(Long.class));
+		if (myParams.isCountOnly()) {
+			cq.select(builder.count(from.get("myId")));
+		} else {
+			cq.select(from.get("myId").as(Long.class));
+		}
 		List<Predicate> predicates = new ArrayList<Predicate>();
 		predicates.add(builder.equal(from.get("myResourceType"), myResourceName));
 		predicates.add(builder.isNull(from.get("myDeleted")));
@@ -1434,7 +1835,7 @@ public class SearchBuilder {
 
 		cq.where(toArray(predicates));
 
-		TypedQuery<Long> query = myEntityManager.createQuery(cq);
+		TypedQuery<Long> query = createQuery(cq);
 		return query;
 	}
 
@@ -1538,6 +1939,20 @@ public class SearchBuilder {
 		return param;
 	}
 
+	/**
+	 * If the given AND list is the last step of a count-only search, executes the given query (which selects the PIDs
+	 * of the resources matching that step) as a <code>COUNT</code> and returns <code>true</code>, so that the matching
+	 * PIDs never need to be loaded. Otherwise returns <code>false</code> and the caller should load the PIDs as normal.
+	 */
+	private boolean doCountIfFinalStep(List<? extends IQueryParameterType> theAndList, CriteriaBuilder theBuilder, CriteriaQuery<Long> theQuery, Expression<?> thePid) {
+		if (myCountOnlyAndList == null || theAndList != myCountOnlyAndList) {
+			return false;
+		}
+		theQuery.select(theBuilder.countDistinct(thePid));
+		myCount = createQuery(theQuery).getSingleResult();
+		return true;
+	}
+
 	public Set<Long> doGetPids() {
 		if (myParams.isPersistResults()) {
 			HashSet<Long> retVal = new HashSet<Long>();
@@ -1567,11 +1982,18 @@ public class SearchBuilder {
 	}
 
 	private IBundleProvider doReturnProvider() {
-		if (myParams.isPersistResults()) {
+		if (myParams.isCountOnly()) {
+			if (myCount != null) {
+				return new BundleProviderCountOnly(myCount.intValue());
+			}
+			return new BundleProviderCountOnly(myPids != null ? myPids.size() : 0);
+		} else if (myParams.isPersistResults()) {
 			return new PersistedJpaBundleProvider(mySearchEntity.getUuid(), myCallingDao);
 		} else {
 			if (myPids == null) {
 				return new SimpleBundleProvider();
+			} else if (myStoreResultsOnPrimary && !myPids.isEmpty()) {
+				return new BundleProviderInMemoryAndStored(myPids, storeResultsOnPrimary(myPids));
 			} else {
 				return new BundleProviderInMemory(myPids);
 			}
@@ -1590,8 +2012,10 @@ public class SearchBuilder {
 				SearchResult nextResult = new SearchResult(mySearchEntity);
 				nextResult.setResourcePid(next);
 				nextResult.setOrder(index);
-				results.add(nextResult);
-				index++;
+				// A resource may match through several index rows, so only number each one once
+				if (results.add(nextResult)) {
+					index++;
+				}
 			}
 			mySearchResultDao.save(results);
 
@@ -1615,12 +2039,37 @@ public class SearchBuilder {
 		createPredicateResourceId(builder, cq, lastUpdatedPredicates, from.get("myId").as(Long.class));
 
 		cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
-		TypedQuery<Long> query = myEntityManager.createQuery(cq);
+
+		if (myParams.isCountOnly()) {
+			// This is always the last step of a search
+			cq.select(builder.countDistinct(from.get("myId")));
+			myCount = createQuery(cq).getSingleResult();
+			return;
+		}
+
+		TypedQuery<Long> query = createQuery(cq);
 
 		List<Long> resultList = query.getResultList();
 		doSetPids(resultList);
 	}
 
+	/**
+	 * Returns the AND list which is processed last by {@link #searchForIdsWithAndOr(SearchParameterMap, DateRangeParam)}
+	 */
+	private static List<? extends IQueryParameterType> findLastAndList(SearchParameterMap theParams) {
+		List<? extends IQueryParameterType> retVal = null;
+		for (List<List<? extends IQueryParameterType>> nextAndList : theParams.values()) {
+			for (List<? extends IQueryParameterType> nextOrList : nextAndList) {
+				retVal = nextOrList;
+			}
+		}
+		return retVal;
+	}
+
+	private boolean isHashIndexSearchEnabled() {
+		return myCallingDao.getConfig().isHashIndexSearchEnabled();
+	}
+
 	private void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation) {
 		EntityManager entityManager = myEntityManager;
 		FhirContext context = myContext;
@@ -1653,7 +2102,7 @@ public class SearchBuilder {
 				cq.where(toArray(predicates));
 				cq.orderBy(orders);
 
-				TypedQuery<Tuple> query = myEntityManager.createQuery(cq);
+				TypedQuery<Tuple> query = createQuery(cq);
 
 				for (Tuple next : query.getResultList()) {
 					loadPids.add(next.get(0, Long.class));
@@ -1700,10 +2149,45 @@ public class SearchBuilder {
 		}
 	}
 
+	/**
+	 * Stores the final results of a search which ran on a read replica in the primary database,
+	 * using a separate transaction, and returns the UUID of the stored search
+	 */
+	private String storeResultsOnPrimary(final Collection<Long> thePids) {
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(false);
+		try {
+			TransactionTemplate template = new TransactionTemplate(myPlatformTransactionManager);
+			template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+			template.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+					myParams.setPersistResults(true);
+					doSetPids(thePids);
+				}
+			});
+		} finally {
+			myParams.setPersistResults(false);
+			ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(true);
+		}
+		return mySearchEntity.getUuid();
+	}
+
 	public IBundleProvider search(final SearchParameterMap theParams) {
 		myParams = theParams;
 		StopWatch w = new StopWatch();
 
+		if (theParams.isCountOnly()) {
+			// Only the total is returned, so there is nothing to page through later
+			theParams.setPersistResults(false);
+		} else if (ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread() && theParams.isPersistResults()) {
+			/*
+			 * Read replicas can't be written to, so the search runs in memory and only its
+			 * final results are stored, in the primary database, so that paging works on any server
+			 */
+			theParams.setPersistResults(false);
+			myStoreResultsOnPrimary = true;
+		}
+
 		doInitializeSearch();
 
 		DateRangeParam lu = theParams.getLastUpdated();
@@ -1725,7 +2209,34 @@ public class SearchBuilder {
 
 				doSetPids(pids);
 
+			} else if (theParams.getEverythingMode().isPatient() && myCallingDao.getConfig().isPatientCompartmentIndexEnabled()) {
+
+				/*
+				 * The compartment members (including the patient itself) are all found with a
+				 * single scan of the compartment index, and _type and _lastUpdated are applied there too
+				 */
+				CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
+				CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+				Root<PatientCompartmentMember> from = cq.from(PatientCompartmentMember.class);
+				Join<Object, Object> patientJoin = from.join("myPatient", JoinType.INNER);
+				List<Predicate> predicates = new ArrayList<Predicate>();
+				if (pid != null) {
+					predicates.add(builder.equal(from.get("myPatientPid"), pid));
+				}
+				predicates.add(builder.isNull(patientJoin.get("myDeleted")));
+				if (theParams.getEverythingTypes() != null) {
+					predicates.add(from.get("myResourceType").in(padInClauseValues(theParams.getEverythingTypes())));
+				}
+				predicates.addAll(createLastUpdatedPredicates(lu, builder, from));
+				cq.select(from.get("myResourcePid").as(Long.class));
+				cq.distinct(true);
+				cq.where(builder.and(SearchBuilder.toArray(predicates)));
+
+				doSetPids(createQuery(cq).getResultList());
+				lu = null;
+
 			} else {
+				Set<String> types = theParams.getEverythingTypes();
 				CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 				CriteriaQuery<Tuple> cq = builder.createTupleQuery();
 				Root<ResourceTable> from = cq.from(ResourceTable.class);
@@ -1738,14 +2249,16 @@ public class SearchBuilder {
 				cq.where(builder.and(SearchBuilder.toArray(predicates)));
 
 				Join<Object, Object> join = from.join("myIncomingResourceLinks", JoinType.LEFT);
-				cq.multiselect(from.get("myId").as(Long.class), join.get("mySourceResourcePid").as(Long.class));
+				cq.multiselect(from.get("myId").as(Long.class), join.get("mySourceResourcePid").as(Long.class), join.get("mySourceResourceType").as(String.class));
 
-				TypedQuery<Tuple> query = myEntityManager.createQuery(cq);
+				TypedQuery<Tuple> query = createQuery(cq);
 				Set<Long> pids = new HashSet<Long>();
 				for (Tuple next : query.getResultList()) {
-					pids.add(next.get(0, Long.class));
+					if (types == null || types.contains(myResourceName)) {
+						pids.add(next.get(0, Long.class));
+					}
 					Long nextLong = next.get(1, Long.class);
-					if (nextLong != null) {
+					if (nextLong != null && (types == null || types.contains(next.get(2, String.class)))) {
 						pids.add(nextLong);
 					}
 				}
@@ -1753,9 +2266,17 @@ public class SearchBuilder {
 
 			}
 
+		} else if (theParams.isEmpty() && theParams.getPatientCompartment() != null) {
+
+			addPredicatePatientCompartment(theParams.getPatientCompartment());
+
 		} else if (theParams.isEmpty()) {
 
 			TypedQuery<Long> query = createSearchAllByTypeQuery(lu);
+			if (theParams.isCountOnly()) {
+				myCount = query.getSingleResult();
+				return doReturnProvider();
+			}
 			doSetPids(query.getResultList());
 
 		} else {
@@ -1776,7 +2297,17 @@ public class SearchBuilder {
 				}
 			}
 
+			if (theParams.getPatientCompartment() != null) {
+				addPredicatePatientCompartment(theParams.getPatientCompartment());
+				if (doHaveNoResults()) {
+					return doReturnProvider();
+				}
+			}
+
 			if (!theParams.isEmpty()) {
+				if (theParams.isCountOnly() && lu == null) {
+					myCountOnlyAndList = findLastAndList(theParams);
+				}
 				searchForIdsWithAndOr(theParams, lu);
 			}
 
@@ -1791,7 +2322,7 @@ public class SearchBuilder {
 		// }
 		// }
 
-		if (doHaveNoResults()) {
+		if (myCount != null || doHaveNoResults()) {
 			return doReturnProvider();
 		}
 
@@ -1805,7 +2336,9 @@ public class SearchBuilder {
 		}
 
 		// Handle sorting if any was provided
-		processSort(theParams);
+		if (!theParams.isCountOnly()) {
+			processSort(theParams);
+		}
 
 		ourLog.info(" {} on {} in {}ms", new Object[] { myResourceName, theParams, w.getMillisAndRestart() });
 		return doReturnProvider();
@@ -1822,9 +2355,16 @@ public class SearchBuilder {
 
 		RuntimeResourceDefinition resourceDef = myContext.getResourceDefinition(myResourceType);
 
+		Set<String> comboParamNames = addPredicateCombo(params, resourceDef);
+		if (doHaveNoResults()) {
+			return;
+		}
+
 		for (Entry<String, List<List<? extends IQueryParameterType>>> nextParamEntry : params.entrySet()) {
 			String nextParamName = nextParamEntry.getKey();
-			if (nextParamName.equals(BaseResource.SP_RES_ID)) {
+			if (comboParamNames.contains(nextParamName)) {
+				continue;
+			} else if (nextParamName.equals(BaseResource.SP_RES_ID)) {
 
 				if (nextParamEntry.getValue().isEmpty()) {
 					continue;
@@ -1959,6 +2499,63 @@ public class SearchBuilder {
 		myResourceName = theResourceName;
 	}
 
+	/**
+	 * Converts a search value into its form in a combo search param index string (see
+	 * {@link ComboSearchParamDefinition}), or returns <code>null</code> if the value can not
+	 * be searched for using the combo index
+	 */
+	private String toComboComponent(RuntimeSearchParam theParam, IQueryParameterType theValue) {
+		if (theValue.getMissing() != null) {
+			return null;
+		}
+
+		switch (theParam.getParamType()) {
+		case STRING:
+			if (theValue instanceof StringParam) {
+				StringParam value = (StringParam) theValue;
+				// Longer values are truncated in the index, so would never match
+				if (value.isExact() && isNotBlank(value.getValue()) && value.getValue().length() <= ResourceIndexedSearchParamString.MAX_LENGTH) {
+					return value.getValue();
+				}
+			}
+			break;
+		case TOKEN:
+			if (theValue instanceof TokenParam) {
+				TokenParam value = (TokenParam) theValue;
+				if (value.getModifier() == null && !value.isText() && isNotBlank(value.getSystem()) && isNotBlank(value.getValue())) {
+					return value.getSystem() + '|' + value.getValue();
+				}
+			}
+			break;
+		case DATE:
+			if (theValue instanceof DateParam) {
+				DateParam value = (DateParam) theValue;
+				if ((value.getPrefix() == null || value.getPrefix() == ParamPrefixEnum.EQUAL) && value.getValue() != null && value.getPrecision() == TemporalPrecisionEnum.DAY) {
+					return ComboSearchParamDefinition.formatDay(value.getValue());
+				}
+			}
+			break;
+		case REFERENCE:
+			if (theValue instanceof ReferenceParam) {
+				ReferenceParam value = (ReferenceParam) theValue;
+				if (isBlank(value.getChain()) && isBlank(value.getBaseUrl()) && value.hasResourceType() && isNotBlank(value.getIdPart())) {
+					try {
+						Long pid = BaseHapiFhirDao.translateForcedIdToPid(value.getResourceType(), value.getIdPart(), myForcedIdDao);
+						return value.getResourceType() + '/' + pid;
+					} catch (ResourceNotFoundException e) {
+						// Let the normal reference search handle this
+						return null;
+					}
+				}
+			}
+			break;
+		default:
+			break;
+		}
+
+		return null;
+	}
+
 	private IQueryParameterType toParameterType(RuntimeSearchParam theParam) {
 		IQueryParameterType qp;
 		switch (theParam.getParamType()) {
@@ -2024,7 +2621,7 @@ public class SearchBuilder {
 		}
 	}
 
-	private static List<Predicate> createLastUpdatedPredicates(final DateRangeParam theLastUpdated, CriteriaBuilder builder, From<?, ResourceTable> from) {
+	private static List<Predicate> createLastUpdatedPredicates(final DateRangeParam theLastUpdated, CriteriaBuilder builder, From<?, ?> from) {
 		List<Predicate> lastUpdatedPredicates = new ArrayList<Predicate>();
 		if (theLastUpdated != null) {
 			if (theLastUpdated.getLowerBoundAsInstant() != null) {
@@ -2051,10 +2648,13 @@ public class SearchBuilder {
 		cq.select(from.get("myId").as(Long.class));
 
 		List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
-		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(thePids));
+		@SuppressWarnings("rawtypes")
+		ParameterExpression<Collection> pids = builder.parameter(Collection.class);
+		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(pids));
 
 		cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
 		TypedQuery<Long> query = theEntityManager.createQuery(cq);
+		query.setParameter(pids, padInClauseValues(thePids));
 
 		List<Long> resultList = query.getResultList();
 		return resultList;
@@ -2074,8 +2674,11 @@ public class SearchBuilder {
 		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<ResourceTable> cq = builder.createQuery(ResourceTable.class);
 		Root<ResourceTable> from = cq.from(ResourceTable.class);
-		cq.where(from.get("myId").in(theIncludePids));
+		@SuppressWarnings("rawtypes")
+		ParameterExpression<Collection> pids = builder.parameter(Collection.class);
+		cq.where(from.get("myId").in(pids));
 		TypedQuery<ResourceTable> q = entityManager.createQuery(cq);
+		q.setParameter(pids, padInClauseValues(theIncludePids));
 
 		for (ResourceTable next : q.getResultList()) {
 			Class<? extends IBaseResource> resourceType = context.getResourceDefinition(next.getResourceType()).getImplementingClass();
@@ -2144,7 +2747,7 @@ public class SearchBuilder {
 					String sql;
 					sql = "SELECT r FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids)";
 					TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
-					q.setParameter("target_pids", nextRoundMatches);
+					q.setParameter("target_pids", padInClauseValues(nextRoundMatches));
 					List<ResourceLink> results = q.getResultList();
 					for (ResourceLink resourceLink : results) {
 						if (theReverseMode) {
@@ -2199,7 +2802,7 @@ public class SearchBuilder {
 						}
 						TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
 						q.setParameter("src_path", nextPath);
-						q.setParameter("target_pids", nextRoundMatches);
+						q.setParameter("target_pids", padInClauseValues(nextRoundMatches));
 						if (targetResourceType != null) {
 							q.setParameter("target_resource_type", targetResourceType);
 						} else if (haveTargetTypesDefinedByParam) {
@@ -2239,11 +2842,100 @@ public class SearchBuilder {
 		return allAdded;
 	}
 
+	/**
+	 * Creates a parameter holding the given value, which is bound when the query is created using
+	 * {@link #createQuery(CriteriaQuery)}. Hibernate renders numeric literals in criteria queries inline,
+	 * so without a parameter every distinct hash would produce a different JPQL statement, which Hibernate
+	 * would compile again and the database would plan again.
+	 */
+	private <T> ParameterExpression<T> bindParameter(CriteriaBuilder theBuilder, Class<T> theType, T theValue) {
+		ParameterExpression<T> retVal = theBuilder.parameter(theType);
+		myQueryParameterValues.put(retVal, theValue);
+		return retVal;
+	}
+
+	/**
+	 * Creates a parameter holding the values of an <code>IN</code> clause, padded using
+	 * {@link #padInClauseValues(Collection)}, which is bound when the query is created using
+	 * {@link #createQuery(CriteriaQuery)}
+	 */
+	@SuppressWarnings("rawtypes")
+	private ParameterExpression<Collection> bindInClauseParameter(CriteriaBuilder theBuilder, Collection<?> theValues) {
+		Collection values = padInClauseValues(theValues);
+		return bindParameter(theBuilder, Collection.class, values);
+	}
+
+	/**
+	 * Creates a query, and binds the values of any parameters created by
+	 * {@link #bindParameter(CriteriaBuilder, Class, Object)} which it uses
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> TypedQuery<T> createQuery(CriteriaQuery<T> theQuery) {
+		TypedQuery<T> retVal = myEntityManager.createQuery(theQuery);
+		for (Parameter<?> next : retVal.getParameters()) {
+			if (myQueryParameterValues.containsKey(next)) {
+				retVal.setParameter((Parameter<Object>) next, myQueryParameterValues.remove(next));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Pads a collection of values which will be used in an <code>IN</code> clause by repeating its last value, so
+	 * that its size is a power of two. Each value in an <code>IN</code> clause is rendered as a separate bind
+	 * parameter, so without this every distinct number of values produces a different JPQL and SQL statement, each
+	 * of which has to be compiled by Hibernate (and planned by the database) instead of being found in their plan
+	 * caches. With padding, searches with between 2<sup>n-1</sup> and 2<sup>n</sup> values share the same statement.
+	 * <p>
+	 * Collections larger than {@link #MAX_PADDED_IN_CLAUSE_SIZE} are not padded, since some databases limit the
+	 * number of values in an <code>IN</code> clause (Oracle allows 1000).
+	 * </p>
+	 */
+	static <T> List<T> padInClauseValues(Collection<T> theValues) {
+		List<T> retVal = new ArrayList<T>(theValues);
+		if (retVal.size() > 1 && retVal.size() <= MAX_PADDED_IN_CLAUSE_SIZE) {
+			int paddedSize = Integer.highestOneBit(retVal.size() - 1) << 1;
+			T last = retVal.get(retVal.size() - 1);
+			while (retVal.size() < paddedSize) {
+				retVal.add(last);
+			}
+		}
+		return retVal;
+	}
+
 	static Predicate[] toArray(List<Predicate> thePredicates) {
 		return thePredicates.toArray(new Predicate[thePredicates.size()]);
 	}
 
-	private final class BundleProviderInMemory implements IBundleProvider {
+	private final class BundleProviderCountOnly implements IBundleProvider {
+		private final int mySize;
+
+		private BundleProviderCountOnly(int theSize) {
+			mySize = theSize;
+		}
+
+		@Override
+		public InstantDt getPublished() {
+			return new InstantDt(mySearchEntity.getCreated());
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Integer preferredPageSize() {
+			return myParams.getCount();
+		}
+
+		@Override
+		public int size() {
+			return mySize;
+		}
+	}
+
+	private class BundleProviderInMemory implements IBundleProvider {
 		private final ArrayList<Long> myPids;
 
 		private BundleProviderInMemory(Collection<Long> thePids) {
@@ -2299,4 +2991,22 @@ public class SearchBuilder {
 		}
 	}
 
+	/**
+	 * Serves the current request from memory, while later pages are read from the copy
+	 * of the results which was stored in the primary database
+	 */
+	private final class BundleProviderInMemoryAndStored extends BundleProviderInMemory implements IPersistedBundleProvider {
+		private final String mySearchUuid;
+
+		private BundleProviderInMemoryAndStored(Collection<Long> thePids, String theSearchUuid) {
+			super(thePids);
+			mySearchUuid = theSearchUuid;
+		}
+
+		@Override
+		public String getSearchUuid() {
+			return mySearchUuid;
+		}
+	}
+
 }
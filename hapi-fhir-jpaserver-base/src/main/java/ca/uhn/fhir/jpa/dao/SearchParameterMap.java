@@ -28,6 +28,7 @@ import java.util.Set;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
+import org.hl7.fhir.instance.model.api.IIdType;
 
 import ca.uhn.fhir.model.api.IQueryParameterAnd;
 import ca.uhn.fhir.model.api.IQueryParameterOr;
@@ -43,9 +44,12 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 	private static final long serialVersionUID = 1L;
 
 	private Integer myCount;
+	private boolean myCountOnly;
 	private EverythingModeEnum myEverythingMode = null;
+	private Set<String> myEverythingTypes;
 	private Set<Include> myIncludes;
 	private DateRangeParam myLastUpdated;
+	private IIdType myPatientCompartment;
 	private boolean myPersistResults = true;
 	private RequestDetails myRequestDetails;
 	private Set<Include> myRevIncludes;
@@ -108,6 +112,13 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		return myEverythingMode;
 	}
 
+	/**
+	 * See {@link #setEverythingTypes(Set)}
+	 */
+	public Set<String> getEverythingTypes() {
+		return myEverythingTypes;
+	}
+
 	public Set<Include> getIncludes() {
 		if (myIncludes == null) {
 			myIncludes = new HashSet<Include>();
@@ -137,6 +148,13 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		return retVal;
 	}
 
+	/**
+	 * See {@link #setPatientCompartment(IIdType)}
+	 */
+	public IIdType getPatientCompartment() {
+		return myPatientCompartment;
+	}
+
 	public RequestDetails getRequestDetails() {
 		return myRequestDetails;
 	}
@@ -152,6 +170,15 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		return mySort;
 	}
 
+	/**
+	 * Should the search only determine the number of matching resources (e.g. because the
+	 * client requested <code>_summary=count</code>)? If so, the returned bundle provider
+	 * reports the total but does not return any resources.
+	 */
+	public boolean isCountOnly() {
+		return myCountOnly;
+	}
+
 	public boolean isPersistResults() {
 		return myPersistResults;
 	}
@@ -160,10 +187,27 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		myCount = theCount;
 	}
 
+	/**
+	 * Should the search only determine the number of matching resources (e.g. because the
+	 * client requested <code>_summary=count</code>)? If so, the returned bundle provider
+	 * reports the total but does not return any resources.
+	 */
+	public void setCountOnly(boolean theCountOnly) {
+		myCountOnly = theCountOnly;
+	}
+
 	public void setEverythingMode(EverythingModeEnum theConsolidateMatches) {
 		myEverythingMode = theConsolidateMatches;
 	}
 
+	/**
+	 * In everything mode, only return resources of these types (the <code>_type</code> parameter
+	 * of <code>$everything</code>), or all types if <code>null</code>
+	 */
+	public void setEverythingTypes(Set<String> theEverythingTypes) {
+		myEverythingTypes = theEverythingTypes;
+	}
+
 	public void setIncludes(Set<Include> theIncludes) {
 		myIncludes = theIncludes;
 	}
@@ -172,6 +216,15 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		myLastUpdated = theLastUpdated;
 	}
 
+	/**
+	 * Restricts the search to resources in the compartment of the given patient, as in a
+	 * compartment search such as <code>Patient/123/Observation</code>. Not supported in
+	 * everything mode.
+	 */
+	public void setPatientCompartment(IIdType thePatientCompartment) {
+		myPatientCompartment = thePatientCompartment;
+	}
+
 	/**
 	 * Should results be persisted into a table for paging
 	 */
@@ -200,6 +253,9 @@ public class SearchParameterMap extends LinkedHashMap<String, List<List<? extend
 		if (getIncludes().isEmpty() == false) {
 			b.append("includes", getIncludes());
 		}
+		if (myPatientCompartment != null) {
+			b.append("patientCompartment", myPatientCompartment.getValue());
+		}
 		return b.toString();
 	}
 
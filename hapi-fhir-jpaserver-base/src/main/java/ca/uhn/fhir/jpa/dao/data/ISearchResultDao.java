@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.dao.data;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -41,6 +42,9 @@ public interface ISearchResultDao  extends JpaRepository<SearchResult, Long> {
 	@Query(value="SELECT r FROM SearchResult r WHERE r.mySearch = :search ORDER BY r.myOrder ASC")
 	Page<SearchResult> findWithSearchUuid(@Param("search") Search theSearch, Pageable thePage);
 
+	@Query(value="SELECT r FROM SearchResult r WHERE r.mySearch = :search AND r.myOrder >= :fromIndex AND r.myOrder < :toIndex ORDER BY r.myOrder ASC")
+	List<SearchResult> findWithSearchUuidAndOrderRange(@Param("search") Search theSearch, @Param("fromIndex") int theFromIndex, @Param("toIndex") int theToIndex);
+
 	@Modifying
 	@Query(value="DELETE FROM SearchResult r WHERE r.mySearchPid = :search")
 	void deleteForSearch(@Param("search") Long theSearchPid);
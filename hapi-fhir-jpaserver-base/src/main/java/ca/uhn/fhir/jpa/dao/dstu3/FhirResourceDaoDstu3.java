@@ -23,9 +23,13 @@ package ca.uhn.fhir.jpa.dao.dstu3;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
@@ -37,6 +41,8 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
@@ -66,10 +72,18 @@ public class FhirResourceDaoDstu3<T extends IAnyResource> extends BaseHapiFhirRe
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoDstu3.class);
 
+	/**
+	 * Resource types which are cached by the validation infrastructure
+	 */
+	private static final Set<String> VALIDATION_RESOURCE_TYPES = new HashSet<String>(Arrays.asList("StructureDefinition", "ValueSet", "CodeSystem"));
+
 	@Autowired()
 	@Qualifier("myInstanceValidatorDstu3")
 	private IValidatorModule myInstanceValidator;
 
+	@Autowired(required = false)
+	private SearchParamExtractorDstu3 mySearchParamExtractorDstu3;
+
 	@Override
 	protected IBaseOperationOutcome createOperationOutcome(String theSeverity, String theMessage, String theCode) {
 		OperationOutcome oo = new OperationOutcome();
@@ -102,6 +116,49 @@ public class FhirResourceDaoDstu3<T extends IAnyResource> extends BaseHapiFhirRe
 		return values;
 	}
 
+	/**
+	 * Flushes the caches of conformance resources held by the validator and the search parameter
+	 * extractor once a write to one of them has been committed, so that they see the new version
+	 */
+	private void invalidateValidationCachesIfNeeded(ResourceTable theEntity) {
+		if (!VALIDATION_RESOURCE_TYPES.contains(theEntity.getResourceType())) {
+			return;
+		}
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					invalidateValidationCaches();
+				}
+			});
+		} else {
+			invalidateValidationCaches();
+		}
+	}
+
+	protected void invalidateValidationCaches() {
+		ourLog.debug("Invalidating validation caches");
+		if (myInstanceValidator instanceof FhirInstanceValidator) {
+			((FhirInstanceValidator) myInstanceValidator).invalidateCaches();
+		}
+		if (mySearchParamExtractorDstu3 != null) {
+			mySearchParamExtractorDstu3.invalidateCaches();
+		}
+	}
+
+	@Override
+	protected void postPersist(ResourceTable theEntity, T theResource) {
+		super.postPersist(theEntity, theResource);
+		invalidateValidationCachesIfNeeded(theEntity);
+	}
+
+	@Override
+	protected void postUpdate(ResourceTable theEntity, T theResource) {
+		super.postUpdate(theEntity, theResource);
+		invalidateValidationCachesIfNeeded(theEntity);
+	}
+
 	@Override
 	public MethodOutcome validate(T theResource, IIdType theId, String theRawResource, EncodingEnum theEncoding, ValidationModeEnum theMode, String theProfile, RequestDetails theRequestDetails) {
 		ActionRequestDetails requestDetails = new ActionRequestDetails(theRequestDetails, theResource, null, theId);
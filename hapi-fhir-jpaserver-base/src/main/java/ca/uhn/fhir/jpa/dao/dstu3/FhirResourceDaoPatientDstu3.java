@@ -21,6 +21,8 @@ package ca.uhn.fhir.jpa.dao.dstu3;
  */
 
 import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -36,7 +38,9 @@ import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
 import ca.uhn.fhir.rest.param.StringAndListParam;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.Constants;
@@ -45,7 +49,7 @@ import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetai
 
 public class FhirResourceDaoPatientDstu3 extends FhirResourceDaoDstu3<Patient>implements IFhirResourceDaoPatient<Patient> {
 
-	private IBundleProvider doEverythingOperation(IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative) {
+	private IBundleProvider doEverythingOperation(IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, IPrimitiveType<Date> theSince, Set<String> theTypes) {
 		SearchParameterMap paramMap = new SearchParameterMap();
 		if (theCount != null) {
 			paramMap.setCount(theCount.getValue());
@@ -56,10 +60,22 @@ public class FhirResourceDaoPatientDstu3 extends FhirResourceDaoDstu3<Patient>im
 		if (theNarrative != null) {
 			paramMap.add(Constants.PARAM_TEXT, theNarrative);
 		}
-		paramMap.setIncludes(Collections.singleton(IResource.INCLUDE_ALL.asRecursive()));
+		if (theTypes != null && !theTypes.isEmpty()) {
+			// Supporting resources would not be restricted to the requested types, so they aren't included
+			paramMap.setEverythingTypes(theTypes);
+		} else {
+			paramMap.setIncludes(Collections.singleton(IResource.INCLUDE_ALL.asRecursive()));
+		}
 		paramMap.setEverythingMode(theId != null ? EverythingModeEnum.PATIENT_INSTANCE : EverythingModeEnum.PATIENT_TYPE);
 		paramMap.setSort(theSort);
 		paramMap.setLastUpdated(theLastUpdated);
+		if (theSince != null && theSince.getValue() != null) {
+			Date lowerBound = theLastUpdated != null ? theLastUpdated.getLowerBoundAsInstant() : null;
+			if (lowerBound == null || lowerBound.before(theSince.getValue())) {
+				DateParam upperBound = theLastUpdated != null ? theLastUpdated.getUpperBound() : null;
+				paramMap.setLastUpdated(new DateRangeParam(new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, theSince), upperBound));
+			}
+		}
 		if (theId != null) {
 			paramMap.add("_id", new StringParam(theId.getIdPart()));
 		}
@@ -71,12 +87,22 @@ public class FhirResourceDaoPatientDstu3 extends FhirResourceDaoDstu3<Patient>im
 
 	@Override
 	public IBundleProvider patientInstanceEverything(HttpServletRequest theServletRequest, IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, RequestDetails theRequestDetails) {
-		return doEverythingOperation(theId, theCount, theLastUpdated, theSort, theContent, theNarrative);
+		return patientInstanceEverything(theServletRequest, theId, theCount, theLastUpdated, theSort, theContent, theNarrative, null, null, theRequestDetails);
+	}
+
+	@Override
+	public IBundleProvider patientInstanceEverything(HttpServletRequest theServletRequest, IIdType theId, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, IPrimitiveType<Date> theSince, Set<String> theTypes, RequestDetails theRequestDetails) {
+		return doEverythingOperation(theId, theCount, theLastUpdated, theSort, theContent, theNarrative, theSince, theTypes);
 	}
 
 	@Override
 	public IBundleProvider patientTypeEverything(HttpServletRequest theServletRequest, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, RequestDetails theRequestDetails) {
-		return doEverythingOperation(null, theCount, theLastUpdated, theSort, theContent, theNarrative);
+		return patientTypeEverything(theServletRequest, theCount, theLastUpdated, theSort, theContent, theNarrative, null, null, theRequestDetails);
+	}
+
+	@Override
+	public IBundleProvider patientTypeEverything(HttpServletRequest theServletRequest, IPrimitiveType<Integer> theCount, DateRangeParam theLastUpdated, SortSpec theSort, StringAndListParam theContent, StringAndListParam theNarrative, IPrimitiveType<Date> theSince, Set<String> theTypes, RequestDetails theRequestDetails) {
+		return doEverythingOperation(null, theCount, theLastUpdated, theSort, theContent, theNarrative, theSince, theTypes);
 	}
 
 }
@@ -24,13 +24,17 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import javax.measure.unit.NonSI;
 import javax.measure.unit.Unit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
-import org.hl7.fhir.dstu3.context.IWorkerContext;
+import org.hl7.fhir.dstu3.hapi.fluentpath.FluentPathCompiler;
+import org.hl7.fhir.dstu3.hapi.fluentpath.FluentPathCompiler.ICompiledExpression;
+import org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
 import org.hl7.fhir.dstu3.model.*;
 import org.hl7.fhir.dstu3.model.Conformance.ConformanceRestSecurityComponent;
@@ -38,6 +42,7 @@ import org.hl7.fhir.dstu3.model.Enumeration;
 import org.hl7.fhir.dstu3.model.Location.LocationPositionComponent;
 import org.hl7.fhir.dstu3.model.Patient.PatientCommunicationComponent;
 import org.hl7.fhir.dstu3.utils.FluentPathEngine;
+import org.hl7.fhir.dstu3.utils.FHIRLexer.FHIRLexerException;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -57,14 +62,34 @@ import ca.uhn.fhir.jpa.dao.PathAndRef;
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.ElementPathTrie;
 
 public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implements ISearchParamExtractor {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchParamExtractorDstu3.class);
 
+	/**
+	 * FHIRPath expressions which are nothing more than a resource type followed by child names
+	 */
+	private static final Pattern SIMPLE_PATH = Pattern.compile("[A-Z][A-Za-z]*(\\.[a-z][A-Za-z0-9]*)+");
+
+	/**
+	 * Compiled FHIRPath expressions, keyed by expression string. The set of search parameter
+	 * paths is small and fixed, so this cache is not bounded.
+	 */
+	private final ConcurrentHashMap<String, CompiledPath> myCompiledPaths = new ConcurrentHashMap<String, CompiledPath>();
+
+	/**
+	 * The engine keeps a per-evaluation log buffer so it is not safe to share between
+	 * threads, but it is cheap to reuse on the same thread
+	 */
+	private volatile ThreadLocal<FluentPathEngine> myFluentPathEngine = new ThreadLocal<FluentPathEngine>();
+
 	@Autowired
 	private org.hl7.fhir.dstu3.hapi.validation.IValidationSupport myValidationSupport;
 
+	private volatile HapiWorkerContext myWorkerContext;
+
 	/**
 	 * Constructor
 	 */
@@ -675,14 +700,25 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 	 */
 	@Override
 	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
-		IWorkerContext worker = new org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext(getContext(), myValidationSupport);
-		FluentPathEngine fp = new FluentPathEngine(worker);
+		FluentPathEngine fp = getFluentPathEngine();
 
 		List<Object> values = new ArrayList<Object>();
 		try {
 			String[] nextPathsSplit = SPLIT.split(thePaths);
 			for (String nextPath : nextPathsSplit) {
-				List<Base> allValues = fp.evaluate((Base) theResource, nextPath);
+				List<Object> extracted = getExtractedValues(nextPath.trim(), theResource);
+				if (extracted != null) {
+					values.addAll(extracted);
+					continue;
+				}
+
+				CompiledPath compiledPath = compilePath(fp, nextPath);
+				List<Base> allValues;
+				if (compiledPath.getCompiled() != null) {
+					allValues = compiledPath.getCompiled().evaluate((Base) theResource);
+				} else {
+					allValues = fp.evaluate((Base) theResource, compiledPath.getParsed());
+				}
 				if (allValues.isEmpty() == false) {
 					values.addAll(allValues);
 				}
@@ -693,6 +729,57 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		return values;
 	}
 
+	/**
+	 * Only plain child navigation paths go in the trie, anything using functions or
+	 * operators is evaluated individually
+	 */
+	@Override
+	protected ElementPathTrie createPathTrie(Collection<String> thePaths) {
+		List<String> simplePaths = new ArrayList<String>();
+		for (String next : thePaths) {
+			if (SIMPLE_PATH.matcher(next).matches()) {
+				simplePaths.add(next);
+			}
+		}
+		return new ElementPathTrie(simplePaths, new FluentPathNavigator());
+	}
+
+	private CompiledPath compilePath(FluentPathEngine theEngine, String thePath) throws FHIRLexerException {
+		CompiledPath retVal = myCompiledPaths.get(thePath);
+		if (retVal == null) {
+			ExpressionNode parsed = theEngine.parse(thePath);
+			retVal = new CompiledPath(parsed, FluentPathCompiler.compile(parsed));
+			myCompiledPaths.put(thePath, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Discards the worker context (and the engines using it), so that conformance resources
+	 * and ValueSet expansions are fetched from the validation support again. This should be
+	 * called when the content of the validation support changes.
+	 */
+	public void invalidateCaches() {
+		myWorkerContext = null;
+		myFluentPathEngine = new ThreadLocal<FluentPathEngine>();
+	}
+
+	private FluentPathEngine getFluentPathEngine() {
+		HapiWorkerContext workerContext = myWorkerContext;
+		if (workerContext == null) {
+			workerContext = new HapiWorkerContext(getContext(), myValidationSupport);
+			myWorkerContext = workerContext;
+		}
+
+		ThreadLocal<FluentPathEngine> engines = myFluentPathEngine;
+		FluentPathEngine retVal = engines.get();
+		if (retVal == null) {
+			retVal = new FluentPathEngine(workerContext);
+			engines.set(retVal);
+		}
+		return retVal;
+	}
+
 	@Override
 	public List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef) {
 		ArrayList<PathAndRef> retVal = new ArrayList<PathAndRef>();
@@ -713,6 +800,8 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 	@VisibleForTesting
 	void setValidationSupportForTesting(org.hl7.fhir.dstu3.hapi.validation.IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myWorkerContext = null;
+		myFluentPathEngine = new ThreadLocal<FluentPathEngine>();
 	}
 
 	private static <T extends Enum<?>> String extractSystem(Enumeration<T> theBoundCode) {
@@ -722,4 +811,54 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		return null;
 	}
 
+	/**
+	 * A parsed search parameter path, along with its compiled form if the path
+	 * could be compiled (otherwise it is evaluated by the interpreter)
+	 */
+	private static class CompiledPath {
+		private final ICompiledExpression myCompiled;
+		private final ExpressionNode myParsed;
+
+		CompiledPath(ExpressionNode theParsed, ICompiledExpression theCompiled) {
+			myParsed = theParsed;
+			myCompiled = theCompiled;
+		}
+
+		ICompiledExpression getCompiled() {
+			return myCompiled;
+		}
+
+		ExpressionNode getParsed() {
+			return myParsed;
+		}
+	}
+
+	/**
+	 * Navigates the same way the FHIRPath engine does for a plain child name: the root must
+	 * match the resource type, and choice elements are named without a type suffix
+	 */
+	private static class FluentPathNavigator implements ElementPathTrie.INavigator {
+
+		@Override
+		public List<?> getChildren(Object theElement, String theChildName) throws FHIRException {
+			Base[] children = ((Base) theElement).getProperty(theChildName.hashCode(), theChildName, false);
+			if (children == null || children.length == 0) {
+				return Collections.emptyList();
+			}
+			List<Base> retVal = new ArrayList<Base>(children.length);
+			for (Base next : children) {
+				if (next != null) {
+					retVal.add(next);
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public boolean isRoot(IBaseResource theResource, String theRootName) {
+			return ((Base) theResource).fhirType().equals(theRootName);
+		}
+
+	}
+
 }
@@ -30,14 +30,25 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MappedSuperclass;
 
+import org.apache.commons.lang3.StringUtils;
 import org.hibernate.search.annotations.ContainedIn;
 import org.hibernate.search.annotations.Field;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 @MappedSuperclass
 public abstract class BaseResourceIndexedSearchParam implements Serializable {
 
 	static final int MAX_SP_NAME = 100;
 
+	/**
+	 * Don't change this without careful consideration. You will break existing hashes!
+	 */
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128(0);
+
 	private static final long serialVersionUID = 1L;
 
 	@Field
@@ -70,6 +81,18 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 		return myResourcePid;
 	}
 
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	/**
+	 * Populates the hash columns (if any) from the current values. Subclasses with hash
+	 * columns override this and register it to be called before the entity is saved.
+	 */
+	public void calculateHashes() {
+		// nothing
+	}
+
 	public void setParamName(String theName) {
 		myParamName = theName;
 	}
@@ -79,4 +102,19 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 		myResourceType = theResource.getResourceType();
 	}
 
+	/**
+	 * Returns a 64 bit hash of the given values, used for the compact hash index columns. A <code>null</code>
+	 * value hashes the same as an empty string, since blank values are stored as <code>null</code>.
+	 */
+	static long hash(String... theValues) {
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		for (int i = 0; i < theValues.length; i++) {
+			if (i > 0) {
+				hasher.putByte((byte) 0);
+			}
+			hasher.putString(StringUtils.defaultString(theValues[i]), Charsets.UTF_8);
+		}
+		return hasher.hash().asLong();
+	}
+
 }
@@ -0,0 +1,121 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A resource which is a member of the compartment of a patient (including the patient itself, which
+ * is a member of its own compartment). These rows are maintained whenever a resource is saved, so that
+ * the members of a compartment can be found with a single index scan.
+ */
+//@formatter:off
+@Entity
+@Table(name = "HFJ_PAT_COMPARTMENT", indexes = {
+	@Index(name = "IDX_PATCOMP_PAT_TYPE_UPD", columnList = "PATIENT_PID,RES_TYPE,RES_UPDATED"),
+	@Index(name = "IDX_PATCOMP_RES", columnList = "RES_ID")
+})
+//@formatter:on
+public class PatientCompartmentMember implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@SequenceGenerator(name = "SEQ_PATCOMP_ID", sequenceName = "SEQ_PATCOMP_ID")
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_PATCOMP_ID")
+	@Column(name = "PID")
+	private Long myId;
+
+	@ManyToOne(optional = false, fetch = FetchType.LAZY)
+	@JoinColumn(name = "PATIENT_PID", referencedColumnName = "RES_ID", nullable = false)
+	private ResourceTable myPatient;
+
+	@Column(name = "PATIENT_PID", insertable = false, updatable = false, nullable = false)
+	private Long myPatientPid;
+
+	@ManyToOne(optional = false, fetch = FetchType.LAZY)
+	@JoinColumn(name = "RES_ID", referencedColumnName = "RES_ID", nullable = false)
+	private ResourceTable myResource;
+
+	@Column(name = "RES_ID", insertable = false, updatable = false, nullable = false)
+	private Long myResourcePid;
+
+	@Column(name = "RES_TYPE", length = ResourceTable.RESTYPE_LEN, nullable = false)
+	private String myResourceType;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "RES_UPDATED", nullable = false)
+	private Date myUpdated;
+
+	public PatientCompartmentMember() {
+		super();
+	}
+
+	public PatientCompartmentMember(ResourceTable thePatient, ResourceTable theResource) {
+		super();
+		myPatient = thePatient;
+		myPatientPid = thePatient.getId();
+		myResource = theResource;
+		myResourcePid = theResource.getId();
+		myResourceType = theResource.getResourceType();
+		myUpdated = theResource.getUpdatedDate();
+	}
+
+	public Long getId() {
+		return myId;
+	}
+
+	public Long getPatientPid() {
+		return myPatientPid;
+	}
+
+	public Long getResourcePid() {
+		return myResourcePid;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public Date getUpdated() {
+		return myUpdated;
+	}
+
+	public void setUpdated(Date theUpdated) {
+		myUpdated = theUpdated;
+	}
+
+}
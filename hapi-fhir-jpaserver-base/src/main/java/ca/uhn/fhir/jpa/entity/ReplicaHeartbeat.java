@@ -0,0 +1,76 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A single row which is updated on the primary database every few seconds, so that
+ * the lag of each read replica can be measured by reading it back from the replica
+ * (see {@link ca.uhn.fhir.jpa.config.ReadReplicaRoutingDataSource}). It is only
+ * mapped as an entity so that the table is created along with the rest of the schema.
+ */
+//@formatter:off
+@Entity
+@Table(name = "HFJ_REPLICA_HEARTBEAT")
+//@formatter:on
+public class ReplicaHeartbeat implements Serializable {
+
+	/**
+	 * The ID of the only row in the table
+	 */
+	public static final int HEARTBEAT_ID = 1;
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name = "HB_ID")
+	private Integer myId;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "HB_TIME", nullable = false)
+	private Date myTime;
+
+	public Integer getId() {
+		return myId;
+	}
+
+	public Date getTime() {
+		return myTime;
+	}
+
+	public void setId(Integer theId) {
+		myId = theId;
+	}
+
+	public void setTime(Date theTime) {
+		myTime = theTime;
+	}
+
+}
@@ -29,7 +29,13 @@ public enum ResourceEncodingEnum {
 	JSON,
 	
 	/** Json Compressed */
-	JSONC;
+	JSONC,
+
+	/**
+	 * Compressed Json Patch against another (complete) version of the same resource,
+	 * only used for history entries. See {@link ca.uhn.fhir.jpa.dao.DaoConfig#setHistoryDeltaEncodingEnabled(boolean)}
+	 */
+	DELTA;
 
 	public IParser newParser(FhirContext theContext) {
 		return theContext.newJsonParser();
@@ -54,6 +54,13 @@ public class ResourceHistoryTable extends BaseHasResource implements Serializabl
 
 	private static final long serialVersionUID = 1L;
 
+	/*
+	 * For entries stored as a delta (encoding DELTA), the PID of the complete
+	 * history entry the delta applies to
+	 */
+	@Column(name = "RES_DELTA_BASE_PID", nullable = true)
+	private Long myDeltaBasePid;
+
 	@Id
 	@SequenceGenerator(name = "SEQ_RESOURCE_HISTORY_ID", sequenceName = "SEQ_RESOURCE_HISTORY_ID")
 	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_RESOURCE_HISTORY_ID")
@@ -99,6 +106,10 @@ public class ResourceHistoryTable extends BaseHasResource implements Serializabl
 		return historyTag;
 	}
 
+	public Long getDeltaBasePid() {
+		return myDeltaBasePid;
+	}
+
 	@Override
 	public Long getId() {
 		return myId;
@@ -145,6 +156,10 @@ public class ResourceHistoryTable extends BaseHasResource implements Serializabl
 		return false;
 	}
 
+	public void setDeltaBasePid(Long theDeltaBasePid) {
+		myDeltaBasePid = theDeltaBasePid;
+	}
+
 	public void setId(Long theId) {
 		myId = theId;
 	}
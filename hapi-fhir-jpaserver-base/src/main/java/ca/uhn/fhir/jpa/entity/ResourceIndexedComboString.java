@@ -0,0 +1,103 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * One value of a combo search parameter (see {@link ca.uhn.fhir.jpa.dao.ComboSearchParamDefinition}) for
+ * a resource. Only the hash of the index string is stored, since the string itself can be long.
+ */
+//@formatter:off
+@Entity
+@Table(name = "HFJ_IDX_CMB_STRING", indexes = {
+	@Index(name = "IDX_IDXCMB_HASH", columnList = "IDX_HASH,RES_ID"),
+	@Index(name = "IDX_IDXCMB_RES", columnList = "RES_ID")
+})
+//@formatter:on
+public class ResourceIndexedComboString implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column(name = "IDX_HASH", nullable = false)
+	private Long myHash;
+
+	@Id
+	@SequenceGenerator(name = "SEQ_IDXCMB_ID", sequenceName = "SEQ_IDXCMB_ID")
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_IDXCMB_ID")
+	@Column(name = "PID")
+	private Long myId;
+
+	@ManyToOne(optional = false, fetch = FetchType.LAZY)
+	@JoinColumn(name = "RES_ID", referencedColumnName = "RES_ID", nullable = false)
+	private ResourceTable myResource;
+
+	@Column(name = "RES_ID", insertable = false, updatable = false, nullable = false)
+	private Long myResourcePid;
+
+	@Column(name = "RES_TYPE", length = ResourceTable.RESTYPE_LEN, nullable = false)
+	private String myResourceType;
+
+	public ResourceIndexedComboString() {
+		super();
+	}
+
+	public ResourceIndexedComboString(ResourceTable theResource, String theIndexString) {
+		super();
+		myResource = theResource;
+		myResourcePid = theResource.getId();
+		myResourceType = theResource.getResourceType();
+		myHash = calculateHash(theIndexString);
+	}
+
+	public Long getHash() {
+		return myHash;
+	}
+
+	public Long getId() {
+		return myId;
+	}
+
+	public Long getResourcePid() {
+		return myResourcePid;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public static long calculateHash(String theIndexString) {
+		return BaseResourceIndexedSearchParam.hash(theIndexString);
+	}
+
+}
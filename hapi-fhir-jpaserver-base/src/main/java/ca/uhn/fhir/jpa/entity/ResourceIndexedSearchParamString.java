@@ -29,6 +29,8 @@ import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
@@ -50,6 +52,8 @@ import org.hibernate.search.annotations.Store;
 @Entity
 @Table(name = "HFJ_SPIDX_STRING", indexes = { 
 	@Index(name = "IDX_SP_STRING", columnList = "RES_TYPE,SP_NAME,SP_VALUE_NORMALIZED"), 
+	@Index(name = "IDX_SP_STRING_HASH_NRM", columnList = "HASH_NORM_PREFIX,SP_VALUE_NORMALIZED"), 
+	@Index(name = "IDX_SP_STRING_HASH_EXCT", columnList = "HASH_EXACT"), 
 	@Index(name = "IDX_SP_STRING_RESID", columnList = "RES_ID") 
 })
 @Indexed()
@@ -104,8 +108,26 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 	 */
 	public static final int MAX_LENGTH = 200;
 
+	/**
+	 * Number of characters of the normalized value which are included in {@link #getHashNormalizedPrefix()}.
+	 * Searches for a term shorter than this can not use the hash.
+	 */
+	public static final int HASH_PREFIX_LENGTH = 1;
+
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Hash of resource type, param name and exact value
+	 */
+	@Column(name = "HASH_EXACT", nullable = true)
+	private Long myHashExact;
+
+	/**
+	 * Hash of resource type, param name and the first {@link #HASH_PREFIX_LENGTH} characters of the normalized value
+	 */
+	@Column(name = "HASH_NORM_PREFIX", nullable = true)
+	private Long myHashNormalizedPrefix;
+
 	@Id
 	@SequenceGenerator(name="SEQ_SPIDX_STRING", sequenceName="SEQ_SPIDX_STRING")
 	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_SPIDX_STRING")
@@ -139,6 +161,16 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		setValueExact(theValueExact);
 	}
 
+	@PrePersist
+	@PreUpdate
+	@Override
+	public void calculateHashes() {
+		String resourceType = getResourceType();
+		String paramName = getParamName();
+		myHashExact = calculateHashExact(resourceType, paramName, getValueExact());
+		myHashNormalizedPrefix = calculateHashNormalized(resourceType, paramName, getValueNormalized());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -158,6 +190,14 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		return b.isEquals();
 	}
 
+	public Long getHashExact() {
+		return myHashExact;
+	}
+
+	public Long getHashNormalizedPrefix() {
+		return myHashNormalizedPrefix;
+	}
+
 	@Override
 	protected Long getId() {
 		return myId;
@@ -203,4 +243,16 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		return b.build();
 	}
 
+	public static long calculateHashExact(String theResourceType, String theParamName, String theValueExact) {
+		return hash(theResourceType, theParamName, theValueExact);
+	}
+
+	/**
+	 * Note that only the first {@link #HASH_PREFIX_LENGTH} characters of the value are hashed, so
+	 * this may be called with either a complete normalized value or a search prefix
+	 */
+	public static long calculateHashNormalized(String theResourceType, String theParamName, String theValueNormalized) {
+		return hash(theResourceType, theParamName, StringUtils.left(theValueNormalized, HASH_PREFIX_LENGTH));
+	}
+
 }
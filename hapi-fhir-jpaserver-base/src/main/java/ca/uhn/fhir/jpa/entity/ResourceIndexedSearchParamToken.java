@@ -27,6 +27,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
@@ -43,6 +45,9 @@ import org.hibernate.search.annotations.Field;
 @Table(name = "HFJ_SPIDX_TOKEN", indexes = {
 	@Index(name = "IDX_SP_TOKEN", columnList = "RES_TYPE,SP_NAME,SP_SYSTEM,SP_VALUE"),
 	@Index(name = "IDX_SP_TOKEN_UNQUAL", columnList = "RES_TYPE,SP_NAME,SP_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_SV", columnList = "HASH_SYS_AND_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_V", columnList = "HASH_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_S", columnList = "HASH_SYS"),
 	@Index(name = "IDX_SP_TOKEN_RESID", columnList = "RES_ID") 
 })
 //@formatter:on
@@ -52,6 +57,24 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * Hash of resource type, param name and system
+	 */
+	@Column(name = "HASH_SYS", nullable = true)
+	private Long myHashSystem;
+
+	/**
+	 * Hash of resource type, param name, system and value
+	 */
+	@Column(name = "HASH_SYS_AND_VALUE", nullable = true)
+	private Long myHashSystemAndValue;
+
+	/**
+	 * Hash of resource type, param name and value
+	 */
+	@Column(name = "HASH_VALUE", nullable = true)
+	private Long myHashValue;
+
 	@Id
 	@SequenceGenerator(name = "SEQ_SPIDX_TOKEN", sequenceName = "SEQ_SPIDX_TOKEN")
 	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_SPIDX_TOKEN")
@@ -75,6 +98,17 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		setValue(theValue);
 	}
 
+	@PrePersist
+	@PreUpdate
+	@Override
+	public void calculateHashes() {
+		String resourceType = getResourceType();
+		String paramName = getParamName();
+		myHashSystem = calculateHashSystem(resourceType, paramName, getSystem());
+		myHashSystemAndValue = calculateHashSystemAndValue(resourceType, paramName, getSystem(), getValue());
+		myHashValue = calculateHashValue(resourceType, paramName, getValue());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -95,6 +129,18 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		return b.isEquals();
 	}
 
+	public Long getHashSystem() {
+		return myHashSystem;
+	}
+
+	public Long getHashSystemAndValue() {
+		return myHashSystemAndValue;
+	}
+
+	public Long getHashValue() {
+		return myHashValue;
+	}
+
 	@Override
 	protected Long getId() {
 		return myId;
@@ -135,4 +181,17 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		b.append("value", getValue());
 		return b.build();
 	}
+
+	public static long calculateHashSystem(String theResourceType, String theParamName, String theSystem) {
+		return hash(theResourceType, theParamName, theSystem);
+	}
+
+	public static long calculateHashSystemAndValue(String theResourceType, String theParamName, String theSystem, String theValue) {
+		return hash(theResourceType, theParamName, theSystem, theValue);
+	}
+
+	public static long calculateHashValue(String theResourceType, String theParamName, String theValue) {
+		return hash(theResourceType, theParamName, theValue);
+	}
+
 }
@@ -27,6 +27,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
@@ -42,6 +44,7 @@ import org.hibernate.search.annotations.Field;
 @Table(name = "HFJ_SPIDX_URI", indexes = { 
 	@Index(name = "IDX_SP_URI", columnList = "RES_TYPE,SP_NAME,SP_URI"), 
 	@Index(name = "IDX_SP_URI_RESTYPE_NAME", columnList = "RES_TYPE,SP_NAME"), 
+	@Index(name = "IDX_SP_URI_HASH_URI", columnList = "HASH_URI"), 
 	@Index(name = "IDX_SP_URI_COORDS", columnList = "RES_ID") 
 })
 //@formatter:on
@@ -54,6 +57,12 @@ public class ResourceIndexedSearchParamUri extends BaseResourceIndexedSearchPara
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Hash of resource type, param name and URI
+	 */
+	@Column(name = "HASH_URI", nullable = true)
+	private Long myHashUri;
+
 	@Id
 	@SequenceGenerator(name="SEQ_SPIDX_URI", sequenceName="SEQ_SPIDX_URI")
 	@GeneratedValue(strategy = GenerationType.AUTO, generator="SEQ_SPIDX_URI")
@@ -72,6 +81,13 @@ public class ResourceIndexedSearchParamUri extends BaseResourceIndexedSearchPara
 		setUri(theUri);
 	}
 
+	@PrePersist
+	@PreUpdate
+	@Override
+	public void calculateHashes() {
+		myHashUri = calculateHashUri(getResourceType(), getParamName(), getUri());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -91,6 +107,10 @@ public class ResourceIndexedSearchParamUri extends BaseResourceIndexedSearchPara
 		return b.isEquals();
 	}
 
+	public Long getHashUri() {
+		return myHashUri;
+	}
+
 	@Override
 	protected Long getId() {
 		return myId;
@@ -122,4 +142,8 @@ public class ResourceIndexedSearchParamUri extends BaseResourceIndexedSearchPara
 		return builder.toString();
 	}
 
+	public static long calculateHashUri(String theResourceType, String theParamName, String theUri) {
+		return hash(theResourceType, theParamName, theUri);
+	}
+
 }
@@ -146,6 +146,10 @@ public class ResourceLink implements Serializable {
 		return myTargetResourcePid;
 	}
 
+	public String getTargetResourceType() {
+		return myTargetResourceType;
+	}
+
 	public String getTargetResourceUrl() {
 		return myTargetResourceUrl;
 	}
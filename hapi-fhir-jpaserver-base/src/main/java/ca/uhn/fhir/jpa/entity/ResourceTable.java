@@ -58,20 +58,27 @@ import org.hibernate.search.annotations.AnalyzerDef;
 import org.hibernate.search.annotations.AnalyzerDefs;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.Fields;
+import org.hibernate.search.annotations.FullTextFilterDef;
+import org.hibernate.search.annotations.FullTextFilterDefs;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
 import org.hibernate.search.annotations.Parameter;
 import org.hibernate.search.annotations.Store;
 import org.hibernate.search.annotations.TokenFilterDef;
 import org.hibernate.search.annotations.TokenizerDef;
+import org.hibernate.search.filter.ShardSensitiveOnlyFilter;
 
 import ca.uhn.fhir.jpa.search.IndexNonDeletedInterceptor;
+import ca.uhn.fhir.jpa.search.ResourceTypeShardIdentifierProvider;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 
 //@formatter:off
 @Indexed(interceptor=IndexNonDeletedInterceptor.class)	
+@FullTextFilterDefs({
+	@FullTextFilterDef(name = ResourceTypeShardIdentifierProvider.FILTER_NAME, impl = ShardSensitiveOnlyFilter.class)
+})
 @Entity
 @Table(name = "HFJ_RESOURCE", uniqueConstraints = {}, indexes= {
 	@Index(name = "IDX_RES_DATE", columnList="RES_UPDATED"), 
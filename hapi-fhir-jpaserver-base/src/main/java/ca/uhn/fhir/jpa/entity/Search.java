@@ -62,6 +62,20 @@ public class Search implements Serializable {
 	@Column(name="CREATED", nullable=false, updatable=false)
 	private Date myCreated;
 
+	/*
+	 * The position of the last history entry returned so far, so that the next page of a
+	 * history search can seek to it instead of skipping over all of the previous entries
+	 */
+	@Column(name="HISTORY_CURSOR_OFFSET", nullable=true)
+	private Integer myHistoryCursorOffset;
+
+	@Column(name="HISTORY_CURSOR_PID", nullable=true)
+	private Long myHistoryCursorPid;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name="HISTORY_CURSOR_UPDATED", nullable=true)
+	private Date myHistoryCursorUpdated;
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO, generator="SEQ_SEARCH")
 	@SequenceGenerator(name="SEQ_SEARCH", sequenceName="SEQ_SEARCH")
@@ -105,6 +119,22 @@ public class Search implements Serializable {
 		return myCreated;
 	}
 
+	/**
+	 * Returns the index of the history entry which follows the cursor, or <code>null</code>
+	 * if no cursor has been stored
+	 */
+	public Integer getHistoryCursorOffset() {
+		return myHistoryCursorOffset;
+	}
+
+	public Long getHistoryCursorPid() {
+		return myHistoryCursorPid;
+	}
+
+	public Date getHistoryCursorUpdated() {
+		return myHistoryCursorUpdated;
+	}
+
 	public Long getId() {
 		return myId;
 	}
@@ -160,6 +190,16 @@ public class Search implements Serializable {
 	public void setCreated(Date theCreated) {
 		myCreated = theCreated;
 	}
+
+	/**
+	 * Stores the last history entry which was returned, and the index of the entry which follows it
+	 */
+	public void setHistoryCursor(int theOffset, Date theUpdated, Long thePid) {
+		myHistoryCursorOffset = theOffset;
+		myHistoryCursorUpdated = theUpdated;
+		myHistoryCursorPid = thePid;
+	}
+
 	public void setLastUpdated(Date theLowerBound, Date theUpperBound) {
 		myLastUpdatedLow = theLowerBound;
 		myLastUpdatedHigh = theUpperBound;
@@ -0,0 +1,183 @@
+package ca.uhn.fhir.jpa.interceptor;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import ca.uhn.fhir.jpa.config.ReadReplicaRoutingDataSource;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.interceptor.IServerProcessingCompletedInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * Server interceptor which allows read-only requests (read, vread, search and paging) to use
+ * a read replica, when the server's data source is a {@link ReadReplicaRoutingDataSource}. This
+ * interceptor must be registered with the {@link ca.uhn.fhir.rest.server.RestfulServer}.
+ * <p>
+ * Clients see their own writes: after a client writes to the server, its requests use the
+ * primary database for the {@link #setStickyAfterWriteMillis(long) sticky period}. Clients
+ * are identified by their <code>Authorization</code> header if they send one, or by their
+ * address otherwise (see {@link #getClientKey(HttpServletRequest)}).
+ * </p>
+ * <p>
+ * History requests always use the primary database, since they store the history search
+ * for paging. Searches which use a replica store their results in the primary database,
+ * so that their paging links work on any server.
+ * </p>
+ */
+public class ReadReplicaRoutingInterceptor extends InterceptorAdapter implements IServerProcessingCompletedInterceptor {
+
+	static final int MAX_TRACKED_CLIENTS = 10000;
+
+	private static final Set<RestOperationTypeEnum> REPLICA_OPERATIONS = EnumSet.of(RestOperationTypeEnum.READ, RestOperationTypeEnum.VREAD, RestOperationTypeEnum.SEARCH_TYPE, RestOperationTypeEnum.SEARCH_SYSTEM, RestOperationTypeEnum.GET_PAGE);
+
+	private static final Set<RestOperationTypeEnum> WRITE_OPERATIONS = EnumSet.of(RestOperationTypeEnum.CREATE, RestOperationTypeEnum.UPDATE, RestOperationTypeEnum.DELETE, RestOperationTypeEnum.PATCH, RestOperationTypeEnum.TRANSACTION, RestOperationTypeEnum.ADD_TAGS,
+			RestOperationTypeEnum.DELETE_TAGS, RestOperationTypeEnum.META_ADD, RestOperationTypeEnum.META_DELETE, RestOperationTypeEnum.EXTENDED_OPERATION_SERVER, RestOperationTypeEnum.EXTENDED_OPERATION_TYPE, RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE);
+
+	private final ConcurrentHashMap<String, Long> myLastWriteByClient = new ConcurrentHashMap<String, Long>();
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private long myStickyAfterWriteMillis = 10 * DateUtils.MILLIS_PER_SECOND;
+
+	/**
+	 * Returns the key which identifies the client making the given request, for the purpose of
+	 * sending its requests to the primary database after it writes. Subclasses may override this
+	 * to use a different identity, e.g. a session or user ID.
+	 */
+	protected String getClientKey(HttpServletRequest theRequest) {
+		String authorization = theRequest.getHeader(Constants.HEADER_AUTHORIZATION);
+		if (isNotBlank(authorization)) {
+			// Credentials are not kept in memory
+			return "auth:" + Hashing.murmur3_128().hashString(authorization, Charsets.UTF_8).toString();
+		}
+		return "addr:" + theRequest.getRemoteAddr();
+	}
+
+	/**
+	 * See {@link #setStickyAfterWriteMillis(long)}
+	 */
+	public long getStickyAfterWriteMillis() {
+		return myStickyAfterWriteMillis;
+	}
+
+	@Override
+	public boolean handleException(RequestDetails theRequestDetails, BaseServerResponseException theException, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		// A failed write may still have changed something
+		if (theServletRequest != null && WRITE_OPERATIONS.contains(theRequestDetails.getRestOperationType())) {
+			recordWrite(getClientKey(theServletRequest));
+		}
+		return true;
+	}
+
+	@Override
+	public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		RestOperationTypeEnum operation = theRequestDetails.getRestOperationType();
+		String clientKey = getClientKey(theRequest);
+
+		boolean replicaAllowed = false;
+		if (REPLICA_OPERATIONS.contains(operation)) {
+			replicaAllowed = !hasWrittenRecently(clientKey);
+		} else if (WRITE_OPERATIONS.contains(operation)) {
+			recordWrite(clientKey);
+		}
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(replicaAllowed);
+
+		return true;
+	}
+
+	/**
+	 * The server calls this once it has finished with the request, including when another
+	 * interceptor stopped processing early, so the thread is never left allowing replicas
+	 */
+	@Override
+	public void processingCompleted(RequestDetails theRequestDetails) {
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(false);
+	}
+
+	@Override
+	public void processingCompletedNormally(ServletRequestDetails theRequestDetails) {
+		// The sticky period starts again once the write has been committed
+		if (WRITE_OPERATIONS.contains(theRequestDetails.getRestOperationType())) {
+			recordWrite(getClientKey(theRequestDetails.getServletRequest()));
+		}
+	}
+
+	/**
+	 * Sets the number of milliseconds after a client writes to the server during which its requests
+	 * always use the primary database, so that it sees its own changes. This should be at least
+	 * as long as the {@link ReadReplicaRoutingDataSource#setMaxReplicaLagMillis(long) maximum replica lag}.
+	 * <p>
+	 * Defaults to 10000 (10 seconds)
+	 * </p>
+	 */
+	public void setStickyAfterWriteMillis(long theStickyAfterWriteMillis) {
+		Validate.isTrue(theStickyAfterWriteMillis >= 0, "theStickyAfterWriteMillis must not be negative");
+		myStickyAfterWriteMillis = theStickyAfterWriteMillis;
+	}
+
+	boolean hasWrittenRecently(String theClientKey) {
+		Long lastWrite = myLastWriteByClient.get(theClientKey);
+		if (lastWrite == null) {
+			return false;
+		}
+		if (lastWrite.longValue() + myStickyAfterWriteMillis < System.currentTimeMillis()) {
+			myLastWriteByClient.remove(theClientKey, lastWrite);
+			return false;
+		}
+		return true;
+	}
+
+	void recordWrite(String theClientKey) {
+		long now = System.currentTimeMillis();
+		myLastWriteByClient.put(theClientKey, now);
+
+		if (myLastWriteByClient.size() > MAX_TRACKED_CLIENTS) {
+			long cutoff = now - myStickyAfterWriteMillis;
+			for (Iterator<Entry<String, Long>> iter = myLastWriteByClient.entrySet().iterator(); iter.hasNext();) {
+				if (iter.next().getValue().longValue() < cutoff) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+}
@@ -2,7 +2,9 @@ package ca.uhn.fhir.jpa.provider;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /*
  * #%L
@@ -27,6 +29,7 @@ import java.util.List;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDaoPatient;
 import ca.uhn.fhir.model.api.annotation.Description;
 import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.rest.annotation.IdParam;
@@ -72,6 +75,14 @@ public class BaseJpaResourceProviderPatientDstu2 extends JpaResourceProviderDstu
 			@OperationParam(name = Constants.PARAM_TEXT, min=0, max=OperationParam.MAX_UNLIMITED) 
 			List<StringDt> theNarrative,
 
+			@Description(shortDefinition="Only return resources which were last updated at or after the given instant")
+			@OperationParam(name = Constants.PARAM_SINCE, min=0, max=1) 
+			InstantDt theSince,
+
+			@Description(shortDefinition="Only return resources of the given resource types (supporting resources are not included when this parameter is used)")
+			@OperationParam(name = Constants.PARAM_TYPE, min=0, max=OperationParam.MAX_UNLIMITED) 
+			List<StringDt> theTypes,
+
 			@Sort
 			SortSpec theSortSpec, 
 			
@@ -81,7 +92,7 @@ public class BaseJpaResourceProviderPatientDstu2 extends JpaResourceProviderDstu
 
 		startRequest(theServletRequest);
 		try {
-			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientInstanceEverything(theServletRequest, theId, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theRequestDetails);
+			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientInstanceEverything(theServletRequest, theId, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theSince, toTypeSet(theTypes), theRequestDetails);
 		} finally {
 			endRequest(theServletRequest);
 		}
@@ -113,6 +124,14 @@ public class BaseJpaResourceProviderPatientDstu2 extends JpaResourceProviderDstu
 				@OperationParam(name = Constants.PARAM_TEXT, min=0, max=OperationParam.MAX_UNLIMITED) 
 				List<StringDt> theNarrative,
 
+				@Description(shortDefinition="Only return resources which were last updated at or after the given instant")
+				@OperationParam(name = Constants.PARAM_SINCE, min=0, max=1) 
+				InstantDt theSince,
+
+				@Description(shortDefinition="Only return resources of the given resource types (supporting resources are not included when this parameter is used)")
+				@OperationParam(name = Constants.PARAM_TYPE, min=0, max=OperationParam.MAX_UNLIMITED) 
+				List<StringDt> theTypes,
+
 				@Sort
 				SortSpec theSortSpec, 
 				
@@ -122,7 +141,7 @@ public class BaseJpaResourceProviderPatientDstu2 extends JpaResourceProviderDstu
 
 		startRequest(theServletRequest);
 		try {
-			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientTypeEverything(theServletRequest, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theRequestDetails);
+			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientTypeEverything(theServletRequest, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theSince, toTypeSet(theTypes), theRequestDetails);
 		} finally {
 			endRequest(theServletRequest);
 		}
@@ -144,4 +163,23 @@ public class BaseJpaResourceProviderPatientDstu2 extends JpaResourceProviderDstu
 		return retVal;
 	}
 
+	private Set<String> toTypeSet(List<StringDt> theTypes) {
+		Set<String> retVal = new HashSet<String>();
+		if (theTypes != null) {
+			for (StringDt next : theTypes) {
+				if (isNotBlank(next.getValue())) {
+					for (String nextType : next.getValue().split(",")) {
+						if (isNotBlank(nextType)) {
+							retVal.add(nextType.trim());
+						}
+					}
+				}
+			}
+		}
+		if (retVal.isEmpty()) {
+			return null;
+		}
+		return retVal;
+	}
+
 }
@@ -2,9 +2,12 @@ package ca.uhn.fhir.jpa.provider.dstu3;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.InstantType;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.dstu3.model.UnsignedIntType;
@@ -75,6 +78,14 @@ public class BaseJpaResourceProviderPatientDstu3 extends JpaResourceProviderDstu
 			@OperationParam(name = Constants.PARAM_TEXT, min=0, max=OperationParam.MAX_UNLIMITED) 
 			List<StringType> theNarrative,
 
+			@Description(shortDefinition="Only return resources which were last updated at or after the given instant")
+			@OperationParam(name = Constants.PARAM_SINCE, min=0, max=1) 
+			InstantType theSince,
+
+			@Description(shortDefinition="Only return resources of the given resource types (supporting resources are not included when this parameter is used)")
+			@OperationParam(name = Constants.PARAM_TYPE, min=0, max=OperationParam.MAX_UNLIMITED) 
+			List<StringType> theTypes,
+
 			@Sort
 			SortSpec theSortSpec, 
 			
@@ -84,7 +95,7 @@ public class BaseJpaResourceProviderPatientDstu3 extends JpaResourceProviderDstu
 
 		startRequest(theServletRequest);
 		try {
-			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientInstanceEverything(theServletRequest, theId, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theRequestDetails);
+			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientInstanceEverything(theServletRequest, theId, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theSince, toTypeSet(theTypes), theRequestDetails);
 		} finally {
 			endRequest(theServletRequest);
 		}
@@ -116,6 +127,14 @@ public class BaseJpaResourceProviderPatientDstu3 extends JpaResourceProviderDstu
 				@OperationParam(name = Constants.PARAM_TEXT, min=0, max=OperationParam.MAX_UNLIMITED) 
 				List<StringType> theNarrative,
 
+				@Description(shortDefinition="Only return resources which were last updated at or after the given instant")
+				@OperationParam(name = Constants.PARAM_SINCE, min=0, max=1) 
+				InstantType theSince,
+
+				@Description(shortDefinition="Only return resources of the given resource types (supporting resources are not included when this parameter is used)")
+				@OperationParam(name = Constants.PARAM_TYPE, min=0, max=OperationParam.MAX_UNLIMITED) 
+				List<StringType> theTypes,
+
 				@Sort
 				SortSpec theSortSpec, 
 				
@@ -125,7 +144,7 @@ public class BaseJpaResourceProviderPatientDstu3 extends JpaResourceProviderDstu
 
 		startRequest(theServletRequest);
 		try {
-			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientTypeEverything(theServletRequest, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theRequestDetails);
+			return ((IFhirResourceDaoPatient<Patient>) getDao()).patientTypeEverything(theServletRequest, theCount, theLastUpdated, theSortSpec, toStringAndList(theContent), toStringAndList(theNarrative), theSince, toTypeSet(theTypes), theRequestDetails);
 		} finally {
 			endRequest(theServletRequest);
 		}
@@ -147,4 +166,23 @@ public class BaseJpaResourceProviderPatientDstu3 extends JpaResourceProviderDstu
 		return retVal;
 	}
 
+	private Set<String> toTypeSet(List<StringType> theTypes) {
+		Set<String> retVal = new HashSet<String>();
+		if (theTypes != null) {
+			for (StringType next : theTypes) {
+				if (isNotBlank(next.getValue())) {
+					for (String nextType : next.getValue().split(",")) {
+						if (isNotBlank(nextType)) {
+							retVal.add(nextType.trim());
+						}
+					}
+				}
+			}
+		}
+		if (retVal.isEmpty()) {
+			return null;
+		}
+		return retVal;
+	}
+
 }
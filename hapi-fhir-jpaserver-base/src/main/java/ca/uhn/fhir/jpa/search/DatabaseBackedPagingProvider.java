@@ -27,9 +27,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.config.ReadReplicaRoutingDataSource;
 import ca.uhn.fhir.jpa.dao.IDao;
 import ca.uhn.fhir.jpa.dao.IFhirSystemDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
+import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
 import ca.uhn.fhir.rest.server.IBundleProvider;
 
@@ -45,6 +47,8 @@ public class DatabaseBackedPagingProvider extends FifoMemoryPagingProvider {
 	private FhirContext theContext;
 	@Autowired
 	private IFhirSystemDao<?, ?> theDao;
+	@Autowired(required = false)
+	private ReadReplicaRoutingDataSource theReadReplicaRoutingDataSource;
 
 	public DatabaseBackedPagingProvider(int theSize) {
 		super(theSize);
@@ -54,10 +58,26 @@ public class DatabaseBackedPagingProvider extends FifoMemoryPagingProvider {
 	public synchronized IBundleProvider retrieveResultList(String theId) {
 		IBundleProvider retVal = super.retrieveResultList(theId);
 		if (retVal == null) {
+			// The search was stored in the primary database, and may not have reached a read replica yet
+			boolean replicaAllowed = ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread();
+			ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(false);
+
 			PersistedJpaBundleProvider provider = new PersistedJpaBundleProvider(theId, theDao);
 			if (!provider.ensureSearchEntityLoaded()) {
 				return null;
 			}
+
+			/*
+			 * Once the stored search is old enough to be visible on the replicas, its pages can be
+			 * read from them. History searches read their pages with a cursor that is written back
+			 * to the search, so those stay on the primary.
+			 */
+			if (replicaAllowed && theReadReplicaRoutingDataSource != null && provider.getSearchType() != SearchTypeEnum.HISTORY) {
+				if (theReadReplicaRoutingDataSource.isVisibleOnReplicas(provider.getPublished().getValue())) {
+					ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(true);
+				}
+			}
+
 			retVal = provider;
 		}
 		return retVal;
@@ -65,8 +85,8 @@ public class DatabaseBackedPagingProvider extends FifoMemoryPagingProvider {
 
 	@Override
 	public synchronized String storeResultList(IBundleProvider theList) {
-		if (theList instanceof PersistedJpaBundleProvider) {
-			return ((PersistedJpaBundleProvider)theList).getSearchUuid();
+		if (theList instanceof IPersistedBundleProvider) {
+			return ((IPersistedBundleProvider)theList).getSearchUuid();
 		}
 		return super.storeResultList(theList);
 	}
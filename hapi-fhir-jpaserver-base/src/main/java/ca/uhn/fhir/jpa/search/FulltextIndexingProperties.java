@@ -0,0 +1,198 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.Properties;
+
+import org.apache.commons.lang3.Validate;
+
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+
+/**
+ * Creates the Hibernate Search properties which control how the fulltext indexes (used by
+ * the <code>_content</code> and <code>_text</code> search parameters) are written. These
+ * properties must be passed to the entity manager factory along with the other JPA properties,
+ * for example:
+ *
+ * <pre>
+ * Properties extraProperties = new Properties();
+ * extraProperties.put("hibernate.search.default.directory_provider", "filesystem");
+ * // ...
+ * FulltextIndexingProperties indexing = new FulltextIndexingProperties();
+ * indexing.setAsynchronous(true);
+ * indexing.setNearRealTime(true);
+ * indexing.setShardByResourceType(true);
+ * indexing.addTo(extraProperties);
+ * </pre>
+ *
+ * By default all settings are disabled, which means that indexing happens synchronously
+ * when each transaction is committed and a single index is used for all resource types.
+ */
+public class FulltextIndexingProperties {
+
+	/**
+	 * The name of the index containing {@link ResourceTable resources}
+	 */
+	public static final String RESOURCE_INDEX_NAME = ResourceTable.class.getName();
+
+	private boolean myAsynchronous;
+	private int myMaxQueueLength = 1000;
+	private boolean myNearRealTime;
+	private boolean myShardByResourceType;
+	private int myWorkerThreads = 1;
+
+	/**
+	 * Adds the Hibernate Search properties for these settings to the given properties. When
+	 * {@link #setShardByResourceType(boolean) sharding by resource type}, this must be called after the
+	 * directory provider properties have been set, since the shards are found in the index directory.
+	 */
+	public void addTo(Properties theProperties) {
+		Validate.notNull(theProperties, "theProperties must not be null");
+
+		if (myAsynchronous) {
+			theProperties.put("hibernate.search.default.worker.execution", "async");
+			theProperties.put("hibernate.search.default.worker.thread_pool.size", Integer.toString(myWorkerThreads));
+			theProperties.put("hibernate.search.default.max_queue_length", Integer.toString(myMaxQueueLength));
+		}
+		if (myNearRealTime) {
+			theProperties.put("hibernate.search.default.indexmanager", "near-real-time");
+		}
+		if (myShardByResourceType) {
+			theProperties.put("hibernate.search." + RESOURCE_INDEX_NAME + ".sharding_strategy", ResourceTypeShardIdentifierProvider.class.getName());
+			String directoryProvider = getIndexProperty(theProperties, "directory_provider");
+			if (isBlank(directoryProvider) || directoryProvider.startsWith("filesystem")) {
+				String indexBase = defaultIfBlank(getIndexProperty(theProperties, "indexBase"), ".");
+				theProperties.put("hibernate.search." + RESOURCE_INDEX_NAME + ".sharding_strategy." + ResourceTypeShardIdentifierProvider.PROP_INDEX_BASE, indexBase);
+			}
+		}
+	}
+
+	private String getIndexProperty(Properties theProperties, String theName) {
+		String retVal = theProperties.getProperty("hibernate.search." + RESOURCE_INDEX_NAME + "." + theName);
+		if (isBlank(retVal)) {
+			retVal = theProperties.getProperty("hibernate.search.default." + theName);
+		}
+		return retVal;
+	}
+
+	/**
+	 * See {@link #setMaxQueueLength(int)}
+	 */
+	public int getMaxQueueLength() {
+		return myMaxQueueLength;
+	}
+
+	/**
+	 * See {@link #setWorkerThreads(int)}
+	 */
+	public int getWorkerThreads() {
+		return myWorkerThreads;
+	}
+
+	/**
+	 * See {@link #setAsynchronous(boolean)}
+	 */
+	public boolean isAsynchronous() {
+		return myAsynchronous;
+	}
+
+	/**
+	 * See {@link #setNearRealTime(boolean)}
+	 */
+	public boolean isNearRealTime() {
+		return myNearRealTime;
+	}
+
+	/**
+	 * See {@link #setShardByResourceType(boolean)}
+	 */
+	public boolean isShardByResourceType() {
+		return myShardByResourceType;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), changes to the fulltext indexes
+	 * are queued when a transaction is committed and applied by a pool of background
+	 * {@link #setWorkerThreads(int) worker threads}, so that writes do not wait for Lucene (including
+	 * any segment merges it decides to do). The trade-off is that resources may not be found by
+	 * <code>_content</code> and <code>_text</code> searches for a short time after they are written.
+	 */
+	public void setAsynchronous(boolean theAsynchronous) {
+		myAsynchronous = theAsynchronous;
+	}
+
+	/**
+	 * When {@link #setAsynchronous(boolean) asynchronous} indexing is enabled, sets the maximum
+	 * number of pending changes which may be queued for each index. Once the queue is full, the
+	 * committing thread applies its changes itself, which slows writers down instead of letting
+	 * the queue grow without bound.
+	 * <p>
+	 * Defaults to 1000
+	 * </p>
+	 */
+	public void setMaxQueueLength(int theMaxQueueLength) {
+		Validate.isTrue(theMaxQueueLength > 0, "theMaxQueueLength must be greater than 0");
+		myMaxQueueLength = theMaxQueueLength;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the indexes are kept open and
+	 * searches see changes without waiting for them to be flushed to the directory. This makes
+	 * indexing much cheaper, but changes which have not been flushed are lost if the server is
+	 * stopped abruptly (they can be restored by reindexing). This should only be used when a single
+	 * server writes to the indexes.
+	 */
+	public void setNearRealTime(boolean theNearRealTime) {
+		myNearRealTime = theNearRealTime;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), resources are indexed in a
+	 * separate index for each resource type, so that searches for a single resource type only
+	 * need to read the index for that type.
+	 * <p>
+	 * Changing this setting for an existing server requires the indexes to be rebuilt. The
+	 * fulltext search service must also be told that the index is sharded (see
+	 * {@link ca.uhn.fhir.jpa.dao.FulltextSearchSvcImpl#setShardByResourceType(boolean)}).
+	 * </p>
+	 *
+	 * @see ResourceTypeShardIdentifierProvider
+	 */
+	public void setShardByResourceType(boolean theShardByResourceType) {
+		myShardByResourceType = theShardByResourceType;
+	}
+
+	/**
+	 * When {@link #setAsynchronous(boolean) asynchronous} indexing is enabled, sets the
+	 * number of background threads which apply changes to each index.
+	 * <p>
+	 * Defaults to 1
+	 * </p>
+	 */
+	public void setWorkerThreads(int theWorkerThreads) {
+		Validate.isTrue(theWorkerThreads > 0, "theWorkerThreads must be greater than 0");
+		myWorkerThreads = theWorkerThreads;
+	}
+
+}
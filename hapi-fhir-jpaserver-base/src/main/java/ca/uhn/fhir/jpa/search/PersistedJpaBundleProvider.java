@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.search;
  * #L%
  */
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -36,7 +38,6 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -55,14 +56,19 @@ import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchResult;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.model.primitive.InstantDt;
-import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPagingCursorBundleProvider;
 
-public final class PersistedJpaBundleProvider implements IBundleProvider {
+public final class PersistedJpaBundleProvider implements IPersistedBundleProvider, IPagingCursorBundleProvider {
 
 	private FhirContext myContext;
 	private IDao myDao;
 	private EntityManager myEntityManager;
+	private String myNextPageCursor;
+	private Integer myPageCursorIndex;
+	private Long myPageCursorPid;
+	private Date myPageCursorUpdated;
 	private PlatformTransactionManager myPlatformTransactionManager;
+	private String myPreviousPageCursor;
 	private ISearchDao mySearchDao;
 	private Search mySearchEntity;
 	private ISearchResultDao mySearchResultDao;
@@ -95,21 +101,79 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		if (mySearchEntity.getLastUpdatedHigh() != null) {
 			predicates.add(cb.lessThanOrEqualTo(from.get("myUpdated").as(Date.class), mySearchEntity.getLastUpdatedHigh()));
 		}
+
+		/*
+		 * If the paging link carried a cursor for an entry right next to this page, or if this page
+		 * starts right after the last page we stored a cursor for, seek past that entry using the
+		 * (RES_UPDATED, PID) ordering instead of skipping over all of the earlier entries with an offset
+		 */
+		boolean seekForward = false;
+		boolean seekBackward = false;
+		Date cursorUpdated = null;
+		Long cursorPid = null;
+		if (myPageCursorIndex != null) {
+			seekForward = myPageCursorIndex + 1 == theFromIndex;
+			seekBackward = myPageCursorIndex == theToIndex;
+			cursorUpdated = myPageCursorUpdated;
+			cursorPid = myPageCursorPid;
+		} else if (mySearchEntity.getHistoryCursorOffset() != null && mySearchEntity.getHistoryCursorOffset() == theFromIndex && theFromIndex > 0) {
+			seekForward = true;
+			cursorUpdated = mySearchEntity.getHistoryCursorUpdated();
+			cursorPid = mySearchEntity.getHistoryCursorPid();
+		}
+		if (seekForward) {
+			predicates.add(cb.lessThanOrEqualTo(from.get("myUpdated").as(Date.class), cursorUpdated));
+			predicates.add(cb.or(cb.lessThan(from.get("myUpdated").as(Date.class), cursorUpdated), cb.lessThan(from.get("myId").as(Long.class), cursorPid)));
+		} else if (seekBackward) {
+			predicates.add(cb.greaterThanOrEqualTo(from.get("myUpdated").as(Date.class), cursorUpdated));
+			predicates.add(cb.or(cb.greaterThan(from.get("myUpdated").as(Date.class), cursorUpdated), cb.greaterThan(from.get("myId").as(Long.class), cursorPid)));
+		}
 		
 		if (predicates.size() > 0) {
 			q.where(predicates.toArray(new Predicate[predicates.size()]));
 		}
 		
-		q.orderBy(cb.desc(from.get("myUpdated")));
+		if (seekBackward) {
+			// Read the entries before the cursor closest first, and put them back in order below
+			q.orderBy(cb.asc(from.get("myUpdated")), cb.asc(from.get("myId")));
+		} else {
+			q.orderBy(cb.desc(from.get("myUpdated")), cb.desc(from.get("myId")));
+		}
 		
 		TypedQuery<ResourceHistoryTable> query = myEntityManager.createQuery(q);
 
 		if (theToIndex - theFromIndex > 0) {
-			query.setFirstResult(theFromIndex);
+			if (!seekForward && !seekBackward) {
+				query.setFirstResult(theFromIndex);
+			}
 			query.setMaxResults(theToIndex - theFromIndex);
 		}
 		
 		results = query.getResultList();
+		if (seekBackward) {
+			results = new ArrayList<ResourceHistoryTable>(results);
+			Collections.reverse(results);
+		}
+
+		myNextPageCursor = null;
+		myPreviousPageCursor = null;
+		if (results.size() > 0) {
+			ResourceHistoryTable first = results.get(0);
+			ResourceHistoryTable last = results.get(results.size() - 1);
+			int lastIndex = theFromIndex + results.size() - 1;
+			myPreviousPageCursor = formatCursor(theFromIndex, first.getUpdatedDate(), first.getId());
+			myNextPageCursor = formatCursor(lastIndex, last.getUpdatedDate(), last.getId());
+
+			/*
+			 * Also store the cursor on the search, for clients which page without the cursor in the
+			 * link. Clients which follow our links supply the cursor themselves, so the search row
+			 * is not written for them, and it is not written again if the cursor has not moved.
+			 */
+			if (myPageCursorIndex == null && !isHistoryCursorStored(lastIndex + 1, last.getUpdatedDate(), last.getId())) {
+				mySearchEntity.setHistoryCursor(lastIndex + 1, last.getUpdatedDate(), last.getId());
+				mySearchEntity = myEntityManager.merge(mySearchEntity);
+			}
+		}
 		
 		ArrayList<IBaseResource> retVal = new ArrayList<IBaseResource>();
 		for (ResourceHistoryTable next : results) {
@@ -124,12 +188,12 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 
 	protected List<IBaseResource> doSearchOrEverythingInTransaction(final int theFromIndex, final int theToIndex) {
 
-		Pageable page = toPage(theFromIndex, theToIndex);
-		if (page == null) {
+		if (theToIndex - theFromIndex < 1) {
 			return Collections.emptyList();
 		}
 
-		Page<SearchResult> search = mySearchResultDao.findWithSearchUuid(mySearchEntity, page);
+		// Results are stored with consecutive order values, so the page can be read using the (SEARCH_PID, SEARCH_ORDER) index
+		List<SearchResult> search = mySearchResultDao.findWithSearchUuidAndOrderRange(mySearchEntity, theFromIndex, theToIndex);
 
 		List<Long> pidsSubList = new ArrayList<Long>();
 		for (SearchResult next : search) {
@@ -190,6 +254,16 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		}
 	}
 
+	@Override
+	public String getNextPageCursor() {
+		return myNextPageCursor;
+	}
+
+	@Override
+	public String getPreviousPageCursor() {
+		return myPreviousPageCursor;
+	}
+
 	@Override
 	public InstantDt getPublished() {
 		ensureSearchEntityLoaded();
@@ -220,6 +294,21 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		});
 	}
 
+	private boolean isHistoryCursorStored(int theOffset, Date theUpdated, Long thePid) {
+		Integer offset = mySearchEntity.getHistoryCursorOffset();
+		Date updated = mySearchEntity.getHistoryCursorUpdated();
+		Long pid = mySearchEntity.getHistoryCursorPid();
+		return offset != null && offset == theOffset && updated != null && updated.getTime() == theUpdated.getTime() && thePid.equals(pid);
+	}
+
+	/**
+	 * Returns the type of the search, which must have been loaded
+	 */
+	SearchTypeEnum getSearchType() {
+		return mySearchEntity.getSearchType();
+	}
+
+	@Override
 	public String getSearchUuid() {
 		return myUuid;
 	}
@@ -230,6 +319,37 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		return mySearchEntity.getPreferredPageSize();
 	}
 
+	/**
+	 * Accepts a cursor created by {@link #getNextPageCursor()} or {@link #getPreviousPageCursor()}.
+	 * A cursor which can not be parsed is ignored, and the page is read using its offset.
+	 */
+	@Override
+	public void setPageCursor(String theCursor) {
+		myPageCursorIndex = null;
+		myPageCursorUpdated = null;
+		myPageCursorPid = null;
+		if (isBlank(theCursor)) {
+			return;
+		}
+
+		String[] parts = theCursor.split("-");
+		if (parts.length != 3) {
+			return;
+		}
+		try {
+			int index = Integer.parseInt(parts[0]);
+			long updated = Long.parseLong(parts[1]);
+			long pid = Long.parseLong(parts[2]);
+			if (index >= 0) {
+				myPageCursorIndex = index;
+				myPageCursorUpdated = new Date(updated);
+				myPageCursorPid = pid;
+			}
+		} catch (NumberFormatException e) {
+			// Fall back to the offset
+		}
+	}
+
 	public void setContext(FhirContext theContext) {
 		myContext = theContext;
 	}
@@ -256,6 +376,13 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		return Math.max(0, mySearchEntity.getTotalCount());
 	}
 
+	/**
+	 * Creates a paging cursor for the history entry with the given index, update time and PID
+	 */
+	static String formatCursor(int theIndex, Date theUpdated, Long thePid) {
+		return theIndex + "-" + theUpdated.getTime() + "-" + thePid;
+	}
+
 	public static Pageable toPage(final int theFromIndex, int theToIndex) {
 		int pageSize = theToIndex - theFromIndex;
 		if (pageSize < 1) {
@@ -0,0 +1,122 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.hibernate.search.filter.FullTextFilterImplementation;
+import org.hibernate.search.spi.BuildContext;
+import org.hibernate.search.store.ShardIdentifierProviderTemplate;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Puts each resource type in its own shard of the resource fulltext index.
+ * <p>
+ * Shards are created as resources of a new type are indexed. Queries use the shards named by the
+ * {@link #FILTER_NAME} filter's {@link #FILTER_PARAM_RESOURCE_TYPES} parameter if it is enabled, or
+ * all shards otherwise. Shards which were written before startup are found by looking for their
+ * directories in the {@link #PROP_INDEX_BASE index base directory}, so that they are included in
+ * queries which do not enable the filter.
+ * </p>
+ *
+ * @see FulltextIndexingProperties#setShardByResourceType(boolean)
+ */
+public class ResourceTypeShardIdentifierProvider extends ShardIdentifierProviderTemplate {
+
+	/**
+	 * Name of the shard selection filter defined on {@link ca.uhn.fhir.jpa.entity.ResourceTable}
+	 */
+	public static final String FILTER_NAME = "resourceTypeShards";
+
+	/**
+	 * Parameter of the {@link #FILTER_NAME} filter, a {@link Collection} of resource type names
+	 */
+	public static final String FILTER_PARAM_RESOURCE_TYPES = "resourceTypes";
+
+	/**
+	 * Sharding strategy property naming the directory which contains the index directories, if they
+	 * are stored in the filesystem. This is set by {@link FulltextIndexingProperties#addTo(Properties)}.
+	 */
+	public static final String PROP_INDEX_BASE = "indexBase";
+
+	private static final String RESOURCE_TYPE_FIELD = "myResourceType";
+
+	@Override
+	public String getShardIdentifier(Class<?> theEntityType, Serializable theId, Document theDocument) {
+		String retVal = theDocument.get(RESOURCE_TYPE_FIELD);
+		if (isBlank(retVal)) {
+			throw new InternalErrorException("Unable to determine the resource type of " + theEntityType.getSimpleName() + " " + theId + " for indexing");
+		}
+		addShard(retVal);
+		return retVal;
+	}
+
+	@Override
+	public Set<String> getShardIdentifiersForQuery(FullTextFilterImplementation[] theFullTextFilters) {
+		if (theFullTextFilters != null) {
+			for (FullTextFilterImplementation next : theFullTextFilters) {
+				if (FILTER_NAME.equals(next.getName())) {
+					Object types = next.getParameter(FILTER_PARAM_RESOURCE_TYPES);
+					if (types instanceof Collection) {
+						Set<String> retVal = new HashSet<String>();
+						for (Object nextType : (Collection<?>) types) {
+							retVal.add((String) nextType);
+						}
+						return retVal;
+					}
+				}
+			}
+		}
+		return getAllShardIdentifiers();
+	}
+
+	@Override
+	protected Set<String> loadInitialShardNames(Properties theProperties, BuildContext theBuildContext) {
+		Set<String> retVal = new HashSet<String>();
+
+		String indexBase = theProperties.getProperty(PROP_INDEX_BASE);
+		if (isBlank(indexBase)) {
+			return retVal;
+		}
+
+		// Each shard is stored in a directory named after the index and the shard
+		String prefix = FulltextIndexingProperties.RESOURCE_INDEX_NAME + ".";
+		File[] files = new File(indexBase).listFiles();
+		if (files != null) {
+			for (File next : files) {
+				if (next.isDirectory() && next.getName().startsWith(prefix) && next.getName().length() > prefix.length()) {
+					retVal.add(next.getName().substring(prefix.length()));
+				}
+			}
+		}
+		return retVal;
+	}
+
+}
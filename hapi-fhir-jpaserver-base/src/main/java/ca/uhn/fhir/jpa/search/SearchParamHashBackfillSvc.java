@@ -0,0 +1,193 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamUri;
+
+/**
+ * Populates the hash columns of the token, string and URI index tables for rows which
+ * were saved before those columns existed. Each table is walked once in primary key order,
+ * one batch at a time, so every batch is a range scan on the primary key. New rows get
+ * their hashes when they are saved, so once every table has been walked the polling
+ * task is cancelled.
+ * 
+ * @see DaoConfig#setHashIndexSearchEnabled(boolean)
+ */
+public class SearchParamHashBackfillSvc {
+	private static final int BATCH_SIZE = 1000;
+	private static final long POLL_DELAY_MILLIS = 10 * DateUtils.MILLIS_PER_SECOND;
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchParamHashBackfillSvc.class);
+
+	private final Set<Class<?>> myCompletedTypes = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+
+	private final ConcurrentMap<Class<?>, Long> myLastPids = new ConcurrentHashMap<Class<?>, Long>();
+
+	private volatile ScheduledFuture<?> myPollTask;
+
+	@Autowired
+	@Qualifier("taskScheduler")
+	private TaskScheduler myTaskScheduler;
+
+	@Autowired
+	private PlatformTransactionManager myTransactionManager;
+
+	/**
+	 * Populates the hashes for the next batch of rows in each table which has not been
+	 * walked completely yet. Once a table has been walked, later calls only look at rows
+	 * added since.
+	 * 
+	 * @return The number of rows which were examined, which is <code>0</code> once there
+	 *         are no rows left to examine
+	 */
+	public int backfillHashes() {
+		return backfillHashes(false);
+	}
+
+	private synchronized int backfillHashes(boolean theSkipCompletedTypes) {
+		int retVal = 0;
+		retVal += backfillHashes(ResourceIndexedSearchParamToken.class, "myHashSystemAndValue", theSkipCompletedTypes);
+		retVal += backfillHashes(ResourceIndexedSearchParamString.class, "myHashNormalizedPrefix", theSkipCompletedTypes);
+		retVal += backfillHashes(ResourceIndexedSearchParamUri.class, "myHashUri", theSkipCompletedTypes);
+		return retVal;
+	}
+
+	private int backfillHashes(final Class<? extends BaseResourceIndexedSearchParam> theType, final String theHashField, boolean theSkipIfCompleted) {
+		if (theSkipIfCompleted && myCompletedTypes.contains(theType)) {
+			return 0;
+		}
+
+		Long lastPid = myLastPids.get(theType);
+		final long fromPid = lastPid != null ? lastPid : -1L;
+
+		TransactionTemplate tt = new TransactionTemplate(myTransactionManager);
+		List<Long> pids = tt.execute(new TransactionCallback<List<Long>>() {
+			@Override
+			public List<Long> doInTransaction(TransactionStatus theStatus) {
+				String pidSql = "SELECT p.myId FROM " + theType.getSimpleName() + " p WHERE p.myId > :lastPid ORDER BY p.myId";
+				TypedQuery<Long> pidQuery = myEntityManager.createQuery(pidSql, Long.class);
+				pidQuery.setParameter("lastPid", fromPid);
+				pidQuery.setMaxResults(BATCH_SIZE);
+				List<Long> retVal = pidQuery.getResultList();
+				if (retVal.isEmpty()) {
+					return retVal;
+				}
+
+				String sql = "SELECT p FROM " + theType.getSimpleName() + " p WHERE p.myId > :lastPid AND p.myId <= :maxPid AND p." + theHashField + " IS NULL";
+				TypedQuery<? extends BaseResourceIndexedSearchParam> q = myEntityManager.createQuery(sql, theType);
+				q.setParameter("lastPid", fromPid);
+				q.setParameter("maxPid", retVal.get(retVal.size() - 1));
+				List<? extends BaseResourceIndexedSearchParam> rows = q.getResultList();
+				for (BaseResourceIndexedSearchParam next : rows) {
+					next.calculateHashes();
+				}
+				if (rows.size() > 0) {
+					ourLog.info("Populated index hashes for {} {} rows", rows.size(), theType.getSimpleName());
+				}
+				return retVal;
+			}
+		});
+
+		if (!pids.isEmpty()) {
+			myLastPids.put(theType, pids.get(pids.size() - 1));
+		}
+		if (pids.size() < BATCH_SIZE) {
+			if (myCompletedTypes.add(theType)) {
+				ourLog.info("All {} rows have index hashes", theType.getSimpleName());
+			}
+		}
+		return pids.size();
+	}
+
+	/**
+	 * Returns <code>true</code> once every row in the token, string and URI index tables has
+	 * its hashes populated
+	 */
+	public boolean isComplete() {
+		return myCompletedTypes.size() == 3;
+	}
+
+	public void pollForRowsWithoutHashes() {
+		if (myDaoConfig.isSchedulingDisabled()) {
+			return;
+		}
+		if (!isComplete()) {
+			backfillHashes(true);
+		}
+		if (isComplete()) {
+			stopPolling();
+		}
+	}
+
+	@PostConstruct
+	public void startPolling() {
+		myPollTask = myTaskScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				pollForRowsWithoutHashes();
+			}
+		}, new Date(System.currentTimeMillis() + POLL_DELAY_MILLIS), POLL_DELAY_MILLIS);
+	}
+
+	@PreDestroy
+	public void stopPolling() {
+		ScheduledFuture<?> pollTask = myPollTask;
+		if (pollTask != null) {
+			pollTask.cancel(false);
+			myPollTask = null;
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package ca.uhn.fhir.jpa.util.jsonpatch;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * Creates and applies JSON Patch (RFC 6902) documents describing the difference between
+ * two JSON documents. Only the <code>add</code>, <code>remove</code> and <code>replace</code>
+ * operations are generated or understood.
+ * <p>
+ * Objects are compared member by member and arrays item by item, so a change deep inside
+ * a document produces a single small operation. Note that members added to an object are
+ * added at the end of it, so the patched document has the same content as the target
+ * document but not necessarily the same member order.
+ * </p>
+ */
+public class JsonPatchDiffUtils {
+
+	/**
+	 * Applies a patch created by {@link #diff(JsonElement, JsonElement)} to the given document,
+	 * which is modified in place
+	 *
+	 * @return The patched document (which is only a different instance if the whole document was replaced)
+	 */
+	public static JsonElement apply(JsonElement theDocument, JsonArray thePatch) {
+		JsonElement retVal = theDocument;
+		for (JsonElement nextOpElement : thePatch) {
+			JsonObject nextOp = nextOpElement.getAsJsonObject();
+			String op = nextOp.get("op").getAsString();
+			List<String> path = parsePath(nextOp.get("path").getAsString());
+			JsonElement value = nextOp.get("value");
+
+			if (path.isEmpty()) {
+				if (!"replace".equals(op)) {
+					throw new DataFormatException("Invalid operation on document root: " + op);
+				}
+				retVal = value;
+				continue;
+			}
+
+			JsonElement parent = retVal;
+			for (int i = 0; i < path.size() - 1; i++) {
+				parent = getChild(parent, path.get(i));
+			}
+			String name = path.get(path.size() - 1);
+
+			if (parent.isJsonObject()) {
+				JsonObject parentObject = parent.getAsJsonObject();
+				if ("remove".equals(op)) {
+					parentObject.remove(name);
+				} else if ("add".equals(op) || "replace".equals(op)) {
+					parentObject.add(name, value);
+				} else {
+					throw new DataFormatException("Invalid JSON PATCH operation: " + op);
+				}
+			} else if (parent.isJsonArray()) {
+				JsonArray parentArray = parent.getAsJsonArray();
+				if ("add".equals(op)) {
+					int index = "-".equals(name) ? parentArray.size() : parseIndex(name);
+					insert(parentArray, index, value);
+				} else if ("remove".equals(op)) {
+					parentArray.remove(parseIndex(name));
+				} else if ("replace".equals(op)) {
+					parentArray.set(parseIndex(name), value);
+				} else {
+					throw new DataFormatException("Invalid JSON PATCH operation: " + op);
+				}
+			} else {
+				throw new DataFormatException("Invalid path in JSON PATCH: " + nextOp.get("path").getAsString());
+			}
+		}
+		return retVal;
+	}
+
+	private static void diff(JsonElement theFrom, JsonElement theTo, String thePath, JsonArray theOps) {
+		if (theFrom.equals(theTo)) {
+			return;
+		}
+
+		if (theFrom.isJsonObject() && theTo.isJsonObject()) {
+			JsonObject from = theFrom.getAsJsonObject();
+			JsonObject to = theTo.getAsJsonObject();
+			for (Entry<String, JsonElement> next : from.entrySet()) {
+				if (!to.has(next.getKey())) {
+					theOps.add(newOp("remove", thePath + '/' + escape(next.getKey()), null));
+				}
+			}
+			for (Entry<String, JsonElement> next : to.entrySet()) {
+				String path = thePath + '/' + escape(next.getKey());
+				if (from.has(next.getKey())) {
+					diff(from.get(next.getKey()), next.getValue(), path, theOps);
+				} else {
+					theOps.add(newOp("add", path, next.getValue()));
+				}
+			}
+			return;
+		}
+
+		if (theFrom.isJsonArray() && theTo.isJsonArray()) {
+			JsonArray from = theFrom.getAsJsonArray();
+			JsonArray to = theTo.getAsJsonArray();
+			int common = Math.min(from.size(), to.size());
+			for (int i = 0; i < common; i++) {
+				diff(from.get(i), to.get(i), thePath + '/' + i, theOps);
+			}
+			for (int i = common; i < to.size(); i++) {
+				theOps.add(newOp("add", thePath + "/-", to.get(i)));
+			}
+			for (int i = from.size() - 1; i >= common; i--) {
+				theOps.add(newOp("remove", thePath + '/' + i, null));
+			}
+			return;
+		}
+
+		theOps.add(newOp("replace", thePath, theTo));
+	}
+
+	/**
+	 * Returns a patch which turns the first document into the second one. Neither
+	 * document is modified.
+	 */
+	public static JsonArray diff(JsonElement theFrom, JsonElement theTo) {
+		JsonArray retVal = new JsonArray();
+		diff(theFrom, theTo, "", retVal);
+		return retVal;
+	}
+
+	private static String escape(String theName) {
+		return theName.replace("~", "~0").replace("/", "~1");
+	}
+
+	private static JsonElement getChild(JsonElement theParent, String theName) {
+		JsonElement retVal = null;
+		if (theParent.isJsonObject()) {
+			retVal = theParent.getAsJsonObject().get(theName);
+		} else if (theParent.isJsonArray()) {
+			retVal = theParent.getAsJsonArray().get(parseIndex(theName));
+		}
+		if (retVal == null) {
+			throw new DataFormatException("Invalid path in JSON PATCH, no element: " + theName);
+		}
+		return retVal;
+	}
+
+	private static void insert(JsonArray theArray, int theIndex, JsonElement theValue) {
+		theArray.add(theValue);
+		for (int i = theArray.size() - 1; i > theIndex; i--) {
+			theArray.set(i, theArray.get(i - 1));
+		}
+		theArray.set(theIndex, theValue);
+	}
+
+	private static JsonObject newOp(String theOp, String thePath, JsonElement theValue) {
+		JsonObject retVal = new JsonObject();
+		retVal.addProperty("op", theOp);
+		retVal.addProperty("path", thePath);
+		if (theValue != null) {
+			retVal.add("value", theValue);
+		}
+		return retVal;
+	}
+
+	private static int parseIndex(String theName) {
+		try {
+			return Integer.parseInt(theName);
+		} catch (NumberFormatException e) {
+			throw new DataFormatException("Invalid array index in JSON PATCH: " + theName);
+		}
+	}
+
+	private static List<String> parsePath(String thePath) {
+		List<String> retVal = new ArrayList<String>();
+		if (thePath.length() == 0) {
+			return retVal;
+		}
+		if (thePath.charAt(0) != '/') {
+			throw new DataFormatException("Invalid path in JSON PATCH: " + thePath);
+		}
+		for (String next : thePath.substring(1).split("/", -1)) {
+			retVal.add(next.replace("~1", "/").replace("~0", "~"));
+		}
+		return retVal;
+	}
+
+}
@@ -0,0 +1,109 @@
+package ca.uhn.fhir.jpa.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReadReplicaRoutingDataSourceTest {
+
+	private DataSource myPrimary = mock(DataSource.class);
+	private DataSource myReplica0 = mock(DataSource.class);
+	private DataSource myReplica1 = mock(DataSource.class);
+	private Map<DataSource, Timestamp> myLastUpdated = new HashMap<DataSource, Timestamp>();
+
+	@After
+	public void after() {
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(false);
+	}
+
+	private ReadReplicaRoutingDataSource newDataSource() {
+		ReadReplicaRoutingDataSource retVal = new ReadReplicaRoutingDataSource(myPrimary, Arrays.asList(myReplica0, myReplica1)) {
+			@Override
+			protected Timestamp queryLastUpdated(DataSource theDataSource) throws SQLException {
+				if (!myLastUpdated.containsKey(theDataSource)) {
+					throw new SQLException("Unreachable");
+				}
+				return myLastUpdated.get(theDataSource);
+			}
+
+			@Override
+			protected Timestamp writeHeartbeat(DataSource thePrimary) throws SQLException {
+				return queryLastUpdated(thePrimary);
+			}
+		};
+		retVal.afterPropertiesSet();
+		return retVal;
+	}
+
+	@Test
+	public void testPrimaryUnlessReplicaAllowed() {
+		myLastUpdated.put(myPrimary, new Timestamp(10000));
+		myLastUpdated.put(myReplica0, new Timestamp(10000));
+		myLastUpdated.put(myReplica1, new Timestamp(10000));
+		ReadReplicaRoutingDataSource ds = newDataSource();
+
+		assertEquals(ReadReplicaRoutingDataSource.PRIMARY_KEY, ds.determineCurrentLookupKey());
+
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(true);
+		String first = (String) ds.determineCurrentLookupKey();
+		String second = (String) ds.determineCurrentLookupKey();
+		assertEquals(ReadReplicaRoutingDataSource.REPLICA_KEY_PREFIX, first.substring(0, first.length() - 1));
+		assertEquals(ReadReplicaRoutingDataSource.REPLICA_KEY_PREFIX, second.substring(0, second.length() - 1));
+		assertNotEquals(first, second);
+	}
+
+	@Test
+	public void testIsVisibleOnReplicas() {
+		ReadReplicaRoutingDataSource ds = newDataSource();
+		ds.setMaxReplicaLagMillis(1000);
+		long now = System.currentTimeMillis();
+		assertFalse(ds.isVisibleOnReplicas(new Date(now)));
+		assertFalse(ds.isVisibleOnReplicas(new Date(now - 1000 - ReadReplicaRoutingDataSource.LAG_CHECK_INTERVAL_MILLIS + 500)));
+		assertTrue(ds.isVisibleOnReplicas(new Date(now - 1000 - ReadReplicaRoutingDataSource.LAG_CHECK_INTERVAL_MILLIS - 500)));
+	}
+
+	@Test
+	public void testLaggingReplicaNotUsed() {
+		myLastUpdated.put(myPrimary, new Timestamp(100000));
+		myLastUpdated.put(myReplica0, new Timestamp(10000));
+		myLastUpdated.put(myReplica1, new Timestamp(99000));
+		ReadReplicaRoutingDataSource ds = newDataSource();
+		assertEquals(90000, ds.getReplicaLagMillis(0));
+		assertEquals(1000, ds.getReplicaLagMillis(1));
+
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(true);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(ReadReplicaRoutingDataSource.REPLICA_KEY_PREFIX + "1", ds.determineCurrentLookupKey());
+		}
+
+		// Both replicas lagging, or unreachable
+		ds.setMaxReplicaLagMillis(500);
+		assertEquals(ReadReplicaRoutingDataSource.PRIMARY_KEY, ds.determineCurrentLookupKey());
+		ds.setMaxReplicaLagMillis(5000);
+		myLastUpdated.remove(myReplica1);
+		ds.checkReplicaLag();
+		assertEquals(Long.MAX_VALUE, ds.getReplicaLagMillis(1));
+		assertEquals(ReadReplicaRoutingDataSource.PRIMARY_KEY, ds.determineCurrentLookupKey());
+
+		// Primary unreachable
+		myLastUpdated.put(myReplica1, new Timestamp(99000));
+		myLastUpdated.remove(myPrimary);
+		ds.checkReplicaLag();
+		assertEquals(ReadReplicaRoutingDataSource.PRIMARY_KEY, ds.determineCurrentLookupKey());
+	}
+
+}
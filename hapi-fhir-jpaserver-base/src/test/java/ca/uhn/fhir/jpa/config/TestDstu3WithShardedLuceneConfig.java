@@ -0,0 +1,57 @@
+package ca.uhn.fhir.jpa.config;
+
+import java.util.Properties;
+
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import ca.uhn.fhir.jpa.dao.FulltextSearchSvcImpl;
+import ca.uhn.fhir.jpa.dao.IFulltextSearchSvc;
+import ca.uhn.fhir.jpa.search.FulltextIndexingProperties;
+
+@Configuration
+@EnableTransactionManagement()
+public class TestDstu3WithShardedLuceneConfig extends TestDstu3Config {
+
+	@Override
+	@Bean()
+	public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
+		LocalContainerEntityManagerFactoryBean retVal = new LocalContainerEntityManagerFactoryBean();
+		retVal.setPersistenceUnitName("PU_HapiFhirJpaDstu3");
+		retVal.setDataSource(dataSource());
+		retVal.setPackagesToScan("ca.uhn.fhir.jpa.entity");
+		retVal.setPersistenceProvider(new HibernatePersistenceProvider());
+		retVal.setJpaProperties(jpaProperties());
+		return retVal;
+	}
+
+	@Override
+	@Bean(autowire = Autowire.BY_TYPE)
+	public IFulltextSearchSvc searchDaoDstu3() {
+		FulltextSearchSvcImpl searchDao = new FulltextSearchSvcImpl();
+		searchDao.setShardByResourceType(true);
+		return searchDao;
+	}
+
+	private Properties jpaProperties() {
+		Properties extraProperties = new Properties();
+		extraProperties.put("hibernate.jdbc.batch_size", "50");
+		extraProperties.put("hibernate.format_sql", "false");
+		extraProperties.put("hibernate.show_sql", "false");
+		extraProperties.put("hibernate.hbm2ddl.auto", "update");
+		extraProperties.put("hibernate.dialect", "org.hibernate.dialect.DerbyTenSevenDialect");
+		extraProperties.put("hibernate.search.default.directory_provider", "ram");
+		extraProperties.put("hibernate.search.lucene_version", "LUCENE_CURRENT");
+		extraProperties.put("hibernate.search.autoregister_listeners", "true");
+
+		FulltextIndexingProperties indexing = new FulltextIndexingProperties();
+		indexing.setShardByResourceType(true);
+		indexing.addTo(extraProperties);
+		return extraProperties;
+	}
+
+}
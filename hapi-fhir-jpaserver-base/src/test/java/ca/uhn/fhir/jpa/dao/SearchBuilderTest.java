@@ -5,6 +5,10 @@ import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.AfterClass;
 import org.junit.Test;
@@ -21,6 +25,22 @@ public class SearchBuilderTest {
 	}
 
 
+	@Test
+	public void testPadInClauseValues() {
+		assertEquals(Collections.emptyList(), SearchBuilder.padInClauseValues(Collections.<Long> emptyList()));
+		assertEquals(Arrays.asList(1L), SearchBuilder.padInClauseValues(Arrays.asList(1L)));
+		assertEquals(Arrays.asList(1L, 2L), SearchBuilder.padInClauseValues(Arrays.asList(1L, 2L)));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 3L), SearchBuilder.padInClauseValues(Arrays.asList(1L, 2L, 3L)));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), SearchBuilder.padInClauseValues(Arrays.asList(1L, 2L, 3L, 4L)));
+		assertEquals(8, SearchBuilder.padInClauseValues(Arrays.asList(1L, 2L, 3L, 4L, 5L)).size());
+
+		List<Long> large = new ArrayList<Long>();
+		for (long i = 0; i < SearchBuilder.MAX_PADDED_IN_CLAUSE_SIZE + 1; i++) {
+			large.add(i);
+		}
+		assertEquals(large, SearchBuilder.padInClauseValues(large));
+	}
+
 	@Test
 	public void testAA() {
 		assertTrue(123.00004f <= 123.0001f);
@@ -218,7 +218,12 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	public void beforeResetConfig() {
 		myDaoConfig.setHardSearchLimit(1000);
 		myDaoConfig.setHardTagListLimit(1000);
+		myDaoConfig.setHashIndexSearchEnabled(new DaoConfig().isHashIndexSearchEnabled());
+		myDaoConfig.setHistoryDeltaEncodingEnabled(new DaoConfig().isHistoryDeltaEncodingEnabled());
+		myDaoConfig.setHistorySnapshotInterval(new DaoConfig().getHistorySnapshotInterval());
 		myDaoConfig.setIncludeLimit(2000);
+		myDaoConfig.setPatientCompartmentIndexEnabled(new DaoConfig().isPatientCompartmentIndexEnabled());
+		myDaoConfig.setComboSearchParams(new DaoConfig().getComboSearchParams());
 	}
 
 	@Override
@@ -0,0 +1,215 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.ValueSet;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.search.SearchParamHashBackfillSvc;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+import ca.uhn.fhir.rest.param.UriParamQualifierEnum;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirResourceDaoDstu3SearchHashIndexTest extends BaseJpaDstu3Test {
+
+	@Autowired
+	private SearchParamHashBackfillSvc myHashBackfillSvc;
+
+	@Before
+	public void beforeEnableHashIndexSearch() {
+		myDaoConfig.setHashIndexSearchEnabled(true);
+	}
+
+	private IIdType createPatient(String theSystem, String theValue, String theFamily) {
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem(theSystem).setValue(theValue);
+		patient.addName().addFamily(theFamily);
+		return myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	private List<IIdType> searchPatients(String theParamName, IQueryParameterType theParam) {
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(theParamName, theParam);
+		return toUnqualifiedVersionlessIds(myPatientDao.search(map));
+	}
+
+	@Test
+	public void testHashesPopulatedOnSave() {
+		createPatient("urn:system", "testHashesPopulatedOnSave", "FAMILY");
+
+		for (ResourceIndexedSearchParamToken next : myEntityManager.createQuery("SELECT p FROM ResourceIndexedSearchParamToken p", ResourceIndexedSearchParamToken.class).getResultList()) {
+			assertNotNull(next.toString(), next.getHashSystem());
+			assertNotNull(next.toString(), next.getHashSystemAndValue());
+			assertNotNull(next.toString(), next.getHashValue());
+		}
+		for (ResourceIndexedSearchParamString next : myEntityManager.createQuery("SELECT p FROM ResourceIndexedSearchParamString p", ResourceIndexedSearchParamString.class).getResultList()) {
+			assertNotNull(next.toString(), next.getHashExact());
+			assertNotNull(next.toString(), next.getHashNormalizedPrefix());
+		}
+	}
+
+	@Test
+	public void testBackfillHashes() {
+		IIdType id = createPatient("urn:system", "testBackfillHashes", "FAMILY");
+		ValueSet vs = new ValueSet();
+		vs.setUrl("http://example.com/testBackfillHashes");
+		IIdType vsId = myValueSetDao.create(vs, mySrd).getId().toUnqualifiedVersionless();
+
+		// Simulate rows saved before the hash columns existed
+		newTxTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				myEntityManager.createQuery("UPDATE ResourceIndexedSearchParamToken p SET p.myHashSystem = null, p.myHashSystemAndValue = null, p.myHashValue = null").executeUpdate();
+				myEntityManager.createQuery("UPDATE ResourceIndexedSearchParamString p SET p.myHashExact = null, p.myHashNormalizedPrefix = null").executeUpdate();
+				myEntityManager.createQuery("UPDATE ResourceIndexedSearchParamUri p SET p.myHashUri = null").executeUpdate();
+			}
+		});
+
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testBackfillHashes")), empty());
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("FAMILY")), empty());
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://example.com/testBackfillHashes"))), empty());
+
+		int examined = 0;
+		int pass;
+		while ((pass = myHashBackfillSvc.backfillHashes()) > 0) {
+			examined += pass;
+		}
+		assertThat(examined, greaterThan(0));
+		assertTrue(myHashBackfillSvc.isComplete());
+
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testBackfillHashes")), containsInAnyOrder(id));
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("FAMILY")), containsInAnyOrder(id));
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://example.com/testBackfillHashes"))), containsInAnyOrder(vsId));
+	}
+
+	@Test
+	public void testSearchString() {
+		IIdType id1 = createPatient("urn:system", "1", "Smith");
+		IIdType id2 = createPatient("urn:system", "2", "SMITHERS");
+		createPatient("urn:system", "3", "Jones");
+
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("smith")), containsInAnyOrder(id1, id2));
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("SMITHE")), containsInAnyOrder(id2));
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("Smith").setExact(true)), containsInAnyOrder(id1));
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("smith").setExact(true)), empty());
+		assertThat(searchPatients(Patient.SP_FAMILY, new StringParam("Brown")), empty());
+
+		// Same value in a different parameter
+		assertThat(searchPatients(Patient.SP_GIVEN, new StringParam("Smith")), empty());
+	}
+
+	@Test
+	public void testSearchToken() {
+		IIdType id1 = createPatient("urn:system", "testSearchToken1", "FAMILY");
+		IIdType id2 = createPatient("urn:system", "testSearchToken2", "FAMILY");
+		IIdType id3 = createPatient("urn:system2", "testSearchToken2", "FAMILY");
+		IIdType id4 = createPatient(null, "testSearchToken2", "FAMILY");
+
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testSearchToken1")), containsInAnyOrder(id1));
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam(null, "testSearchToken2")), containsInAnyOrder(id2, id3, id4));
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("", "testSearchToken2")), containsInAnyOrder(id4));
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", null)), containsInAnyOrder(id1, id2));
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system2", "")), containsInAnyOrder(id3));
+		assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system3", "testSearchToken2")), empty());
+
+		TokenOrListParam listParam = new TokenOrListParam();
+		listParam.add("urn:system", "testSearchToken1");
+		listParam.add("urn:system2", "testSearchToken2");
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, listParam);
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(map)), containsInAnyOrder(id1, id3));
+	}
+
+	/**
+	 * Hashes and resource IDs are bound as parameters, so searches for different values produce the
+	 * same JPQL and reuse Hibernate's compiled query plan
+	 */
+	@Test
+	public void testSearchesForDifferentValuesProduceSameJpql() {
+		IIdType id1 = createPatient("urn:system", "testSameJpql1", "FAMILY");
+		IIdType id2 = createPatient("urn:system", "testSameJpql2", "FAMILY");
+
+		Statistics statistics = myEntityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		boolean statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		try {
+			// Warm up any caches which only query the first time
+			searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testSameJpql0"));
+
+			statistics.clear();
+			assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testSameJpql1")), containsInAnyOrder(id1));
+			Set<String> first = new HashSet<String>(Arrays.asList(statistics.getQueries()));
+
+			statistics.clear();
+			assertThat(searchPatients(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testSameJpql2")), containsInAnyOrder(id2));
+			Set<String> second = new HashSet<String>(Arrays.asList(statistics.getQueries()));
+
+			assertThat(first, not(empty()));
+			assertEquals(first, second);
+
+			String hash = Long.toString(ResourceIndexedSearchParamToken.calculateHashSystemAndValue("Patient", Patient.SP_IDENTIFIER, "urn:system", "testSameJpql1"));
+			String pid = id1.getIdPart();
+			for (String next : first) {
+				assertThat(next, not(containsString(hash)));
+				assertThat(next, not(containsString("(" + pid + ")")));
+			}
+		} finally {
+			statistics.setStatisticsEnabled(statisticsEnabled);
+		}
+	}
+
+	@Test
+	public void testSearchUri() {
+		ValueSet vs1 = new ValueSet();
+		vs1.setUrl("http://hl7.org/foo/baz");
+		IIdType id1 = myValueSetDao.create(vs1, mySrd).getId().toUnqualifiedVersionless();
+
+		ValueSet vs2 = new ValueSet();
+		vs2.setUrl("http://hl7.org/foo/bar");
+		IIdType id2 = myValueSetDao.create(vs2, mySrd).getId().toUnqualifiedVersionless();
+
+		ValueSet vs3 = new ValueSet();
+		vs3.setUrl("http://hl7.org/foo/bar/baz");
+		IIdType id3 = myValueSetDao.create(vs3, mySrd).getId().toUnqualifiedVersionless();
+
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://hl7.org/foo/bar"))), containsInAnyOrder(id2));
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://hl7.org/foo"))), empty());
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://hl7.org/foo/bar/baz/boz").setQualifier(UriParamQualifierEnum.ABOVE))), containsInAnyOrder(id2, id3));
+		assertThat(toUnqualifiedVersionlessIds(myValueSetDao.search(ValueSet.SP_URL, new UriParam("http://hl7.org/foo").setQualifier(UriParamQualifierEnum.BELOW))), containsInAnyOrder(id1, id2, id3));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -31,6 +31,7 @@ import org.hl7.fhir.dstu3.model.Bundle.BundleType;
 import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
 import org.hl7.fhir.dstu3.model.ContactPoint.ContactPointSystem;
 import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
 import org.hl7.fhir.dstu3.model.Subscription.SubscriptionChannelType;
 import org.hl7.fhir.dstu3.model.Subscription.SubscriptionStatus;
 import org.hl7.fhir.instance.model.api.IAnyResource;
@@ -45,6 +46,7 @@ import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.ComboSearchParamDefinition;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap.EverythingModeEnum;
 import ca.uhn.fhir.jpa.entity.*;
@@ -60,6 +62,7 @@ import ca.uhn.fhir.rest.param.*;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
 import ca.uhn.fhir.util.TestUtil;
 
 @SuppressWarnings("unchecked")
@@ -227,6 +230,213 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(orgId, medId, patId, moId));
 	}
 
+	@Test
+	public void testEverythingWithPatientCompartmentIndex() throws Exception {
+		myDaoConfig.setPatientCompartmentIndexEnabled(true);
+		String methodName = "testEverythingWithPatientCompartmentIndex";
+
+		Organization org = new Organization();
+		org.setName(methodName);
+		IIdType orgId = myOrganizationDao.create(org, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient pat = new Patient();
+		pat.addAddress().addLine(methodName);
+		pat.getManagingOrganization().setReferenceElement(orgId);
+		IIdType patId = myPatientDao.create(pat, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient pat2 = new Patient();
+		pat2.addAddress().addLine(methodName);
+		IIdType patId2 = myPatientDao.create(pat2, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(patId);
+		IIdType obsId = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.getSubject().setReferenceElement(patId2);
+		IIdType obsId2 = myObservationDao.create(obs2, mySrd).getId().toUnqualifiedVersionless();
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		IBundleProvider resp = myPatientDao.patientInstanceEverything(request, patId, null, null, null, null, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(orgId, patId, obsId));
+
+		resp = myPatientDao.patientTypeEverything(request, null, null, null, null, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(orgId, patId, obsId, patId2, obsId2));
+
+		// _type
+		resp = myPatientDao.patientInstanceEverything(request, patId, null, null, null, null, null, null, Collections.singleton("Observation"), mySrd);
+		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(obsId));
+
+		// _since
+		Thread.sleep(100);
+		InstantType since = InstantType.now();
+		Thread.sleep(100);
+		obs.setId(obsId);
+		obs.setStatus(ObservationStatus.FINAL);
+		myObservationDao.update(obs, mySrd);
+		resp = myPatientDao.patientInstanceEverything(request, patId, null, null, null, null, null, since, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(obsId));
+
+		// Deleted resources leave the compartment
+		myObservationDao.delete(obsId2, mySrd);
+		resp = myPatientDao.patientInstanceEverything(request, patId2, null, null, null, null, null, mySrd);
+		assertThat(toUnqualifiedVersionlessIds(resp), containsInAnyOrder(patId2));
+	}
+
+	@Test
+	public void testSearchInPatientCompartment() {
+		String methodName = "testSearchInPatientCompartment";
+
+		Patient pat = new Patient();
+		pat.addAddress().addLine(methodName);
+		IIdType patId = myPatientDao.create(pat, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient pat2 = new Patient();
+		pat2.addAddress().addLine(methodName);
+		IIdType patId2 = myPatientDao.create(pat2, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(patId);
+		obs.setStatus(ObservationStatus.FINAL);
+		IIdType obsId = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.getSubject().setReferenceElement(patId);
+		obs2.setStatus(ObservationStatus.PRELIMINARY);
+		IIdType obsId2 = myObservationDao.create(obs2, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs3 = new Observation();
+		obs3.getSubject().setReferenceElement(patId2);
+		obs3.setStatus(ObservationStatus.FINAL);
+		myObservationDao.create(obs3, mySrd);
+
+		for (boolean indexEnabled : new boolean[] { false, true }) {
+			myDaoConfig.setPatientCompartmentIndexEnabled(indexEnabled);
+
+			SearchParameterMap map = new SearchParameterMap();
+			map.setPatientCompartment(patId);
+			assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId, obsId2));
+
+			map = new SearchParameterMap();
+			map.setPatientCompartment(patId);
+			map.add(Observation.SP_STATUS, new TokenParam(null, "final"));
+			assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId));
+
+			map = new SearchParameterMap();
+			map.setPatientCompartment(new IdType("Patient/DOESNOTEXIST"));
+			assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), empty());
+		}
+	}
+
+	@Test
+	public void testSearchPagesAcrossResourceMatchingMultipleIndexRows() {
+		Substance sub1 = new Substance();
+		sub1.addInstance().setExpiryElement(new DateTimeType("2016-01-01T10:00:00Z"));
+		sub1.addInstance().setExpiryElement(new DateTimeType("2016-01-01T11:00:00Z"));
+		IIdType id1 = mySubstanceDao.create(sub1, mySrd).getId().toUnqualifiedVersionless();
+
+		Substance sub2 = new Substance();
+		sub2.addInstance().setExpiryElement(new DateTimeType("2016-01-02T10:00:00Z"));
+		IIdType id2 = mySubstanceDao.create(sub2, mySrd).getId().toUnqualifiedVersionless();
+
+		Substance sub3 = new Substance();
+		sub3.addInstance().setExpiryElement(new DateTimeType("2016-01-03T10:00:00Z"));
+		IIdType id3 = mySubstanceDao.create(sub3, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Substance.SP_EXPIRY, new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, "2015-01-01"));
+		IBundleProvider results = mySubstanceDao.search(map);
+		assertEquals(3, results.size());
+
+		List<IIdType> found = new ArrayList<IIdType>();
+		for (int i = 0; i < 3; i++) {
+			List<IBaseResource> page = results.getResources(i, i + 1);
+			assertEquals(1, page.size());
+			found.add(page.get(0).getIdElement().toUnqualifiedVersionless());
+		}
+		assertThat(found, containsInAnyOrder(id1, id2, id3));
+	}
+
+	@Test
+	public void testSearchWithComboSearchParam() {
+		List<ComboSearchParamDefinition> combos = new ArrayList<ComboSearchParamDefinition>();
+		combos.add(new ComboSearchParamDefinition("Observation", false, Observation.SP_SUBJECT, Observation.SP_CODE, Observation.SP_DATE));
+		combos.add(new ComboSearchParamDefinition("Patient", true, Patient.SP_FAMILY, Patient.SP_BIRTHDATE));
+		myDaoConfig.setComboSearchParams(combos);
+		String methodName = "testSearchWithComboSearchParam";
+
+		Patient pat = new Patient();
+		pat.addName().addFamily(methodName);
+		pat.setBirthDateElement(new DateType("1970-01-02"));
+		IIdType patId = myPatientDao.create(pat, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient pat2 = new Patient();
+		pat2.addName().addFamily(methodName);
+		pat2.setBirthDateElement(new DateType("1980-01-02"));
+		IIdType patId2 = myPatientDao.create(pat2, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs = new Observation();
+		obs.getSubject().setReferenceElement(patId);
+		obs.getCode().addCoding().setSystem("urn:system").setCode("FOO");
+		obs.setEffective(new DateTimeType("2016-10-01T10:00:00Z"));
+		IIdType obsId = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.getSubject().setReferenceElement(patId);
+		obs2.getCode().addCoding().setSystem("urn:system").setCode("BAR");
+		obs2.setEffective(new DateTimeType("2016-10-01T10:00:00Z"));
+		IIdType obsId2 = myObservationDao.create(obs2, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam(methodName, true));
+		map.add(Patient.SP_BIRTHDATE, new DateParam("1970-01-02"));
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(map)), containsInAnyOrder(patId));
+
+		map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam(methodName, true));
+		map.add(Patient.SP_BIRTHDATE, new DateOrListParam().addOr(new DateParam("1970-01-02")).addOr(new DateParam("1980-01-02")));
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(map)), containsInAnyOrder(patId, patId2));
+
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patId.getValue()));
+		map.add(Observation.SP_CODE, new TokenOrListParam("urn:system", "FOO", "BAZ"));
+		map.add(Observation.SP_DATE, new DateParam("2016-10-01"));
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId));
+
+		// Not handled by the combo index, but must still work
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patId.getValue()));
+		map.add(Observation.SP_CODE, new TokenParam(null, "BAR"));
+		map.add(Observation.SP_DATE, new DateParam("2016-10-01"));
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId2));
+
+		// Changed values are reindexed
+		obs.setEffective(new DateTimeType("2016-10-02T10:00:00Z"));
+		obs.setId(obsId);
+		myObservationDao.update(obs, mySrd);
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patId.getValue()));
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", "FOO"));
+		map.add(Observation.SP_DATE, new DateParam("2016-10-01"));
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), empty());
+
+		// Unique combo
+		Patient pat3 = new Patient();
+		pat3.addName().addFamily(methodName);
+		pat3.setBirthDateElement(new DateType("1970-01-02"));
+		try {
+			myPatientDao.create(pat3, mySrd);
+			fail();
+		} catch (PreconditionFailedException e) {
+			assertThat(e.getMessage(), containsString("resource with ID " + patId.getIdPartAsLong()));
+		}
+
+		// Deleting a resource frees its values
+		myPatientDao.delete(patId2, mySrd);
+		pat3.setBirthDateElement(new DateType("1980-01-02"));
+		myPatientDao.create(pat3, mySrd);
+	}
+
 	@Test
 	public void testIndexNoDuplicatesDate() {
 		Encounter order = new Encounter();
@@ -651,6 +861,67 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 
 	}
 
+	@Test
+	public void testSearchCountOnly() {
+		String methodName = "testSearchCountOnly";
+
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue(methodName);
+		patient.addName().addFamily(methodName);
+		IIdType patientId = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient patient2 = new Patient();
+		patient2.addIdentifier().setSystem("urn:system").setValue(methodName);
+		patient2.addName().addFamily("OTHER");
+		myPatientDao.create(patient2, mySrd);
+
+		for (int i = 0; i < 3; i++) {
+			Observation obs = new Observation();
+			obs.setSubject(new Reference(patientId));
+			obs.getCode().addCoding().setSystem("urn:system").setCode(methodName);
+			myObservationDao.create(obs, mySrd);
+		}
+
+		long searchesBefore = myEntityManager.createQuery("SELECT COUNT(s) FROM Search s", Long.class).getSingleResult();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setCountOnly(true);
+		IBundleProvider found = myObservationDao.search(map);
+		assertEquals(3, found.size());
+		assertEquals(0, found.getResources(0, 3).size());
+
+		map = new SearchParameterMap();
+		map.setCountOnly(true);
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", methodName));
+		assertEquals(2, myPatientDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.setCountOnly(true);
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", methodName));
+		map.add(Patient.SP_FAMILY, new StringParam(methodName));
+		assertEquals(1, myPatientDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.setCountOnly(true);
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", methodName));
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patientId.getValue()));
+		assertEquals(3, myObservationDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.setCountOnly(true);
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", methodName));
+		map.setLastUpdated(new DateRangeParam(new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, "2000-01-01")));
+		assertEquals(3, myObservationDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.setCountOnly(true);
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", "FOO"));
+		assertEquals(0, myObservationDao.search(map).size());
+
+		// Count-only searches are never persisted
+		assertEquals(searchesBefore, myEntityManager.createQuery("SELECT COUNT(s) FROM Search s", Long.class).getSingleResult().longValue());
+	}
+
 	@Test
 	public void testSearchCompositeParam() {
 		Observation o1 = new Observation();
@@ -1360,6 +1631,62 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 		assertEquals(locGrandchildId, found.getResources(0, 1).get(0).getIdElement().toUnqualifiedVersionless());
 	}
 
+	@Test
+	public void testSearchResourceLinkWithChainParamTypes() {
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue("testSearchResourceLinkWithChainParamTypes");
+		patient.setBirthDateElement(new DateType("2000-01-01"));
+		IIdType patientId = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient patient2 = new Patient();
+		patient2.setBirthDateElement(new DateType("1990-01-01"));
+		IIdType patientId2 = myPatientDao.create(patient2, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs = new Observation();
+		obs.setSubject(new Reference(patientId));
+		obs.setValue(new Quantity().setValue(100).setSystem("http://unitsofmeasure.org").setCode("kg"));
+		IIdType obsId = myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.setSubject(new Reference(patientId2));
+		IIdType obsId2 = myObservationDao.create(obs2, mySrd).getId().toUnqualifiedVersionless();
+
+		DiagnosticReport dr = new DiagnosticReport();
+		dr.addResult(new Reference(obsId));
+		IIdType drId = myDiagnosticReportDao.create(dr, mySrd).getId().toUnqualifiedVersionless();
+
+		ReferenceParam param = new ReferenceParam("ge2000-01-01");
+		param.setChain(Patient.SP_BIRTHDATE);
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(Observation.SP_SUBJECT, param)), containsInAnyOrder(obsId));
+
+		param = new ReferenceParam("urn:system|testSearchResourceLinkWithChainParamTypes");
+		param.setChain(Patient.SP_IDENTIFIER);
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(Observation.SP_SUBJECT, param)), containsInAnyOrder(obsId));
+
+		ReferenceOrListParam orParam = new ReferenceOrListParam();
+		orParam.add(new ReferenceParam(Patient.SP_BIRTHDATE, "2000-01-01"));
+		orParam.add(new ReferenceParam(Patient.SP_BIRTHDATE, "1990-01-01"));
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, orParam);
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId, obsId2));
+
+		param = new ReferenceParam("gt50||kg");
+		param.setChain(Observation.SP_VALUE_QUANTITY);
+		assertThat(toUnqualifiedVersionlessIds(myDiagnosticReportDao.search(DiagnosticReport.SP_RESULT, param)), containsInAnyOrder(drId));
+
+		param = new ReferenceParam("lt2000-01-01");
+		param.setChain("subject.birthdate");
+		assertThat(toUnqualifiedVersionlessIds(myDiagnosticReportDao.search(DiagnosticReport.SP_RESULT, param)), empty());
+
+		param = new ReferenceParam("2000-01-01");
+		param.setChain("subject.birthdate");
+		assertThat(toUnqualifiedVersionlessIds(myDiagnosticReportDao.search(DiagnosticReport.SP_RESULT, param)), containsInAnyOrder(drId));
+
+		Map<String, IQueryParameterType> params = new HashMap<String, IQueryParameterType>();
+		params.put("_has", new HasParam("Observation", "subject", "value-quantity", "gt50|http://unitsofmeasure.org|kg"));
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(params)), containsInAnyOrder(patientId));
+	}
+
 	@Test
 	public void testSearchResourceLinkWithChainWithMultipleTypes() throws Exception {
 		Patient patient = new Patient();
@@ -0,0 +1,101 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+
+import ca.uhn.fhir.jpa.config.TestDstu3WithShardedLuceneConfig;
+import ca.uhn.fhir.jpa.dao.FulltextSearchSvcImpl.Suggestion;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.rest.param.StringAndListParam;
+import ca.uhn.fhir.rest.param.StringOrListParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.util.TestUtil;
+
+@ContextConfiguration(classes = { TestDstu3WithShardedLuceneConfig.class }, inheritLocations = false)
+public class FhirResourceDaoDstu3SearchShardedFtTest extends BaseJpaDstu3Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoDstu3SearchShardedFtTest.class);
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@Test
+	public void testContentSearchReadsShardOfSearchedType() {
+		Patient pt1 = new Patient();
+		pt1.addName().addFamily("Sharded").addGiven("AAAS");
+		IIdType ptId1 = myPatientDao.create(pt1, mockSrd()).getId().toUnqualifiedVersionless();
+
+		Observation obs1 = new Observation();
+		obs1.getSubject().setReferenceElement(ptId1);
+		obs1.setValue(new StringType("AAAS"));
+		IIdType obsId1 = myObservationDao.create(obs1, mockSrd()).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.getSubject().setReferenceElement(ptId1);
+		obs2.setValue(new StringType("AAAB"));
+		myObservationDao.create(obs2, mockSrd());
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Constants.PARAM_CONTENT, new StringParam("AAAS"));
+		assertThat(toUnqualifiedVersionlessIds(myObservationDao.search(map)), containsInAnyOrder(obsId1));
+
+		map = new SearchParameterMap();
+		map.add(Constants.PARAM_CONTENT, new StringParam("AAAS"));
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(map)), containsInAnyOrder(ptId1));
+
+		map = new SearchParameterMap();
+		map.add(Constants.PARAM_CONTENT, new StringParam("AAAB"));
+		assertThat(toUnqualifiedVersionlessIds(myPatientDao.search(map)), empty());
+	}
+
+	@Test
+	public void testEverythingWithContentFilterReadsAllShards() {
+		Patient pt1 = new Patient();
+		pt1.addName().addFamily("Everything").addGiven("Arthur");
+		IIdType ptId1 = myPatientDao.create(pt1, mockSrd()).getId().toUnqualifiedVersionless();
+
+		Observation obs1 = new Observation();
+		obs1.getSubject().setReferenceElement(ptId1);
+		obs1.setValue(new StringType("obsvalue1"));
+		IIdType obsId1 = myObservationDao.create(obs1, mockSrd()).getId().toUnqualifiedVersionless();
+
+		Observation obs2 = new Observation();
+		obs2.getSubject().setReferenceElement(ptId1);
+		obs2.setValue(new StringType("obsvalue2"));
+		myObservationDao.create(obs2, mockSrd());
+
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		StringAndListParam param = new StringAndListParam();
+		param.addAnd(new StringOrListParam().addOr(new StringParam("obsvalue1")));
+		List<String> actual = toUnqualifiedVersionlessIdValues(myPatientDao.patientInstanceEverything(request, ptId1, null, null, null, param, null, mockSrd()));
+		assertThat(actual, containsInAnyOrder(toValues(ptId1, obsId1)));
+
+		List<Suggestion> output = mySearchDao.suggestKeywords("Patient/" + ptId1.getIdPart() + "/$everything", "_content", "obsvalue1");
+		ourLog.info("Found: " + output);
+		List<String> terms = new ArrayList<String>();
+		for (Suggestion next : output) {
+			terms.add(next.getTerm());
+		}
+		assertThat(terms, hasItem("obsvalue1"));
+	}
+
+}
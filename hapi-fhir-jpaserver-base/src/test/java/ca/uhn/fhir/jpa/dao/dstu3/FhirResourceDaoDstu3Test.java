@@ -34,6 +34,7 @@ import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.Matchers;
 import org.hamcrest.core.StringContains;
 import org.hl7.fhir.dstu3.model.Age;
@@ -91,10 +92,15 @@ import com.google.common.collect.Lists;
 
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.IDao;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
 import ca.uhn.fhir.jpa.entity.TagTypeEnum;
+import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
@@ -115,6 +121,7 @@ import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.StoredResourceBody;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
@@ -153,6 +160,13 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 		}
 	}
 	
+	private String encodeWithoutIdAndMeta(Patient thePatient) {
+		Patient copy = thePatient.copy();
+		copy.setId((String) null);
+		copy.setMeta(null);
+		return myFhirCtx.newJsonParser().encodeResourceToString(copy);
+	}
+
 	private List<String> extractNames(IBundleProvider theSearch) {
 		ArrayList<String> retVal = new ArrayList<String>();
 		for (IBaseResource next : theSearch.getResources(0, theSearch.size())) {
@@ -1428,6 +1442,57 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 		assertNotEquals(idv1, idv2);
 	}
 
+	@Test
+	public void testHistoryDeltaEncoding() throws Exception {
+		String methodName = "testHistoryDeltaEncoding";
+		myDaoConfig.setHistoryDeltaEncodingEnabled(true);
+		myDaoConfig.setHistorySnapshotInterval(3);
+
+		Patient patient = new Patient();
+		patient.getText().setDivAsString("<div>" + StringUtils.repeat(methodName, 20) + "</div>");
+		for (int i = 0; i < 10; i++) {
+			patient.addIdentifier().setSystem("urn:system").setValue(methodName + i);
+		}
+		patient.addName().addFamily(methodName);
+		patient.addAddress().addLine("LINE").setCity("CITY");
+		IIdType id = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		List<String> expected = new ArrayList<String>();
+		expected.add(encodeWithoutIdAndMeta(patient));
+		for (int i = 2; i <= 7; i++) {
+			patient.setId(id);
+			patient.getName().get(0).addGiven("GIVEN" + i);
+			patient.getAddress().get(0).setCity("CITY" + i);
+			if (i == 5) {
+				patient.getIdentifier().remove(3);
+			}
+			myPatientDao.update(patient, mySrd);
+			expected.add(encodeWithoutIdAndMeta(patient));
+		}
+
+		List<ResourceHistoryTable> entries = myEntityManager.createQuery("SELECT t FROM ResourceHistoryTable t WHERE t.myResourceId = :id ORDER BY t.myResourceVersion ASC", ResourceHistoryTable.class).setParameter("id", id.getIdPartAsLong()).getResultList();
+		assertEquals(7, entries.size());
+		List<ResourceEncodingEnum> encodings = new ArrayList<ResourceEncodingEnum>();
+		for (ResourceHistoryTable next : entries) {
+			encodings.add(next.getEncoding());
+		}
+		assertThat(encodings, contains(ResourceEncodingEnum.JSONC, ResourceEncodingEnum.DELTA, ResourceEncodingEnum.DELTA, ResourceEncodingEnum.JSONC, ResourceEncodingEnum.DELTA, ResourceEncodingEnum.DELTA, ResourceEncodingEnum.JSONC));
+		assertEquals(entries.get(0).getId(), entries.get(2).getDeltaBasePid());
+		assertEquals(entries.get(3).getId(), entries.get(5).getDeltaBasePid());
+
+		for (int i = 1; i <= 7; i++) {
+			Patient read = myPatientDao.read(id.withVersion(Integer.toString(i)), mySrd);
+			assertEquals(Integer.toString(i), read.getIdElement().getVersionIdPart());
+			assertEquals(expected.get(i - 1), encodeWithoutIdAndMeta(read));
+		}
+
+		// Entries stored as deltas can still be read once the setting is disabled again
+		myDaoConfig.setHistoryDeltaEncodingEnabled(false);
+		List<Patient> history = toList(myPatientDao.history(id, null, null, mySrd));
+		assertEquals(7, history.size());
+		assertEquals("CITY5", history.get(2).getAddress().get(0).getCity());
+	}
+
 	@Test
 	public void testHistoryOverMultiplePages() throws Exception {
 		String methodName = "testHistoryOverMultiplePages";
@@ -1578,6 +1643,86 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 
 	}
 
+	/**
+	 * Entries saved in one transaction share the same timestamp, so the cursor used to
+	 * seek to the next page needs the PID to tell them apart
+	 */
+	@Test
+	public void testHistoryPagingWithSameTimestamp() throws Exception {
+		String methodName = "testHistoryPagingWithSameTimestamp";
+
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < 10; i++) {
+			Patient patient = new Patient();
+			patient.addName().addFamily(methodName + i);
+			bundle.addEntry().setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+		}
+		mySystemDao.transaction(mySrd, bundle);
+
+		IBundleProvider history = myPatientDao.history((Date) null, null, mySrd);
+		List<IIdType> expected = toUnqualifiedVersionlessIds(history.getResources(0, 10));
+		assertEquals(10, expected.size());
+
+		// Page through a separate history search, each page seeks from the end of the previous one
+		history = myPatientDao.history((Date) null, null, mySrd);
+		List<IIdType> actual = new ArrayList<IIdType>();
+		for (int i = 0; i < 10; i += 3) {
+			actual.addAll(toUnqualifiedVersionlessIds(history.getResources(i, Math.min(i + 3, 10))));
+		}
+		assertEquals(expected, actual);
+
+		// Jumping to a page other than the next one falls back to an offset
+		assertEquals(expected.subList(4, 6), toUnqualifiedVersionlessIds(history.getResources(4, 6)));
+		assertEquals(expected.subList(6, 8), toUnqualifiedVersionlessIds(history.getResources(6, 8)));
+		assertEquals(expected.subList(2, 4), toUnqualifiedVersionlessIds(history.getResources(2, 4)));
+	}
+
+	/**
+	 * The cursors in the paging links let a new bundle provider, possibly on another server, seek
+	 * to the next or previous page without reading or writing the cursor stored on the search
+	 */
+	@Test
+	public void testHistoryPagingWithCursor() throws Exception {
+		String methodName = "testHistoryPagingWithCursor";
+
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < 9; i++) {
+			Patient patient = new Patient();
+			patient.addName().addFamily(methodName + i);
+			bundle.addEntry().setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+		}
+		mySystemDao.transaction(mySrd, bundle);
+
+		PersistedJpaBundleProvider history = (PersistedJpaBundleProvider) myPatientDao.history((Date) null, null, mySrd);
+		List<IIdType> expected = toUnqualifiedVersionlessIds(history.getResources(0, 9));
+		assertEquals(9, expected.size());
+
+		history.getResources(0, 3);
+		PersistedJpaBundleProvider page = new PersistedJpaBundleProvider(history.getSearchUuid(), (IDao) myPatientDao);
+		page.setPageCursor(history.getNextPageCursor());
+		assertEquals(expected.subList(3, 6), toUnqualifiedVersionlessIds(page.getResources(3, 6)));
+
+		String next = page.getNextPageCursor();
+		String previous = page.getPreviousPageCursor();
+
+		page = new PersistedJpaBundleProvider(history.getSearchUuid(), (IDao) myPatientDao);
+		page.setPageCursor(next);
+		assertEquals(expected.subList(6, 9), toUnqualifiedVersionlessIds(page.getResources(6, 9)));
+
+		page = new PersistedJpaBundleProvider(history.getSearchUuid(), (IDao) myPatientDao);
+		page.setPageCursor(previous);
+		assertEquals(expected.subList(0, 3), toUnqualifiedVersionlessIds(page.getResources(0, 3)));
+
+		// A cursor which doesn't lie next to the requested page, or can't be parsed, is ignored
+		page = new PersistedJpaBundleProvider(history.getSearchUuid(), (IDao) myPatientDao);
+		page.setPageCursor(next);
+		assertEquals(expected.subList(1, 4), toUnqualifiedVersionlessIds(page.getResources(1, 4)));
+		page.setPageCursor("foo");
+		assertEquals(expected.subList(2, 5), toUnqualifiedVersionlessIds(page.getResources(2, 5)));
+	}
+
 	@Test
 	public void testHistoryReflectsMetaOperations() throws Exception {
 		Patient inPatient = new Patient();
@@ -2292,6 +2437,28 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 
 	}
 
+	@Test
+	public void testReadWithStoredBody() {
+		Patient p1 = new Patient();
+		p1.addIdentifier().setSystem("urn:system").setValue("testReadWithStoredBody");
+		IIdType id = myPatientDao.create(p1, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient read = myPatientDao.read(id, mySrd);
+		assertNull(StoredResourceBody.getFromResource(read));
+
+		myDaoConfig.setStreamStoredResourceBodies(true);
+		try {
+			read = myPatientDao.read(id, mySrd);
+			StoredResourceBody body = StoredResourceBody.getFromResource(read);
+			assertNotNull(body);
+			assertTrue(body.isStoredFormOf(read));
+			assertEquals("1", body.getVersionId());
+			assertThat(body.getBody(), containsString("testReadWithStoredBody"));
+		} finally {
+			myDaoConfig.setStreamStoredResourceBodies(new DaoConfig().isStreamStoredResourceBodies());
+		}
+	}
+
 	@Test
 	public void testReadInvalidVersion() throws Exception {
 		String methodName = "testReadInvalidVersion";
@@ -2,17 +2,28 @@ package ca.uhn.fhir.jpa.dao.dstu3;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
+import org.hl7.fhir.dstu3.model.DateTimeType;
 import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Quantity;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamQuantity;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
 import ca.uhn.fhir.util.TestUtil;
@@ -45,5 +56,99 @@ public class SearchParamExtractorDstu3Test {
 		assertEquals("SYSTEM", token.getSystem());
 		assertEquals("CODE", token.getValue());
 	}
-	
+
+	@Test
+	public void testSinglePassExtractionMatchesPerPath() {
+		Observation obs = new Observation();
+		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
+		obs.getCode().addCoding().setSystem("SYSTEM2").setCode("CODE2");
+		obs.setValue(new Quantity().setValue(123).setSystem("http://unitsofmeasure.org").setCode("kg"));
+		obs.setEffective(new DateTimeType("2016-01-01"));
+		obs.getSubject().setReference("Patient/123");
+
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport);
+		ResourceTable entity = new ResourceTable();
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(entity, obs);
+		Set<ResourceIndexedSearchParamQuantity> quantities = extractor.extractSearchParamQuantity(entity, obs);
+		Set<ResourceIndexedSearchParamDate> dates = extractor.extractSearchParamDates(entity, obs);
+		RuntimeSearchParam subjectParam = ourCtx.getResourceDefinition(obs).getSearchParam("subject");
+		assertEquals(1, extractor.extractResourceLinks(obs, subjectParam).size());
+
+		extractor.startResourceExtraction(obs);
+		try {
+			assertEquals(tokens, extractor.extractSearchParamTokens(entity, obs));
+			assertEquals(quantities, extractor.extractSearchParamQuantity(entity, obs));
+			assertEquals(dates, extractor.extractSearchParamDates(entity, obs));
+			assertEquals(1, extractor.extractResourceLinks(obs, subjectParam).size());
+
+			// A different resource instance is extracted normally
+			Observation obs2 = new Observation();
+			obs2.getCode().addCoding().setSystem("SYSTEM3").setCode("CODE3");
+			assertEquals(1, extractor.extractSearchParamTokens(entity, obs2).size());
+		} finally {
+			extractor.endResourceExtraction();
+		}
+		assertEquals(tokens, extractor.extractSearchParamTokens(entity, obs));
+	}
+
+	@Test
+	public void testNestedExtraction() {
+		Observation obs = new Observation();
+		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
+
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport);
+		ResourceTable entity = new ResourceTable();
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(entity, obs);
+
+		extractor.startResourceExtraction(obs);
+		try {
+			// Values collected when the extraction started are used until it ends
+			obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE4");
+			assertEquals(tokens, extractor.extractSearchParamTokens(entity, obs));
+
+			Observation obs2 = new Observation();
+			obs2.getCode().addCoding().setSystem("SYSTEM3").setCode("CODE3");
+			extractor.startResourceExtraction(obs2);
+			try {
+				assertEquals(1, extractor.extractSearchParamTokens(entity, obs2).size());
+				assertEquals(tokens, extractor.extractSearchParamTokens(entity, obs));
+			} finally {
+				extractor.endResourceExtraction();
+			}
+
+			// Ending the nested extraction leaves the outer one in place
+			assertEquals(tokens, extractor.extractSearchParamTokens(entity, obs));
+		} finally {
+			extractor.endResourceExtraction();
+		}
+		assertEquals(tokens.size() + 1, extractor.extractSearchParamTokens(entity, obs).size());
+	}
+
+	@Test
+	public void testExtractorIsReusedAcrossThreads() throws Exception {
+		final Observation obs = new Observation();
+		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
+
+		final SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport);
+		assertEquals(1, extractor.extractSearchParamTokens(new ResourceTable(), obs).size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 20; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return extractor.extractSearchParamTokens(new ResourceTable(), obs).size();
+					}
+				}));
+			}
+			for (Future<Integer> next : futures) {
+				assertEquals(1, next.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 }
@@ -0,0 +1,97 @@
+package ca.uhn.fhir.jpa.interceptor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ca.uhn.fhir.jpa.config.ReadReplicaRoutingDataSource;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+public class ReadReplicaRoutingInterceptorTest {
+
+	private ReadReplicaRoutingInterceptor mySvc = new ReadReplicaRoutingInterceptor();
+
+	@After
+	public void after() {
+		ReadReplicaRoutingDataSource.setReplicaAllowedForCurrentThread(false);
+	}
+
+	private ServletRequestDetails newRequest(RestOperationTypeEnum theOperation, String theRemoteAddr) {
+		HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+		when(servletRequest.getRemoteAddr()).thenReturn(theRemoteAddr);
+		ServletRequestDetails retVal = new ServletRequestDetails();
+		retVal.setServletRequest(servletRequest);
+		retVal.setRestOperationType(theOperation);
+		return retVal;
+	}
+
+	@Test
+	public void testReadsUseReplicaUnlessClientWroteRecently() {
+		ServletRequestDetails read = newRequest(RestOperationTypeEnum.READ, "10.0.0.1");
+		mySvc.incomingRequestPostProcessed(read, read.getServletRequest(), null);
+		assertTrue(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+		mySvc.processingCompletedNormally(read);
+		mySvc.processingCompleted(read);
+		assertFalse(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+
+		ServletRequestDetails write = newRequest(RestOperationTypeEnum.UPDATE, "10.0.0.1");
+		mySvc.incomingRequestPostProcessed(write, write.getServletRequest(), null);
+		assertFalse(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+		mySvc.processingCompletedNormally(write);
+		mySvc.processingCompleted(write);
+
+		// Same client is sticky, other clients are not
+		mySvc.incomingRequestPostProcessed(read, read.getServletRequest(), null);
+		assertFalse(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+		ServletRequestDetails otherRead = newRequest(RestOperationTypeEnum.SEARCH_TYPE, "10.0.0.2");
+		mySvc.incomingRequestPostProcessed(otherRead, otherRead.getServletRequest(), null);
+		assertTrue(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+
+	}
+
+	@Test
+	public void testReplicaClearedWhenProcessingStopsEarly() {
+		// Another interceptor stops processing, so neither processingCompletedNormally nor handleException is called
+		ServletRequestDetails read = newRequest(RestOperationTypeEnum.READ, "10.0.0.1");
+		mySvc.incomingRequestPostProcessed(read, read.getServletRequest(), null);
+		assertTrue(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+		mySvc.processingCompleted(read);
+		assertFalse(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+	}
+
+	@Test
+	public void testStickyPeriodExpires() throws Exception {
+		mySvc.setStickyAfterWriteMillis(0);
+		mySvc.recordWrite("addr:10.0.0.1");
+		Thread.sleep(10);
+		assertFalse(mySvc.hasWrittenRecently("addr:10.0.0.1"));
+	}
+
+	@Test
+	public void testHistoryUsesPrimary() {
+		ServletRequestDetails history = newRequest(RestOperationTypeEnum.HISTORY_TYPE, "10.0.0.1");
+		mySvc.incomingRequestPostProcessed(history, history.getServletRequest(), null);
+		assertFalse(ReadReplicaRoutingDataSource.isReplicaAllowedForCurrentThread());
+	}
+
+	@Test
+	public void testClientKeyDoesNotContainCredentials() {
+		HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+		when(servletRequest.getHeader(Constants.HEADER_AUTHORIZATION)).thenReturn("Bearer SECRET");
+		String key = mySvc.getClientKey(servletRequest);
+		assertTrue(key.startsWith("auth:"));
+		assertFalse(key.contains("SECRET"));
+		when(servletRequest.getHeader(Constants.HEADER_AUTHORIZATION)).thenReturn("Bearer OTHER");
+		assertNotEquals(key, mySvc.getClientKey(servletRequest));
+	}
+
+}
@@ -0,0 +1,65 @@
+package ca.uhn.fhir.jpa.search;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class FulltextIndexingPropertiesTest {
+
+	@Test
+	public void testAddToDefaults() {
+		Properties props = new Properties();
+		new FulltextIndexingProperties().addTo(props);
+		assertTrue(props.isEmpty());
+	}
+
+	@Test
+	public void testAddToAllEnabled() {
+		FulltextIndexingProperties indexing = new FulltextIndexingProperties();
+		indexing.setAsynchronous(true);
+		indexing.setMaxQueueLength(500);
+		indexing.setNearRealTime(true);
+		indexing.setShardByResourceType(true);
+		indexing.setWorkerThreads(4);
+
+		Properties props = new Properties();
+		indexing.addTo(props);
+		assertEquals("async", props.get("hibernate.search.default.worker.execution"));
+		assertEquals("4", props.get("hibernate.search.default.worker.thread_pool.size"));
+		assertEquals("500", props.get("hibernate.search.default.max_queue_length"));
+		assertEquals("near-real-time", props.get("hibernate.search.default.indexmanager"));
+		assertEquals(ResourceTypeShardIdentifierProvider.class.getName(), props.get("hibernate.search.ca.uhn.fhir.jpa.entity.ResourceTable.sharding_strategy"));
+		assertEquals(".", props.get("hibernate.search.ca.uhn.fhir.jpa.entity.ResourceTable.sharding_strategy.indexBase"));
+	}
+
+	@Test
+	public void testAddToShardedFilesystem() {
+		FulltextIndexingProperties indexing = new FulltextIndexingProperties();
+		indexing.setShardByResourceType(true);
+
+		Properties props = new Properties();
+		props.put("hibernate.search.default.directory_provider", "filesystem");
+		props.put("hibernate.search.default.indexBase", "target/lucenefiles");
+		indexing.addTo(props);
+		assertEquals("target/lucenefiles", props.get("hibernate.search.ca.uhn.fhir.jpa.entity.ResourceTable.sharding_strategy.indexBase"));
+	}
+
+	@Test
+	public void testAddToShardedRam() {
+		FulltextIndexingProperties indexing = new FulltextIndexingProperties();
+		indexing.setShardByResourceType(true);
+
+		Properties props = new Properties();
+		props.put("hibernate.search.default.directory_provider", "ram");
+		indexing.addTo(props);
+		assertNull(props.get("hibernate.search.ca.uhn.fhir.jpa.entity.ResourceTable.sharding_strategy.indexBase"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetMaxQueueLengthInvalid() {
+		new FulltextIndexingProperties().setMaxQueueLength(0);
+	}
+
+}
@@ -2,6 +2,8 @@ package ca.uhn.fhir.jpa.search;
 
 import static org.junit.Assert.*;
 
+import java.util.Date;
+
 import org.junit.Test;
 import org.springframework.data.domain.Pageable;
 
@@ -13,5 +15,10 @@ public class PersistedJpaBundleProviderTest {
 		assertEquals(50, page.getOffset());
 //		assertEquals(50, page.get);
 	}
+
+	@Test
+	public void testFormatCursor() {
+		assertEquals("12-1000-34", PersistedJpaBundleProvider.formatCursor(12, new Date(1000), 34L));
+	}
 	
 }
@@ -0,0 +1,62 @@
+package ca.uhn.fhir.jpa.search;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+
+public class ResourceTypeShardIdentifierProviderTest {
+
+	private File myIndexBase;
+
+	@After
+	public void after() throws Exception {
+		FileUtils.deleteDirectory(myIndexBase);
+	}
+
+	@Before
+	public void before() {
+		myIndexBase = new File("target/" + getClass().getSimpleName());
+		assertTrue(myIndexBase.mkdirs() || myIndexBase.isDirectory());
+	}
+
+	@Test
+	public void testGetShardIdentifier() {
+		Document document = new Document();
+		document.add(new StringField("myResourceType", "Patient", Store.NO));
+
+		ResourceTypeShardIdentifierProvider provider = new ResourceTypeShardIdentifierProvider();
+		assertEquals("Patient", provider.getShardIdentifier(ResourceTable.class, 1L, document));
+	}
+
+	@Test
+	public void testLoadInitialShardNames() {
+		new File(myIndexBase, FulltextIndexingProperties.RESOURCE_INDEX_NAME + ".Patient").mkdir();
+		new File(myIndexBase, FulltextIndexingProperties.RESOURCE_INDEX_NAME + ".Observation").mkdir();
+		new File(myIndexBase, "ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString").mkdir();
+
+		Properties props = new Properties();
+		props.put(ResourceTypeShardIdentifierProvider.PROP_INDEX_BASE, myIndexBase.getPath());
+		assertThat(new ResourceTypeShardIdentifierProvider().loadInitialShardNames(props, null), containsInAnyOrder("Patient", "Observation"));
+	}
+
+	@Test
+	public void testLoadInitialShardNamesWithoutIndexBase() {
+		assertThat(new ResourceTypeShardIdentifierProvider().loadInitialShardNames(new Properties(), null), empty());
+	}
+
+}
@@ -0,0 +1,61 @@
+package ca.uhn.fhir.jpa.util.jsonpatch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import ca.uhn.fhir.util.TestUtil;
+
+public class JsonPatchDiffUtilsTest {
+
+	private static Gson ourGson = new GsonBuilder().serializeNulls().create();
+
+	private JsonElement parse(String theJson) {
+		return ourGson.fromJson(theJson, JsonElement.class);
+	}
+
+	@Test
+	public void testDiff() {
+		JsonArray patch = JsonPatchDiffUtils.diff(parse("{\"a\":1,\"b\":[1,2,3],\"c\":{\"d\":\"x\"}}"), parse("{\"a\":2,\"b\":[1,5],\"c\":{},\"e\":true}"));
+		assertEquals("[{\"op\":\"replace\",\"path\":\"/a\",\"value\":2},{\"op\":\"replace\",\"path\":\"/b/1\",\"value\":5},{\"op\":\"remove\",\"path\":\"/b/2\"},{\"op\":\"remove\",\"path\":\"/c/d\"},{\"op\":\"add\",\"path\":\"/e\",\"value\":true}]", ourGson.toJson(patch));
+	}
+
+	/**
+	 * Every document must be turned into every other one by applying the (serialized) diff between them
+	 */
+	@Test
+	public void testDiffAndApply() {
+		String[] documents = new String[] {
+				"{\"a\":1,\"b\":[1,2,3],\"c\":{\"d\":\"x\",\"e/~f\":[{\"g\":1}]}}",
+				"{\"a\":2,\"b\":[1,5],\"c\":{\"e/~f\":[{\"g\":2},{\"h\":3}],\"n\":null},\"z\":true}",
+				"{\"b\":[],\"c\":[1]}",
+				"[1,{\"a\":[1,2]},3,null]",
+				"[null,{\"b\":null}]",
+				"5",
+				"{\"x\":1.50}" };
+		for (String nextFrom : documents) {
+			for (String nextTo : documents) {
+				JsonArray patch = ourGson.fromJson(ourGson.toJson(JsonPatchDiffUtils.diff(parse(nextFrom), parse(nextTo))), JsonArray.class);
+				JsonElement patched = JsonPatchDiffUtils.apply(parse(nextFrom), patch);
+				assertEquals(nextFrom + " -> " + nextTo, parse(nextTo), patched);
+			}
+		}
+	}
+
+	@Test
+	public void testDiffOfEqualDocumentsIsEmpty() {
+		assertEquals(0, JsonPatchDiffUtils.diff(parse("{\"a\":[1,{\"b\":2}]}"), parse("{\"a\":[1,{\"b\":2}]}")).size());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
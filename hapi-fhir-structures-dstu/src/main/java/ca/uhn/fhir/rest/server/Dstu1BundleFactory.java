@@ -237,14 +237,21 @@ public class Dstu1BundleFactory implements IVersionSpecificBundleFactory {
 			limit = theLimit != null ? theLimit : theServer.getPagingProvider().getDefaultPageSize();
 			limit = Math.min(limit, theServer.getPagingProvider().getMaximumPageSize());
 
+			String nextCursor = null;
+			String previousCursor = null;
+			if (theResult instanceof IPagingCursorBundleProvider) {
+				nextCursor = ((IPagingCursorBundleProvider) theResult).getNextPageCursor();
+				previousCursor = ((IPagingCursorBundleProvider) theResult).getPreviousPageCursor();
+			}
+
 			if (searchId != null) {
 				if (theOffset + numToReturn < theResult.size()) {
 					myBundle.getLinkNext()
-							.setValue(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, theResponseEncoding, thePrettyPrint, theBundleType));
+							.setValue(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, nextCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 				if (theOffset > 0) {
 					int start = Math.max(0, theOffset - limit);
-					myBundle.getLinkPrevious().setValue(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, theResponseEncoding, thePrettyPrint, theBundleType));
+					myBundle.getLinkPrevious().setValue(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, previousCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 			}
 		}
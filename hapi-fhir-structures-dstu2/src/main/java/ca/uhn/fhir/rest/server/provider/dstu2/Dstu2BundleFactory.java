@@ -54,6 +54,7 @@ import ca.uhn.fhir.rest.server.BundleInclusionRule;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPagingCursorBundleProvider;
 import ca.uhn.fhir.rest.server.IPagingProvider;
 import ca.uhn.fhir.rest.server.IRestfulServer;
 import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
@@ -357,15 +358,22 @@ public class Dstu2BundleFactory implements IVersionSpecificBundleFactory {
 			limit = theLimit != null ? theLimit : theServer.getPagingProvider().getDefaultPageSize();
 			limit = Math.min(limit, theServer.getPagingProvider().getMaximumPageSize());
 
+			String nextCursor = null;
+			String previousCursor = null;
+			if (theResult instanceof IPagingCursorBundleProvider) {
+				nextCursor = ((IPagingCursorBundleProvider) theResult).getNextPageCursor();
+				previousCursor = ((IPagingCursorBundleProvider) theResult).getPreviousPageCursor();
+			}
+
 			if (searchId != null) {
 				if (theOffset + numToReturn < theResult.size()) {
 					myBundle.addLink().setRelation(Constants.LINK_NEXT)
-							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, theResponseEncoding, thePrettyPrint, theBundleType));
+							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, nextCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 				if (theOffset > 0) {
 					int start = Math.max(0, theOffset - limit);
 					myBundle.addLink().setRelation(Constants.LINK_PREVIOUS)
-							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, theResponseEncoding, thePrettyPrint, theBundleType));
+							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, previousCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 			}
 		}
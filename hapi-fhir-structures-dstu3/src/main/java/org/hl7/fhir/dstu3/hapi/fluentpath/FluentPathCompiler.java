@@ -0,0 +1,748 @@
+package org.hl7.fhir.dstu3.hapi.fluentpath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Base;
+import org.hl7.fhir.dstu3.model.BooleanType;
+import org.hl7.fhir.dstu3.model.ExpressionNode;
+import org.hl7.fhir.dstu3.model.ExpressionNode.Kind;
+import org.hl7.fhir.dstu3.model.ExpressionNode.Operation;
+import org.hl7.fhir.dstu3.model.IntegerType;
+import org.hl7.fhir.dstu3.utils.FluentPathEngine;
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Compiles parsed FHIRPath expressions (as produced by {@link FluentPathEngine#parse(String)}) into
+ * a tree of evaluator objects, for expressions which are evaluated very often, such as search
+ * parameter paths.
+ * <p>
+ * Compared to {@link FluentPathEngine#evaluate(Base, ExpressionNode)}, a compiled expression decides
+ * what each node does once, at compile time. It looks up children using precomputed property name
+ * hashes, and passes values from one step to the next without building an intermediate list at
+ * every step. Functions such as <code>exists()</code> and <code>first()</code> stop reading their
+ * input as soon as the answer is known.
+ * </p>
+ * <p>
+ * Only a subset of FHIRPath is supported: element names, <code>$this</code>, parentheses,
+ * the <code>|</code>, <code>and</code>, <code>or</code>, <code>xor</code>, <code>implies</code>,
+ * <code>is</code> and <code>as</code> operators, and the <code>where</code>, <code>as</code>,
+ * <code>is</code>, <code>exists</code>, <code>empty</code>, <code>not</code>, <code>first</code>,
+ * <code>count</code> and <code>hasValue</code> functions. For any other expression,
+ * {@link #compile(ExpressionNode)} returns <code>null</code>, and the caller should fall back to
+ * the interpreter. Compiled expressions hold no mutable state and are thread safe.
+ * </p>
+ */
+public class FluentPathCompiler {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FluentPathCompiler.class);
+
+	/**
+	 * Non instantiable
+	 */
+	private FluentPathCompiler() {
+		// nothing
+	}
+
+	/**
+	 * Compiles the given expression
+	 *
+	 * @param theExpression
+	 *           The parsed expression
+	 * @return The compiled expression, or <code>null</code> if the expression uses features which
+	 *         are not supported by the compiler
+	 */
+	public static ICompiledExpression compile(ExpressionNode theExpression) {
+		try {
+			return new CompiledExpression(compileExpression(theExpression, true));
+		} catch (NotCompilableException e) {
+			ourLog.debug("Expression can not be compiled, will be interpreted: {} - {}", theExpression, e.getMessage());
+			return null;
+		}
+	}
+
+	private static Step[] compileChain(ExpressionNode theNode, boolean theAtEntry) throws NotCompilableException {
+		List<Step> retVal = new ArrayList<Step>();
+		retVal.add(compileTerm(theNode, theAtEntry));
+		for (ExpressionNode next = theNode.getInner(); next != null; next = next.getInner()) {
+			retVal.add(compileTerm(next, false));
+		}
+		return retVal.toArray(new Step[retVal.size()]);
+	}
+
+	private static Expression compileExpression(ExpressionNode theNode, boolean theAtEntry) throws NotCompilableException {
+		Step[] chain = compileChain(theNode, theAtEntry);
+		if (!theNode.isProximal() || theNode.getOperation() == null) {
+			return new Expression(chain, null, null, null);
+		}
+
+		List<Operation> operations = new ArrayList<Operation>();
+		List<Step[]> operands = new ArrayList<Step[]>();
+		List<String> typeNames = new ArrayList<String>();
+		ExpressionNode last = theNode;
+		for (ExpressionNode next = theNode.getOpNext(); next != null; next = next.getOpNext()) {
+			Operation operation = last.getOperation();
+			switch (operation) {
+			case Is:
+			case As:
+				if (next.getKind() != Kind.Name || next.getInner() != null) {
+					throw new NotCompilableException("Unsupported type name in " + operation.toCode() + " operation");
+				}
+				operands.add(null);
+				typeNames.add(next.getName());
+				break;
+			case Union:
+			case And:
+			case Or:
+			case Xor:
+			case Implies:
+				operands.add(compileChain(next, true));
+				typeNames.add(null);
+				break;
+			default:
+				throw new NotCompilableException("Unsupported operation: " + operation.toCode());
+			}
+			operations.add(operation);
+			last = next;
+		}
+
+		return new Expression(chain, operations.toArray(new Operation[operations.size()]), operands.toArray(new Step[operands.size()][]), typeNames.toArray(new String[typeNames.size()]));
+	}
+
+	private static Step compileTerm(ExpressionNode theNode, boolean theAtEntry) throws NotCompilableException {
+		switch (theNode.getKind()) {
+		case Name:
+			String name = theNode.getName();
+			if (theAtEntry && "$this".equals(name)) {
+				return new ThisStep();
+			}
+			if (theAtEntry && Character.isUpperCase(name.charAt(0))) {
+				return new ResourceTypeStep(name);
+			}
+			return new ChildStep(name);
+		case Group:
+			return new GroupStep(compileExpression(theNode.getGroup(), theAtEntry));
+		case Function:
+			return compileFunction(theNode);
+		default:
+			throw new NotCompilableException("Unsupported node: " + theNode.getKind());
+		}
+	}
+
+	private static Step compileFunction(ExpressionNode theNode) throws NotCompilableException {
+		List<ExpressionNode> params = theNode.getParameters();
+		switch (theNode.getFunction()) {
+		case As:
+			return new AsStep(typeNameParameter(theNode));
+		case Is:
+			return new IsStep(typeNameParameter(theNode));
+		case Where:
+			if (params.size() != 1) {
+				throw new NotCompilableException("where() requires one parameter");
+			}
+			return new WhereStep(compileExpression(params.get(0), true));
+		case Exists:
+		case Empty:
+		case Not:
+		case First:
+		case Count:
+		case HasValue:
+			if (!params.isEmpty()) {
+				throw new NotCompilableException("Unsupported parameters for function: " + theNode.getFunction());
+			}
+			return new AggregateStep(theNode.getFunction());
+		default:
+			throw new NotCompilableException("Unsupported function: " + theNode.getFunction());
+		}
+	}
+
+	private static String typeNameParameter(ExpressionNode theNode) throws NotCompilableException {
+		List<ExpressionNode> params = theNode.getParameters();
+		if (params.size() != 1 || params.get(0).getKind() != Kind.Name || params.get(0).getInner() != null) {
+			throw new NotCompilableException("Unsupported type parameter for function: " + theNode.getFunction());
+		}
+		return params.get(0).getName();
+	}
+
+	private static boolean doEquals(Base theLeft, Base theRight) {
+		if (theLeft.isPrimitive() && theRight.isPrimitive()) {
+			return Base.equals(theLeft.primitiveValue(), theRight.primitiveValue());
+		}
+		return Base.compareDeep(theLeft, theRight, false);
+	}
+
+	private static boolean isBoolean(List<Base> theList, boolean theValue) {
+		return theList.size() == 1 && theList.get(0) instanceof BooleanType && ((BooleanType) theList.get(0)).booleanValue() == theValue;
+	}
+
+	private static List<Base> makeBoolean(boolean theValue) {
+		List<Base> retVal = new ArrayList<Base>(1);
+		retVal.add(new BooleanType(theValue));
+		return retVal;
+	}
+
+	private static List<Base> operate(List<Base> theLeft, Operation theOperation, List<Base> theRight) {
+		switch (theOperation) {
+		case Union:
+			List<Base> retVal = new ArrayList<Base>(theLeft.size() + theRight.size());
+			union(retVal, theLeft);
+			union(retVal, theRight);
+			return retVal;
+		case And:
+			if (theLeft.isEmpty() && theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			} else if (isBoolean(theLeft, false) || isBoolean(theRight, false)) {
+				return makeBoolean(false);
+			} else if (theLeft.isEmpty() || theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			}
+			return makeBoolean(toBoolean(theLeft) && toBoolean(theRight));
+		case Or:
+			if (theLeft.isEmpty() && theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			} else if (toBoolean(theLeft) || toBoolean(theRight)) {
+				return makeBoolean(true);
+			} else if (theLeft.isEmpty() || theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			}
+			return makeBoolean(false);
+		case Xor:
+			if (theLeft.isEmpty() || theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			}
+			return makeBoolean(toBoolean(theLeft) ^ toBoolean(theRight));
+		case Implies:
+			if (!toBoolean(theLeft)) {
+				return makeBoolean(true);
+			} else if (theRight.isEmpty()) {
+				return new ArrayList<Base>();
+			}
+			return makeBoolean(toBoolean(theRight));
+		default:
+			throw new IllegalStateException("Unexpected operation: " + theOperation);
+		}
+	}
+
+	/**
+	 * Returns the left hand side result for operations which can be decided without evaluating the
+	 * right hand side, or <code>null</code>
+	 */
+	private static List<Base> preOperate(List<Base> theLeft, Operation theOperation) {
+		switch (theOperation) {
+		case And:
+			return isBoolean(theLeft, false) ? makeBoolean(false) : null;
+		case Or:
+			return isBoolean(theLeft, true) ? makeBoolean(true) : null;
+		case Implies:
+			return toBoolean(theLeft) ? null : makeBoolean(true);
+		default:
+			return null;
+		}
+	}
+
+	private static ISource listSource(final List<Base> theItems) {
+		return new ISource() {
+			@Override
+			public boolean forEach(ISink theSink) throws FHIRException {
+				return emitAll(theItems, theSink);
+			}
+		};
+	}
+
+	private static ISource singleton(final Base theItem) {
+		return new ISource() {
+			@Override
+			public boolean forEach(ISink theSink) throws FHIRException {
+				return theSink.accept(theItem);
+			}
+		};
+	}
+
+	private static boolean emitAll(List<Base> theItems, ISink theSink) throws FHIRException {
+		for (Base next : theItems) {
+			if (!theSink.accept(next)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean toBoolean(List<Base> theItems) {
+		if (theItems.size() == 1 && theItems.get(0) instanceof BooleanType) {
+			return Boolean.TRUE.equals(((BooleanType) theItems.get(0)).getValue());
+		}
+		return theItems.size() > 0;
+	}
+
+	private static void union(List<Base> theTarget, List<Base> theItems) {
+		for (Base next : theItems) {
+			boolean found = false;
+			for (Base existing : theTarget) {
+				if (doEquals(existing, next)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				theTarget.add(next);
+			}
+		}
+	}
+
+	/**
+	 * A compiled FHIRPath expression
+	 */
+	public interface ICompiledExpression {
+
+		/**
+		 * Evaluates the expression against the given base, returning the same values as
+		 * {@link FluentPathEngine#evaluate(Base, ExpressionNode)}
+		 */
+		List<Base> evaluate(Base theBase) throws FHIRException;
+
+		/**
+		 * Evaluates the expression against the given base and converts the result to a boolean
+		 * in the same way as {@link FluentPathEngine#convertToBoolean(List)}. Evaluation stops
+		 * as soon as the outcome is known.
+		 */
+		boolean evaluateToBoolean(Base theBase) throws FHIRException;
+
+	}
+
+	/**
+	 * Converts a stream of values to a boolean in the same way as
+	 * {@link FluentPathEngine#convertToBoolean(List)}, stopping after the second value
+	 */
+	private static class BooleanSink implements ISink {
+		private int myCount;
+		private Base myFirst;
+
+		@Override
+		public boolean accept(Base theItem) {
+			if (myCount == 0) {
+				myFirst = theItem;
+			}
+			myCount++;
+			return myCount < 2;
+		}
+
+		boolean getValue() {
+			if (myCount == 1 && myFirst instanceof BooleanType) {
+				return Boolean.TRUE.equals(((BooleanType) myFirst).getValue());
+			}
+			return myCount > 0;
+		}
+	}
+
+	private static class CollectingSink implements ISink {
+		private final List<Base> myItems = new ArrayList<Base>();
+
+		@Override
+		public boolean accept(Base theItem) {
+			myItems.add(theItem);
+			return true;
+		}
+	}
+
+	private static class CompiledExpression implements ICompiledExpression {
+		private final Expression myExpression;
+
+		CompiledExpression(Expression theExpression) {
+			myExpression = theExpression;
+		}
+
+		@Override
+		public List<Base> evaluate(Base theBase) throws FHIRException {
+			CollectingSink sink = new CollectingSink();
+			myExpression.evaluate(theBase, singleton(theBase), sink);
+			return sink.myItems;
+		}
+
+		@Override
+		public boolean evaluateToBoolean(Base theBase) throws FHIRException {
+			return myExpression.evaluateToBoolean(theBase, singleton(theBase));
+		}
+	}
+
+	/**
+	 * A term followed by its chain of inner terms, optionally followed by a number of operations
+	 */
+	private static class Expression {
+		private final Step[] myChain;
+		private final Step[][] myOperands;
+		private final Operation[] myOperations;
+		private final String[] myTypeNames;
+
+		Expression(Step[] theChain, Operation[] theOperations, Step[][] theOperands, String[] theTypeNames) {
+			myChain = theChain;
+			myOperations = theOperations;
+			myOperands = theOperands;
+			myTypeNames = theTypeNames;
+		}
+
+		private static ISource applyChain(Step[] theChain, Base theThis, ISource theInput) {
+			ISource retVal = theInput;
+			for (Step next : theChain) {
+				retVal = next.apply(theThis, retVal);
+			}
+			return retVal;
+		}
+
+		private static List<Base> collect(ISource theSource) throws FHIRException {
+			CollectingSink sink = new CollectingSink();
+			theSource.forEach(sink);
+			return sink.myItems;
+		}
+
+		boolean evaluate(Base theThis, ISource theInput, ISink theSink) throws FHIRException {
+			if (myOperations == null) {
+				return applyChain(myChain, theThis, theInput).forEach(theSink);
+			}
+			return emitAll(evaluateOperations(theThis, theInput), theSink);
+		}
+
+		/**
+		 * The operands of each operation are evaluated against the same input as the
+		 * first term, so the input is only read once here and then replayed
+		 */
+		private List<Base> evaluateOperations(Base theThis, ISource theInput) throws FHIRException {
+			ISource input = listSource(collect(theInput));
+			List<Base> work = collect(applyChain(myChain, theThis, input));
+			for (int i = 0; i < myOperations.length; i++) {
+				Operation operation = myOperations[i];
+				List<Base> preOperated = preOperate(work, operation);
+				if (preOperated != null) {
+					work = preOperated;
+				} else if (operation == Operation.Is) {
+					work = makeBoolean(work.size() == 1 && work.get(0).hasType(myTypeNames[i]));
+				} else if (operation == Operation.As) {
+					if (work.size() != 1 || !myTypeNames[i].equals(work.get(0).fhirType())) {
+						work = new ArrayList<Base>();
+					}
+				} else {
+					List<Base> right = collect(applyChain(myOperands[i], theThis, input));
+					work = operate(work, operation, right);
+				}
+			}
+			return work;
+		}
+
+		boolean evaluateToBoolean(Base theThis, ISource theInput) throws FHIRException {
+			if (myOperations == null) {
+				BooleanSink sink = new BooleanSink();
+				applyChain(myChain, theThis, theInput).forEach(sink);
+				return sink.getValue();
+			}
+			return toBoolean(evaluateOperations(theThis, theInput));
+		}
+	}
+
+	/**
+	 * Receives values produced by a step
+	 */
+	private interface ISink {
+
+		/**
+		 * @return <code>false</code> if no more values are wanted
+		 */
+		boolean accept(Base theItem) throws FHIRException;
+
+	}
+
+	/**
+	 * Produces values on demand
+	 */
+	private interface ISource {
+
+		/**
+		 * @return <code>false</code> if the sink asked for no more values
+		 */
+		boolean forEach(ISink theSink) throws FHIRException;
+
+	}
+
+	private static class NotCompilableException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		NotCompilableException(String theMessage) {
+			super(theMessage);
+		}
+	}
+
+	private static abstract class Step {
+
+		/**
+		 * Returns a source which produces the output of this step for the given input
+		 *
+		 * @param theThis
+		 *           The item which <code>$this</code> refers to
+		 */
+		abstract ISource apply(Base theThis, ISource theInput);
+
+	}
+
+	/**
+	 * Functions which operate on the input collection as a whole
+	 */
+	private static class AggregateStep extends Step {
+		private final ExpressionNode.Function myFunction;
+
+		AggregateStep(ExpressionNode.Function theFunction) {
+			myFunction = theFunction;
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(ISink theSink) throws FHIRException {
+					switch (myFunction) {
+					case Exists:
+						return theSink.accept(new BooleanType(containsNonEmpty(theInput)));
+					case Empty:
+						return theSink.accept(new BooleanType(!containsNonEmpty(theInput)));
+					case Not:
+						BooleanSink booleanSink = new BooleanSink();
+						theInput.forEach(booleanSink);
+						return theSink.accept(new BooleanType(!booleanSink.getValue()));
+					case First:
+						FirstSink firstSink = new FirstSink(1);
+						theInput.forEach(firstSink);
+						return firstSink.myItems.isEmpty() || theSink.accept(firstSink.myItems.get(0));
+					case Count:
+						CountingSink countingSink = new CountingSink();
+						theInput.forEach(countingSink);
+						return theSink.accept(new IntegerType(countingSink.myCount));
+					case HasValue:
+						FirstSink twoSink = new FirstSink(2);
+						theInput.forEach(twoSink);
+						if (twoSink.myItems.size() != 1) {
+							return true;
+						}
+						Base item = twoSink.myItems.get(0);
+						String value = item.isPrimitive() ? item.primitiveValue() : item.getClass().getName();
+						return theSink.accept(new BooleanType(!Utilities.noString(value)));
+					default:
+						throw new IllegalStateException("Unexpected function: " + myFunction);
+					}
+				}
+			};
+		}
+
+		private static boolean containsNonEmpty(ISource theInput) throws FHIRException {
+			final boolean[] found = new boolean[1];
+			theInput.forEach(new ISink() {
+				@Override
+				public boolean accept(Base theItem) {
+					if (theItem != null && !theItem.isEmpty()) {
+						found[0] = true;
+						return false;
+					}
+					return true;
+				}
+			});
+			return found[0];
+		}
+	}
+
+	private static class AsStep extends Step {
+		private final String myTypeName;
+
+		AsStep(String theTypeName) {
+			myTypeName = theTypeName;
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(final ISink theSink) throws FHIRException {
+					return theInput.forEach(new ISink() {
+						@Override
+						public boolean accept(Base theItem) throws FHIRException {
+							return !theItem.hasType(myTypeName) || theSink.accept(theItem);
+						}
+					});
+				}
+			};
+		}
+	}
+
+	/**
+	 * Navigates to the children with a given name. The name hash is computed once so that the
+	 * generated model's <code>getProperty(int, String, boolean)</code> switch can be used directly.
+	 */
+	private static class ChildStep extends Step {
+		private final int myHash;
+		private final String myName;
+		private final boolean myWildcard;
+
+		ChildStep(String theName) {
+			myName = theName;
+			myHash = theName.hashCode();
+			myWildcard = "*".equals(theName);
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(final ISink theSink) throws FHIRException {
+					return theInput.forEach(new ISink() {
+						@Override
+						public boolean accept(Base theItem) throws FHIRException {
+							Base[] children;
+							if (myWildcard) {
+								children = theItem.listChildrenByName(myName, false);
+							} else {
+								children = theItem.getProperty(myHash, myName, false);
+							}
+							if (children != null) {
+								for (Base next : children) {
+									if (next != null && !theSink.accept(next)) {
+										return false;
+									}
+								}
+							}
+							return true;
+						}
+					});
+				}
+			};
+		}
+	}
+
+	private static class CountingSink implements ISink {
+		private int myCount;
+
+		@Override
+		public boolean accept(Base theItem) {
+			myCount++;
+			return true;
+		}
+	}
+
+	/**
+	 * Collects up to a given number of values
+	 */
+	private static class FirstSink implements ISink {
+		private final List<Base> myItems;
+		private final int myLimit;
+
+		FirstSink(int theLimit) {
+			myLimit = theLimit;
+			myItems = new ArrayList<Base>(theLimit);
+		}
+
+		@Override
+		public boolean accept(Base theItem) {
+			myItems.add(theItem);
+			return myItems.size() < myLimit;
+		}
+	}
+
+	private static class GroupStep extends Step {
+		private final Expression myExpression;
+
+		GroupStep(Expression theExpression) {
+			myExpression = theExpression;
+		}
+
+		@Override
+		ISource apply(final Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(ISink theSink) throws FHIRException {
+					return myExpression.evaluate(theThis, theInput, theSink);
+				}
+			};
+		}
+	}
+
+	private static class IsStep extends Step {
+		private final String myTypeName;
+
+		IsStep(String theTypeName) {
+			myTypeName = theTypeName;
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(ISink theSink) throws FHIRException {
+					FirstSink twoSink = new FirstSink(2);
+					theInput.forEach(twoSink);
+					boolean retVal = twoSink.myItems.size() == 1 && twoSink.myItems.get(0).hasType(myTypeName);
+					return theSink.accept(new BooleanType(retVal));
+				}
+			};
+		}
+	}
+
+	private static class ResourceTypeStep extends Step {
+		private final String myResourceType;
+
+		ResourceTypeStep(String theResourceType) {
+			myResourceType = theResourceType;
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(final ISink theSink) throws FHIRException {
+					return theInput.forEach(new ISink() {
+						@Override
+						public boolean accept(Base theItem) throws FHIRException {
+							if (theItem.isResource() && theItem.fhirType().equals(myResourceType)) {
+								return theSink.accept(theItem);
+							}
+							return true;
+						}
+					});
+				}
+			};
+		}
+	}
+
+	private static class ThisStep extends Step {
+		@Override
+		ISource apply(final Base theThis, ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(ISink theSink) throws FHIRException {
+					return theThis == null || theSink.accept(theThis);
+				}
+			};
+		}
+	}
+
+	private static class WhereStep extends Step {
+		private final Expression myCriteria;
+
+		WhereStep(Expression theCriteria) {
+			myCriteria = theCriteria;
+		}
+
+		@Override
+		ISource apply(Base theThis, final ISource theInput) {
+			return new ISource() {
+				@Override
+				public boolean forEach(final ISink theSink) throws FHIRException {
+					return theInput.forEach(new ISink() {
+						@Override
+						public boolean accept(Base theItem) throws FHIRException {
+							if (myCriteria.evaluateToBoolean(theItem, singleton(theItem))) {
+								return theSink.accept(theItem);
+							}
+							return true;
+						}
+					});
+				}
+			};
+		}
+	}
+
+}
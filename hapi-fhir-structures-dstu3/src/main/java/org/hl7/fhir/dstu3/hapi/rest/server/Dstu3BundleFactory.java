@@ -353,15 +353,22 @@ public class Dstu3BundleFactory implements IVersionSpecificBundleFactory {
 			limit = theLimit != null ? theLimit : theServer.getPagingProvider().getDefaultPageSize();
 			limit = Math.min(limit, theServer.getPagingProvider().getMaximumPageSize());
 
+			String nextCursor = null;
+			String previousCursor = null;
+			if (theResult instanceof IPagingCursorBundleProvider) {
+				nextCursor = ((IPagingCursorBundleProvider) theResult).getNextPageCursor();
+				previousCursor = ((IPagingCursorBundleProvider) theResult).getPreviousPageCursor();
+			}
+
 			if (searchId != null) {
 				if (theOffset + numToReturn < theResult.size()) {
 					myBundle.addLink().setRelation(Constants.LINK_NEXT)
-							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, theResponseEncoding, thePrettyPrint, theBundleType));
+							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, theOffset + numToReturn, numToReturn, nextCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 				if (theOffset > 0) {
 					int start = Math.max(0, theOffset - limit);
 					myBundle.addLink().setRelation(Constants.LINK_PREVIOUS)
-							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, theResponseEncoding, thePrettyPrint, theBundleType));
+							.setUrl(RestfulServerUtils.createPagingLink(theIncludes, theServerBase, searchId, start, limit, previousCursor, theResponseEncoding, thePrettyPrint, theBundleType));
 				}
 			}
 		}
@@ -1,5 +1,6 @@
 package org.hl7.fhir.dstu3.hapi.validation;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,6 +16,7 @@ import org.hl7.fhir.dstu3.validation.IResourceValidator.BestPracticeWarningLevel
 import org.hl7.fhir.dstu3.validation.IResourceValidator.IdStatus;
 import org.hl7.fhir.dstu3.validation.InstanceValidator;
 import org.hl7.fhir.dstu3.validation.ValidationMessage;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -26,18 +28,23 @@ import com.google.gson.JsonObject;
 
 import ca.uhn.fhir.context.ConfigurationException;
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IJsonLikeParser;
+import ca.uhn.fhir.parser.json.GsonTreeWriter;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.validation.IValidationContext;
 import ca.uhn.fhir.validation.IValidatorModule;
+import ca.uhn.fhir.validation.ValidationContext;
 
 public class FhirInstanceValidator extends BaseValidatorBridge implements IValidatorModule {
 
+	private static final Gson ourGson = new GsonBuilder().create();
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirInstanceValidator.class);
 	private BestPracticeWarningLevel myBestPracticeWarningLevel;
 	private DocumentBuilderFactory myDocBuilderFactory;
 	private StructureDefinition myStructureDefintion;
 	private IValidationSupport myValidationSupport;
+	private volatile HapiWorkerContext myWorkerContext;
 
 	/**
 	 * Constructor
@@ -125,21 +132,97 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 	 */
 	public void setValidationSupport(IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myWorkerContext = null;
 	}
 
-	protected List<ValidationMessage> validate(final FhirContext theCtx, String theInput, EncodingEnum theEncoding) {
-		HapiWorkerContext workerContext = new HapiWorkerContext(theCtx, myValidationSupport);
+	/**
+	 * Discards any structure definitions, ValueSet expansions, etc. which have been cached by this
+	 * validator. Structure definitions are fetched from the {@link IValidationSupport validation support}
+	 * once and then reused for subsequent validations, so this method should be called if the
+	 * validation support starts returning different content (e.g. because new profiles have been
+	 * added to it).
+	 */
+	public void invalidateCaches() {
+		myWorkerContext = null;
+	}
 
-		InstanceValidator v;
+	private InstanceValidator newInstanceValidator(HapiWorkerContext theWorkerContext) {
+		InstanceValidator retVal;
 		try {
-			v = new InstanceValidator(workerContext);
+			retVal = new InstanceValidator(theWorkerContext);
 		} catch (Exception e) {
 			throw new ConfigurationException(e);
 		}
 
-		v.setBestPracticeWarningLevel(myBestPracticeWarningLevel);
-		v.setAnyExtensionsAllowed(true);
-		v.setResourceIdRule(IdStatus.OPTIONAL);
+		retVal.setBestPracticeWarningLevel(myBestPracticeWarningLevel);
+		retVal.setAnyExtensionsAllowed(true);
+		retVal.setResourceIdRule(IdStatus.OPTIONAL);
+		return retVal;
+	}
+
+	/**
+	 * Returns the shared worker context for the given FHIR context, creating it if needed. The
+	 * worker context caches conformance resources and is thread safe, but the InstanceValidator
+	 * itself is not, so a new one is still created for each validation.
+	 */
+	private HapiWorkerContext provideWorkerContext(FhirContext theCtx) {
+		HapiWorkerContext retVal = myWorkerContext;
+		if (retVal == null || retVal.getFhirContext() != theCtx || retVal.getValidationSupport() != myValidationSupport) {
+			retVal = new HapiWorkerContext(theCtx, myValidationSupport);
+			myWorkerContext = retVal;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Validates an element model which has already been parsed (e.g. using
+	 * {@link org.hl7.fhir.dstu3.elementmodel.Manager}), avoiding the need to encode and
+	 * re-parse the resource.
+	 * 
+	 * @since 2.2
+	 */
+	public List<ValidationMessage> validate(FhirContext theCtx, org.hl7.fhir.dstu3.elementmodel.Element theElement) {
+		HapiWorkerContext workerContext = provideWorkerContext(theCtx);
+		InstanceValidator v = newInstanceValidator(workerContext);
+
+		List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+		StructureDefinition profile = findStructureDefinitionForResourceName(workerContext, theElement.fhirType());
+		if (profile != null) {
+			try {
+				v.validate(null, messages, theElement, profile);
+			} catch (Exception e) {
+				throw new InternalErrorException("Unexpected failure while validating resource", e);
+			}
+		}
+		return filterMessages(messages);
+	}
+
+	/**
+	 * Validates a resource which has already been parsed. The resource is encoded directly into
+	 * an in-memory JSON tree which is handed to the validator, instead of being encoded to a
+	 * string and then parsed into a DOM or JSON tree again.
+	 * 
+	 * @since 2.2
+	 */
+	public List<ValidationMessage> validate(FhirContext theCtx, IBaseResource theResource) {
+		GsonTreeWriter writer = new GsonTreeWriter();
+		try {
+			((IJsonLikeParser) theCtx.newJsonParser()).encodeResourceToJsonLikeWriter(theResource, writer);
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+
+		HapiWorkerContext workerContext = provideWorkerContext(theCtx);
+		InstanceValidator v = newInstanceValidator(workerContext);
+
+		List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+		validateJson(workerContext, v, writer.getRoot().getAsJsonObject(), messages);
+		return filterMessages(messages);
+	}
+
+	protected List<ValidationMessage> validate(final FhirContext theCtx, String theInput, EncodingEnum theEncoding) {
+		HapiWorkerContext workerContext = provideWorkerContext(theCtx);
+		InstanceValidator v = newInstanceValidator(workerContext);
 
 		List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
 
@@ -158,7 +241,7 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 			}
 
 			String resourceName = determineResourceName(document);
-			StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, resourceName);
+			StructureDefinition profile = findStructureDefinitionForResourceName(workerContext, resourceName);
 			if (profile != null) {
 				try {
 					v.validate(null, messages, document, profile);
@@ -167,22 +250,28 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 				}
 			}
 		} else if (theEncoding == EncodingEnum.JSON) {
-			Gson gson = new GsonBuilder().create();
-			JsonObject json = gson.fromJson(theInput, JsonObject.class);
-
-			String resourceName = json.get("resourceType").getAsString();
-			StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, resourceName);
-			if (profile != null) {
-				try {
-					v.validate(null, messages, json, profile);
-				} catch (Exception e) {
-					throw new InternalErrorException("Unexpected failure while validating resource", e);
-				}
-			}
+			JsonObject json = ourGson.fromJson(theInput, JsonObject.class);
+			validateJson(workerContext, v, json, messages);
 		} else {
 			throw new IllegalArgumentException("Unknown encoding: " + theEncoding);
 		}
 
+		return filterMessages(messages);
+	}
+
+	private void validateJson(HapiWorkerContext theWorkerContext, InstanceValidator theValidator, JsonObject theJson, List<ValidationMessage> theMessages) {
+		String resourceName = theJson.get("resourceType").getAsString();
+		StructureDefinition profile = findStructureDefinitionForResourceName(theWorkerContext, resourceName);
+		if (profile != null) {
+			try {
+				theValidator.validate(null, theMessages, theJson, profile);
+			} catch (Exception e) {
+				throw new InternalErrorException("Unexpected failure while validating resource", e);
+			}
+		}
+	}
+
+	private List<ValidationMessage> filterMessages(List<ValidationMessage> messages) {
 		for (int i = 0; i < messages.size(); i++) {
 			ValidationMessage next = messages.get(i);
 			if ("Binding has no source, so can't be checked".equals(next.getMessage())) {
@@ -193,14 +282,22 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 		return messages;
 	}
 
-	private StructureDefinition findStructureDefinitionForResourceName(final FhirContext theCtx, String resourceName) {
+	private StructureDefinition findStructureDefinitionForResourceName(HapiWorkerContext theWorkerContext, String resourceName) {
 		String sdName = "http://hl7.org/fhir/StructureDefinition/" + resourceName;
-		StructureDefinition profile = myStructureDefintion != null ? myStructureDefintion : myValidationSupport.fetchStructureDefinition(theCtx, sdName);
+		StructureDefinition profile = myStructureDefintion != null ? myStructureDefintion : theWorkerContext.fetchStructureDefinition(sdName);
 		return profile;
 	}
 
 	@Override
 	protected List<ValidationMessage> validate(IValidationContext<?> theCtx) {
+		/*
+		 * A ValidationContext always wraps a resource which has already been parsed, so it is
+		 * validated directly. Other contexts (e.g. for raw text) are validated as text, so that
+		 * the validator sees exactly what was supplied.
+		 */
+		if (theCtx instanceof ValidationContext && theCtx.getResource() instanceof IBaseResource) {
+			return validate(theCtx.getFhirContext(), (IBaseResource) theCtx.getResource());
+		}
 		return validate(theCtx.getFhirContext(), theCtx.getResourceAsString(), theCtx.getResourceAsStringEncoding());
 	}
 
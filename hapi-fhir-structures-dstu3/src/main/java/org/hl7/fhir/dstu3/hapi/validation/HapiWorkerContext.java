@@ -1,16 +1,18 @@
 package org.hl7.fhir.dstu3.hapi.validation;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.dstu3.context.IWorkerContext;
@@ -23,6 +25,8 @@ import org.hl7.fhir.dstu3.model.CodeType;
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.Coding;
 import org.hl7.fhir.dstu3.model.ConceptMap;
+import org.hl7.fhir.dstu3.model.ElementDefinition;
+import org.hl7.fhir.dstu3.model.ElementDefinition.ElementDefinitionConstraintComponent;
 import org.hl7.fhir.dstu3.model.ExpansionProfile;
 import org.hl7.fhir.dstu3.model.MetadataResource;
 import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
@@ -37,6 +41,8 @@ import org.hl7.fhir.dstu3.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.hl7.fhir.dstu3.terminologies.ValueSetExpander;
 import org.hl7.fhir.dstu3.terminologies.ValueSetExpanderFactory;
 import org.hl7.fhir.dstu3.terminologies.ValueSetExpanderSimple;
+import org.hl7.fhir.dstu3.utils.FHIRLexer.FHIRLexerException;
+import org.hl7.fhir.dstu3.utils.FluentPathEngine;
 import org.hl7.fhir.dstu3.utils.INarrativeGenerator;
 import org.hl7.fhir.dstu3.validation.IResourceValidator;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -47,11 +53,41 @@ import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.util.CoverageIgnore;
 
+/**
+ * Worker context used by the instance validator. Structure definitions and other conformance
+ * resources fetched from the {@link IValidationSupport validation support}, as well as ValueSet
+ * expansions, are cached until {@link #invalidateCaches()} is called, so a single instance is
+ * intended to be reused across many validations. This class is thread safe.
+ */
 public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander, ValueSetExpanderFactory {
+
+	/**
+	 * Key used by the InstanceValidator to cache parsed invariant expressions on
+	 * each constraint
+	 */
+	private static final String EXPRESSION_CACHE_KEY = "validator.expression.cache";
+
+	/**
+	 * The maximum number of ValueSet expansions which are cached
+	 */
+	static final int MAX_EXPANSION_CACHE_SIZE = 500;
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(HapiWorkerContext.class);
+
+	private volatile List<StructureDefinition> myAllStructures;
 	private final FhirContext myCtx;
-	private Map<String, Resource> myFetchedResourceCache = new HashMap<String, Resource>();
-	private IValidationSupport myValidationSupport;
+	private final Map<String, ValueSetExpansionOutcome> myExpansionCache = Collections.synchronizedMap(new LinkedHashMap<String, ValueSetExpansionOutcome>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ValueSetExpansionOutcome> theEldest) {
+			return size() > MAX_EXPANSION_CACHE_SIZE;
+		}
+	});
 	private ExpansionProfile myExpansionProfile;
+	private final Map<String, Resource> myFetchedResourceCache = new ConcurrentHashMap<String, Resource>();
+	private FluentPathEngine myFluentPathEngine;
+	private IValidationSupport myValidationSupport;
 
 	public HapiWorkerContext(FhirContext theCtx, IValidationSupport theValidationSupport) {
 		Validate.notNull(theCtx, "theCtx must not be null");
@@ -62,7 +98,35 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
 	@Override
 	public List<StructureDefinition> allStructures() {
-		return myValidationSupport.fetchAllStructureDefinitions(myCtx);
+		List<StructureDefinition> retVal = myAllStructures;
+		if (retVal == null) {
+			retVal = Collections.unmodifiableList(new ArrayList<StructureDefinition>(myValidationSupport.fetchAllStructureDefinitions(myCtx)));
+			myAllStructures = retVal;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Parses the invariant expressions in a newly fetched structure definition up front
+	 * so that structure definitions which are shared between threads are never modified
+	 * while they are being used for validation
+	 */
+	private synchronized void compileInvariants(StructureDefinition theStructureDefinition) {
+		if (myFluentPathEngine == null) {
+			myFluentPathEngine = new FluentPathEngine(this);
+		}
+		for (ElementDefinition nextElement : theStructureDefinition.getSnapshot().getElement()) {
+			for (ElementDefinitionConstraintComponent nextConstraint : nextElement.getConstraint()) {
+				if (nextConstraint.hasExpression() && nextConstraint.getUserData(EXPRESSION_CACHE_KEY) == null) {
+					try {
+						nextConstraint.setUserData(EXPRESSION_CACHE_KEY, myFluentPathEngine.parse(nextConstraint.getExpression()));
+					} catch (FHIRLexerException e) {
+						// The validator will report this when it tries to evaluate the expression
+						ourLog.debug("Failed to parse invariant expression: {}", e.toString());
+					}
+				}
+			}
+		}
 	}
 
 	@Override
@@ -84,6 +148,9 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 			if (retVal == null) {
 				retVal = myValidationSupport.fetchResource(myCtx, theClass, theUri);
 				if (retVal != null) {
+					if (retVal instanceof StructureDefinition) {
+						compileInvariants((StructureDefinition) retVal);
+					}
 					myFetchedResourceCache.put(theUri, retVal);
 				}
 			}
@@ -91,6 +158,48 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 		}
 	}
 
+	/**
+	 * Fetches a structure definition using {@link IValidationSupport#fetchStructureDefinition(FhirContext, String)},
+	 * caching the result
+	 */
+	public StructureDefinition fetchStructureDefinition(String theUrl) {
+		Resource retVal = myFetchedResourceCache.get(theUrl);
+		if (retVal instanceof StructureDefinition) {
+			return (StructureDefinition) retVal;
+		}
+		StructureDefinition structureDefinition = myValidationSupport.fetchStructureDefinition(myCtx, theUrl);
+		if (structureDefinition != null) {
+			compileInvariants(structureDefinition);
+			myFetchedResourceCache.put(theUrl, structureDefinition);
+		}
+		return structureDefinition;
+	}
+
+	/**
+	 * Discards all cached structure definitions, other conformance resources and ValueSet
+	 * expansions, so that they are fetched from the validation support again the next time
+	 * they are needed. This should be called when the content of the validation support changes.
+	 */
+	public void invalidateCaches() {
+		myAllStructures = null;
+		myFetchedResourceCache.clear();
+		myExpansionCache.clear();
+	}
+
+	/**
+	 * Returns the FHIR context this worker context was created for
+	 */
+	public FhirContext getFhirContext() {
+		return myCtx;
+	}
+
+	/**
+	 * Returns the validation support this worker context fetches resources from
+	 */
+	public IValidationSupport getValidationSupport() {
+		return myValidationSupport;
+	}
+
 	@Override
 	public List<ConceptMap> findMapsForSource(String theUrl) {
 		throw new UnsupportedOperationException();
@@ -295,6 +404,16 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
 	@Override
 	public ValueSetExpansionOutcome expand(ValueSet theSource, ExpansionProfile theProfile) {
+		String cacheKey = null;
+		if (theProfile == null && theSource != null && theSource.hasUrl()) {
+			// Include the versions so that an updated ValueSet is not answered from the cache
+			cacheKey = theSource.getUrl() + '|' + defaultString(theSource.getVersion()) + '|' + defaultString(theSource.getIdElement().getVersionIdPart());
+			ValueSetExpansionOutcome cached = myExpansionCache.get(cacheKey);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
 		ValueSetExpansionOutcome vso;
 		try {
 			vso = getExpander().expand(theSource, theProfile);
@@ -306,6 +425,9 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 		if (vso.getError() != null) {
 			throw new InvalidRequestException(vso.getError());
 		} else {
+			if (cacheKey != null) {
+				myExpansionCache.put(cacheKey, vso);
+			}
 			return vso;
 		}
 	}
@@ -0,0 +1,161 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class BundleEntryIteratorDstu3Test {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+
+	private Bundle createBundle() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		bundle.setTotal(3);
+		bundle.addLink().setRelation("next").setUrl("http://example.com/fhir?_getpages=1");
+
+		Patient pt = new Patient();
+		pt.setId("Patient/1/_history/2");
+		pt.addName().addFamily("FAMILY");
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/1").setResource(pt).getSearch().setScore(1);
+
+		// An entry with no resource should be skipped
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/99");
+
+		Observation obs = new Observation();
+		obs.getCode().setText("CODE");
+		Patient contained = new Patient();
+		contained.setId("#1");
+		contained.setActive(true);
+		obs.getContained().add(contained);
+		obs.setSubject(new Reference("#1"));
+		bundle.addEntry().setResource(obs);
+
+		Bundle nested = new Bundle();
+		nested.addEntry().setResource(new Patient().addName(new HumanName().addFamily("NESTED")));
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Bundle/3").setResource(nested);
+		return bundle;
+	}
+
+	private List<IBaseResource> iterate(IParser theParser, String theEncoded) {
+		List<IBaseResource> retVal = new ArrayList<IBaseResource>();
+		IBundleEntryIterator iter = theParser.parseBundleEntries(new StringReader(theEncoded));
+		try {
+			while (iter.hasNext()) {
+				retVal.add(iter.next());
+			}
+			try {
+				iter.next();
+				fail();
+			} catch (NoSuchElementException e) {
+				// good
+			}
+		} finally {
+			iter.close();
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testIterateJson() {
+		IParser parser = ourCtx.newJsonParser();
+		String encoded = parser.setPrettyPrint(true).encodeResourceToString(createBundle());
+		validate(iterate(parser, encoded));
+	}
+
+	@Test
+	public void testIterateXml() {
+		IParser parser = ourCtx.newXmlParser();
+		String encoded = parser.setPrettyPrint(true).encodeResourceToString(createBundle());
+		validate(iterate(parser, encoded));
+	}
+
+	@Test
+	public void testIterateXmlCompact() {
+		IParser parser = ourCtx.newXmlParser();
+		String encoded = parser.encodeResourceToString(createBundle());
+		validate(iterate(parser, encoded));
+	}
+
+	@Test
+	public void testIterateEmptyBundle() {
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(new Bundle().setType(BundleType.SEARCHSET));
+		assertEquals(0, iterate(ourCtx.newXmlParser(), encoded).size());
+
+		encoded = ourCtx.newJsonParser().encodeResourceToString(new Bundle().setType(BundleType.SEARCHSET));
+		assertEquals(0, iterate(ourCtx.newJsonParser(), encoded).size());
+	}
+
+	@Test
+	public void testIterateNonBundle() {
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(new Patient());
+		try {
+			ourCtx.newXmlParser().parseBundleEntries(new StringReader(encoded)).hasNext();
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Expected a Bundle but found: Patient", e.getMessage());
+		}
+
+		encoded = ourCtx.newJsonParser().encodeResourceToString(new Patient());
+		try {
+			ourCtx.newJsonParser().parseBundleEntries(new StringReader(encoded)).hasNext();
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Expected a Bundle but found: Patient", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testIteratorStopsAtEndOfBundle() {
+		IParser parser = ourCtx.newXmlParser();
+		String encoded = parser.encodeResourceToString(createBundle());
+		IBundleEntryIterator iter = parser.parseBundleEntries(new StringReader(encoded));
+		assertTrue(iter.hasNext());
+		iter.close();
+		assertFalse(iter.hasNext());
+	}
+
+	private void validate(List<IBaseResource> theResources) {
+		assertEquals(3, theResources.size());
+
+		Patient pt = (Patient) theResources.get(0);
+		assertEquals("http://example.com/fhir/Patient/1/_history/2", pt.getIdElement().getValue());
+		assertEquals("FAMILY", pt.getName().get(0).getFamily().get(0).getValue());
+
+		Observation obs = (Observation) theResources.get(1);
+		assertEquals("CODE", obs.getCode().getText());
+		assertEquals("#1", obs.getSubject().getReference());
+		assertEquals(1, obs.getContained().size());
+		assertTrue(((Patient) obs.getContained().get(0)).getActive());
+
+		Bundle nested = (Bundle) theResources.get(2);
+		assertEquals("http://example.com/fhir/Bundle/3", nested.getIdElement().getValue());
+		assertEquals(1, nested.getEntry().size());
+		assertEquals("NESTED", ((Patient) nested.getEntry().get(0).getResource()).getName().get(0).getFamily().get(0).getValue());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
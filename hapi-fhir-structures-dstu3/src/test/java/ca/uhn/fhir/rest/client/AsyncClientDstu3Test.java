@@ -0,0 +1,511 @@
+package ca.uhn.fhir.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseBinary;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.internal.stubbing.defaultanswers.ReturnsDeepStubs;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.Header;
+import ca.uhn.fhir.rest.client.api.IAsyncHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IHttpResponseCallback;
+import ca.uhn.fhir.rest.gclient.IAsyncClientExecutable;
+import ca.uhn.fhir.rest.gclient.IClientExecutableCallback;
+import ca.uhn.fhir.rest.gclient.IPageIterator;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.TestUtil;
+
+public class AsyncClientDstu3Test {
+
+	private static FhirContext ourCtx;
+	private HttpClient myHttpClient;
+	private HttpResponse myHttpResponse;
+	private List<Integer> myRequestedPages;
+
+	@Before
+	public void before() {
+		myHttpClient = mock(HttpClient.class, new ReturnsDeepStubs());
+		ourCtx.getRestfulClientFactory().setHttpClient(myHttpClient);
+		ourCtx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		getFactory().setAsyncExecutor(null);
+		myHttpResponse = mock(HttpResponse.class, new ReturnsDeepStubs());
+		myRequestedPages = Collections.synchronizedList(new ArrayList<Integer>());
+	}
+
+	private static RestfulClientFactory getFactory() {
+		return (RestfulClientFactory) ourCtx.getRestfulClientFactory();
+	}
+
+	private static IAsyncClientExecutable<?, Patient> readAsync(IGenericClient theClient) {
+		return (IAsyncClientExecutable<?, Patient>) theClient.read().resource(Patient.class).withId("123");
+	}
+
+	private void prepareResponse(int theStatus, final String theBody) throws IOException {
+		when(myHttpClient.execute(any(HttpUriRequest.class))).thenReturn(myHttpResponse);
+		when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), theStatus, "OK"));
+		when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_XML_NEW + "; charset=UTF-8"));
+		when(myHttpResponse.getEntity().getContent()).thenAnswer(new Answer<ReaderInputStream>() {
+			@Override
+			public ReaderInputStream answer(InvocationOnMock theInvocation) throws Throwable {
+				return new ReaderInputStream(new StringReader(theBody), Charset.forName("UTF-8"));
+			}
+		});
+	}
+
+	private void preparePatientResponse() throws IOException {
+		Patient patient = new Patient();
+		patient.setId("Patient/123/_history/1");
+		patient.addName().addFamily("FAMILY");
+		prepareResponse(200, ourCtx.newXmlParser().encodeResourceToString(patient));
+	}
+
+	private Bundle createPage(int thePage, int thePageCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		for (int i = 0; i < 3; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + thePage + "-" + i);
+			bundle.addEntry().setResource(patient);
+		}
+		if (thePage + 1 < thePageCount) {
+			bundle.addLink().setRelation("next").setUrl("http://example.com/fhir?_getpages=ABC&page=" + (thePage + 1));
+		}
+		return bundle;
+	}
+
+	private void preparePagedResponses(final int thePageCount, final int theFailingPage) throws IOException {
+		when(myHttpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+			@Override
+			public HttpResponse answer(InvocationOnMock theInvocation) throws Throwable {
+				String url = ((HttpUriRequest) theInvocation.getArguments()[0]).getURI().toString();
+				int page = Integer.parseInt(url.substring(url.lastIndexOf('=') + 1));
+				myRequestedPages.add(page);
+				HttpResponse response = mock(HttpResponse.class, new ReturnsDeepStubs());
+				final String body;
+				if (page == theFailingPage) {
+					when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 500, "Internal Error"));
+					OperationOutcome oo = new OperationOutcome();
+					oo.addIssue().setDiagnostics("Page failed");
+					body = ourCtx.newXmlParser().encodeResourceToString(oo);
+				} else {
+					when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+					body = ourCtx.newXmlParser().encodeResourceToString(createPage(page, thePageCount));
+				}
+				when(response.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_XML_NEW + "; charset=UTF-8"));
+				when(response.getEntity().getContent()).thenReturn(new ReaderInputStream(new StringReader(body), Charset.forName("UTF-8")));
+				return response;
+			}
+		});
+	}
+
+	@Test
+	public void testIteratePages() throws Exception {
+		preparePagedResponses(4, -1);
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		IPageIterator iter = client.loadPage().iterate(createPage(0, 4), 1);
+
+		List<String> ids = new ArrayList<String>();
+		while (iter.hasNext()) {
+			ids.add(iter.next().getIdElement().getIdPart());
+		}
+		iter.close();
+
+		assertEquals(12, ids.size());
+		assertEquals("0-0", ids.get(0));
+		assertEquals("3-2", ids.get(11));
+		assertEquals(4, iter.getPageCount());
+		assertEquals(null, iter.getNextPageUrl());
+		assertEquals(Arrays.asList(1, 2, 3), myRequestedPages);
+	}
+
+	@Test
+	public void testIteratePagesFailure() throws Exception {
+		preparePagedResponses(4, 2);
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		IPageIterator iter = client.loadPage().iterate(createPage(0, 4));
+
+		List<String> ids = new ArrayList<String>();
+		try {
+			while (iter.hasNext()) {
+				ids.add(iter.next().getIdElement().getIdPart());
+			}
+			fail();
+		} catch (InternalErrorException e) {
+			// Resources from the pages before the failure are still returned
+			assertEquals(6, ids.size());
+			assertEquals("1-2", ids.get(5));
+			assertEquals("http://example.com/fhir?_getpages=ABC&page=2", iter.getNextPageUrl());
+			assertEquals(2, iter.getPageCount());
+		} finally {
+			iter.close();
+		}
+	}
+
+	@Test
+	public void testIteratePagesClose() throws Exception {
+		preparePagedResponses(100, -1);
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		IPageIterator iter = client.loadPage().iterate(createPage(0, 100), 2);
+		assertTrue(iter.hasNext());
+		iter.next();
+		iter.close();
+
+		assertFalse(iter.hasNext());
+		Thread.sleep(200);
+		// Prefetching is bounded, so closing early means most pages are never requested
+		assertTrue(myRequestedPages.toString(), myRequestedPages.size() <= 3);
+	}
+
+	@Test
+	public void testReadAsync() throws Exception {
+		preparePatientResponse();
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		Future<Patient> future = readAsync(client).executeAsync();
+
+		Patient patient = future.get(10, TimeUnit.SECONDS);
+		assertEquals("FAMILY", patient.getName().get(0).getFamily().get(0).getValue());
+		assertEquals("123", patient.getIdElement().getIdPart());
+	}
+
+	@Test
+	public void testReadAsyncWithCallback() throws Exception {
+		preparePatientResponse();
+
+		final AtomicReference<Patient> result = new AtomicReference<Patient>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		Future<Patient> future = readAsync(client).executeAsync(new IClientExecutableCallback<Patient>() {
+			@Override
+			public void onFailure(Throwable theException) {
+				fail(theException.toString());
+			}
+
+			@Override
+			public void onSuccess(Patient theResult) {
+				result.set(theResult);
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertSame(result.get(), future.get());
+		assertEquals("FAMILY", result.get().getName().get(0).getFamily().get(0).getValue());
+	}
+
+	@Test
+	public void testReadAsyncFailure() throws Exception {
+		OperationOutcome oo = new OperationOutcome();
+		oo.addIssue().setDiagnostics("Not here");
+		prepareResponse(404, ourCtx.newXmlParser().encodeResourceToString(oo));
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		Future<Patient> future = readAsync(client).executeAsync(new IClientExecutableCallback<Patient>() {
+			@Override
+			public void onFailure(Throwable theException) {
+				failure.set(theException);
+			}
+
+			@Override
+			public void onSuccess(Patient theResult) {
+				fail();
+			}
+		});
+
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ResourceNotFoundException);
+			assertSame(e.getCause(), failure.get());
+		}
+	}
+
+	@Test
+	public void testReadAsyncCallbackError() throws Exception {
+		preparePatientResponse();
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		client.registerInterceptor(new IClientInterceptor() {
+			@Override
+			public void interceptRequest(IHttpRequest theRequest) {
+				// nothing
+			}
+
+			@Override
+			public void interceptResponse(IHttpResponse theResponse) throws IOException {
+				throw new AssertionError("Response rejected");
+			}
+		});
+		Future<Patient> future = readAsync(client).executeAsync(new IClientExecutableCallback<Patient>() {
+			@Override
+			public void onFailure(Throwable theException) {
+				failure.set(theException);
+			}
+
+			@Override
+			public void onSuccess(Patient theResult) {
+				fail();
+			}
+		});
+
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AssertionError);
+			assertSame(e.getCause(), failure.get());
+		}
+	}
+
+	@Test
+	public void testReadAsyncUsingAsyncHttpRequest() throws Exception {
+		preparePatientResponse();
+
+		FhirContext ctx = FhirContext.forDstu3();
+		AsyncApacheRestfulClientFactory factory = new AsyncApacheRestfulClientFactory(ctx);
+		ctx.setRestfulClientFactory(factory);
+		factory.setHttpClient(myHttpClient);
+		factory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+		ExecutorService executor = mock(ExecutorService.class);
+		factory.setAsyncExecutor(executor);
+
+		final AtomicReference<String> requestThreadName = new AtomicReference<String>();
+		IGenericClient client = ctx.newRestfulGenericClient("http://example.com/fhir");
+		client.registerInterceptor(new IClientInterceptor() {
+			@Override
+			public void interceptRequest(IHttpRequest theRequest) {
+				requestThreadName.set(Thread.currentThread().getName());
+			}
+
+			@Override
+			public void interceptResponse(IHttpResponse theResponse) throws IOException {
+				// nothing
+			}
+		});
+
+		Patient patient = readAsync(client).executeAsync().get(10, TimeUnit.SECONDS);
+		assertEquals("FAMILY", patient.getName().get(0).getFamily().get(0).getValue());
+
+		// The request is built on the calling thread and never handed to the executor
+		assertEquals(Thread.currentThread().getName(), requestThreadName.get());
+		assertEquals(1, factory.myAsyncRequestCount.get());
+		verifyZeroInteractions(executor);
+	}
+
+	@Test
+	public void testSuppliedExecutorIsUsed() throws Exception {
+		preparePatientResponse();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			getFactory().setAsyncExecutor(executor);
+			assertSame(executor, getFactory().getAsyncExecutor());
+
+			final AtomicReference<String> threadName = new AtomicReference<String>();
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					threadName.set(Thread.currentThread().getName());
+				}
+			}).get();
+
+			IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+			final AtomicReference<String> callbackThreadName = new AtomicReference<String>();
+			readAsync(client).executeAsync(new IClientExecutableCallback<Patient>() {
+				@Override
+				public void onFailure(Throwable theException) {
+					// nothing
+				}
+
+				@Override
+				public void onSuccess(Patient theResult) {
+					callbackThreadName.set(Thread.currentThread().getName());
+				}
+			}).get(10, TimeUnit.SECONDS);
+
+			assertEquals(threadName.get(), callbackThreadName.get());
+		} finally {
+			getFactory().setAsyncExecutor(null);
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDefaultExecutorIsBoundedByPoolSize() throws Exception {
+		RestfulClientFactory factory = getFactory();
+		int poolMaxTotal = factory.getPoolMaxTotal();
+		try {
+			factory.setPoolMaxTotal(3);
+			ExecutorService executor = factory.getAsyncExecutor();
+			assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+
+			factory.setPoolMaxTotal(4);
+			assertTrue(executor.isShutdown());
+			assertEquals(4, ((ThreadPoolExecutor) factory.getAsyncExecutor()).getMaximumPoolSize());
+		} finally {
+			factory.setPoolMaxTotal(poolMaxTotal);
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		ourCtx = FhirContext.forDstu3();
+	}
+
+	/**
+	 * Sends each request on a new thread, as an HTTP client with non-blocking I/O would
+	 */
+	private static class AsyncApacheRestfulClientFactory extends ApacheRestfulClientFactory {
+
+		private final AtomicInteger myAsyncRequestCount = new AtomicInteger();
+
+		public AsyncApacheRestfulClientFactory(FhirContext theFhirContext) {
+			super(theFhirContext);
+		}
+
+		@Override
+		public IHttpClient getHttpClient(StringBuilder theUrl, Map<String, List<String>> theIfNoneExistParams, String theIfNoneExistString, RequestTypeEnum theRequestType, List<Header> theHeaders) {
+			final IHttpClient client = super.getHttpClient(theUrl, theIfNoneExistParams, theIfNoneExistString, theRequestType, theHeaders);
+			return new IHttpClient() {
+				@Override
+				public IHttpRequest createBinaryRequest(FhirContext theContext, IBaseBinary theBinary) {
+					return new AsyncRequest(client.createBinaryRequest(theContext, theBinary));
+				}
+
+				@Override
+				public IHttpRequest createByteRequest(FhirContext theContext, String theContents, String theContentType, EncodingEnum theEncoding) {
+					return new AsyncRequest(client.createByteRequest(theContext, theContents, theContentType, theEncoding));
+				}
+
+				@Override
+				public IHttpRequest createGetRequest(FhirContext theContext, EncodingEnum theEncoding) {
+					return new AsyncRequest(client.createGetRequest(theContext, theEncoding));
+				}
+
+				@Override
+				public IHttpRequest createParamRequest(FhirContext theContext, Map<String, List<String>> theParams, EncodingEnum theEncoding) {
+					return new AsyncRequest(client.createParamRequest(theContext, theParams, theEncoding));
+				}
+			};
+		}
+
+		private class AsyncRequest implements IAsyncHttpRequest {
+
+			private final IHttpRequest myRequest;
+
+			AsyncRequest(IHttpRequest theRequest) {
+				myRequest = theRequest;
+			}
+
+			@Override
+			public void addHeader(String theName, String theValue) {
+				myRequest.addHeader(theName, theValue);
+			}
+
+			@Override
+			public IHttpResponse execute() throws IOException {
+				throw new IllegalStateException("Request should have been sent asynchronously");
+			}
+
+			@Override
+			public void executeAsync(final IHttpResponseCallback theCallback) {
+				myAsyncRequestCount.incrementAndGet();
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							theCallback.onResponse(myRequest.execute());
+						} catch (IOException e) {
+							theCallback.onFailure(e);
+						}
+					}
+				}.start();
+			}
+
+			@Override
+			public Map<String, List<String>> getAllHeaders() {
+				return myRequest.getAllHeaders();
+			}
+
+			@Override
+			public String getHttpVerbName() {
+				return myRequest.getHttpVerbName();
+			}
+
+			@Override
+			public String getRequestBodyFromStream() throws IOException {
+				return myRequest.getRequestBodyFromStream();
+			}
+
+			@Override
+			public String getUri() {
+				return myRequest.getUri();
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,354 @@
+package ca.uhn.fhir.rest.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.internal.stubbing.defaultanswers.ReturnsDeepStubs;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.util.TestUtil;
+
+public class BulkLoaderDstu3Test {
+
+	private static FhirContext ourCtx;
+	private AtomicInteger myConnectionFailures;
+	private HttpClient myHttpClient;
+	private boolean myInterruptOnFailure;
+	private List<Bundle> myRequests;
+	private AtomicInteger myServerErrors;
+
+	@Before
+	public void before() throws IOException {
+		myHttpClient = mock(HttpClient.class, new ReturnsDeepStubs());
+		ourCtx.getRestfulClientFactory().setHttpClient(myHttpClient);
+		ourCtx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		myRequests = Collections.synchronizedList(new ArrayList<Bundle>());
+		myConnectionFailures = new AtomicInteger();
+		myServerErrors = new AtomicInteger();
+		myInterruptOnFailure = false;
+
+		when(myHttpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+			@Override
+			public HttpResponse answer(InvocationOnMock theInvocation) throws Throwable {
+				HttpEntityEnclosingRequestBase request = (HttpEntityEnclosingRequestBase) theInvocation.getArguments()[0];
+				Bundle input = ourCtx.newXmlParser().parseResource(Bundle.class, IOUtils.toString(request.getEntity().getContent(), "UTF-8"));
+				myRequests.add(input);
+				if (myConnectionFailures.getAndDecrement() > 0) {
+					throw new IOException("Connection reset");
+				}
+				if (myServerErrors.getAndDecrement() > 0) {
+					OperationOutcome oo = new OperationOutcome();
+					oo.addIssue().setDiagnostics("Server error");
+					return createResponse(500, oo);
+				}
+				return respond(input);
+			}
+		});
+	}
+
+	private HttpResponse respond(Bundle theInput) {
+		int status = 200;
+		IBaseResource body;
+		boolean transaction = theInput.getType() == BundleType.TRANSACTION;
+		if (transaction && containsFailure(theInput)) {
+			if (myInterruptOnFailure) {
+				Thread.currentThread().interrupt();
+			}
+			status = 400;
+			OperationOutcome oo = new OperationOutcome();
+			oo.addIssue().setDiagnostics("Transaction contains an invalid resource");
+			body = oo;
+		} else {
+			Bundle output = new Bundle();
+			output.setType(transaction ? BundleType.TRANSACTIONRESPONSE : BundleType.BATCHRESPONSE);
+			for (BundleEntryComponent next : theInput.getEntry()) {
+				Patient patient = (Patient) next.getResource();
+				if (isFailure(patient)) {
+					OperationOutcome oo = new OperationOutcome();
+					oo.addIssue().setDiagnostics("Invalid resource");
+					output.addEntry().getResponse().setStatus("400 Bad Request").setOutcome(oo);
+				} else if (next.getRequest().getMethod() == HTTPVerb.PUT) {
+					output.addEntry().getResponse().setStatus("200 OK").setLocation(next.getRequest().getUrl() + "/_history/2");
+				} else {
+					output.addEntry().getResponse().setStatus("201 Created").setLocation("Patient/" + patient.getName().get(0).getFamily().get(0).getValue() + "/_history/1");
+				}
+			}
+			body = output;
+		}
+
+		return createResponse(status, body);
+	}
+
+	private HttpResponse createResponse(int theStatus, IBaseResource theBody) {
+		HttpResponse response = mock(HttpResponse.class, new ReturnsDeepStubs());
+		when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), theStatus, "OK"));
+		when(response.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_XML_NEW + "; charset=UTF-8"));
+		try {
+			when(response.getEntity().getContent()).thenReturn(new ReaderInputStream(new StringReader(ourCtx.newXmlParser().encodeResourceToString(theBody)), Charset.forName("UTF-8")));
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+		return response;
+	}
+
+	private boolean containsFailure(Bundle theInput) {
+		for (BundleEntryComponent next : theInput.getEntry()) {
+			if (isFailure((Patient) next.getResource())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isFailure(Patient thePatient) {
+		return thePatient.getName().get(0).getFamily().get(0).getValue().startsWith("FAIL");
+	}
+
+	private Patient createPatient(String theFamily) {
+		Patient retVal = new Patient();
+		retVal.addName().addFamily(theFamily);
+		return retVal;
+	}
+
+	private BulkLoader createLoader(final List<BulkLoader.Outcome> theOutcomes) {
+		BulkLoader retVal = new BulkLoader(ourCtx.newRestfulGenericClient("http://example.com/fhir"));
+		retVal.setRetryDelayMillis(0);
+		retVal.setListener(new BulkLoader.IOutcomeListener() {
+			@Override
+			public void handleOutcome(BulkLoader.Outcome theOutcome) {
+				theOutcomes.add(theOutcome);
+			}
+		});
+		return retVal;
+	}
+
+	@Test
+	public void testBatchesAndReportsOutcomes() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		loader.setBatchSize(10);
+		loader.setWorkerCount(3);
+
+		for (int i = 0; i < 25; i++) {
+			loader.add(createPatient(i == 7 ? "FAIL" + i : "P" + i));
+		}
+		Patient existing = createPatient("EXISTING");
+		existing.setId("Patient/A");
+		loader.add(existing);
+		loader.close();
+
+		assertEquals(3, myRequests.size());
+		for (Bundle next : myRequests) {
+			assertEquals(BundleType.BATCH, next.getType());
+		}
+		assertEquals(26, outcomes.size());
+		assertEquals(25, loader.getSuccessCount());
+		assertEquals(1, loader.getFailureCount());
+
+		for (BulkLoader.Outcome next : outcomes) {
+			String family = ((Patient) next.getResource()).getName().get(0).getFamily().get(0).getValue();
+			if (family.equals("FAIL7")) {
+				assertFalse(next.isSuccess());
+				assertEquals("400 Bad Request", next.getStatus());
+				assertNotNull(next.getOperationOutcome());
+			} else if (family.equals("EXISTING")) {
+				assertTrue(next.isSuccess());
+				assertEquals("Patient/A/_history/2", next.getLocation());
+			} else {
+				assertTrue(next.isSuccess());
+				assertEquals("Patient/" + family + "/_history/1", next.getLocation());
+			}
+		}
+	}
+
+	@Test
+	public void testMaxBatchBytes() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		int size = ourCtx.newJsonParser().encodeResourceToString(createPatient("P0")).length();
+		loader.setMaxBatchBytes(size * 2);
+
+		for (int i = 0; i < 6; i++) {
+			loader.add(createPatient("P" + i));
+		}
+		loader.close();
+
+		assertEquals(3, myRequests.size());
+		assertEquals(6, loader.getSuccessCount());
+	}
+
+	/**
+	 * Updates can safely be sent again, so a bundle containing only updates is retried
+	 */
+	@Test
+	public void testRetryAfterConnectionFailure() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		myConnectionFailures.set(2);
+
+		for (int i = 0; i < 5; i++) {
+			Patient patient = createPatient("P" + i);
+			patient.setId("Patient/" + i);
+			loader.add(patient);
+		}
+		loader.close();
+
+		assertEquals(3, myRequests.size());
+		assertEquals(5, loader.getSuccessCount());
+		assertEquals(0, loader.getFailureCount());
+		assertEquals(0, loader.getUnknownCount());
+	}
+
+	/**
+	 * The server may have stored some of the resources before the connection failed, so sending
+	 * the creates again could duplicate them
+	 */
+	@Test
+	public void testCreatesNotResentAfterConnectionFailure() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		myConnectionFailures.set(1);
+
+		for (int i = 0; i < 4; i++) {
+			loader.add(createPatient("P" + i));
+		}
+		Patient existing = createPatient("EXISTING");
+		existing.setId("Patient/A");
+		loader.add(existing);
+		loader.close();
+
+		assertEquals(1, myRequests.size());
+		assertEquals(0, loader.getSuccessCount());
+		assertEquals(0, loader.getFailureCount());
+		assertEquals(5, loader.getUnknownCount());
+		for (BulkLoader.Outcome next : outcomes) {
+			assertFalse(next.isSuccess());
+			assertTrue(next.isUnknown());
+			assertNotNull(next.getException());
+		}
+	}
+
+	/**
+	 * A failed transaction was rolled back, so it can be retried even if it contains creates
+	 */
+	@Test
+	public void testTransactionRetriedAfterServerError() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		loader.setTransaction(true);
+		myServerErrors.set(1);
+
+		for (int i = 0; i < 4; i++) {
+			loader.add(createPatient("P" + i));
+		}
+		loader.close();
+
+		assertEquals(2, myRequests.size());
+		assertEquals(4, loader.getSuccessCount());
+		assertEquals(0, loader.getUnknownCount());
+	}
+
+	@Test
+	public void testSplitStopsWhenInterrupted() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		loader.setTransaction(true);
+		myInterruptOnFailure = true;
+
+		for (int i = 0; i < 8; i++) {
+			loader.add(createPatient(i == 5 ? "FAIL" + i : "P" + i));
+		}
+		loader.close();
+
+		assertEquals(1, myRequests.size());
+		assertEquals(0, loader.getSuccessCount());
+		assertEquals(8, loader.getFailureCount());
+		assertEquals(0, loader.getUnknownCount());
+	}
+
+	@Test
+	public void testTransactionIsSplitToIsolateFailure() {
+		List<BulkLoader.Outcome> outcomes = Collections.synchronizedList(new ArrayList<BulkLoader.Outcome>());
+		BulkLoader loader = createLoader(outcomes);
+		loader.setTransaction(true);
+		loader.setBatchSize(8);
+		loader.setWorkerCount(1);
+
+		for (int i = 0; i < 8; i++) {
+			loader.add(createPatient(i == 5 ? "FAIL" + i : "P" + i));
+		}
+		loader.flush();
+
+		// 8 -> 4 + 4 (bad) -> 2 + 2 (bad) -> 1 + 1 (bad)
+		assertEquals(7, myRequests.size());
+		assertEquals(BundleType.TRANSACTION, myRequests.get(0).getType());
+		assertEquals(7, loader.getSuccessCount());
+		assertEquals(1, loader.getFailureCount());
+
+		BulkLoader.Outcome failure = null;
+		for (BulkLoader.Outcome next : outcomes) {
+			if (!next.isSuccess()) {
+				failure = next;
+			}
+		}
+		assertEquals("FAIL5", ((Patient) failure.getResource()).getName().get(0).getFamily().get(0).getValue());
+		assertEquals("400", failure.getStatus());
+		assertNotNull(failure.getException());
+
+		loader.close();
+		try {
+			loader.add(createPatient("P9"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("This BulkLoader has been closed", e.getMessage());
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		ourCtx = FhirContext.forDstu3();
+	}
+
+}
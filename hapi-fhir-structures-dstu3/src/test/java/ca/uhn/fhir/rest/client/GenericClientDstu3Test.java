@@ -8,6 +8,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -57,6 +58,7 @@ import ca.uhn.fhir.model.primitive.StringDt;
 import ca.uhn.fhir.model.primitive.UriDt;
 import ca.uhn.fhir.parser.CustomTypeDstu3Test;
 import ca.uhn.fhir.parser.CustomTypeDstu3Test.MyCustomPatient;
+import ca.uhn.fhir.parser.IBundleEntryIterator;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.api.PreferReturnEnum;
@@ -1631,6 +1633,72 @@ public class GenericClientDstu3Test {
 		}
 	}
 
+	@Test
+	public void testSearchIterateEntries() throws Exception {
+		Bundle bundle = new Bundle();
+		bundle.setTotal(2);
+		bundle.addLink().setRelation("next").setUrl("http://example.com/fhir?_getpages=1");
+		Patient pt1 = new Patient();
+		pt1.addName().addFamily("FAM1");
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/1").setResource(pt1);
+		Patient pt2 = new Patient();
+		pt2.addName().addFamily("FAM2");
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/2").setResource(pt2).getSearch().setScore(1);
+		final String msg = ourCtx.newXmlParser().encodeResourceToString(bundle);
+
+		final List<InputStream> streams = new ArrayList<InputStream>();
+		final List<InputStream> closedStreams = new ArrayList<InputStream>();
+		ArgumentCaptor<HttpUriRequest> capt = ArgumentCaptor.forClass(HttpUriRequest.class);
+		when(myHttpClient.execute(capt.capture())).thenReturn(myHttpResponse);
+		when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+		when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_XML_NEW + "; charset=UTF-8"));
+		when(myHttpResponse.getEntity().getContent()).then(new Answer<InputStream>() {
+			@Override
+			public InputStream answer(InvocationOnMock theInvocation) throws Throwable {
+				InputStream retVal = new ReaderInputStream(new StringReader(msg), Charset.forName("UTF-8")) {
+					@Override
+					public void close() throws IOException {
+						closedStreams.add(this);
+						super.close();
+					}
+				};
+				streams.add(retVal);
+				return retVal;
+			}
+		});
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+		((GenericClient) client).setKeepResponses(false);
+
+		//@formatter:off
+		IBundleEntryIterator iter = client
+			.search()
+			.forResource(Patient.class)
+			.where(Patient.NAME.matches().value("FAM"))
+			.iterateEntries();
+		//@formatter:on
+		try {
+			assertEquals("http://example.com/fhir/Patient?name=FAM", capt.getValue().getURI().toString());
+			assertEquals(0, closedStreams.size());
+
+			assertTrue(iter.hasNext());
+			Patient next = (Patient) iter.next();
+			assertEquals("FAM1", next.getName().get(0).getFamily().get(0).getValue());
+			assertEquals("http://example.com/fhir/Patient/1", next.getIdElement().getValue());
+			assertEquals(0, closedStreams.size());
+
+			assertTrue(iter.hasNext());
+			next = (Patient) iter.next();
+			assertEquals("FAM2", next.getName().get(0).getFamily().get(0).getValue());
+			assertEquals("http://example.com/fhir/Patient/2", next.getIdElement().getValue());
+
+			assertFalse(iter.hasNext());
+			assertEquals(streams, closedStreams);
+		} finally {
+			iter.close();
+		}
+	}
+
 	@Test
 	public void testSearchWithMultipleTokens() throws Exception {
 		ArgumentCaptor<HttpUriRequest> capt = prepareClientForSearchResponse();
@@ -5,10 +5,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +48,7 @@ import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetails;
+import ca.uhn.fhir.rest.server.interceptor.IServerProcessingCompletedInterceptor;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.PortUtil;
 import ca.uhn.fhir.util.TestUtil;
@@ -66,6 +70,23 @@ public class InterceptorDstu3Test {
 		ourServlet.setInterceptors(myInterceptor1, myInterceptor2);
 	}
 
+	@Test
+	public void testProcessingCompletedWhenInterceptorStopsProcessing() throws Exception {
+		IServerInterceptor interceptor1 = mock(IServerInterceptor.class, withSettings().extraInterfaces(IServerProcessingCompletedInterceptor.class));
+		ourServlet.setInterceptors(interceptor1, myInterceptor2);
+		when(interceptor1.incomingRequestPreProcessed(any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+		when(interceptor1.incomingRequestPostProcessed(any(RequestDetails.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+		when(myInterceptor2.incomingRequestPreProcessed(any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+		when(myInterceptor2.incomingRequestPostProcessed(any(RequestDetails.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(false);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient/$validate");
+		httpPost.setEntity(new StringEntity("{\"resourceType\":\"Patient\"}", ContentType.create(Constants.CT_FHIR_JSON, "UTF-8")));
+		HttpResponse status = ourClient.execute(httpPost);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		verify((IServerProcessingCompletedInterceptor) interceptor1, timeout(5000).times(1)).processingCompleted(any(RequestDetails.class));
+		verify(interceptor1, never()).processingCompletedNormally(any(ServletRequestDetails.class));
+	}
 
 	@Test
 	public void testValidate() throws Exception {
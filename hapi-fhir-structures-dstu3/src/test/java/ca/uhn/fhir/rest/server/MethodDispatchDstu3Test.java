@@ -0,0 +1,228 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Parameters;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OptionalParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.RequiredParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+/**
+ * Verifies that the dispatch index in {@link ResourceBinding} selects the same
+ * method that a linear scan over all bound methods would have selected
+ */
+public class MethodDispatchDstu3Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static String ourLastMethod;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(MethodDispatchDstu3Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+
+	@Before
+	public void before() {
+		ourLastMethod = null;
+	}
+
+	private int executeGet(String theUrl) throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + theUrl);
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+			ourLog.info(responseContent);
+			return status.getStatusLine().getStatusCode();
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	@Test
+	public void testInstanceOperation() throws Exception {
+		assertEquals(200, executeGet("/Patient/123/$instanceOp"));
+		assertEquals("instanceOp", ourLastMethod);
+	}
+
+	@Test
+	public void testInstanceOperationAtTypeLevelIsRejected() throws Exception {
+		assertEquals(400, executeGet("/Patient/$instanceOp"));
+		assertEquals(null, ourLastMethod);
+	}
+
+	@Test
+	public void testOptionalSearch() throws Exception {
+		assertEquals(200, executeGet("/Patient?_id=123"));
+		assertEquals("searchOptional", ourLastMethod);
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		assertEquals(200, executeGet("/Patient/123"));
+		assertEquals("read", ourLastMethod);
+	}
+
+	@Test
+	public void testSearchByFamily() throws Exception {
+		assertEquals(200, executeGet("/Patient?family=smith"));
+		assertEquals("searchFamily", ourLastMethod);
+	}
+
+	@Test
+	public void testSearchByFamilyAndGiven() throws Exception {
+		assertEquals(200, executeGet("/Patient?family=smith&given=john"));
+		assertEquals("searchFamilyGiven", ourLastMethod);
+	}
+
+	@Test
+	public void testSearchByFamilyWithModifier() throws Exception {
+		assertEquals(200, executeGet("/Patient?family:exact=smith"));
+		assertEquals("searchFamily", ourLastMethod);
+	}
+
+	@Test
+	public void testSearchByIdentifier() throws Exception {
+		assertEquals(200, executeGet("/Patient?identifier=foo%7Cbar"));
+		assertEquals("searchIdentifier", ourLastMethod);
+	}
+
+	@Test
+	public void testSearchPost() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient/_search?identifier=foo%7Cbar");
+		CloseableHttpResponse status = ourClient.execute(httpPost);
+		try {
+			assertEquals(200, status.getStatusLine().getStatusCode());
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+		assertEquals("searchIdentifier", ourLastMethod);
+	}
+
+	@Test
+	public void testTypeOperation() throws Exception {
+		assertEquals(200, executeGet("/Patient/$typeOp"));
+		assertEquals("typeOp", ourLastMethod);
+	}
+
+	@Test
+	public void testUnknownOperation() throws Exception {
+		assertEquals(400, executeGet("/Patient/$unknownOp"));
+		assertEquals(null, ourLastMethod);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		servlet.setResourceProviders(new DummyPatientResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Operation(name = "$instanceOp", idempotent = true)
+		public Parameters instanceOp(@IdParam IdType theId) {
+			ourLastMethod = "instanceOp";
+			return new Parameters();
+		}
+
+		@Read
+		public Patient read(@IdParam IdType theId) {
+			ourLastMethod = "read";
+			Patient retVal = new Patient();
+			retVal.setId(theId);
+			return retVal;
+		}
+
+		//@formatter:off
+		@Search
+		public List<Patient> searchFamily(
+				@RequiredParam(name = Patient.SP_FAMILY) StringParam theFamily) {
+			ourLastMethod = "searchFamily";
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchFamilyGiven(
+				@RequiredParam(name = Patient.SP_FAMILY) StringParam theFamily,
+				@RequiredParam(name = Patient.SP_GIVEN) StringParam theGiven) {
+			ourLastMethod = "searchFamilyGiven";
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchIdentifier(
+				@RequiredParam(name = Patient.SP_IDENTIFIER) TokenParam theIdentifier) {
+			ourLastMethod = "searchIdentifier";
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchOptional(
+				@OptionalParam(name = "_id") StringParam theId) {
+			ourLastMethod = "searchOptional";
+			return new ArrayList<Patient>();
+		}
+		//@formatter:on
+
+		@Operation(name = "$typeOp", idempotent = true)
+		public Parameters typeOp() {
+			ourLastMethod = "typeOp";
+			return new Parameters();
+		}
+
+	}
+
+}
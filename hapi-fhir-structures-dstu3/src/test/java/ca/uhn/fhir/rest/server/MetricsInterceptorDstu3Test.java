@@ -0,0 +1,210 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.interceptor.MetricsInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.MetricsInterceptor.OperationMetricsSnapshot;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class MetricsInterceptorDstu3Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static MetricsInterceptor ourInterceptor;
+	private static int ourPort;
+	private static Server ourServer;
+
+	@Before
+	public void before() {
+		ourInterceptor.reset();
+	}
+
+	private int execute(HttpGet theRequest) throws Exception {
+		CloseableHttpResponse status = ourClient.execute(theRequest);
+		try {
+			IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+			return status.getStatusLine().getStatusCode();
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	private OperationMetricsSnapshot findMetrics(String theResourceName, String theOperationType) {
+		for (OperationMetricsSnapshot next : ourInterceptor.getOperationMetrics()) {
+			if (next.getResourceName().equals(theResourceName) && next.getOperationType().equals(theOperationType)) {
+				return next;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY");
+		String body = ourCtx.newJsonParser().encodeResourceToString(patient);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity(body, ContentType.parse("application/fhir+json; charset=utf-8")));
+		CloseableHttpResponse status = ourClient.execute(httpPost);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		assertEquals(201, status.getStatusLine().getStatusCode());
+
+		OperationMetricsSnapshot metrics = findMetrics("Patient", "create");
+		assertNotNull(metrics);
+		assertEquals(1, metrics.getRequestCount());
+		assertEquals(1, metrics.getParseMicros().getCount());
+		assertEquals(1, metrics.getRequestSizeBytes().getCount());
+		assertEquals(body.getBytes(StandardCharsets.UTF_8).length, metrics.getRequestSizeBytes().getMax());
+	}
+
+	@Test
+	public void testMetricsAvailableThroughJmx() throws Exception {
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/123")));
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("ca.uhn.fhir:type=MetricsInterceptor,name=" + MetricsInterceptorDstu3Test.class.getSimpleName());
+		server.registerMBean(ourInterceptor, name);
+		try {
+			CompositeData[] metrics = (CompositeData[]) server.getAttribute(name, "OperationMetrics");
+			assertEquals(1, metrics.length);
+			assertEquals("Patient", metrics[0].get("resourceName"));
+			assertEquals("read", metrics[0].get("operationType"));
+			assertEquals(1L, metrics[0].get("requestCount"));
+			assertEquals(1L, ((CompositeData) metrics[0].get("latencyMicros")).get("count"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void testReadAndSearch() throws Exception {
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/123")));
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/123")));
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient")));
+
+		OperationMetricsSnapshot read = findMetrics("Patient", "read");
+		assertEquals(2, read.getRequestCount());
+		assertEquals(0, read.getClientErrorCount());
+		assertEquals(2, read.getLatencyMicros().getCount());
+		assertEquals(2, read.getEncodeMicros().getCount());
+		assertEquals(0, read.getParseMicros().getCount());
+		assertTrue(read.getResponseSizeChars().getMax() > 0);
+		assertTrue(read.getLatencyMicros().getMax() >= read.getHandlerMicros().getMax());
+
+		OperationMetricsSnapshot search = findMetrics("Patient", "search-type");
+		assertEquals(1, search.getRequestCount());
+
+		assertNull(findMetrics("Patient", "create"));
+	}
+
+	@Test
+	public void testReadNotFound() throws Exception {
+		assertEquals(404, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/999")));
+
+		OperationMetricsSnapshot read = findMetrics("Patient", "read");
+		assertEquals(1, read.getRequestCount());
+		assertEquals(1, read.getClientErrorCount());
+		assertEquals(0, read.getServerErrorCount());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		servlet.setResourceProviders(new PatientProvider());
+		ourInterceptor = new MetricsInterceptor();
+		servlet.registerInterceptor(ourInterceptor);
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class PatientProvider implements IResourceProvider {
+
+		@Create()
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			return new MethodOutcome(new IdType("Patient/1"), true);
+		}
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read
+		public Patient read(@IdParam IdType theId) {
+			if ("999".equals(theId.getIdPart())) {
+				throw new ResourceNotFoundException(theId);
+			}
+			Patient retVal = new Patient();
+			retVal.setId(theId);
+			retVal.addName().addFamily("FAMILY");
+			return retVal;
+		}
+
+		@Search
+		public List<Patient> search() {
+			return new ArrayList<Patient>();
+		}
+
+	}
+
+}
@@ -0,0 +1,187 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class PagingCursorDstu3Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static String ourLastCursor;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(PagingCursorDstu3Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+
+	@Before
+	public void before() {
+		ourLastCursor = null;
+	}
+
+	@Test
+	public void testCursorInPagingLinks() throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?_count=2");
+		Bundle bundle;
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent());
+			ourLog.info(responseContent);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			bundle = ourCtx.newXmlParser().parseResource(Bundle.class, responseContent);
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+
+		String next = bundle.getLink(Constants.LINK_NEXT).getUrl();
+		assertThat(next, containsString("_getpagesoffset=2&_getpagescursor=last-1&_count=2"));
+
+		httpGet = new HttpGet(next);
+		status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent());
+			ourLog.info(responseContent);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			bundle = ourCtx.newXmlParser().parseResource(Bundle.class, responseContent);
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+
+		assertEquals("last-1", ourLastCursor);
+		assertThat(bundle.getLink(Constants.LINK_NEXT).getUrl(), containsString("_getpagescursor=last-3&"));
+		assertThat(bundle.getLink(Constants.LINK_PREVIOUS).getUrl(), containsString("_getpagesoffset=0&_getpagescursor=first-2&"));
+	}
+
+	@Test
+	public void testNoCursorForOtherProviders() throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?_query=withoutCursor&_count=2");
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent());
+			ourLog.info(responseContent);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertThat(responseContent, containsString("_getpagesoffset=2&amp;_count=2"));
+			assertThat(responseContent, not(containsString(Constants.PARAM_PAGINGCURSOR)));
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		DummyPatientResourceProvider patientProvider = new DummyPatientResourceProvider();
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		servlet.setPagingProvider(new FifoMemoryPagingProvider(10));
+
+		servlet.setResourceProviders(patientProvider);
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+
+	}
+
+	private static List<IBaseResource> createPatients() {
+		ArrayList<IBaseResource> retVal = new ArrayList<IBaseResource>();
+		for (int i = 0; i < 10; i++) {
+			retVal.add(new Patient().setActive(true).setId("" + i));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Uses the index of the first and last resources of the page as its cursors
+	 */
+	private static class CursorBundleProvider extends SimpleBundleProvider implements IPagingCursorBundleProvider {
+		private String myNextPageCursor;
+		private String myPreviousPageCursor;
+
+		public CursorBundleProvider() {
+			super(createPatients());
+		}
+
+		@Override
+		public String getNextPageCursor() {
+			return myNextPageCursor;
+		}
+
+		@Override
+		public String getPreviousPageCursor() {
+			return myPreviousPageCursor;
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+			myPreviousPageCursor = "first-" + theFromIndex;
+			myNextPageCursor = "last-" + (theToIndex - 1);
+			return super.getResources(theFromIndex, theToIndex);
+		}
+
+		@Override
+		public void setPageCursor(String theCursor) {
+			ourLastCursor = theCursor;
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Search()
+		public IBundleProvider search() {
+			return new CursorBundleProvider();
+		}
+
+		@Search(queryName = "withoutCursor")
+		public IBundleProvider searchWithoutCursor() {
+			return new SimpleBundleProvider(createPatients());
+		}
+
+	}
+
+}
@@ -0,0 +1,175 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.InstantType;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class StoredResourceBodyDstu3Test {
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static int ourPort;
+	private static Server ourServer;
+
+	private String read(String theUrl) throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/" + theUrl);
+		HttpResponse status = ourClient.execute(httpGet);
+		try {
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			return IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	/**
+	 * Resources 1 (with a stored body) and 2 (without) have the same content, so the
+	 * responses must be identical whichever way they are produced
+	 */
+	@Test
+	public void testStreamedBodyMatchesEncodedResource() throws Exception {
+		for (String next : new String[] { "?_format=json", "?_format=json&_pretty=true", "?_format=json&_elements=name,birthDate", "?_format=json&_elements=identifier", "?_format=json&_summary=data", "?_format=json&_summary=true", "?_format=json&_summary=text", "?_format=xml" }) {
+			String streamed = read("Patient/1" + next);
+			String encoded = read("Patient/2" + next);
+			assertEquals(next, encoded.replace("\"id\":\"2\"", "\"id\":\"1\"").replace("\"id\": \"2\"", "\"id\": \"1\"").replace("<id value=\"2\"/>", "<id value=\"1\"/>"), streamed);
+		}
+	}
+
+	/**
+	 * The body of resource 3 differs from its parsed content, so it is possible to tell which was used
+	 */
+	@Test
+	public void testStoredBodyIsUsed() throws Exception {
+		String response = read("Patient/3?_format=json");
+		assertThat(response, containsString("STORED"));
+		assertThat(response, not(containsString("PARSED")));
+		assertThat(response, containsString("\"versionId\":\"2\""));
+
+		response = read("Patient/3?_format=json&_elements=name");
+		assertThat(response, containsString("STORED"));
+		assertThat(response, not(containsString("birthDate")));
+		assertThat(response, containsString("SUBSETTED"));
+
+		// Summary mode and XML are not streamed
+		assertThat(read("Patient/3?_format=json&_summary=true"), containsString("PARSED"));
+		assertThat(read("Patient/3?_format=xml"), containsString("PARSED"));
+	}
+
+	/**
+	 * Resource 4 claims a version other than the one its body was stored as
+	 */
+	@Test
+	public void testStoredBodyForOtherVersionIsIgnored() throws Exception {
+		String response = read("Patient/4?_format=json");
+		assertThat(response, containsString("PARSED"));
+		assertThat(response, not(containsString("STORED")));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		servlet.setResourceProviders(new PatientProvider());
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	private static Patient createPatient(String theFamily) {
+		Patient patient = new Patient();
+		patient.getText().setStatus(NarrativeStatus.GENERATED);
+		patient.getText().setDivAsString("<div>" + theFamily + "</div>");
+		patient.addExtension().setUrl("http://example.com/ext").setValue(new StringType("EXT"));
+		patient.addIdentifier().setSystem("http://example.com/mrn").setValue("12345");
+		patient.setActive(true);
+		patient.addName().addFamily(theFamily).addGiven("GIVEN");
+		DateType birthDate = new DateType("2000-01-01");
+		birthDate.addExtension().setUrl("http://example.com/time").setValue(new StringType("12:00"));
+		patient.setBirthDateElement(birthDate);
+		return patient;
+	}
+
+	/**
+	 * Mimics a server which stores the encoded resource and populates the ID and meta separately
+	 */
+	private static Patient load(String theId, String theVersion, String theStoredBody, String theParsedFamily) {
+		Patient retVal = ourCtx.newJsonParser().parseResource(Patient.class, ourCtx.newJsonParser().encodeResourceToString(createPatient(theParsedFamily)));
+		retVal.setId(new IdType("Patient", theId, theVersion));
+		retVal.getMeta().setVersionId(theVersion);
+		retVal.getMeta().setLastUpdatedElement(new InstantType("2016-11-01T10:00:00.000-04:00"));
+		retVal.getMeta().addTag().setSystem("http://example.com/tags").setCode("TAG");
+		if (theStoredBody != null) {
+			StoredResourceBody.putInResource(retVal, new StoredResourceBody(EncodingEnum.JSON, theStoredBody, "2"));
+		}
+		return retVal;
+	}
+
+	public static class PatientProvider implements IResourceProvider {
+
+		@Override
+		public Class<Patient> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read
+		public Patient read(@IdParam IdType theId) {
+			String sameBody = ourCtx.newJsonParser().encodeResourceToString(createPatient("FAMILY"));
+			String otherBody = ourCtx.newJsonParser().encodeResourceToString(createPatient("STORED"));
+			String id = theId.getIdPart();
+			if ("1".equals(id)) {
+				return load(id, "2", sameBody, "FAMILY");
+			} else if ("2".equals(id)) {
+				return load(id, "2", null, "FAMILY");
+			} else if ("3".equals(id)) {
+				return load(id, "2", otherBody, "PARSED");
+			} else {
+				return load(id, "3", otherBody, "PARSED");
+			}
+		}
+
+	}
+
+}
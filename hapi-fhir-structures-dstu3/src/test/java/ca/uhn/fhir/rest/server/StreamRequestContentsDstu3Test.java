@@ -0,0 +1,196 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class StreamRequestContentsDstu3Test {
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static Patient ourLastPatient;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StreamRequestContentsDstu3Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@After
+	public void after() {
+		ourServlet.setMaximumRequestContentsLength(0);
+		ourServlet.setRequestContentsBufferThreshold(RestfulServer.DEFAULT_REQUEST_CONTENTS_BUFFER_THRESHOLD);
+		for (IServerInterceptor next : new ArrayList<IServerInterceptor>(ourServlet.getInterceptors())) {
+			ourServlet.unregisterInterceptor(next);
+		}
+	}
+
+	@Before
+	public void before() {
+		ourLastPatient = null;
+	}
+
+	private String createPatientJson(String theFamily) {
+		Patient patient = new Patient();
+		patient.addName().addFamily(theFamily);
+		return ourCtx.newJsonParser().encodeResourceToString(patient);
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity(createPatientJson("FAMILY"), ContentType.parse("application/fhir+json; charset=utf-8")));
+		HttpResponse status = ourClient.execute(httpPost);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		assertEquals(201, status.getStatusLine().getStatusCode());
+		assertEquals("FAMILY", ourLastPatient.getName().get(0).getFamily().get(0).getValue());
+	}
+
+	@Test
+	public void testCreateGzipped() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream gos = new GZIPOutputStream(bos);
+		gos.write(createPatientJson("FAMILY").getBytes(StandardCharsets.UTF_8));
+		gos.close();
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new ByteArrayEntity(bos.toByteArray(), ContentType.parse("application/fhir+json; charset=utf-8")));
+		httpPost.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		HttpResponse status = ourClient.execute(httpPost);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		assertEquals(201, status.getStatusLine().getStatusCode());
+		assertEquals("FAMILY", ourLastPatient.getName().get(0).getFamily().get(0).getValue());
+	}
+
+	@Test
+	public void testCreateTooLarge() throws Exception {
+		ourServlet.setMaximumRequestContentsLength(100);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity(createPatientJson(StringUtils.repeat("A", 200)), ContentType.parse("application/fhir+json; charset=utf-8")));
+		HttpResponse status = ourClient.execute(httpPost);
+		String responseContent = IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		ourLog.info("Response was:\n{}", responseContent);
+
+		assertEquals(413, status.getStatusLine().getStatusCode());
+		assertThat(responseContent, containsString("Request contents exceed the maximum allowed length of 100 bytes"));
+		assertNull(ourLastPatient);
+	}
+
+	@Test
+	public void testCreateWithInterceptorReadingBufferedContents() throws Exception {
+		ourServlet.setRequestContentsBufferThreshold(10);
+		final StringBuilder interceptedBody = new StringBuilder();
+		ourServlet.registerInterceptor(new InterceptorAdapter() {
+			@Override
+			public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) {
+				for (int i = 0; i < 2; i++) {
+					InputStream contents = theRequestDetails.getBufferedRequestContents();
+					try {
+						interceptedBody.append(IOUtils.toString(contents, StandardCharsets.UTF_8));
+					} catch (Exception e) {
+						throw new Error(e);
+					} finally {
+						IOUtils.closeQuietly(contents);
+					}
+				}
+				return true;
+			}
+		});
+
+		String body = createPatientJson("FAMILY");
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity(body, ContentType.parse("application/fhir+json; charset=utf-8")));
+		HttpResponse status = ourClient.execute(httpPost);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		assertEquals(201, status.getStatusLine().getStatusCode());
+		assertEquals(body + body, interceptedBody.toString());
+		assertEquals("FAMILY", ourLastPatient.getName().get(0).getFamily().get(0).getValue());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setStreamRequestContents(true);
+		ourServlet.setResourceProviders(new PatientProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class PatientProvider implements IResourceProvider {
+
+		@Create()
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			ourLastPatient = thePatient;
+			return new MethodOutcome(new IdType("Patient/1"), true);
+		}
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+	}
+
+}
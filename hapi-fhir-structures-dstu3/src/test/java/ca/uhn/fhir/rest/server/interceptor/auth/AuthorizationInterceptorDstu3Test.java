@@ -0,0 +1,337 @@
+package ca.uhn.fhir.rest.server.interceptor.auth;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class AuthorizationInterceptorDstu3Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static boolean ourHitMethod;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(AuthorizationInterceptorDstu3Test.class);
+	private static int ourPort;
+	private static List<IBaseResource> ourReturn;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@Before
+	public void before() {
+		for (IServerInterceptor next : new ArrayList<IServerInterceptor>(ourServlet.getInterceptors())) {
+			ourServlet.unregisterInterceptor(next);
+		}
+		ourReturn = null;
+		ourHitMethod = false;
+	}
+
+	private Observation createObservation(Integer theId, String theSubjectId) {
+		Observation retVal = new Observation();
+		if (theId != null) {
+			retVal.setId(new IdType("Observation", (long) theId));
+		}
+		retVal.getCode().setText("OBS");
+		retVal.setSubject(new Reference(theSubjectId));
+		return retVal;
+	}
+
+	private Patient createPatient(Integer theId) {
+		Patient retVal = new Patient();
+		if (theId != null) {
+			retVal.setId(new IdType("Patient", (long) theId));
+		}
+		retVal.addName().addFamily("FAM");
+		return retVal;
+	}
+
+	private HttpResponse executeGet(String theUrl) throws IOException {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + theUrl);
+		return ourClient.execute(httpGet);
+	}
+
+	private String extractResponseAndClose(HttpResponse status) throws IOException {
+		if (status.getEntity() == null) {
+			return null;
+		}
+		String responseContent;
+		responseContent = IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		return responseContent;
+	}
+
+	@Test
+	public void testAllowAllAfterTypeSpecificDeny() throws Exception {
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.deny("Rule 1").read().resourcesOfType(Patient.class).withAnyId().andThen()
+					.allowAll("Default Rule")
+					.build();
+				//@formatter:on
+			}
+		});
+
+		HttpResponse status;
+		String response;
+
+		ourReturn = Arrays.<IBaseResource> asList(createObservation(10, "Patient/2"), createObservation(11, "Patient/2"));
+		status = executeGet("/Observation");
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+
+		ourHitMethod = false;
+		ourReturn = Arrays.<IBaseResource> asList(createObservation(10, "Patient/2"), createPatient(2));
+		status = executeGet("/Observation");
+		response = extractResponseAndClose(status);
+		ourLog.info(response);
+		assertThat(response, containsString("Access denied by rule: Rule 1"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+	}
+
+	@Test
+	public void testBuildRuleListCalledOncePerRequest() throws Exception {
+		final AtomicInteger buildCount = new AtomicInteger();
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				buildCount.incrementAndGet();
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).withAnyId().andThen()
+					.allow("Rule 2").read().resourcesOfType(Observation.class).inCompartment("Patient", new IdType("Patient/1"))
+					.build();
+				//@formatter:on
+			}
+		});
+
+		ourReturn = new ArrayList<IBaseResource>();
+		for (int i = 0; i < 20; i++) {
+			ourReturn.add(createPatient(i));
+			ourReturn.add(createObservation(100 + i, "Patient/1"));
+		}
+		HttpResponse status = executeGet("/Observation?_count=100");
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(1, buildCount.get());
+	}
+
+	@Test
+	public void testReadByAnyId() throws Exception {
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).withAnyId()
+					.build();
+				//@formatter:on
+			}
+		});
+
+		HttpResponse status;
+		String response;
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(2));
+		status = executeGet("/Patient/1");
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+
+		ourReturn = Arrays.<IBaseResource> asList(createObservation(10, "Patient/2"));
+		ourHitMethod = false;
+		status = executeGet("/Observation/10");
+		response = extractResponseAndClose(status);
+		assertThat(response, containsString("Access denied by default policy (no applicable rules)"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertFalse(ourHitMethod);
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(1), createPatient(2), createObservation(10, "Patient/2"));
+		ourHitMethod = false;
+		status = executeGet("/Patient");
+		response = extractResponseAndClose(status);
+		assertThat(response, containsString("Access denied by default policy (no applicable rules)"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+	}
+
+	@Test
+	public void testReadByCompartmentRight() throws Exception {
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).inCompartment("Patient", new IdType("Patient/1")).andThen()
+					.allow("Rule 2").read().resourcesOfType(Observation.class).inCompartment("Patient", new IdType("Patient/1"))
+					.build();
+				//@formatter:on
+			}
+		});
+
+		HttpResponse status;
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(1));
+		status = executeGet("/Patient/1");
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+
+		ourReturn = Arrays.<IBaseResource> asList(createObservation(10, "Patient/1"));
+		ourHitMethod = false;
+		status = executeGet("/Observation/10");
+		extractResponseAndClose(status);
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertFalse(ourHitMethod);
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(1), createObservation(10, "Patient/1"), createObservation(11, "Patient/1"));
+		ourHitMethod = false;
+		status = executeGet("/Patient");
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+	}
+
+	@Test
+	public void testReadByCompartmentWrong() throws Exception {
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).inCompartment("Patient", new IdType("Patient/1")).andThen()
+					.allow("Rule 2").read().resourcesOfType(Observation.class).inCompartment("Patient", new IdType("Patient/1"))
+					.build();
+				//@formatter:on
+			}
+		});
+
+		HttpResponse status;
+		String response;
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(2));
+		status = executeGet("/Patient/2");
+		response = extractResponseAndClose(status);
+		assertThat(response, containsString("Access denied by default policy (no applicable rules)"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertFalse(ourHitMethod);
+
+		ourReturn = Arrays.<IBaseResource> asList(createPatient(1), createObservation(10, "Patient/1"), createObservation(11, "Patient/2"));
+		ourHitMethod = false;
+		status = executeGet("/Patient");
+		response = extractResponseAndClose(status);
+		assertThat(response, containsString("Access denied by default policy (no applicable rules)"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertTrue(ourHitMethod);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider(), new DummyObservationResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class DummyObservationResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Observation.class;
+		}
+
+		@Read(version = true)
+		public Observation read(@IdParam IdType theId) {
+			ourHitMethod = true;
+			return (Observation) ourReturn.get(0);
+		}
+
+		@Search()
+		public List<IBaseResource> search() {
+			ourHitMethod = true;
+			return ourReturn;
+		}
+
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read(version = true)
+		public Patient read(@IdParam IdType theId) {
+			ourHitMethod = true;
+			return (Patient) ourReturn.get(0);
+		}
+
+		@Search()
+		public List<IBaseResource> search() {
+			ourHitMethod = true;
+			return ourReturn;
+		}
+
+	}
+
+}
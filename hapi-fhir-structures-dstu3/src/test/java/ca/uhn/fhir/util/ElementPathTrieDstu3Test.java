@@ -0,0 +1,153 @@
+package ca.uhn.fhir.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.dstu3.model.*;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+
+public class ElementPathTrieDstu3Test {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+
+	private Observation createObservation() {
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.addIdentifier().setSystem("SYS").setValue("VAL");
+		obs.getCode().addCoding().setSystem("SYS1").setCode("CODE1");
+		obs.getCode().addCoding().setSystem("SYS2").setCode("CODE2");
+		obs.getSubject().setReference("Patient/123");
+		obs.setValue(new Quantity().setValue(123).setUnit("kg"));
+		obs.setEffective(new DateTimeType("2016-01-01"));
+		obs.addComponent().getCode().addCoding().setSystem("SYS3").setCode("CODE3");
+		obs.addComponent().setValue(new StringType("STRING"));
+		return obs;
+	}
+
+	@Test
+	public void testChoiceElements() {
+		Observation obs = createObservation();
+		ElementPathTrie trie = ElementPathTrie.forTerser(ourCtx, Arrays.asList("Observation.valueQuantity", "Observation.valueString", "Observation.value[x]", "Observation.component.valueString"));
+
+		Map<String, List<Object>> values = trie.getValues(obs);
+		assertEquals(1, values.get("Observation.valueQuantity").size());
+		assertSame(obs.getValue(), values.get("Observation.valueQuantity").get(0));
+		assertEquals(0, values.get("Observation.valueString").size());
+		assertEquals(1, values.get("Observation.value[x]").size());
+		assertEquals(1, values.get("Observation.component.valueString").size());
+	}
+
+	@Test
+	public void testInvalidPaths() {
+		Observation obs = createObservation();
+		ElementPathTrie trie = ElementPathTrie.forTerser(ourCtx, Arrays.asList("Observation.code.coding.code", "Observation.code.foo", "Observation", "", "Observation..code"));
+
+		assertTrue(trie.contains("Observation.code.coding.code"));
+		assertTrue(trie.contains("Observation.code.foo"));
+		assertFalse(trie.contains("Observation"));
+		assertFalse(trie.contains("Observation..code"));
+		assertEquals(2, trie.getPaths().size());
+
+		// A bad path is left out of the results without affecting its siblings
+		Map<String, List<Object>> values = trie.getValues(obs);
+		assertFalse(values.containsKey("Observation.code.foo"));
+		assertEquals(2, values.get("Observation.code.coding.code").size());
+	}
+
+	/**
+	 * The trie must find exactly what the terser finds when each path is evaluated individually
+	 */
+	@Test
+	public void testSameAsTerser() {
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY").addGiven("GIVEN1").addGiven("GIVEN2");
+		patient.addName().addFamily("FAMILY2");
+		patient.addIdentifier().setSystem("SYS").setValue("VAL");
+		patient.setGender(Enumerations.AdministrativeGender.MALE);
+		patient.setBirthDateElement(new DateType("2000-01-01"));
+		patient.addAddress().setCity("CITY").addLine("LINE");
+		patient.setActive(true);
+		patient.getManagingOrganization().setReference("Organization/1");
+
+		Organization org = new Organization();
+		org.setName("ORG");
+		org.addAddress().setCity("CITY");
+
+		for (IBaseResource next : Arrays.asList(createObservation(), patient, org)) {
+			RuntimeResourceDefinition def = ourCtx.getResourceDefinition(next);
+			List<String> paths = new ArrayList<String>();
+			for (RuntimeSearchParam nextParam : def.getSearchParams()) {
+				if (nextParam.getPath() == null) {
+					continue;
+				}
+				for (String nextPath : nextParam.getPath().split("\\||( or )")) {
+					paths.add(nextPath.trim());
+				}
+			}
+
+			ElementPathTrie trie = ElementPathTrie.forTerser(ourCtx, paths);
+			Map<String, List<Object>> values = trie.getValues(next);
+			FhirTerser terser = ourCtx.newTerser();
+			int found = 0;
+			for (String nextPath : trie.getPaths()) {
+				List<Object> expected;
+				try {
+					expected = terser.getValues(next, nextPath);
+				} catch (Exception e) {
+					continue;
+				}
+				List<Object> actual = values.get(nextPath);
+				assertEquals(nextPath, expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertSame(nextPath, expected.get(i), actual.get(i));
+				}
+				found += actual.size();
+			}
+			assertTrue(def.getName(), found > 0);
+		}
+	}
+
+	@Test
+	public void testSharedPrefix() {
+		Observation obs = createObservation();
+		final List<String> navigated = new ArrayList<String>();
+		ElementPathTrie trie = new ElementPathTrie(Arrays.asList("Observation.code", "Observation.code.coding", "Observation.code.coding.system", "Observation.code.coding.code"), new ElementPathTrie.INavigator() {
+			@Override
+			public List<?> getChildren(Object theElement, String theChildName) throws Exception {
+				navigated.add(theChildName);
+				return Arrays.asList(((Base) theElement).getProperty(theChildName.hashCode(), theChildName, false));
+			}
+
+			@Override
+			public boolean isRoot(IBaseResource theResource, String theRootName) {
+				return true;
+			}
+		});
+
+		Map<String, List<Object>> values = trie.getValues(obs);
+		assertEquals(1, values.get("Observation.code").size());
+		assertEquals(2, values.get("Observation.code.coding").size());
+		assertEquals(2, values.get("Observation.code.coding.system").size());
+		assertEquals(2, values.get("Observation.code.coding.code").size());
+		assertEquals(Arrays.asList("code", "coding", "system", "code", "system", "code"), navigated);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
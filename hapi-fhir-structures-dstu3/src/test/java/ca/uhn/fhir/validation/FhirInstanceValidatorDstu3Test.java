@@ -5,10 +5,14 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -105,6 +109,134 @@ public class FhirInstanceValidatorDstu3Test {
 
 	}
 	
+	private StructureDefinition createPatientStructureDefinitionWithInvariant() {
+		StructureDefinition retVal = new StructureDefinition();
+		retVal.setId("Patient");
+		retVal.setUrl("http://hl7.org/fhir/StructureDefinition/Patient");
+		retVal.setKind(StructureDefinitionKind.RESOURCE);
+		retVal.setType("Patient");
+		ElementDefinition root = retVal.getSnapshot().addElement();
+		root.setPath("Patient").setMin(0).setMax("*");
+		root.addConstraint().setKey("test-1").setSeverity(ElementDefinition.ConstraintSeverity.ERROR).setHuman("Must be active").setExpression("active.exists()");
+		retVal.getSnapshot().addElement().setPath("Patient.active").setMin(0).setMax("1").addType().setCode("boolean");
+		return retVal;
+	}
+
+	private IValidationSupport createSupportForStructureDefinition(StructureDefinition theStructureDefinition) {
+		StructureDefinition booleanSd = new StructureDefinition();
+		booleanSd.setId("boolean");
+		booleanSd.setUrl("http://hl7.org/fhir/StructureDefinition/boolean");
+		booleanSd.setKind(StructureDefinitionKind.PRIMITIVETYPE);
+		booleanSd.setType("boolean");
+		booleanSd.getSnapshot().addElement().setPath("boolean").setMin(0).setMax("*");
+		booleanSd.getSnapshot().addElement().setPath("boolean.value").setMin(0).setMax("1");
+
+		final Map<String, StructureDefinition> structureDefinitions = new HashMap<String, StructureDefinition>();
+		structureDefinitions.put(theStructureDefinition.getUrl(), theStructureDefinition);
+		structureDefinitions.put(booleanSd.getUrl(), booleanSd);
+
+		IValidationSupport retVal = mock(IValidationSupport.class);
+		Answer<StructureDefinition> answer = new Answer<StructureDefinition>() {
+			@Override
+			public StructureDefinition answer(InvocationOnMock theInvocation) throws Throwable {
+				Object[] args = theInvocation.getArguments();
+				return structureDefinitions.get(args[args.length - 1]);
+			}
+		};
+		when(retVal.fetchStructureDefinition(any(FhirContext.class), any(String.class))).thenAnswer(answer);
+		when(retVal.fetchResource(any(FhirContext.class), any(Class.class), any(String.class))).thenAnswer(answer);
+		when(retVal.fetchAllStructureDefinitions(any(FhirContext.class))).thenReturn(new ArrayList<StructureDefinition>(structureDefinitions.values()));
+		return retVal;
+	}
+
+	@Test
+	public void testExpansionCacheIsKeyedByVersion() {
+		IValidationSupport support = mock(IValidationSupport.class);
+		when(support.isCodeSystemSupported(any(FhirContext.class), any(String.class))).thenReturn(true);
+		ValueSetExpansionComponent expansion = new ValueSetExpansionComponent();
+		expansion.addContains().setSystem("http://example.com/cs").setCode("a");
+		when(support.expandValueSet(any(FhirContext.class), any(ConceptSetComponent.class))).thenReturn(expansion);
+		HapiWorkerContext workerContext = new HapiWorkerContext(ourCtx, support);
+
+		ValueSet vs = new ValueSet();
+		vs.setUrl("http://example.com/ValueSet/vs");
+		vs.setVersion("1");
+		vs.getCompose().addInclude().setSystem("http://example.com/cs");
+		assertEquals("a", workerContext.expand(vs, null).getValueset().getExpansion().getContains().get(0).getCode());
+		workerContext.expand(vs, null);
+		verify(support, times(1)).expandValueSet(any(FhirContext.class), any(ConceptSetComponent.class));
+
+		// A new version of the same ValueSet is not answered from the cache
+		vs.setVersion("2");
+		workerContext.expand(vs, null);
+		verify(support, times(2)).expandValueSet(any(FhirContext.class), any(ConceptSetComponent.class));
+
+		workerContext.invalidateCaches();
+		workerContext.expand(vs, null);
+		verify(support, times(3)).expandValueSet(any(FhirContext.class), any(ConceptSetComponent.class));
+	}
+
+	@Test
+	public void testStructureDefinitionsAreCachedBetweenValidations() {
+		StructureDefinition sd = createPatientStructureDefinitionWithInvariant();
+		IValidationSupport support = createSupportForStructureDefinition(sd);
+		FhirInstanceValidator instanceValidator = new FhirInstanceValidator(support);
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(false);
+		val.setValidateAgainstStandardSchematron(false);
+		val.registerValidatorModule(instanceValidator);
+
+		Patient patient = new Patient();
+		String encoded = ourCtx.newJsonParser().encodeResourceToString(patient);
+
+		ValidationResult output = val.validateWithResult(encoded);
+		assertThat(output.getMessages().toString(), containsString("Must be active"));
+		// The invariant was compiled when the structure definition was first fetched
+		assertNotNull(sd.getSnapshot().getElement().get(0).getConstraint().get(0).getUserData("validator.expression.cache"));
+
+		output = val.validateWithResult(ourCtx.newXmlParser().encodeResourceToString(patient));
+		assertThat(output.getMessages().toString(), containsString("Must be active"));
+		verify(support, times(1)).fetchStructureDefinition(any(FhirContext.class), any(String.class));
+
+		instanceValidator.invalidateCaches();
+		val.validateWithResult(encoded);
+		verify(support, times(2)).fetchStructureDefinition(any(FhirContext.class), any(String.class));
+	}
+
+	@Test
+	public void testValidateParsedResourceWithoutEncoding() {
+		IValidationSupport support = createSupportForStructureDefinition(createPatientStructureDefinitionWithInvariant());
+		FhirInstanceValidator instanceValidator = spy(new FhirInstanceValidator(support));
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(false);
+		val.setValidateAgainstStandardSchematron(false);
+		val.registerValidatorModule(instanceValidator);
+
+		Patient patient = new Patient();
+		ValidationResult output = val.validateWithResult(patient);
+		assertThat(output.getMessages().toString(), containsString("Must be active"));
+		verify(instanceValidator, times(1)).validate(any(FhirContext.class), any(IBaseResource.class));
+
+		// Raw text is still validated as text
+		output = val.validateWithResult(ourCtx.newXmlParser().encodeResourceToString(patient));
+		assertThat(output.getMessages().toString(), containsString("Must be active"));
+		verify(instanceValidator, times(1)).validate(any(FhirContext.class), any(IBaseResource.class));
+	}
+
+	@Test
+	public void testValidateResourceModelDirectly() {
+		IValidationSupport support = createSupportForStructureDefinition(createPatientStructureDefinitionWithInvariant());
+		FhirInstanceValidator instanceValidator = new FhirInstanceValidator(support);
+
+		Patient patient = new Patient();
+		List<org.hl7.fhir.dstu3.validation.ValidationMessage> messages = instanceValidator.validate(ourCtx, patient);
+		assertThat(messages.toString(), containsString("Must be active"));
+
+		patient.setActive(true);
+		messages = instanceValidator.validate(ourCtx, patient);
+		assertThat(messages.toString(), not(containsString("Must be active")));
+	}
+
 	@Test
 	// @Ignore
 	public void testValidateBuiltInProfiles() throws Exception {
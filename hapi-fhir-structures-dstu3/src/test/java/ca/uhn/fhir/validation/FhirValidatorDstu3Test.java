@@ -0,0 +1,384 @@
+package ca.uhn.fhir.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.dstu3.model.Composition;
+import org.hl7.fhir.dstu3.model.Composition.CompositionStatus;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirValidatorDstu3Test {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+
+	private ExecutorService myExecutor;
+
+	@Before
+	public void before() {
+		myExecutor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void after() {
+		myExecutor.shutdownNow();
+	}
+
+	private Bundle createTransaction() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.TRANSACTION);
+		bundle.addEntry().setResource(new Patient().setActive(true)).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+		Patient inactive = new Patient();
+		inactive.addName().addFamily("FAMILY");
+		bundle.addEntry().setResource(inactive).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+		bundle.addEntry().getRequest().setMethod(HTTPVerb.DELETE).setUrl("Patient/123");
+		Observation obs = new Observation();
+		obs.setStatus(ObservationStatus.FINAL);
+		obs.getCode().setText("CODE");
+		bundle.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		return bundle;
+	}
+
+	@Test
+	public void testValidateBundleConcurrently() {
+		RecordingValidatorModule module = new RecordingValidatorModule();
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(module);
+		val.setExecutorService(myExecutor);
+
+		ValidationResult result = val.validateWithResult(createTransaction());
+
+		assertFalse(result.isSuccessful());
+		assertEquals(2, result.getMessages().size());
+		assertEquals("Bundle.entry[1].resource.active", result.getMessages().get(0).getLocationString());
+		assertEquals("Bundle.entry[3].resource", result.getMessages().get(1).getLocationString());
+		assertEquals(ResultSeverityEnum.WARNING, result.getMessages().get(1).getSeverity());
+
+		// The bundle itself is validated with a stub in place of each entry resource
+		List<String> validated = module.getValidated();
+		Collections.sort(validated);
+		assertEquals(Arrays.asList("Bundle/4/3", "Observation", "Patient", "Patient"), validated);
+	}
+
+	@Test
+	public void testValidateBundleConcurrentlyFromTextIsNotSplit() {
+		RecordingValidatorModule module = new RecordingValidatorModule();
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(module);
+		val.setExecutorService(myExecutor);
+
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(createTransaction());
+		ValidationResult result = val.validateWithResult(encoded);
+
+		assertTrue(result.isSuccessful());
+		assertEquals(Arrays.asList("Bundle/4/3"), module.getValidated());
+	}
+
+	@Test
+	public void testValidateDocumentBundleConcurrently() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.DOCUMENT);
+		Composition composition = new Composition();
+		composition.setStatus(CompositionStatus.FINAL);
+		composition.getType().setText("TYPE");
+		composition.setTitle("TITLE");
+		composition.getSubject().setReference("urn:uuid:0c3151bd-1cbf-4d64-b04d-cd9187a4c6e0");
+		bundle.addEntry().setFullUrl("urn:uuid:a4b5b2a2-4f6e-4fd1-9b0e-3a4d3c5e2f10").setResource(composition);
+		bundle.addEntry().setFullUrl("urn:uuid:0c3151bd-1cbf-4d64-b04d-cd9187a4c6e0").setResource(new Patient());
+		Observation obs = new Observation();
+		obs.setStatus(ObservationStatus.FINAL);
+		obs.getCode().setText("CODE");
+		bundle.addEntry().setFullUrl("urn:uuid:2f1c6f5e-7a8b-4c2d-9e0f-1a2b3c4d5e6f").setResource(obs);
+
+		assertSameResultsAsSequential(bundle);
+
+		RecordingValidatorModule module = new RecordingValidatorModule();
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(module);
+		val.setExecutorService(myExecutor);
+		ValidationResult result = val.validateWithResult(bundle);
+
+		// The composition and the patient it references are validated within the bundle
+		List<String> validated = module.getValidated();
+		Collections.sort(validated);
+		assertEquals(Arrays.asList("Bundle/3/3", "Observation"), validated);
+		assertEquals(1, result.getMessages().size());
+		assertEquals("Bundle.entry[2].resource", result.getMessages().get(0).getLocationString());
+	}
+
+	@Test
+	public void testValidateSearchsetBundleConcurrently() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		bundle.setTotal(2);
+		Patient patient = new Patient().setActive(true);
+		patient.setId("Patient/1");
+		bundle.addEntry().setFullUrl("http://example.com/Patient/1").setResource(patient).getSearch().setMode(SearchEntryMode.MATCH);
+		Patient patient2 = new Patient();
+		patient2.setId("Patient/2");
+		bundle.addEntry().setFullUrl("http://example.com/Patient/2").setResource(patient2).getSearch().setMode(SearchEntryMode.MATCH);
+		Observation obs = new Observation();
+		obs.setId("Observation/3");
+		obs.setStatus(ObservationStatus.FINAL);
+		obs.getCode().setText("CODE");
+		obs.getSubject().setReference("Patient/1");
+		bundle.addEntry().setFullUrl("http://example.com/Observation/3").setResource(obs).getSearch().setMode(SearchEntryMode.INCLUDE);
+
+		assertSameResultsAsSequential(bundle);
+
+		RecordingValidatorModule module = new RecordingValidatorModule();
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(module);
+		val.setExecutorService(myExecutor);
+		ValidationResult result = val.validateWithResult(bundle);
+
+		// Patient/1 is referenced by the observation so both are validated within the bundle
+		List<String> validated = module.getValidated();
+		Collections.sort(validated);
+		assertEquals(Arrays.asList("Bundle/3/3", "Patient"), validated);
+		assertEquals(1, result.getMessages().size());
+		assertEquals("Bundle.entry[1].resource.active", result.getMessages().get(0).getLocationString());
+	}
+
+	/**
+	 * Validates the bundle with the instance validator both with and without an executor, and checks
+	 * that the same issues are found
+	 */
+	private void assertSameResultsAsSequential(Bundle theBundle) {
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(new FhirInstanceValidator());
+		List<String> sequential = toSortedStrings(val.validateWithResult(theBundle));
+
+		val.setExecutorService(myExecutor);
+		List<String> concurrent = toSortedStrings(val.validateWithResult(theBundle));
+
+		assertEquals(sequential, concurrent);
+	}
+
+	private static List<String> toSortedStrings(ValidationResult theResult) {
+		List<String> retVal = new ArrayList<String>();
+		for (SingleValidationMessage next : theResult.getMessages()) {
+			retVal.add(next.getSeverity() + " " + next.getLocationString() + " " + next.getMessage());
+		}
+		Collections.sort(retVal);
+		return retVal;
+	}
+
+	@Test
+	public void testValidateBundleWithoutExecutor() {
+		RecordingValidatorModule module = new RecordingValidatorModule();
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(module);
+
+		ValidationResult result = val.validateWithResult(createTransaction());
+
+		assertTrue(result.isSuccessful());
+		assertEquals(Arrays.asList("Bundle/4/3"), module.getValidated());
+	}
+
+	@Test
+	public void testValidateBundleConcurrentlyAgainstSchema() {
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(true);
+		val.setExecutorService(myExecutor);
+
+		ValidationResult result = val.validateWithResult(createTransaction());
+		assertTrue(result.toString(), result.isSuccessful());
+	}
+
+	@Test
+	public void testValidateWithResults() {
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(new RecordingValidatorModule());
+		val.setExecutorService(myExecutor);
+
+		List<IBaseResource> resources = new ArrayList<IBaseResource>();
+		for (int i = 0; i < 20; i++) {
+			Patient patient = new Patient();
+			if (i % 5 != 0) {
+				patient.setActive(true);
+			}
+			resources.add(patient);
+		}
+
+		List<ValidationResult> results = val.validateWithResults(resources);
+		assertEquals(20, results.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(i % 5 != 0, results.get(i).isSuccessful());
+		}
+		assertEquals("Patient.active", results.get(5).getMessages().get(0).getLocationString());
+	}
+
+	@Test
+	public void testValidateWithResultsFailFast() {
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(new RecordingValidatorModule());
+		val.setFailFast(true);
+
+		List<IBaseResource> resources = new ArrayList<IBaseResource>();
+		resources.add(new Patient().setActive(true));
+		resources.add(new Patient());
+		resources.add(new Patient().setActive(true));
+
+		List<ValidationResult> results = val.validateWithResults(resources);
+		assertTrue(results.get(0).isSuccessful());
+		assertFalse(results.get(1).isSuccessful());
+		assertNull(results.get(2));
+
+		// With a single thread the tasks run in order, so the outcome is the same
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			val.setExecutorService(executor);
+			results = val.validateWithResults(resources);
+			assertTrue(results.get(0).isSuccessful());
+			assertFalse(results.get(1).isSuccessful());
+			assertNull(results.get(2));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testValidateWithResultsModuleThrowsException() {
+		FhirValidator val = ourCtx.newValidator();
+		val.registerValidatorModule(new IValidatorModule() {
+			@Override
+			public void validateBundle(IValidationContext<ca.uhn.fhir.model.api.Bundle> theContext) {
+				// nothing
+			}
+
+			@Override
+			public void validateResource(IValidationContext<IBaseResource> theContext) {
+				throw new IllegalStateException("FAILED");
+			}
+		});
+		val.setExecutorService(myExecutor);
+
+		try {
+			val.validateWithResults(Arrays.asList(new Patient(), new Patient()));
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("FAILED", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testIsInStubbedEntry() {
+		List<IBaseResource> resources = Arrays.<IBaseResource> asList(new Patient(), null, new Patient());
+		boolean[] linked = new boolean[] { false, false, true };
+
+		assertTrue(FhirValidator.isInStubbedEntry("Bundle.entry[0].resource", resources, linked));
+		assertTrue(FhirValidator.isInStubbedEntry("Bundle.entry[0].resource.name", resources, linked));
+		assertTrue(FhirValidator.isInStubbedEntry("/f:Bundle/f:entry[1]/f:resource/f:Patient", resources, linked));
+		assertFalse(FhirValidator.isInStubbedEntry("Bundle.entry[0]", resources, linked));
+		assertFalse(FhirValidator.isInStubbedEntry("Bundle.entry[1].resource", resources, linked));
+		assertFalse(FhirValidator.isInStubbedEntry("Bundle.entry[2].resource.name", resources, linked));
+		assertFalse(FhirValidator.isInStubbedEntry("Bundle.entry[0].resourceX", resources, linked));
+		assertFalse(FhirValidator.isInStubbedEntry(null, resources, linked));
+	}
+
+	@Test
+	public void testToEntryMessage() {
+		SingleValidationMessage message = new SingleValidationMessage();
+		message.setMessage("MESSAGE");
+		message.setSeverity(ResultSeverityEnum.ERROR);
+		message.setLocationLine(2);
+		message.setLocationCol(3);
+
+		assertEquals("Bundle.entry[2].resource", FhirValidator.toEntryMessage(message, 2, "Patient").getLocationString());
+
+		message.setLocationString("Patient");
+		assertEquals("Bundle.entry[2].resource", FhirValidator.toEntryMessage(message, 2, "Patient").getLocationString());
+
+		message.setLocationString("Patient.name[0].family");
+		SingleValidationMessage converted = FhirValidator.toEntryMessage(message, 2, "Patient");
+		assertEquals("Bundle.entry[2].resource.name[0].family", converted.getLocationString());
+		assertEquals("MESSAGE", converted.getMessage());
+		assertEquals(ResultSeverityEnum.ERROR, converted.getSeverity());
+		assertEquals(2, converted.getLocationLine().intValue());
+		assertEquals(3, converted.getLocationCol().intValue());
+
+		message.setLocationString("/f:Patient/f:name");
+		assertEquals("/f:Bundle/f:entry[3]/f:resource/f:Patient/f:name", FhirValidator.toEntryMessage(message, 2, "Patient").getLocationString());
+
+		// The original message is not modified
+		assertEquals("/f:Patient/f:name", message.getLocationString());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Reports an error for any patient which has no active flag, and a warning for any observation
+	 */
+	private static class RecordingValidatorModule implements IValidatorModule {
+
+		private final List<String> myValidated = Collections.synchronizedList(new ArrayList<String>());
+
+		List<String> getValidated() {
+			return new ArrayList<String>(myValidated);
+		}
+
+		@Override
+		public void validateBundle(IValidationContext<ca.uhn.fhir.model.api.Bundle> theContext) {
+			// nothing
+		}
+
+		@Override
+		public void validateResource(IValidationContext<IBaseResource> theContext) {
+			IBaseResource resource = theContext.getResource();
+			if (resource instanceof Bundle) {
+				int withResource = 0;
+				for (Bundle.BundleEntryComponent next : ((Bundle) resource).getEntry()) {
+					if (next.getResource() != null) {
+						withResource++;
+					}
+				}
+				myValidated.add("Bundle/" + ((Bundle) resource).getEntry().size() + (withResource > 0 ? "/" + withResource : ""));
+			} else if (resource instanceof Patient) {
+				myValidated.add("Patient");
+				if (!((Patient) resource).hasActive()) {
+					SingleValidationMessage message = new SingleValidationMessage();
+					message.setSeverity(ResultSeverityEnum.ERROR);
+					message.setLocationString("Patient.active");
+					message.setMessage("Patient must have an active flag");
+					theContext.addValidationMessage(message);
+				}
+			} else if (resource instanceof Observation) {
+				myValidated.add("Observation");
+				SingleValidationMessage message = new SingleValidationMessage();
+				message.setSeverity(ResultSeverityEnum.WARNING);
+				message.setMessage("Observation");
+				theContext.addValidationMessage(message);
+			}
+		}
+
+	}
+
+}
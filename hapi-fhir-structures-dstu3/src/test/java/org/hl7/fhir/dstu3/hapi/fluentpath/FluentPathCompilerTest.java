@@ -0,0 +1,149 @@
+package org.hl7.fhir.dstu3.hapi.fluentpath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.hapi.fluentpath.FluentPathCompiler.ICompiledExpression;
+import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
+import org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext;
+import org.hl7.fhir.dstu3.model.*;
+import org.hl7.fhir.dstu3.utils.FluentPathEngine;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FluentPathCompilerTest {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static FluentPathEngine ourEngine;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FluentPathCompilerTest.class);
+
+	private void assertSameAsInterpreter(Base theBase, String theExpression) throws Exception {
+		ExpressionNode node = ourEngine.parse(theExpression);
+		ICompiledExpression compiled = FluentPathCompiler.compile(node);
+		assertNotNull("Not compiled: " + theExpression, compiled);
+
+		List<Base> expected = ourEngine.evaluate(theBase, node);
+		List<Base> actual = compiled.evaluate(theBase);
+		assertEquals(theExpression, expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			if (expected.get(i).isPrimitive()) {
+				assertEquals(theExpression, expected.get(i).fhirType(), actual.get(i).fhirType());
+				assertEquals(theExpression, expected.get(i).primitiveValue(), actual.get(i).primitiveValue());
+			} else {
+				assertSame(theExpression, expected.get(i), actual.get(i));
+			}
+		}
+		assertEquals(theExpression, ourEngine.convertToBoolean(expected), compiled.evaluateToBoolean(theBase));
+	}
+
+	private Observation createObservation() {
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.addCategory().addCoding().setSystem("SYS1").setCode("CODE1");
+		obs.addCategory().addCoding().setSystem("SYS2").setCode("CODE2");
+		obs.getCode().addCoding().setSystem("SYS1").setCode("CODE1");
+		obs.setValue(new Quantity().setValue(123).setUnit("kg"));
+		obs.addComponent().getCode().addCoding().setSystem("SYS3").setCode("CODE3");
+		obs.addComponent().setValue(new StringType("STRING"));
+		return obs;
+	}
+
+	@Test
+	public void testCompileSupportedExpressions() throws Exception {
+		Observation obs = createObservation();
+		assertSameAsInterpreter(obs, "Observation.category");
+		assertSameAsInterpreter(obs, "Observation.category.coding.code");
+		assertSameAsInterpreter(obs, "Patient.name");
+		assertSameAsInterpreter(obs, "Observation.value.as(Quantity)");
+		assertSameAsInterpreter(obs, "Observation.value.as(String)");
+		assertSameAsInterpreter(obs, "Observation.value is Quantity");
+		assertSameAsInterpreter(obs, "Observation.value as Quantity");
+		assertSameAsInterpreter(obs, "Observation.value.is(Quantity)");
+		assertSameAsInterpreter(obs, "Observation.code | Observation.component.code");
+		assertSameAsInterpreter(obs, "Observation.category.coding | Observation.code.coding");
+		assertSameAsInterpreter(obs, "Observation.category.exists()");
+		assertSameAsInterpreter(obs, "Observation.subject.exists()");
+		assertSameAsInterpreter(obs, "Observation.subject.empty()");
+		assertSameAsInterpreter(obs, "Observation.subject.exists().not()");
+		assertSameAsInterpreter(obs, "Observation.category.first()");
+		assertSameAsInterpreter(obs, "Observation.category.count()");
+		assertSameAsInterpreter(obs, "Observation.status.hasValue()");
+		assertSameAsInterpreter(obs, "Observation.category.hasValue()");
+		assertSameAsInterpreter(obs, "Observation.component.where(value.exists())");
+		assertSameAsInterpreter(obs, "Observation.component.where(code.exists()).code");
+		assertSameAsInterpreter(obs, "Observation.category.where($this.coding.exists())");
+		assertSameAsInterpreter(obs, "Observation.subject.exists() or Observation.category.exists()");
+		assertSameAsInterpreter(obs, "Observation.subject.exists() and Observation.category.exists()");
+		assertSameAsInterpreter(obs, "Observation.subject.exists() implies Observation.category.exists()");
+		assertSameAsInterpreter(obs, "Observation.category.exists() xor Observation.code.exists()");
+		assertSameAsInterpreter(obs, "Observation.component.(code | value)");
+		assertSameAsInterpreter(obs, "Observation.*");
+		assertSameAsInterpreter(obs, "value");
+	}
+
+	@Test
+	public void testCompileUnsupportedExpression() throws Exception {
+		assertNull(FluentPathCompiler.compile(ourEngine.parse("Observation.status = 'final'")));
+		assertNull(FluentPathCompiler.compile(ourEngine.parse("Observation.component.select(code)")));
+		assertNull(FluentPathCompiler.compile(ourEngine.parse("Observation.component.where(code.coding.code = 'CODE3')")));
+		assertNull(FluentPathCompiler.compile(ourEngine.parse("Observation.extension('http://foo')")));
+	}
+
+	/**
+	 * The built-in search parameters are the main reason for the compiler, so most of them should compile
+	 */
+	@Test
+	public void testCompileSearchParameterPaths() throws Exception {
+		int total = 0;
+		int compiled = 0;
+		for (String nextResourceName : Arrays.asList("AllergyIntolerance", "Condition", "DiagnosticReport", "Encounter", "Immunization", "Observation", "Organization", "Patient", "Practitioner", "Procedure")) {
+			RuntimeResourceDefinition def = ourCtx.getResourceDefinition(nextResourceName);
+			IBaseResource resource = def.newInstance();
+			for (RuntimeSearchParam nextParam : def.getSearchParams()) {
+				if (nextParam.getPath() == null || nextParam.getPath().trim().isEmpty()) {
+					continue;
+				}
+				for (String nextPath : nextParam.getPath().split("\\||( or )")) {
+					nextPath = nextPath.trim();
+					if (nextPath.isEmpty()) {
+						continue;
+					}
+					total++;
+					ICompiledExpression expression = FluentPathCompiler.compile(ourEngine.parse(nextPath));
+					if (expression != null) {
+						compiled++;
+						assertEquals(nextPath, ourEngine.evaluate((Base) resource, nextPath).size(), expression.evaluate((Base) resource).size());
+					} else {
+						ourLog.info("Not compiled: {}", nextPath);
+					}
+				}
+			}
+		}
+		ourLog.info("Compiled {} of {} search parameter paths", compiled, total);
+		assertTrue(compiled > total * 0.9);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		ourEngine = new FluentPathEngine(new HapiWorkerContext(ourCtx, new DefaultProfileValidationSupport()));
+	}
+
+}